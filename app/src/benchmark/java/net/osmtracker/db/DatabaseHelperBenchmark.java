@@ -0,0 +1,120 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DatabaseHelperBenchmark {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Inserts track points one at a time, as the logger does, while another thread reads
+	 * the track as the track list and the map do: with the SQLite defaults and
+	 * {@link SQLiteDatabase#insert(String, String, ContentValues)}, then with the
+	 * concurrent profile and a compiled statement. Robolectric serializes the SQLite
+	 * calls: the figures printed only compare the two setups on the JVM, they must be
+	 * measured on a device.
+	 */
+	@Test
+	public void benchmarkRecording() throws InterruptedException {
+		final int points = 5000;
+		long[] before = runRecording(DatabaseHelper.Profile.DEFAULT, false, points);
+		long[] after = runRecording(DatabaseHelper.Profile.CONCURRENT, true, points);
+
+		System.out.println(points + " points inserted one at a time while reading:");
+		System.out.println("  before: " + format(before, points));
+		System.out.println("  after:  " + format(after, points));
+	}
+
+	/**
+	 * @return Time to insert the points, then number of reads, total and maximum read latency, in ns
+	 */
+	private long[] runRecording(DatabaseHelper.Profile profile, boolean compiled, int points) throws InterruptedException {
+		String name = "benchmark-" + (compiled ? "after" : "before");
+		context.deleteDatabase(name);
+		final SQLiteDatabase db = new DatabaseHelper(context, name, profile).getWritableDatabase();
+		ContentValues track = new ContentValues();
+		track.put(Schema.COL_START_DATE, 0L);
+		final long trackId = db.insert(Schema.TBL_TRACK, null, track);
+
+		final long[] reads = new long[3];
+		final AtomicBoolean recording = new AtomicBoolean(true);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String[] args = new String[] {Long.toString(trackId)};
+				while (recording.get()) {
+					long start = System.nanoTime();
+					DatabaseUtils.longForQuery(db, "select " + Schema.COL_TRACKPOINT_COUNT + " from " + Schema.TBL_TRACK_STATS
+							+ " where " + Schema.COL_TRACK_ID + " = ?", args);
+					DatabaseUtils.longForQuery(db, "select max(" + Schema.COL_ID + ") from " + Schema.TBL_TRACKPOINT
+							+ " where " + Schema.COL_TRACK_ID + " = ?", args);
+					long latency = System.nanoTime() - start;
+					reads[0]++;
+					reads[1] += latency;
+					reads[2] = Math.max(reads[2], latency);
+				}
+			}
+		});
+		reader.start();
+
+		SQLiteStatement statement = db.compileStatement("insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ") values (?, ?, ?, ?, ?)");
+		long start = System.nanoTime();
+		for (int i = 0; i < points; i++) {
+			if (compiled) {
+				statement.bindLong(1, trackId);
+				statement.bindDouble(2, 45 + i * 0.00001);
+				statement.bindDouble(3, 6);
+				statement.bindDouble(4, 300 + i * 0.1);
+				statement.bindLong(5, 1700000000000L + i * 1000L);
+				statement.executeInsert();
+			} else {
+				ContentValues values = new ContentValues();
+				values.put(Schema.COL_TRACK_ID, trackId);
+				values.put(Schema.COL_LATITUDE, 45 + i * 0.00001);
+				values.put(Schema.COL_LONGITUDE, 6.0);
+				values.put(Schema.COL_ELEVATION, 300 + i * 0.1);
+				values.put(Schema.COL_TIMESTAMP, 1700000000000L + i * 1000L);
+				db.insert(Schema.TBL_TRACKPOINT, null, values);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		recording.set(false);
+		reader.join();
+		statement.close();
+
+		assertEquals(points, DatabaseUtils.longForQuery(db, "select " + Schema.COL_TRACKPOINT_COUNT + " from "
+				+ Schema.TBL_TRACK_STATS + " where " + Schema.COL_TRACK_ID + " = " + trackId, null));
+		assertTrue(reads[0] > 0);
+		db.close();
+		context.deleteDatabase(name);
+		return new long[] {elapsed, reads[0], reads[1], reads[2]};
+	}
+
+	private static String format(long[] result, int points) {
+		return (long) (points / (result[0] / 1e9)) + " inserts/s, " + result[1] + " reads, average read "
+				+ result[2] / result[1] / 1000 + " us, max " + result[3] / 1000 + " us";
+	}
+
+}
@@ -0,0 +1,75 @@
+package net.osmtracker.db;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.preference.PreferenceManager;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class RecordingConfigBenchmark {
+
+	private static final long GPS_TIME = 1000000000000L;
+
+	private Context context;
+	private DataHelper dataHelper;
+
+	@Before
+	public void setUp() {
+		context = ApplicationProvider.getApplicationContext();
+		PreferenceManager.getDefaultSharedPreferences(context).edit().clear().commit();
+		dataHelper = new DataHelper(context);
+	}
+
+	/**
+	 * Time to build the values of the track points written by
+	 * {@link DataHelper#track(long, Location, float, int, float)}, reading the
+	 * preferences for each point before, with the cached config now.
+	 */
+	@Test
+	public void benchmarkTrackPointValues() {
+		final int points = 20000;
+		Location location = createLocation();
+		long before = 0;
+		long after = 0;
+		// The first round warms up
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < points; i++) {
+				boolean ignoreClock = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+						OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK);
+				dataHelper.trackPointValues(1, location, -1, 0, 0,
+						new RecordingConfig(ignoreClock, null, false, null));
+			}
+			before = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < points; i++) {
+				dataHelper.trackPointValues(1, location, -1, 0, 0);
+			}
+			after = System.nanoTime() - start;
+		}
+
+		System.out.println(points + " track points: " + before / points + " ns per point reading the preferences, "
+				+ after / points + " ns per point with the cached config");
+	}
+
+	private static Location createLocation() {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setLatitude(45);
+		location.setLongitude(6);
+		location.setTime(GPS_TIME);
+		return location;
+	}
+
+}
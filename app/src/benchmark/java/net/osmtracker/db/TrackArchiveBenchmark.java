@@ -0,0 +1,113 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackArchiveBenchmark {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+	private final ContentResolver cr = context.getContentResolver();
+
+	/**
+	 * Compares the size of the track points in the database with the archive, and the speed of reading them.
+	 */
+	@Test
+	public void benchmarkArchive() {
+		final int points = 100000;
+		SQLiteDatabase db = getDatabase();
+		long trackId = createTrack();
+		long pagesBefore = DatabaseUtils.longForQuery(db, "pragma page_count", null);
+		insertPoints(trackId, points);
+		long rowBytes = (DatabaseUtils.longForQuery(db, "pragma page_count", null) - pagesBefore)
+				* DatabaseUtils.longForQuery(db, "pragma page_size", null);
+
+		long liveRead = timeRead(trackId, points);
+		long start = System.nanoTime();
+		assertEquals(points, TrackArchive.archive(db, trackId));
+		long archiving = System.nanoTime() - start;
+		long archiveBytes = TrackArchive.getArchiveSize(db, trackId);
+		long archivedRead = timeRead(trackId, points);
+
+		System.out.println(points + " points: " + rowBytes / points + " bytes per point in rows (with indexes), "
+				+ String.format("%.1f", (double) archiveBytes / points) + " archived, "
+				+ String.format("%.1f", (double) rowBytes / archiveBytes) + " times smaller. Archived in "
+				+ archiving / 1000000 + " ms. Read in " + liveRead / 1000000 + " ms from rows, "
+				+ archivedRead / 1000000 + " ms from the archive ("
+				+ (long) (points / (archivedRead / 1e9)) + " points/s)");
+		assertTrue(rowBytes > 5 * archiveBytes);
+
+		start = System.nanoTime();
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, new String[] {Schema.COL_DATA}, null, null, null, null, null);
+		int decoded = 0;
+		while (c.moveToNext()) {
+			decoded += TrackPointCodec.decode(c.getBlob(0)).size;
+		}
+		c.close();
+		long decoding = System.nanoTime() - start;
+		assertEquals(points, decoded);
+		System.out.println("Decoded " + decoded + " points in " + decoding / 1000000 + " ms ("
+				+ (long) (decoded / (decoding / 1e9)) + " points/s)");
+	}
+
+	/**
+	 * @return Time to read the track points of a track through the provider, in ns
+	 */
+	private long timeRead(long trackId, int points) {
+		long start = System.nanoTime();
+		TrackPointCursor c = new DataHelper(context).openTrackPoints(trackId, TrackPointCodec.COLUMNS);
+		int count = 0;
+		while (c.moveToNext()) {
+			c.getDouble(TrackPointCodec.LATITUDE);
+			c.getDouble(TrackPointCodec.LONGITUDE);
+			count++;
+		}
+		c.close();
+		assertEquals(points, count);
+		return System.nanoTime() - start;
+	}
+
+	private SQLiteDatabase getDatabase() {
+		return new DatabaseHelper(context).getWritableDatabase();
+	}
+
+	private long createTrack() {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	/**
+	 * Inserts the points of a track zigzagging north east directly in the database, as fast as possible
+	 */
+	private void insertPoints(long trackId, int points) {
+		getDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_SPEED + ", " + Schema.COL_ELEVATION + ", " + Schema.COL_ACCURACY + ", "
+				+ Schema.COL_TIMESTAMP + ", " + Schema.COL_GRID_CELL + ")"
+				+ " select " + trackId + ", lat, lon, 1.5 + (i % 7) * 0.25, 300 + (i % 100) * 0.1, 4 + i % 3,"
+				+ " 1700000000000 + i * 1000, " + GridIndex.sqlCellOf("lat", "lon")
+				+ " from (select i, 45 + i * 0.00001 as lat, 6 + (i % 2000) * 0.00005 as lon from seq)");
+	}
+
+}
@@ -0,0 +1,111 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackGeometryCacheBenchmark {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Opens 50 tracks of 50k points in parallel, as DisplayTracksMap does, first from the
+	 * database then from the cache, and measures the heap used by the cache.
+	 */
+	@Test
+	public void benchmark50Tracks() throws Exception {
+		final int tracks = 50;
+		final int points = 50000;
+		final long[] trackIds = new long[tracks];
+		for (int i = 0; i < tracks; i++) {
+			trackIds[i] = createTrack(points);
+		}
+
+		final TrackGeometryCache cache = new TrackGeometryCache(Long.MAX_VALUE);
+		long heapBefore = usedHeap();
+		long start = System.nanoTime();
+		int cachedPoints = open(cache, trackIds);
+		long cold = System.nanoTime() - start;
+		long heap = usedHeap() - heapBefore;
+
+		start = System.nanoTime();
+		assertEquals(cachedPoints, open(cache, trackIds));
+		long warm = System.nanoTime() - start;
+		assertEquals(tracks, cache.hitCount());
+
+		System.out.println(tracks + " tracks of " + points + " points: opened in " + cold / 1000000 + " ms from the database, "
+				+ warm / 1000000 + " ms from the cache. " + cachedPoints + " points cached ("
+				+ cachedPoints * 100L / ((long) tracks * points) + "%), heap " + heap / 1024 + " KB, "
+				+ cache.size() / 1024 + " KB counted by the cache");
+		assertTrue(warm < cold);
+		assertTrue(cache.size() < (long) tracks * points * TrackGeometryCache.BYTES_PER_POINT);
+	}
+
+	/**
+	 * @return Number of points of the tracks
+	 */
+	private int open(final TrackGeometryCache cache, long[] trackIds) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<TrackBuffer>> tasks = new ArrayList<>();
+			for (final long trackId : trackIds) {
+				tasks.add(() -> cache.get(context, trackId));
+			}
+			int out = 0;
+			for (Future<TrackBuffer> future : executor.invokeAll(tasks)) {
+				out += future.get().size();
+			}
+			return out;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return Id of a new track going north-east, meandering about 100m
+	 */
+	private long createTrack(int points) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(context.getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001, 6 + i * 0.00001 + ((i / 100) % 2) * (i % 100) * 0.00001,"
+				+ " 300, 1700000000000 + i * 1000 from seq");
+		return trackId;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,92 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackMetrics;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackMetricsEngineBenchmark {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+	private final ContentResolver cr = context.getContentResolver();
+
+	/**
+	 * Opens a long legacy track: the metrics are computed once, then read with the track.
+	 */
+	@Test
+	public void benchmarkLongTrack() {
+		final int points = 200000;
+		long trackId = createTrack();
+		insertPoints(trackId, points);
+
+		long start = System.nanoTime();
+		assertEquals(points, queryMetrics(trackId).getPointCount());
+		long catchUp = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		TrackMetrics metrics = readTrackMetrics(trackId);
+		long read = System.nanoTime() - start;
+		assertEquals(points, metrics.getPointCount());
+
+		System.out.println(points + " points: metrics computed in " + catchUp / 1000000 + " ms, then read with the track in "
+				+ read / 1000 + " us. Distance " + (int) metrics.getDistance() + " m, ascent " + (int) metrics.getAscent() + " m");
+		assertTrue(read < catchUp);
+	}
+
+	/**
+	 * @return Metrics read along with the track, as TrackDetail does
+	 */
+	private TrackMetrics readTrackMetrics(long trackId) {
+		Cursor c = cr.query(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId), null, null, null, null);
+		c.moveToFirst();
+		TrackMetrics out = TrackMetrics.fromCursor(c);
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Metrics from the metrics Uri, caught up with the track points
+	 */
+	private TrackMetrics queryMetrics(long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackMetricsUri(trackId), null, null, null, null);
+		c.moveToFirst();
+		TrackMetrics out = TrackMetrics.fromCursor(c);
+		c.close();
+		return out;
+	}
+
+	private long createTrack() {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	/**
+	 * Inserts the first points of a track directly in the database, bypassing the provider
+	 */
+	private void insertPoints(long trackId, int points) {
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001, 6.0, 300 + i / 10.0, 1700000000000 + i * 1000 from seq");
+	}
+
+}
@@ -0,0 +1,144 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.gpx.GpxWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.Writer;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackPointCursorBenchmark {
+
+	/**
+	 * Heap growth allowed while exporting a track, whatever its length. Holding
+	 * 1M track points at once would take well over 100 MB.
+	 */
+	private static final long MAX_HEAP_GROWTH = 32 * 1024 * 1024;
+
+	/**
+	 * Number of pages read between two samples of the heap
+	 */
+	private static final int SAMPLED_PAGES = 50;
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Exports a 100k then a 1.5M point track, sampling the heap across the
+	 * pages read: the heap used must not depend on the number of points.
+	 */
+	@Test
+	public void benchmarkExportLongTrackWithinFixedHeap() throws IOException {
+		long shortGrowth = exportHeapGrowth(createTrack(100000), 100000);
+		long longGrowth = exportHeapGrowth(createTrack(1500000), 1500000);
+
+		System.out.println("Export heap growth: " + shortGrowth / 1024 + " KB for 100k points, "
+				+ longGrowth / 1024 + " KB for 1.5M points");
+		assertTrue("Heap grew by " + longGrowth + " bytes", longGrowth < MAX_HEAP_GROWTH);
+	}
+
+	/**
+	 * Same as {@link #benchmarkExportLongTrackWithinFixedHeap()} once the
+	 * track points are archived, see {@link TrackArchive}.
+	 */
+	@Test
+	public void benchmarkExportArchivedLongTrackWithinFixedHeap() throws IOException {
+		final int points = 1500000;
+		long trackId = createTrack(points);
+		assertEquals(points, TrackArchive.archive(getDatabase(), trackId));
+
+		long growth = exportHeapGrowth(trackId, points);
+		System.out.println("Export heap growth: " + growth / 1024 + " KB for 1.5M archived points");
+		assertTrue("Heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+	}
+
+	/**
+	 * Exports a track to GPX, sampling the used heap every few pages
+	 * @return Largest heap growth sampled during the export, in bytes
+	 */
+	private long exportHeapGrowth(long trackId, int points) throws IOException {
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		final long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+		final long[] maxHeap = {heapBefore};
+		final int[] sampledPage = {0};
+
+		CountingWriter out = new CountingWriter();
+		final TrackPointCursor c = new DataHelper(context).openTrackPoints(trackId, GpxWriter.TRACKPOINT_COLUMNS);
+		GpxWriter writer = new GpxWriter(out, context.getResources(),
+				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE, false,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS_NONE);
+		writer.setProgressListener(count -> {
+			if (c.getPageCount() - sampledPage[0] >= SAMPLED_PAGES) {
+				sampledPage[0] = c.getPageCount();
+				System.gc();
+				maxHeap[0] = Math.max(maxHeap[0], runtime.totalMemory() - runtime.freeMemory());
+			}
+		});
+		long start = System.nanoTime();
+		writer.writeTrackPoints("Track", c);
+		writer.close();
+		long elapsed = System.nanoTime() - start;
+
+		assertEquals(points, c.getCount());
+		assertTrue("All the points have been read", c.isAfterLast());
+		assertTrue("The heap was sampled across the pages", sampledPage[0] >= c.getPageCount() / 2);
+		c.close();
+		System.out.println("Export of " + points + " points: " + out.count / 1000000 + " MB in "
+				+ elapsed / 1000000 + " ms, " + c.getPageCount() + " pages");
+		return maxHeap[0] - heapBefore;
+	}
+
+	/**
+	 * @return Id of a new track with a number of synthetic track points
+	 */
+	private long createTrack(int points) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(context.getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+		getDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.000001, 6 + i * 0.000001, 300 + i % 1000, 1700000000000 + i * 1000 from seq");
+		return trackId;
+	}
+
+	private SQLiteDatabase getDatabase() {
+		return new DatabaseHelper(context).getWritableDatabase();
+	}
+
+	private static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package net.osmtracker.db.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackBufferBenchmark {
+
+	/**
+	 * Compares the heap used by 1M points with the previous representations:
+	 * coordinates and pixels of DisplayTrackView (one array object per point),
+	 * and TrackPoint objects.
+	 */
+	@Test
+	public void benchmarkBytesPerPoint() {
+		final int points = 1000000;
+
+		long before = usedHeap();
+		double[][] coords = new double[points][2];
+		int[][] pixels = new int[points][2];
+		long arrays = usedHeap() - before;
+
+		before = usedHeap();
+		TrackPoint[] trackPoints = new TrackPoint[points];
+		for (int i = 0; i < points; i++) {
+			trackPoints[i] = new TrackPoint();
+			trackPoints[i].setLatitude(45 + i * 0.000001);
+			trackPoints[i].setLongitude(6 + i * 0.000001);
+			trackPoints[i].setPointTimestamp(i);
+			trackPoints[i].setElevation(300.0 + i);
+		}
+		long objects = usedHeap() - before;
+
+		before = usedHeap();
+		TrackBuffer buffer = new TrackBuffer(points);
+		int[] flatPixels = new int[points * 2];
+		for (int i = 0; i < points; i++) {
+			buffer.add(45 + i * 0.000001, 6 + i * 0.000001, i, 300 + i);
+		}
+		long columns = usedHeap() - before;
+
+		System.out.println("double[n][2] coords + int[n][2] pixels: " + arrays / points + " bytes per point");
+		System.out.println("TrackPoint objects: " + objects / points + " bytes per point");
+		System.out.println("TrackBuffer + int[2n] pixels: " + columns / points + " bytes per point");
+
+		// Keep everything reachable until measured
+		assertEquals(points, coords.length + pixels.length - trackPoints.length);
+		assertEquals(points * 2, flatPixels.length);
+		assertTrue(columns < arrays);
+		assertTrue(columns < objects);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
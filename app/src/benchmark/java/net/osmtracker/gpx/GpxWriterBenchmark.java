@@ -0,0 +1,146 @@
+package net.osmtracker.gpx;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class GpxWriterBenchmark {
+
+	private static final String[] COLUMNS = {
+			Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_ELEVATION, Schema.COL_TIMESTAMP,
+			Schema.COL_ACCURACY, Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY, Schema.COL_SPEED,
+			Schema.COL_ATMOSPHERIC_PRESSURE, Schema.COL_NAME, Schema.COL_LINK, Schema.COL_NBSATELLITES};
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Serializes a synthetic 1M point track, reports throughput and allocated
+	 * bytes per point (HotSpot only).
+	 */
+	@Test
+	public void benchmarkOneMillionPoints() throws IOException {
+		final int points = 1000000;
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// Warm up
+		write(new SyntheticTrackCursor(points / 10), new CountingWriter());
+
+		CountingWriter out = new CountingWriter();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		write(new SyntheticTrackCursor(points), out);
+		long elapsed = System.nanoTime() - start;
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		System.out.println("GPX export of " + points + " points: " + out.count / 1000000 + " MB in " + elapsed / 1000000 + " ms, "
+				+ (out.count * 1000L / Math.max(1, elapsed)) + " MB/s, "
+				+ (allocated / points) + " bytes allocated per point");
+	}
+
+	private void write(AbstractCursor c, Writer out) throws IOException {
+		GpxWriter writer = new GpxWriter(out, context.getResources(),
+				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE, true,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS_NONE);
+		writer.writeTrackPoints("Track", c);
+		writer.close();
+	}
+
+	/**
+	 * Cursor generating track points on the fly, so that the benchmark
+	 * doesn't measure a database or a huge in-memory cursor
+	 */
+	private static class SyntheticTrackCursor extends AbstractCursor {
+		private final int count;
+
+		SyntheticTrackCursor(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return COLUMNS;
+		}
+
+		@Override
+		public String getString(int column) {
+			return null;
+		}
+
+		@Override
+		public short getShort(int column) {
+			return (short) getLong(column);
+		}
+
+		@Override
+		public int getInt(int column) {
+			return (int) getLong(column);
+		}
+
+		@Override
+		public long getLong(int column) {
+			return column == 3 ? 1700000000000L + getPosition() * 1000L : (long) getDouble(column);
+		}
+
+		@Override
+		public float getFloat(int column) {
+			return (float) getDouble(column);
+		}
+
+		@Override
+		public double getDouble(int column) {
+			int i = getPosition();
+			switch (column) {
+				case 0: return 45 + i * 0.000013;
+				case 1: return 6 + i * 0.000017;
+				case 2: return 300 + (i % 1000) * 0.1;
+				case 4: return 4 + (i % 10);
+				case 7: return (i % 50) * 0.25;
+				case 8: return 950 + (i % 1000) * 0.05;
+				default: return 0;
+			}
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return column >= 5 && column != 7 && column != 8;
+		}
+	}
+
+	private static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
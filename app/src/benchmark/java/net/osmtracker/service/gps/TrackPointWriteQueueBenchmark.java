@@ -0,0 +1,83 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.TrackContentProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackPointWriteQueueBenchmark {
+
+	private static final int POINTS = 1000;
+
+	private DataHelper dataHelper;
+	private ContentResolver cr;
+	private Handler handler;
+
+	@Before
+	public void setUp() {
+		dataHelper = new DataHelper(ApplicationProvider.getApplicationContext());
+		cr = ApplicationProvider.getApplicationContext().getContentResolver();
+		handler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Compares one transaction per point (previous behaviour) with batched
+	 * transactions. Each committed transaction costs a journal sync on the
+	 * device, so the flush count is reported as syncs per 1000 points.
+	 */
+	@Test
+	public void benchmarkBatchedInserts() {
+		long start = System.nanoTime();
+		for (int i = 0; i < POINTS; i++) {
+			dataHelper.track(5, createLocation(i), -1, 0, 0);
+		}
+		long unbatched = System.nanoTime() - start;
+
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, handler);
+		start = System.nanoTime();
+		for (int i = 0; i < POINTS; i++) {
+			queue.add(6, createLocation(i), -1, 0, 0);
+		}
+		queue.flush();
+		long batched = System.nanoTime() - start;
+
+		assertEquals(POINTS, countTrackPoints(5));
+		assertEquals(POINTS, countTrackPoints(6));
+
+		System.out.println("Unbatched: " + (POINTS * 1000000000L / unbatched) + " inserts/s, "
+				+ POINTS + " syncs per " + POINTS + " points");
+		System.out.println("Batched:   " + (POINTS * 1000000000L / batched) + " inserts/s, "
+				+ queue.getFlushCount() + " syncs per " + POINTS + " points");
+	}
+
+	private int countTrackPoints(long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(trackId), null, null, null, null);
+		int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	private static Location createLocation(int i) {
+		Location loc = new Location("gps");
+		loc.setLatitude(45 + i * 0.0001);
+		loc.setLongitude(6 + i * 0.0001);
+		loc.setTime(1000L * i);
+		return loc;
+	}
+}
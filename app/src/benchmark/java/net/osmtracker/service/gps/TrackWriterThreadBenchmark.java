@@ -0,0 +1,64 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.DataHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackWriterThreadBenchmark {
+
+	/**
+	 * Time spent by the calling thread, the main thread of the service, to write
+	 * track points: writing them itself before, handing them to the writer now.
+	 */
+	@Test
+	public void benchmarkCallerTime() throws InterruptedException {
+		final int points = 500;
+		final DataHelper dataHelper = new DataHelper(ApplicationProvider.getApplicationContext());
+		long start = System.nanoTime();
+		for (int i = 0; i < points; i++) {
+			dataHelper.track(1, createLocation(i), -1, 0, 0);
+		}
+		long before = System.nanoTime() - start;
+
+		TrackWriterThread writer = new TrackWriterThread(points);
+		final CountDownLatch done = new CountDownLatch(points);
+		start = System.nanoTime();
+		for (int i = 0; i < points; i++) {
+			final Location location = createLocation(i);
+			assertTrue(writer.offer(() -> {
+				dataHelper.track(2, location, -1, 0, 0);
+				done.countDown();
+			}));
+		}
+		long after = System.nanoTime() - start;
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		writer.quit(() -> { });
+
+		System.out.println(points + " track points written, time on the calling thread: " + before / 1000000
+				+ " ms before, " + after / 1000000 + " ms after. Writer: " + writer.getStats());
+	}
+
+	private static Location createLocation(int i) {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setLatitude(45 + i * 0.0001);
+		location.setLongitude(6);
+		location.setTime(1700000000000L + i * 1000L);
+		return location;
+	}
+
+}
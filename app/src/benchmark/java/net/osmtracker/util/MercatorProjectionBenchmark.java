@@ -0,0 +1,66 @@
+package net.osmtracker.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Compares projecting a track point by point with {@link MercatorProjection#project(double, double)},
+ * in bulk with {@link MercatorProjection#projectAll(double[], double[], int, int, float[])}, and in bulk
+ * with cached Mercator Y (what happens when only the viewport changes).
+ */
+public class MercatorProjectionBenchmark {
+
+	private static final int ROUNDS = 10;
+
+	@Test
+	public void benchmark100k() {
+		benchmark(100000);
+	}
+
+	@Test
+	public void benchmark1M() {
+		benchmark(1000000);
+	}
+
+	private static void benchmark(int points) {
+		double[] lon = new double[points];
+		double[] lat = new double[points];
+		for (int i = 0; i < points; i++) {
+			lon[i] = 6 + i * 0.00001;
+			lat[i] = 45 + Math.sin(i * 0.001);
+		}
+		MercatorProjection projection = new MercatorProjection(44, 6, 46, 6 + points * 0.00001, 1080, 1920);
+		float[] xy = new float[points * 2];
+		double[] mercatorY = new double[points];
+		MercatorProjection.toMercatorY(lat, 0, points, mercatorY);
+
+		long checksum = 0;
+		long perPoint = Long.MAX_VALUE, bulk = Long.MAX_VALUE, cached = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < points; i++) {
+				int[] p = projection.project(lon[i], lat[i]);
+				checksum += p[MercatorProjection.X];
+			}
+			perPoint = Math.min(perPoint, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			projection.projectAll(lon, lat, 0, points, xy);
+			bulk = Math.min(bulk, System.nanoTime() - start);
+			checksum += (long) xy[points];
+
+			start = System.nanoTime();
+			projection.projectAllMercator(lon, mercatorY, 0, points, xy);
+			cached = Math.min(cached, System.nanoTime() - start);
+			checksum += (long) xy[points];
+		}
+
+		assertEquals(projection.project(lon[points - 1], lat[points - 1])[MercatorProjection.Y],
+				xy[2 * (points - 1) + MercatorProjection.Y], 1);
+		System.out.println(points + " points (" + checksum % 10 + "): project() " + perPoint / 1000000 + " ms, "
+				+ "projectAll() " + bulk / 1000000 + " ms, "
+				+ "projectAllMercator() " + cached / 1000000 + " ms");
+	}
+
+}
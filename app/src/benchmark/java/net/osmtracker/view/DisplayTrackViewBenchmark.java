@@ -0,0 +1,94 @@
+package net.osmtracker.view;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.view.View;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.DatabaseHelper;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DisplayTrackViewBenchmark {
+
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Reports the time to draw a frame of a 200k point track, compared
+	 * with drawing it segment by segment as previously.
+	 */
+	@Test
+	public void benchmarkFrameTime() {
+		final int points = 200000;
+		final int frames = 20;
+
+		DisplayTrackView view = layout(new DisplayTrackView(context, createTrack(points)));
+		Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+		long start = System.nanoTime();
+		view.draw(canvas);
+		long firstFrame = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			view.draw(canvas);
+		}
+		long frame = (System.nanoTime() - start) / frames;
+
+		// Previous rendering: one drawLine() call per segment
+		Paint paint = new Paint();
+		start = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+			for (int j = 1; j < points; j++) {
+				canvas.drawLine(j - 1, j - 1, j, j, paint);
+			}
+		}
+		long perSegmentFrame = (System.nanoTime() - start) / 3;
+
+		System.out.println(points + " points: first frame " + firstFrame / 1000000 + " ms, next frames "
+				+ frame / 1000 + " us, per segment drawing " + perSegmentFrame / 1000000 + " ms per frame");
+		assertTrue(frame < perSegmentFrame);
+	}
+
+	private DisplayTrackView layout(DisplayTrackView view) {
+		view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+				View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+		view.layout(0, 0, WIDTH, HEIGHT);
+		return view;
+	}
+
+	/**
+	 * @return Id of a new track with a number of synthetic track points
+	 */
+	private long createTrack(int points) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(context.getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001 + (i % 100) * 0.00001, 6 + i * 0.00001, i * 1000 from seq");
+		return trackId;
+	}
+
+
+}
@@ -23,6 +23,11 @@ public class OSMTracker {
 		public final static String KEY_GPS_IGNORE_CLOCK = "gps.ignoreclock";
 		public final static String KEY_GPS_LOGGING_INTERVAL = "gps.logging.interval";
 		public final static String KEY_GPS_LOGGING_MIN_DISTANCE = "gps.logging.min_distance";
+		public final static String KEY_GPS_ADAPTIVE_SAMPLING = "gps.logging.adaptive";
+		public final static String KEY_GPS_FILTER_ACCURACY = "gps.filter.accuracy";
+		public final static String KEY_GPS_FILTER_KALMAN = "gps.filter.kalman";
+		public final static String KEY_GPS_FILTER_STATIONARY = "gps.filter.stationary";
+		public final static String KEY_GPS_FILTER_SIMPLIFY = "gps.filter.simplify";
 		public final static String KEY_USE_BAROMETER = "gpx.use_barometer";
 		public final static String KEY_USE_NOTES = "gpx.notes";
 		public final static String KEY_OUTPUT_FILENAME = "gpx.filename";
@@ -61,6 +66,11 @@ public class OSMTracker {
 		public final static boolean VAL_GPS_IGNORE_CLOCK = false;
 		public final static String VAL_GPS_LOGGING_INTERVAL = "0";
 		public final static String VAL_GPS_LOGGING_MIN_DISTANCE = "0";
+		public final static boolean VAL_GPS_ADAPTIVE_SAMPLING = false;
+		public final static boolean VAL_GPS_FILTER_ACCURACY = false;
+		public final static boolean VAL_GPS_FILTER_KALMAN = false;
+		public final static boolean VAL_GPS_FILTER_STATIONARY = false;
+		public final static boolean VAL_GPS_FILTER_SIMPLIFY = false;
 		public final static boolean VAL_USE_BAROMETER = false;
 		public final static String VAL_USE_NOTES = "both";
 		
@@ -21,24 +21,38 @@ import androidx.preference.PreferenceManager;
 
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
+import net.osmtracker.db.DataHelper;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackPointCursor;
+import net.osmtracker.db.model.TrackBuffer;
+import net.osmtracker.overlay.TrackTileOverlay;
 import net.osmtracker.overlay.WayPointsOverlay;
+import net.osmtracker.util.ArrayUtils;
+import net.osmtracker.util.BackgroundLoader;
 
 import org.osmdroid.api.IMapController;
 import org.osmdroid.config.Configuration;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.tileprovider.tilesource.ITileSource;
 import org.osmdroid.tileprovider.tilesource.XYTileSource;
 
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.CustomZoomButtonsController;
 import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Overlay;
 import org.osmdroid.views.overlay.Polyline;
 import org.osmdroid.views.overlay.ScaleBarOverlay;
 import org.osmdroid.views.overlay.mylocation.SimpleLocationOverlay;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Display current track over an OSM map.
@@ -100,6 +114,23 @@ public class DisplayTrackMap extends Activity {
 	 */
 	private static final long ANIMATION_DURATION_MS = 1000;
 
+	/**
+	 * Zoom level from which only the track around the visible area is displayed,
+	 * read from the database with the grid index, rather than the tiles of the whole track
+	 */
+	private static final double VIEWPORT_MIN_ZOOM = 15;
+
+	/**
+	 * Number of track points read before they are displayed
+	 */
+	private static final int TRACK_POINTS_CHUNK_SIZE = TrackPointCursor.DEFAULT_PAGE_SIZE;
+
+	/**
+	 * Margin of track loaded around the visible area, relative to its size.
+	 * The track is loaded again once the visible area leaves the area loaded.
+	 */
+	private static final float VIEWPORT_MARGIN = 0.5f;
+
 	/**
 	 * Main OSM view
 	 */
@@ -116,9 +147,32 @@ public class DisplayTrackMap extends Activity {
 	private SimpleLocationOverlay myLocationOverlay;
 
 	/**
-	 * OSM view overlay that displays current path
+	 * OSM view overlay that displays current path, from cached tiles
+	 */
+	private TrackTileOverlay trackTileOverlay;
+
+	/**
+	 * OSM view overlays that display the segments of the track around
+	 * the visible area, from {@link #VIEWPORT_MIN_ZOOM}
 	 */
-	private Polyline polyline;
+	private final List<Polyline> segmentPolylines = new ArrayList<>();
+
+	/**
+	 * Paint of the track lines
+	 */
+	private Paint trackPaint;
+
+	/**
+	 * Area around the visible area whose track segments and waypoints are loaded,
+	 * null when the whole track is displayed
+	 */
+	private BoundingBox loadedBoundingBox = null;
+
+	/**
+	 * Incremented each time the area loaded changes, so that segments
+	 * read for a previous area are ignored
+	 */
+	private int viewportGeneration = 0;
 
 	/**
 	 * OSM view overlay that displays waypoints
@@ -152,11 +206,22 @@ public class DisplayTrackMap extends Activity {
 	private GeoPoint currentPosition;
 
 	/**
-	 * The row id of the last location read from the database that has been added to the
-	 * list of layout points. Using this we to reduce DB load by only reading new points.
-	 * Initially null, to indicate that no data has yet been read.
+	 * Reads the track points in the background, see {@link #loadTrackPoints(BackgroundLoader.Session)}
 	 */
-	private Integer lastTrackPointIdProcessed = null;
+	private BackgroundLoader trackPointsLoader;
+
+	/**
+	 * The row id of the last location read from the database. Using this we
+	 * reduce DB load by only reading new points. Only accessed by {@link #trackPointsLoader},
+	 * and reset when its generation changes, i.e. the activity has been paused.
+	 */
+	private long lastTrackPointIdLoaded = -1;
+	private int trackPointsGeneration = -1;
+
+	/**
+	 * Reads the track segments around the visible area off the UI thread
+	 */
+	private ExecutorService segmentsExecutor;
 
 	/**
 	 * Observes changes on track points
@@ -210,11 +275,28 @@ public class DisplayTrackMap extends Activity {
 
 		createOverlays();
 
+		segmentsExecutor = Executors.newSingleThreadExecutor();
+		osmView.addMapListener(new MapListener() {
+			@Override
+			public boolean onScroll(ScrollEvent event) {
+				updateViewport(false);
+				return false;
+			}
+
+			@Override
+			public boolean onZoom(ZoomEvent event) {
+				updateViewport(false);
+				return false;
+			}
+		});
+
 		// Create content observer for track points
+		trackPointsLoader = new BackgroundLoader(this::loadTrackPoints);
 		trackpointContentObserver = new ContentObserver(new Handler()) {
 			@Override
 			public void onChange(boolean selfChange) {
-				pathChanged();
+				// A burst of new points only reads them once
+				trackPointsLoader.request();
 			}
 		};
 
@@ -263,7 +345,7 @@ public class DisplayTrackMap extends Activity {
 	 * @param mapTile String that is the name of the tile provider
 	 * @return ITileSource with the selected Tile-Source
 	 */
-	private ITileSource selectMapTile(String mapTile) {
+	static ITileSource selectMapTile(String mapTile) {
 		try {
 			return TileSourceFactory.getTileSource(mapTile);
 		} catch (Exception e) {
@@ -299,13 +381,9 @@ public class DisplayTrackMap extends Activity {
 				TrackContentProvider.trackPointsUri(currentTrackId),
 				true, trackpointContentObserver);
 
-		// Forget the last waypoint read from the DB
-		// This ensures that all waypoints for the track will be reloaded
-		// from the database to populate the path layout
-		lastTrackPointIdProcessed = null;
-
-		// Reload path
-		pathChanged();
+		// Reload path. The loader has been cancelled when paused, so all
+		// the track points are read again.
+		trackPointsLoader.request();
 
 		selectTileSource();
 
@@ -313,6 +391,9 @@ public class DisplayTrackMap extends Activity {
 
 		// Refresh way points
 		wayPointsOverlay.refresh();
+
+		// Once the map is laid out, load the track around the visible area if zoomed in
+		osmView.post(() -> updateViewport(true));
 	}
 
 	@Override
@@ -320,12 +401,26 @@ public class DisplayTrackMap extends Activity {
 		// Unregister content observer
 		getContentResolver().unregisterContentObserver(trackpointContentObserver);
 
+		// Stop reading the track points and waypoints
+		trackPointsLoader.cancel();
+		wayPointsOverlay.cancel();
+
 		// Clear the points list.
-		polyline.setPoints(new ArrayList<>());
+		trackTileOverlay.clear();
+		setSegments(Collections.emptyList());
+		viewportGeneration++;
 
 		super.onPause();
 	}
 
+	@Override
+	protected void onDestroy() {
+		segmentsExecutor.shutdownNow();
+		trackPointsLoader.shutdown();
+		wayPointsOverlay.shutdown();
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onStop() {
 		super.onStop();
@@ -387,16 +482,19 @@ public class DisplayTrackMap extends Activity {
 		this.getWindowManager().getDefaultDisplay().getMetrics(metrics);
 
 		// set with to hopefully DPI independent 0.5mm
-		polyline = new Polyline();
-		Paint paint = polyline.getOutlinePaint();
-		paint.setColor(Color.BLUE);
-		paint.setStrokeWidth((float) (metrics.densityDpi / 25.4 / 2));
-		osmView.getOverlayManager().add(polyline);
+		trackPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		trackPaint.setStyle(Paint.Style.STROKE);
+		trackPaint.setStrokeCap(Paint.Cap.ROUND);
+		trackPaint.setColor(Color.BLUE);
+		trackPaint.setStrokeWidth((float) (metrics.densityDpi / 25.4 / 2));
+		trackTileOverlay = new TrackTileOverlay(this, currentTrackId, trackPaint);
+		osmView.getOverlayManager().add(trackTileOverlay);
 
 		myLocationOverlay = new SimpleLocationOverlay(this);
 		osmView.getOverlays().add(myLocationOverlay);
 
 		wayPointsOverlay = new WayPointsOverlay(this, currentTrackId);
+		wayPointsOverlay.setOnRefreshListener(() -> osmView.invalidate());
 		osmView.getOverlays().add(wayPointsOverlay);
 
 		scaleBarOverlay = new ScaleBarOverlay(osmView);
@@ -404,25 +502,34 @@ public class DisplayTrackMap extends Activity {
 	}
 
 	/**
-	 * On track path changed, update the two overlays and repaint view.
-	 * If {@link #lastTrackPointIdProcessed} is null, this is the initial call
-	 * from {@link #onResume()}, and not the periodic call from
+	 * @return New overlay to display a part of the track
+	 */
+	private Polyline createTrackPolyline() {
+		Polyline line = new Polyline();
+		line.getOutlinePaint().set(trackPaint);
+		return line;
+	}
+
+	/**
+	 * Reads the track points not read yet, on the background thread of {@link #trackPointsLoader}.
+	 * Points are delivered to {@link #onTrackPointsLoaded(TrackBuffer, long)} by chunks, so that
+	 * the beginning of a long track is displayed while the rest is read.
+	 * On the first run after the activity is resumed, the whole track is read, and the map
+	 * zoomed on it if the track isn't being recorded. Then, on the runs triggered by
 	 * {@link ContentObserver#onChange(boolean) trackpointContentObserver.onChange(boolean)}
-	 * while recording.
+	 * while recording, only the new points are read.
 	 */
-	private void pathChanged() {
-		if (isFinishing()) {
-			return;
+	private void loadTrackPoints(BackgroundLoader.Session session) {
+		if (session.getGeneration() != trackPointsGeneration) {
+			trackPointsGeneration = session.getGeneration();
+			lastTrackPointIdLoaded = -1;
 		}
 
 		// See if the track is active.
 		// If not, we'll calculate initial track bounds
-		// while retrieving from the database.
-		// (the first point will overwrite these lat/lon bounds.)
+		// after retrieving from the database.
 		boolean doInitialBoundsCalc = false;
-		double minLat = 91.0, minLon = 181.0;
-		double maxLat = -91.0, maxLon = -181.0;
-		if ((!zoomedToTrackAlready) && (lastTrackPointIdProcessed == null)) {
+		if (lastTrackPointIdLoaded < 0) {
 			final String[] proj_active = {TrackContentProvider.Schema.COL_ACTIVE};
 			Cursor cursor = getContentResolver().query(
 					ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, currentTrackId),
@@ -437,76 +544,166 @@ public class DisplayTrackMap extends Activity {
 			}
 		}
 
-		// Projection: The columns to retrieve. Here, we want the latitude, 
-		// longitude and primary key only
-		String[] projection = {TrackContentProvider.Schema.COL_LATITUDE, TrackContentProvider.Schema.COL_LONGITUDE, TrackContentProvider.Schema.COL_ID};
-		// Selection: The where clause to use
-		String selection = null;
-		// SelectionArgs: The parameter replacements to use for the '?' in the selection		
-		String[] selectionArgs = null;
-
-		// Only request the track points that we have not seen yet
-		// If we have processed any track points in this session then
-		// lastTrackPointIdProcessed will not be null. We only want 
-		// to see data from rows with a primary key greater than lastTrackPointIdProcessed  
-		if (lastTrackPointIdProcessed != null) {
-			selection = TrackContentProvider.Schema.COL_ID + " > ?";
-			List<String> selectionArgsList = new ArrayList<>();
-			selectionArgsList.add(lastTrackPointIdProcessed.toString());
-			selectionArgs = selectionArgsList.toArray(new String[1]);
+		// Only request the track points that we have not seen yet.
+		// Points are read by pages, so that long tracks don't need to fit in a single cursor window.
+		double north = -Double.MAX_VALUE, east = -Double.MAX_VALUE;
+		double south = Double.MAX_VALUE, west = Double.MAX_VALUE;
+		int numberOfPointsRetrieved = 0;
+		TrackPointCursor c = new DataHelper(this).openTrackPoints(currentTrackId, TrackBuffer.COLUMNS, lastTrackPointIdLoaded);
+		try {
+			while (!session.isCancelled()) {
+				final TrackBuffer newPoints = new TrackBuffer(TRACK_POINTS_CHUNK_SIZE);
+				int count = newPoints.append(c, TRACK_POINTS_CHUNK_SIZE);
+				if (count == 0) {
+					break;
+				}
+				final long lastId = c.getLastId();
+				lastTrackPointIdLoaded = lastId;
+				numberOfPointsRetrieved += count;
+				if (doInitialBoundsCalc) {
+					north = Math.max(north, ArrayUtils.findMax(newPoints.getLatitudes(), 0, count));
+					east = Math.max(east, ArrayUtils.findMax(newPoints.getLongitudes(), 0, count));
+					south = Math.min(south, ArrayUtils.findMin(newPoints.getLatitudes(), 0, count));
+					west = Math.min(west, ArrayUtils.findMin(newPoints.getLongitudes(), 0, count));
+				}
+				session.deliver(() -> onTrackPointsLoaded(newPoints, lastId));
+				if (count < TRACK_POINTS_CHUNK_SIZE) {
+					break;
+				}
+			}
+		} finally {
+			c.close();
 		}
 
-		// Retrieve any points we have not yet seen
-		Cursor c = getContentResolver().query(
-				TrackContentProvider.trackPointsUri(currentTrackId),
-				projection, selection, selectionArgs, TrackContentProvider.Schema.COL_ID + " asc");
-
-		if (c != null) {
-			int numberOfPointsRetrieved = c.getCount();
-			if (numberOfPointsRetrieved > 0) {
-				c.moveToFirst();
-				double lastLat = 0;
-				double lastLon = 0;
-				int primaryKeyColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_ID);
-				int latitudeColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE);
-				int longitudeColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE);
-
-				// Add each new point to the track
-				while (!c.isAfterLast()) {
-					lastLat = c.getDouble(latitudeColumnIndex);
-					lastLon = c.getDouble(longitudeColumnIndex);
-					lastTrackPointIdProcessed = c.getInt(primaryKeyColumnIndex);
-					polyline.addPoint(new GeoPoint(lastLat, lastLon));
-					if (doInitialBoundsCalc) {
-						if (lastLat < minLat) minLat = lastLat;
-						if (lastLon < minLon) minLon = lastLon;
-						if (lastLat > maxLat) maxLat = lastLat;
-						if (lastLon > maxLon) maxLon = lastLon;
-					}
-					c.moveToNext();
+		if (doInitialBoundsCalc && (numberOfPointsRetrieved > 1) && !session.isCancelled()) {
+			final double trackNorth = north, trackEast = east, trackSouth = south, trackWest = west;
+			session.deliver(() -> {
+				if (zoomedToTrackAlready) {
+					return;
 				}
+				// osmdroid-3.0.8 hangs if we directly call zoomToSpan during initial onResume,
+				// so post a Runnable instead for after it's done initializing.
+				osmView.post(() -> {
+					osmViewController.zoomToSpan((int) (trackNorth - trackSouth), (int) (trackEast - trackWest));
+					osmViewController.setCenter(new GeoPoint((trackNorth + trackSouth) / 2, (trackEast + trackWest) / 2));
+					zoomedToTrackAlready = true;
+				});
+			});
+		}
+	}
+
+	/**
+	 * On track points read, update the overlays and repaint view.
+	 * @param newPoints Track points read, after the ones already displayed
+	 * @param lastId Id of the last track point read
+	 */
+	private void onTrackPointsLoaded(TrackBuffer newPoints, long lastId) {
+		if (isFinishing()) {
+			return;
+		}
 
-				// Last point is current position.
-				currentPosition = new GeoPoint(lastLat, lastLon);
-				myLocationOverlay.setLocation(currentPosition);
-				if (centerToGpsPos) {
-					osmViewController.setCenter(currentPosition);
+		// Only the tiles the new points are drawn in are drawn again
+		trackTileOverlay.append(newPoints, lastId);
+
+		// Last point is current position.
+		int numberOfPointsRetrieved = newPoints.size();
+		double lastLat = newPoints.getLatitude(numberOfPointsRetrieved - 1);
+		double lastLon = newPoints.getLongitude(numberOfPointsRetrieved - 1);
+		currentPosition = new GeoPoint(lastLat, lastLon);
+		myLocationOverlay.setLocation(currentPosition);
+		if (centerToGpsPos) {
+			osmViewController.setCenter(currentPosition);
+		}
+
+		// Reload the segments around the visible area if new points are part of it
+		if (loadedBoundingBox != null) {
+			for (int i = 0; i < numberOfPointsRetrieved; i++) {
+				if (loadedBoundingBox.contains(newPoints.getLatitude(i), newPoints.getLongitude(i))) {
+					updateViewport(true);
+					break;
 				}
+			}
+		}
+
+		// Repaint
+		osmView.invalidate();
+	}
 
-				// Repaint
+	/**
+	 * From {@link #VIEWPORT_MIN_ZOOM}, displays only the segments of the track around the
+	 * visible area, read in the background. They are read again when the visible area
+	 * leaves the area loaded, or if reload is true. Below, displays the whole track
+	 * from the tiles of {@link #trackTileOverlay}.
+	 * @param reload Whether to read the segments again even if the visible area is loaded
+	 */
+	private void updateViewport(boolean reload) {
+		if (osmView.getWidth() == 0 || osmView.getHeight() == 0) {
+			// Not laid out yet
+			return;
+		}
+
+		if (osmView.getZoomLevelDouble() < VIEWPORT_MIN_ZOOM) {
+			if (loadedBoundingBox != null) {
+				loadedBoundingBox = null;
+				viewportGeneration++;
+				setSegments(Collections.emptyList());
+				trackTileOverlay.setEnabled(true);
+				wayPointsOverlay.setBoundingBox(null);
 				osmView.invalidate();
-				if (doInitialBoundsCalc && (numberOfPointsRetrieved > 1)) {
-					// osmdroid-3.0.8 hangs if we directly call zoomToSpan during initial onResume,
-					// so post a Runnable instead for after it's done initializing.
-					final double north = maxLat, east = maxLon, south = minLat, west = minLon;
-					osmView.post(() -> {
-						osmViewController.zoomToSpan((int) (north - south), (int) (east - west));
-						osmViewController.setCenter(new GeoPoint((north + south) / 2, (east + west) / 2));
-						zoomedToTrackAlready = true;
-					});
+			}
+			return;
+		}
+
+		BoundingBox visible = osmView.getBoundingBox();
+		if (!reload && loadedBoundingBox != null
+				&& loadedBoundingBox.contains(visible.getLatNorth(), visible.getLonWest())
+				&& loadedBoundingBox.contains(visible.getLatSouth(), visible.getLonEast())) {
+			return;
+		}
+
+		final BoundingBox box = visible.increaseByScale(1 + 2 * VIEWPORT_MARGIN);
+		loadedBoundingBox = box;
+		final int generation = ++viewportGeneration;
+		final DataHelper dataHelper = new DataHelper(this);
+		segmentsExecutor.execute(() -> {
+			final List<List<GeoPoint>> segments = new ArrayList<>();
+			for (TrackBuffer segment : dataHelper.readTrackSegments(currentTrackId,
+					box.getLatSouth(), box.getLonWest(), box.getLatNorth(), box.getLonEast())) {
+				List<GeoPoint> points = new ArrayList<>(segment.size());
+				for (int i = 0; i < segment.size(); i++) {
+					points.add(new GeoPoint(segment.getLatitude(i), segment.getLongitude(i)));
 				}
+				segments.add(points);
 			}
-			c.close();
+			runOnUiThread(() -> {
+				if (generation != viewportGeneration) {
+					return;
+				}
+				setSegments(segments);
+				trackTileOverlay.setEnabled(false);
+				osmView.invalidate();
+			});
+		});
+		wayPointsOverlay.setBoundingBox(box);
+	}
+
+	/**
+	 * Displays segments of the track, reusing the overlays of the previous ones
+	 * @param segments Points of each segment
+	 */
+	private void setSegments(List<List<GeoPoint>> segments) {
+		List<Overlay> overlays = osmView.getOverlays();
+		while (segmentPolylines.size() > segments.size()) {
+			overlays.remove(segmentPolylines.remove(segmentPolylines.size() - 1));
+		}
+		while (segmentPolylines.size() < segments.size()) {
+			// Below the other overlays, like the whole track
+			Polyline line = createTrackPolyline();
+			overlays.add(overlays.indexOf(trackTileOverlay) + 1, line);
+			segmentPolylines.add(line);
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			segmentPolylines.get(i).setPoints(segments.get(i));
 		}
 	}
 }
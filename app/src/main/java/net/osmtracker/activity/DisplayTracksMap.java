@@ -0,0 +1,191 @@
+package net.osmtracker.activity;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.view.View;
+
+import androidx.preference.PreferenceManager;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.R;
+import net.osmtracker.db.TrackGeometryCache;
+import net.osmtracker.db.model.TrackBuffer;
+import net.osmtracker.util.ArrayUtils;
+
+import org.osmdroid.api.IMapController;
+import org.osmdroid.config.Configuration;
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.CustomZoomButtonsController;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Polyline;
+import org.osmdroid.views.overlay.ScaleBarOverlay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Displays several tracks over an OSM map, to compare them.
+ *
+ * The decimated geometry of the tracks is read in parallel from the
+ * {@link TrackGeometryCache} shared with the other map views, and each
+ * track is displayed as soon as it is read, in a color of its own.
+ * The map is zoomed on all the tracks once they are read.
+ */
+public class DisplayTracksMap extends Activity {
+
+	/**
+	 * Intent extra with the ids of the tracks to display, as a long array
+	 */
+	public static final String EXTRA_TRACK_IDS = "trackIds";
+
+	/**
+	 * Number of tracks read at once
+	 */
+	static final int LOADING_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Margin around the tracks when zooming on them, as a ratio of their size
+	 */
+	private static final float ZOOM_MARGIN = 0.1f;
+
+	private MapView osmView;
+
+	private IMapController osmViewController;
+
+	private long[] trackIds;
+
+	/**
+	 * Reads the tracks in the background
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Number of tracks read so far, and their bounds
+	 */
+	private int tracksLoaded = 0;
+	private double north = -Double.MAX_VALUE, east = -Double.MAX_VALUE;
+	private double south = Double.MAX_VALUE, west = Double.MAX_VALUE;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+
+		setContentView(R.layout.displaytrackmap);
+
+		trackIds = getIntent().getLongArrayExtra(EXTRA_TRACK_IDS);
+		if (trackIds == null) {
+			trackIds = new long[0];
+		}
+		setTitle(getTitle() + ": " + getResources().getString(R.string.displaytracksmap_tracks)
+				.replace("{0}", Integer.toString(trackIds.length)));
+
+		// Initialize OSM view
+		Configuration.getInstance().load(this, prefs);
+
+		osmView = findViewById(R.id.displaytrackmap_osmView);
+		osmView.setMultiTouchControls(true);
+		osmView.getZoomController().setVisibility(CustomZoomButtonsController.Visibility.NEVER);
+		osmView.setKeepScreenOn(prefs.getBoolean(OSMTracker.Preferences.KEY_UI_DISPLAY_KEEP_ON, OSMTracker.Preferences.VAL_UI_DISPLAY_KEEP_ON));
+		osmView.setTileSource(DisplayTrackMap.selectMapTile(
+				prefs.getString(OSMTracker.Preferences.KEY_UI_MAP_TILE, OSMTracker.Preferences.VAL_UI_MAP_TILE_MAPNIK)));
+		osmView.setTilesScaledToDpi(true);
+		osmViewController = osmView.getController();
+
+		ScaleBarOverlay scaleBarOverlay = new ScaleBarOverlay(osmView);
+		osmView.getOverlays().add(scaleBarOverlay);
+
+		// Register listeners for zoom buttons. Centering zooms on all the tracks.
+		findViewById(R.id.displaytrackmap_imgZoomIn).setOnClickListener(v -> osmViewController.zoomIn());
+		findViewById(R.id.displaytrackmap_imgZoomOut).setOnClickListener(v -> osmViewController.zoomOut());
+		View zoomCenter = findViewById(R.id.displaytrackmap_imgZoomCenter);
+		zoomCenter.setContentDescription(getResources().getString(R.string.acc_zoom_tracks));
+		zoomCenter.setOnClickListener(v -> zoomToTracks());
+
+		loadTracks();
+	}
+
+	@Override
+	protected void onDestroy() {
+		executor.shutdownNow();
+		super.onDestroy();
+	}
+
+	/**
+	 * Reads the tracks in parallel, and displays each of them once read
+	 */
+	private void loadTracks() {
+		DisplayMetrics metrics = new DisplayMetrics();
+		getWindowManager().getDefaultDisplay().getMetrics(metrics);
+		// Same width as the track of DisplayTrackMap, 0.5mm
+		float width = (float) (metrics.densityDpi / 25.4 / 2);
+
+		final TrackGeometryCache cache = TrackGeometryCache.getInstance();
+		executor = Executors.newFixedThreadPool(LOADING_THREADS);
+		for (int i = 0; i < trackIds.length; i++) {
+			final long trackId = trackIds[i];
+			final Polyline line = new Polyline();
+			Paint paint = line.getOutlinePaint();
+			paint.setColor(getTrackColor(i));
+			paint.setStrokeWidth(width);
+			paint.setStrokeCap(Paint.Cap.ROUND);
+
+			executor.execute(() -> {
+				final TrackBuffer points = cache.get(this, trackId);
+				int size = points.size();
+				final List<GeoPoint> geoPoints = new ArrayList<>(size);
+				for (int p = 0; p < size; p++) {
+					geoPoints.add(new GeoPoint(points.getLatitude(p), points.getLongitude(p)));
+				}
+				runOnUiThread(() -> {
+					if (isDestroyed()) {
+						return;
+					}
+					if (size > 0) {
+						line.setPoints(geoPoints);
+						osmView.getOverlays().add(0, line);
+						north = Math.max(north, ArrayUtils.findMax(points.getLatitudes(), 0, size));
+						east = Math.max(east, ArrayUtils.findMax(points.getLongitudes(), 0, size));
+						south = Math.min(south, ArrayUtils.findMin(points.getLatitudes(), 0, size));
+						west = Math.min(west, ArrayUtils.findMin(points.getLongitudes(), 0, size));
+					}
+					if (++tracksLoaded == trackIds.length) {
+						zoomToTracks();
+					}
+					osmView.invalidate();
+				});
+			});
+		}
+	}
+
+	/**
+	 * Zooms on the tracks read so far
+	 */
+	private void zoomToTracks() {
+		if (north < south) {
+			// No track points
+			return;
+		}
+		final BoundingBox box = new BoundingBox(north, east, south, west).increaseByScale(1 + ZOOM_MARGIN);
+		// The map must be laid out to zoom on an area
+		osmView.post(() -> osmView.zoomToBoundingBox(box, false));
+	}
+
+	/**
+	 * @param index Index of a track
+	 * @return Color of the track, with hues spread by the golden angle so that
+	 * tracks displayed together have distinct colors
+	 */
+	static int getTrackColor(int index) {
+		return Color.HSVToColor(new float[] {(index * 137.508f) % 360, 0.9f, 0.8f});
+	}
+
+}
@@ -2,6 +2,7 @@ package net.osmtracker.activity;
 
 import java.sql.Date;
 import java.text.DateFormat;
+import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -11,7 +12,9 @@ import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.db.TrackContentProvider;
 import net.osmtracker.db.model.Track;
+import net.osmtracker.db.model.TrackMetrics;
 import net.osmtracker.gpx.ExportToStorageTask;
+import net.osmtracker.util.BackgroundLoader;
 import net.osmtracker.util.MercatorProjection;
 
 import android.Manifest;
@@ -24,6 +27,7 @@ import android.database.Cursor;
 import android.graphics.Paint;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.format.DateUtils;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceManager;
@@ -81,6 +85,16 @@ public class TrackDetail extends TrackDetailEditor implements AdapterView.OnItem
 	 * List with track info
 	 */
 	private ListView lv;
+
+	/**
+	 * Items of the list displaying the track metrics
+	 */
+	private final List<HashMap<String, String>> metricsItems = new ArrayList<HashMap<String, String>>();
+
+	/**
+	 * Computes the metrics of the tracks recorded before they were maintained
+	 */
+	private final BackgroundLoader metricsLoader = new BackgroundLoader(this::loadMetrics);
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -187,6 +201,27 @@ public class TrackDetail extends TrackDetailEditor implements AdapterView.OnItem
 		map.put(ITEM_VALUE, MercatorProjection.formatDegreesAsDMS(t.getEndLat(), true) + "  " + MercatorProjection.formatDegreesAsDMS(t.getEndLong(), false));
 		data.add(map);
 
+		// Distance, moving time, ascent, descent and speeds, read along with the track.
+		// They are computed in the background if they are behind the track points.
+		metricsItems.clear();
+		for (int key : new int[] {R.string.trackdetail_distance, R.string.trackdetail_moving_time,
+				R.string.trackdetail_ascent, R.string.trackdetail_descent,
+				R.string.trackdetail_max_speed, R.string.trackdetail_avg_speed}) {
+			map = new HashMap<String, String>();
+			map.put(ITEM_KEY, getResources().getString(key));
+			metricsItems.add(map);
+		}
+		data.addAll(metricsItems);
+		TrackMetrics metrics = TrackMetrics.fromCursor(cursor);
+		if (metrics.getPointCount() == t.getTpCount()) {
+			bindMetrics(metrics);
+		} else {
+			for (HashMap<String, String> item : metricsItems) {
+				item.put(ITEM_VALUE, getResources().getString(R.string.trackdetail_metrics_computing));
+			}
+			metricsLoader.request();
+		}
+
 		// OSM Upload date
 		map = new HashMap<String, String>();
 		map.put(ITEM_KEY, getResources().getString(R.string.trackdetail_osm_upload_date));
@@ -217,6 +252,58 @@ public class TrackDetail extends TrackDetailEditor implements AdapterView.OnItem
 		lv.setOnItemClickListener(this);
 	}
 
+	@Override
+	protected void onPause() {
+		metricsLoader.cancel();
+		super.onPause();
+	}
+
+	@Override
+	protected void onDestroy() {
+		metricsLoader.shutdown();
+		super.onDestroy();
+	}
+
+	/**
+	 * Computes the metrics of the track, in the background
+	 */
+	private void loadMetrics(BackgroundLoader.Session session) {
+		Cursor c = getContentResolver().query(TrackContentProvider.trackMetricsUri(trackId), null, null, null, null);
+		if (c == null) {
+			return;
+		}
+		final TrackMetrics metrics = c.moveToFirst() ? TrackMetrics.fromCursor(c) : new TrackMetrics();
+		c.close();
+		session.deliver(() -> {
+			bindMetrics(metrics);
+			((SimpleAdapter) lv.getAdapter()).notifyDataSetChanged();
+		});
+	}
+
+	/**
+	 * Displays the metrics of the track in their list items
+	 */
+	private void bindMetrics(TrackMetrics metrics) {
+		NumberFormat elevationFormat = NumberFormat.getInstance();
+		elevationFormat.setMaximumFractionDigits(0);
+		String meters = getResources().getString(R.string.various_unit_meters);
+		String kmh = " " + getResources().getString(R.string.various_unit_kilometers_per_hour);
+
+		NumberFormat distanceFormat = NumberFormat.getInstance();
+		distanceFormat.setMinimumFractionDigits(2);
+		distanceFormat.setMaximumFractionDigits(2);
+		NumberFormat speedFormat = NumberFormat.getInstance();
+		speedFormat.setMaximumFractionDigits(1);
+
+		metricsItems.get(0).put(ITEM_VALUE, distanceFormat.format(metrics.getDistance() / 1000)
+				+ " " + getResources().getString(R.string.various_unit_kilometers));
+		metricsItems.get(1).put(ITEM_VALUE, DateUtils.formatElapsedTime(metrics.getMovingTime() / 1000));
+		metricsItems.get(2).put(ITEM_VALUE, elevationFormat.format(metrics.getAscent()) + meters);
+		metricsItems.get(3).put(ITEM_VALUE, elevationFormat.format(metrics.getDescent()) + meters);
+		metricsItems.get(4).put(ITEM_VALUE, speedFormat.format(metrics.getMaxSpeed() * 3.6) + kmh);
+		metricsItems.get(5).put(ITEM_VALUE, speedFormat.format(metrics.getAverageSpeed() * 3.6) + kmh);
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		MenuInflater inflater = getMenuInflater();
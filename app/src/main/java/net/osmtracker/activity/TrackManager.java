@@ -21,6 +21,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Base64OutputStream;
@@ -52,7 +53,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Lists existing tracks. Each track is displayed using {@link RecyclerView}
@@ -224,6 +227,7 @@ public class TrackManager extends AppCompatActivity
 		int tracksCount = recyclerViewAdapter.getItemCount();
 		menu.findItem(R.id.trackmgr_menu_deletetracks).setVisible(tracksCount > 0);
 		menu.findItem(R.id.trackmgr_menu_exportall).setVisible(tracksCount > 0);
+		menu.findItem(R.id.trackmgr_menu_displaytracks).setVisible(tracksCount > 1);
 
 		return super.onPrepareOptionsMenu(menu);
 	}
@@ -264,6 +268,9 @@ public class TrackManager extends AppCompatActivity
 							}
 						}).create().show();
 				break;
+			case R.id.trackmgr_menu_displaytracks:
+				selectTracksToDisplay();
+				break;
 			case R.id.trackmgr_menu_exportall:
 				// Confirm
 				if (!writeExternalStoragePermissionGranted()){
@@ -407,8 +414,9 @@ public class TrackManager extends AppCompatActivity
 		}
 		menu.setHeaderTitle(getResources().getString(R.string.trackmgr_contextmenu_title).replace("{0}", Long.toString(contextMenuSelectedTrackid)));
 		if ( currentTrackId ==  contextMenuSelectedTrackid) {
-			// User has pressed the active track, hide the delete option
+			// User has pressed the active track, hide the delete and archive options
 			menu.removeItem(R.id.trackmgr_contextmenu_delete);
+			menu.removeItem(R.id.trackmgr_contextmenu_archive);
 		}
 	}
 
@@ -456,6 +464,10 @@ public class TrackManager extends AppCompatActivity
 						}).create().show();
 				break;
 
+			case R.id.trackmgr_contextmenu_archive:
+				archiveTrack(contextMenuSelectedTrackid);
+				break;
+
 			case R.id.trackmgr_contextmenu_export:
 				if (writeExternalStoragePermissionGranted()) {
 					exportTracks(true);
@@ -521,6 +533,30 @@ public class TrackManager extends AppCompatActivity
 		return super.onContextItemSelected(item);
 	}
 
+	/**
+	 * Archives the track points of an inactive track in the background,
+	 * see {@link DataHelper#archiveTrack(long)}
+	 * @param trackId Id of the track
+	 */
+	private void archiveTrack(final long trackId) {
+		final DataHelper dataHelper = new DataHelper(getApplicationContext());
+		new AsyncTask<Void, Void, Integer>() {
+			@Override
+			protected Integer doInBackground(Void... params) {
+				return dataHelper.archiveTrack(trackId);
+			}
+
+			@Override
+			protected void onPostExecute(Integer count) {
+				Snackbar.make(findViewById(R.id.trackmgr_fab),
+						getResources().getString(R.string.trackmgr_archive_finished)
+								.replace("{0}", Long.toString(trackId))
+								.replace("{1}", Integer.toString(count)),
+						Snackbar.LENGTH_LONG).setAction("Action", null).show();
+			}
+		}.execute();
+	}
+
 	private void uploadTrack(long trackId){
 		Intent i = new Intent(this, OpenStreetMapUpload.class);
 		i.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, trackId);
@@ -600,6 +636,60 @@ public class TrackManager extends AppCompatActivity
 		startActivity(i);
 	}
 
+	/**
+	 * Lets the user select several tracks, and displays them on the same map
+	 */
+	private void selectTracksToDisplay() {
+		final List<Long> trackIds = new ArrayList<>();
+		final List<String> trackNames = new ArrayList<>();
+		Cursor cursor = getContentResolver().query(TrackContentProvider.CONTENT_URI_TRACK,
+				new String[] {TrackContentProvider.Schema.COL_ID, TrackContentProvider.Schema.COL_NAME},
+				null, null, TrackContentProvider.Schema.COL_START_DATE + " desc");
+		if (cursor != null) {
+			while (cursor.moveToNext()) {
+				long trackId = cursor.getLong(0);
+				String name = cursor.getString(1);
+				trackIds.add(trackId);
+				trackNames.add((name != null && !name.isEmpty()) ? name
+						: getResources().getString(R.string.trackmgr_contextmenu_title).replace("{0}", Long.toString(trackId)));
+			}
+			cursor.close();
+		}
+
+		final boolean[] selected = new boolean[trackIds.size()];
+		new AlertDialog.Builder(this)
+				.setTitle(R.string.displaytracksmap_select)
+				.setMultiChoiceItems(trackNames.toArray(new String[0]), selected,
+						(dialog, which, isChecked) -> selected[which] = isChecked)
+				.setPositiveButton(R.string.menu_displaytrack, (dialog, which) -> {
+					List<Long> selectedIds = new ArrayList<>();
+					for (int i = 0; i < selected.length; i++) {
+						if (selected[i]) {
+							selectedIds.add(trackIds.get(i));
+						}
+					}
+					if (!selectedIds.isEmpty()) {
+						displayTracks(selectedIds);
+					}
+				})
+				.setNegativeButton(android.R.string.cancel, (dialog, which) -> dialog.cancel())
+				.create().show();
+	}
+
+	private void displayTracks(List<Long> trackIds) {
+		if (trackIds.size() == 1) {
+			displayTrack(trackIds.get(0));
+			return;
+		}
+		long[] ids = new long[trackIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = trackIds.get(i);
+		}
+		Intent i = new Intent(this, DisplayTracksMap.class);
+		i.putExtra(DisplayTracksMap.EXTRA_TRACK_IDS, ids);
+		startActivity(i);
+	}
+
 	private boolean writeExternalStoragePermissionGranted(){
 		// On versions lower than Android 11, write external storage permission is required.
 		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
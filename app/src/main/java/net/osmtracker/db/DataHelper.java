@@ -14,6 +14,7 @@ import androidx.preference.PreferenceManager;
 
 import net.osmtracker.OSMTracker;
 import net.osmtracker.db.model.Track;
+import net.osmtracker.db.model.TrackBuffer;
 import net.osmtracker.db.model.TrackPoint;
 import net.osmtracker.db.model.WayPoint;
 
@@ -120,6 +121,17 @@ public class DataHelper {
 	 */
 	private ContentResolver contentResolver;
 
+	/**
+	 * Preferences used for each point, read on first use and rebuilt when they change
+	 */
+	private volatile RecordingConfig recordingConfig;
+
+	/**
+	 * Rebuilds {@link #recordingConfig}. Referenced here as the preferences only
+	 * keep a weak reference to their listeners.
+	 */
+	private SharedPreferences.OnSharedPreferenceChangeListener recordingConfigListener;
+
 	/**
 	 * Constructor.
 	 * 
@@ -131,6 +143,27 @@ public class DataHelper {
 		contentResolver = c.getContentResolver();
 	}
 
+	/**
+	 * @return The preferences used for each point, up to date with the changes
+	 */
+	public RecordingConfig getRecordingConfig() {
+		RecordingConfig config = recordingConfig;
+		if (config == null) {
+			synchronized (this) {
+				if (recordingConfig == null) {
+					SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+					// Listening first, so that a change while reading isn't missed
+					recordingConfigListener = (sharedPreferences, key) ->
+							recordingConfig = RecordingConfig.fromPreferences(sharedPreferences);
+					prefs.registerOnSharedPreferenceChangeListener(recordingConfigListener);
+					recordingConfig = RecordingConfig.fromPreferences(prefs);
+				}
+				config = recordingConfig;
+			}
+		}
+		return config;
+	}
+
 	/**
 	 * Track a point into DB.
 	 * 
@@ -147,7 +180,87 @@ public class DataHelper {
 	 *            atmospheric pressure
 	 */
 	public void track(long trackId, Location location, float azimuth, int accuracy, float pressure) {
-		Log.v(TAG, "Tracking (trackId=" + trackId + ") location: " + location + " azimuth: " + azimuth + ", accuracy: " + accuracy);
+		track(trackId, location, azimuth, accuracy, pressure, getRecordingConfig());
+	}
+
+	/**
+	 * Track a point into DB, with the given preferences.
+	 * See {@link #track(long, Location, float, int, float)}.
+	 *
+	 * @param config
+	 *            Preferences of the track, as taken when it started
+	 */
+	public void track(long trackId, Location location, float azimuth, int accuracy, float pressure,
+			RecordingConfig config) {
+		ContentValues values = trackPointValues(trackId, location, azimuth, accuracy, pressure, config);
+		contentResolver.insert(TrackContentProvider.trackPointsUri(trackId), values);
+	}
+
+	/**
+	 * Track several points into DB at once, in a single transaction.
+	 *
+	 * @param trackId
+	 *            Id of the track
+	 * @param values
+	 *            Track points, as built by {@link #trackPointValues(long, Location, float, int, float)}
+	 * @return number of track points inserted
+	 */
+	public int track(long trackId, ContentValues[] values) {
+		Log.v(TAG, "Tracking " + values.length + " points (trackId=" + trackId + ")");
+		return contentResolver.bulkInsert(TrackContentProvider.trackPointsUri(trackId), values);
+	}
+
+	/**
+	 * Builds the values of a track point received now, ready to be inserted into DB.
+	 * The timestamp is resolved now, so that points inserted later keep
+	 * the time they were received at.
+	 *
+	 * @param trackId
+	 *            Id of the track
+	 * @param location
+	 *            The Location to track
+	 * @param azimuth
+	 * 			  azimuth angle in degrees (0-360deg) of the track point. if it is outside the given range it will be set null.
+	 * @param accuracy
+	 * 			  accuracy of the compass reading (as SensorManager.SENSOR_STATUS_ACCURACY*),
+	 * 			  ignored if azimuth is invalid.
+	 * @param pressure
+	 *            atmospheric pressure
+	 * @return the track point values
+	 */
+	public ContentValues trackPointValues(long trackId, Location location, float azimuth, int accuracy, float pressure) {
+		return trackPointValues(trackId, location, azimuth, accuracy, pressure, getRecordingConfig());
+	}
+
+	/**
+	 * Builds the values of a track point received now, with the given preferences.
+	 * See {@link #trackPointValues(long, Location, float, int, float)}.
+	 *
+	 * @param config
+	 *            Preferences, as returned by {@link #getRecordingConfig()} when the track started
+	 * @return the track point values
+	 */
+	public ContentValues trackPointValues(long trackId, Location location, float azimuth, int accuracy, float pressure,
+			RecordingConfig config) {
+		return trackPointValues(trackId, location, azimuth, accuracy, pressure, config, System.currentTimeMillis());
+	}
+
+	/**
+	 * Builds the values of a track point received earlier, with the given preferences.
+	 * See {@link #trackPointValues(long, Location, float, int, float)}.
+	 *
+	 * @param config
+	 *            Preferences, as returned by {@link #getRecordingConfig()} when the track started
+	 * @param receivedTime
+	 *            Time the location was received at, on the OS clock, used as the timestamp
+	 *            when the GPS clock is ignored
+	 * @return the track point values
+	 */
+	public ContentValues trackPointValues(long trackId, Location location, float azimuth, int accuracy, float pressure,
+			RecordingConfig config, long receivedTime) {
+		if (Log.isLoggable(TAG, Log.VERBOSE)) {
+			Log.v(TAG, "Tracking (trackId=" + trackId + ") location: " + location + " azimuth: " + azimuth + ", accuracy: " + accuracy);
+		}
 		ContentValues values = new ContentValues();
 		values.put(TrackContentProvider.Schema.COL_TRACK_ID, trackId);
 		values.put(TrackContentProvider.Schema.COL_LATITUDE, location.getLatitude());
@@ -161,15 +274,9 @@ public class DataHelper {
 		if (location.hasSpeed()) {
 			values.put(TrackContentProvider.Schema.COL_SPEED, location.getSpeed());
 		}
-		
-		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
-			// Use OS clock
-			values.put(TrackContentProvider.Schema.COL_TIMESTAMP, System.currentTimeMillis());
-		} else {
-			// Use GPS clock
-			values.put(TrackContentProvider.Schema.COL_TIMESTAMP, location.getTime());
-		}
+
+		// OS clock or GPS clock
+		values.put(TrackContentProvider.Schema.COL_TIMESTAMP, config.timestamp(location.getTime(), receivedTime));
 
 		if (azimuth >= AZIMUTH_MIN && azimuth < AZIMUTH_MAX) {
 			values.put(TrackContentProvider.Schema.COL_COMPASS, azimuth);
@@ -180,8 +287,7 @@ public class DataHelper {
 			values.put(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE, pressure);
 		}
 
-		Uri trackUri = ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId);
-		contentResolver.insert(Uri.withAppendedPath(trackUri, TrackContentProvider.Schema.TBL_TRACKPOINT + "s"), values);
+		return values;
 	}
 
 	/**
@@ -232,15 +338,9 @@ public class DataHelper {
 				// Rename file to match location timestamp
 				values.put(TrackContentProvider.Schema.COL_LINK, renameFile(trackId, link, FILENAME_FORMATTER.format(location.getTime())));
 			}
-			
-			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-			if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
-				// Use OS clock
-				values.put(TrackContentProvider.Schema.COL_TIMESTAMP, System.currentTimeMillis());
-			} else {
-				// Use GPS clock
-				values.put(TrackContentProvider.Schema.COL_TIMESTAMP, location.getTime());
-			}
+
+			// OS clock or GPS clock
+			values.put(TrackContentProvider.Schema.COL_TIMESTAMP, getRecordingConfig().timestamp(location.getTime(), System.currentTimeMillis()));
 			
 			//add compass if valid
 			if (azimuth >= AZIMUTH_MIN && azimuth < AZIMUTH_MAX) {
@@ -331,14 +431,8 @@ public class DataHelper {
 			values.put(TrackContentProvider.Schema.COL_UUID, uuid);
 		}
 
-		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
-			// Use OS clock
-			values.put(TrackContentProvider.Schema.COL_TIMESTAMP, System.currentTimeMillis());
-		} else {
-			// Use GPS clock
-			values.put(TrackContentProvider.Schema.COL_TIMESTAMP, location.getTime());
-		}
+		// OS clock or GPS clock
+		values.put(TrackContentProvider.Schema.COL_TIMESTAMP, getRecordingConfig().timestamp(location.getTime(), System.currentTimeMillis()));
 
 		Uri trackUri = ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId);
 		contentResolver.insert(Uri.withAppendedPath(trackUri,
@@ -389,6 +483,16 @@ public class DataHelper {
 		contentResolver.update(trackUri, values, null, null);
 	}
 
+	/**
+	 * Archives the track points of an inactive track, see {@link TrackContentProvider#trackArchiveUri(long)}.
+	 * Blocks while the track points are encoded: call from a background thread.
+	 * @param trackId Id of the track
+	 * @return Number of track points archived
+	 */
+	public int archiveTrack(long trackId) {
+		return contentResolver.update(TrackContentProvider.trackArchiveUri(trackId), new ContentValues(), null, null);
+	}
+
 	/**
 	 * Find the active track ID, if any.
 	 * @param cr  {@link ContentResolver} for query
@@ -605,6 +709,86 @@ public class DataHelper {
 		return wpt;
 	}
 
+	/**
+	 * Opens a cursor over the track points of a track, in chronological order, reading
+	 * them by pages so that memory use doesn't depend on the length of the track.
+	 * Use it rather than querying {@link TrackContentProvider#trackPointsUri(long)}
+	 * when reading whole tracks.
+	 *
+	 * @param trackId Id of the track
+	 * @param projection Columns to return, as few as possible
+	 * @param afterId Only return track points with an _id greater than this one, -1 for all the track points
+	 * @return Cursor over the track points, to be closed by the caller
+	 */
+	public TrackPointCursor openTrackPoints(long trackId, String[] projection, long afterId) {
+		return new TrackPointCursor(contentResolver, trackId, projection, afterId, TrackPointCursor.DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Opens a cursor over all the track points of a track, see {@link #openTrackPoints(long, String[], long)}
+	 */
+	public TrackPointCursor openTrackPoints(long trackId, String[] projection) {
+		return openTrackPoints(trackId, projection, -1);
+	}
+
+	/**
+	 * Appends the track points of a track to a buffer, in chronological order.
+	 *
+	 * @param trackId Id of the track
+	 * @param afterId Only read track points with an _id greater than this one, -1 for all the track points
+	 * @param out Buffer to append the track points to
+	 * @return _id of the last track point read, to read newer track points
+	 * later on, or afterId if there are no track points to read
+	 */
+	public long readTrackPoints(long trackId, long afterId, TrackBuffer out) {
+		TrackPointCursor c = openTrackPoints(trackId, TrackBuffer.COLUMNS, afterId);
+		try {
+			out.append(c);
+			return c.getLastId();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads the track points of a track inside a bounding box, as continuous segments.
+	 * Each segment is made of consecutive track points inside the box, along with the
+	 * track points just before and after them so that it reaches the edges of the box.
+	 *
+	 * @param trackId Id of the track
+	 * @return Segments of the track crossing the bounding box, in recording order
+	 * @see TrackContentProvider#trackPointsInBoxUri(long, double, double, double, double)
+	 */
+	public List<TrackBuffer> readTrackSegments(long trackId, double south, double west, double north, double east) {
+		String[] projection = new String[TrackBuffer.COLUMNS.length + 2];
+		projection[0] = TrackContentProvider.Schema.COL_ID;
+		projection[1] = TrackContentProvider.Schema.COL_PREVIOUS_ID;
+		System.arraycopy(TrackBuffer.COLUMNS, 0, projection, 2, TrackBuffer.COLUMNS.length);
+
+		List<TrackBuffer> out = new ArrayList<TrackBuffer>();
+		Cursor c = contentResolver.query(
+				TrackContentProvider.trackPointsInBoxUri(trackId, south, west, north, east),
+				projection, null, null, TrackContentProvider.Schema.COL_ID + " asc");
+		try {
+			TrackBuffer segment = null;
+			long previousId = 0;
+			while (c.moveToNext()) {
+				// The track leaves the box where a point doesn't follow the previous
+				// one. Ids of tracks recorded at the same time aren't contiguous.
+				long id = c.getLong(0);
+				if (segment == null || c.isNull(1) || c.getLong(1) != previousId) {
+					segment = new TrackBuffer();
+					out.add(segment);
+				}
+				segment.add(c.getDouble(2), c.getDouble(3), c.getLong(4), c.isNull(5) ? Float.NaN : c.getFloat(5));
+				previousId = id;
+			}
+		} finally {
+			c.close();
+		}
+		return out;
+	}
+
 	public List<Integer> getTrackPointIdsOfTrack(long trackId) {
 		List<Integer> out = new ArrayList<Integer>();
 		// constant for the column track Id
@@ -2,6 +2,8 @@ package net.osmtracker.db;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.HashMap;
+import java.util.Map;
 
 import net.osmtracker.OSMTracker;
 import net.osmtracker.util.FileSystemUtils;
@@ -10,6 +12,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import net.osmtracker.db.model.Track;
@@ -39,7 +42,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.COL_TIMESTAMP + " long not null,"
 		+ TrackContentProvider.Schema.COL_COMPASS + " double null,"
 		+ TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null,"
-		+ TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE + " double null" + ")";
+		+ TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE + " double null,"
+		+ TrackContentProvider.Schema.COL_GRID_CELL + " integer null" + ")";
 
 	/**
 	 * SQL for creating index TRACKPOINT_idx (track id)
@@ -68,7 +72,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.COL_NBSATELLITES + " integer not null,"
 		+ TrackContentProvider.Schema.COL_COMPASS + " double null,"
 		+ TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null,"
-		+ TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE + " double null"	+ ")";
+		+ TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE + " double null,"
+		+ TrackContentProvider.Schema.COL_GRID_CELL + " integer null" + ")";
 
 	/**
 	 * SQL for creating index WAYPOINT_idx (track id)
@@ -79,6 +84,41 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.TBL_WAYPOINT
 		+ "_idx ON " + TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ")";
 
+	/**
+	 * SQL for creating the grid indexes of TRACKPOINT and WAYPOINT (track id, grid cell),
+	 * see {@link GridIndex}
+	 * @since 20
+	 */
+	private static final String[] SQL_CREATE_IDX_GRID = {
+		"create index if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT + "_grid_idx ON "
+			+ TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_GRID_CELL + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_WAYPOINT + "_grid_idx ON "
+			+ TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_GRID_CELL + ")"
+	};
+
+	/**
+	 * SQL for creating the indexes matching the sort orders and lookups of the queries:
+	 * track points, way points and notes of a track by timestamp, notes of a track,
+	 * way points and notes by uuid, tracks by start date.
+	 * Track points of a track by id use {@link #SQL_CREATE_IDX_TRACKPOINT_TRACK}: the
+	 * entries of an index are sorted by row id after their columns.
+	 * @since 23
+	 */
+	private static final String[] SQL_CREATE_IDX_QUERIES = {
+		"create index if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT + "_time_idx ON "
+			+ TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_TIMESTAMP + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_WAYPOINT + "_time_idx ON "
+			+ TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_TIMESTAMP + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_NOTE + "_time_idx ON "
+			+ TrackContentProvider.Schema.TBL_NOTE + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_TIMESTAMP + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_WAYPOINT + "_uuid_idx ON "
+			+ TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_UUID + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_NOTE + "_uuid_idx ON "
+			+ TrackContentProvider.Schema.TBL_NOTE + "(" + TrackContentProvider.Schema.COL_UUID + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_TRACK + "_start_idx ON "
+			+ TrackContentProvider.Schema.TBL_TRACK + "(" + TrackContentProvider.Schema.COL_START_DATE + ")"
+	};
+
 	/**
 	 * SQL for creating table TRACK
 	 * @since 5
@@ -114,6 +154,257 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.COL_OSM_UPLOAD_DATE + " long" // null indicates not yet uploaded
 	    + ")";
 
+	/**
+	 * SQL for creating table TRACK_STATS, holding per-track statistics
+	 * maintained by the triggers below.
+	 * First and last points are the track points with the lowest and highest id.
+	 * @since 19
+	 */
+	private static final String SQL_CREATE_TABLE_TRACK_STATS = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_TRACK_STATS + " ("
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer primary key,"
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_WAYPOINT_COUNT + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_NOTE_COUNT + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_FIRST_TIMESTAMP + " long null,"
+		+ TrackContentProvider.Schema.COL_FIRST_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_FIRST_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_LAST_TIMESTAMP + " long null,"
+		+ TrackContentProvider.Schema.COL_LAST_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_LAST_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + " double null" + ")";
+
+	/**
+	 * SQL for creating the triggers maintaining TRACK_STATS.
+	 * Track points are only deleted together with their track, so deleting
+	 * a track point only updates the count, not the first/last points or bounds.
+	 * @since 19
+	 */
+	private static final String[] SQL_CREATE_TRIGGERS_TRACK_STATS = {
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT + "_stats_insert"
+		+ " after insert on " + TrackContentProvider.Schema.TBL_TRACKPOINT + " begin"
+		+ " insert or ignore into " + TrackContentProvider.Schema.TBL_TRACK_STATS + " (" + TrackContentProvider.Schema.COL_TRACK_ID + ") values (new." + TrackContentProvider.Schema.COL_TRACK_ID + ");"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " + 1, "
+		+ TrackContentProvider.Schema.COL_FIRST_TIMESTAMP + " = ifnull(" + TrackContentProvider.Schema.COL_FIRST_TIMESTAMP + ", new." + TrackContentProvider.Schema.COL_TIMESTAMP + "), "
+		+ TrackContentProvider.Schema.COL_FIRST_LATITUDE + " = ifnull(" + TrackContentProvider.Schema.COL_FIRST_LATITUDE + ", new." + TrackContentProvider.Schema.COL_LATITUDE + "), "
+		+ TrackContentProvider.Schema.COL_FIRST_LONGITUDE + " = ifnull(" + TrackContentProvider.Schema.COL_FIRST_LONGITUDE + ", new." + TrackContentProvider.Schema.COL_LONGITUDE + "), "
+		+ TrackContentProvider.Schema.COL_LAST_TIMESTAMP + " = new." + TrackContentProvider.Schema.COL_TIMESTAMP + ", "
+		+ TrackContentProvider.Schema.COL_LAST_LATITUDE + " = new." + TrackContentProvider.Schema.COL_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_LAST_LONGITUDE + " = new." + TrackContentProvider.Schema.COL_LONGITUDE + ", "
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + " = min(ifnull(" + TrackContentProvider.Schema.COL_MIN_LATITUDE + ", new." + TrackContentProvider.Schema.COL_LATITUDE + "), new." + TrackContentProvider.Schema.COL_LATITUDE + "), "
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + " = max(ifnull(" + TrackContentProvider.Schema.COL_MAX_LATITUDE + ", new." + TrackContentProvider.Schema.COL_LATITUDE + "), new." + TrackContentProvider.Schema.COL_LATITUDE + "), "
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + " = min(ifnull(" + TrackContentProvider.Schema.COL_MIN_LONGITUDE + ", new." + TrackContentProvider.Schema.COL_LONGITUDE + "), new." + TrackContentProvider.Schema.COL_LONGITUDE + "), "
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + " = max(ifnull(" + TrackContentProvider.Schema.COL_MAX_LONGITUDE + ", new." + TrackContentProvider.Schema.COL_LONGITUDE + "), new." + TrackContentProvider.Schema.COL_LONGITUDE + ")"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = new." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT + "_stats_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_TRACKPOINT + " begin"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " - 1"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_WAYPOINT + "_stats_insert"
+		+ " after insert on " + TrackContentProvider.Schema.TBL_WAYPOINT + " begin"
+		+ " insert or ignore into " + TrackContentProvider.Schema.TBL_TRACK_STATS + " (" + TrackContentProvider.Schema.COL_TRACK_ID + ") values (new." + TrackContentProvider.Schema.COL_TRACK_ID + ");"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_WAYPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_WAYPOINT_COUNT + " + 1"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = new." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_WAYPOINT + "_stats_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_WAYPOINT + " begin"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_WAYPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_WAYPOINT_COUNT + " - 1"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_NOTE + "_stats_insert"
+		+ " after insert on " + TrackContentProvider.Schema.TBL_NOTE + " begin"
+		+ " insert or ignore into " + TrackContentProvider.Schema.TBL_TRACK_STATS + " (" + TrackContentProvider.Schema.COL_TRACK_ID + ") values (new." + TrackContentProvider.Schema.COL_TRACK_ID + ");"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_NOTE_COUNT + " = " + TrackContentProvider.Schema.COL_NOTE_COUNT + " + 1"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = new." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_NOTE + "_stats_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_NOTE + " begin"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_NOTE_COUNT + " = " + TrackContentProvider.Schema.COL_NOTE_COUNT + " - 1"
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACK + "_stats_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_TRACK + " begin"
+		+ " delete from " + TrackContentProvider.Schema.TBL_TRACK_STATS
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_ID + ";"
+		+ " end"
+	};
+
+	/**
+	 * SQL for filling TRACK_STATS from existing data
+	 * @since 19
+	 */
+	private static final String SQL_BACKFILL_TRACK_STATS = ""
+		+ "insert or replace into " + TrackContentProvider.Schema.TBL_TRACK_STATS + " ("
+		+ TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + ", "
+		+ TrackContentProvider.Schema.COL_WAYPOINT_COUNT + ", "
+		+ TrackContentProvider.Schema.COL_NOTE_COUNT + ", "
+		+ TrackContentProvider.Schema.COL_FIRST_TIMESTAMP + ", "
+		+ TrackContentProvider.Schema.COL_FIRST_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_FIRST_LONGITUDE + ", "
+		+ TrackContentProvider.Schema.COL_LAST_TIMESTAMP + ", "
+		+ TrackContentProvider.Schema.COL_LAST_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_LAST_LONGITUDE + ", "
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + ", "
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + ")"
+		+ " select t." + TrackContentProvider.Schema.COL_ID + ","
+		+ " count(p." + TrackContentProvider.Schema.COL_ID + "),"
+		+ " (select count(*) from " + TrackContentProvider.Schema.TBL_WAYPOINT + " w where w." + TrackContentProvider.Schema.COL_TRACK_ID + " = t." + TrackContentProvider.Schema.COL_ID + "),"
+		+ " (select count(*) from " + TrackContentProvider.Schema.TBL_NOTE + " n where n." + TrackContentProvider.Schema.COL_TRACK_ID + " = t." + TrackContentProvider.Schema.COL_ID + "),"
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_TIMESTAMP, "asc") + ","
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_LATITUDE, "asc") + ","
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_LONGITUDE, "asc") + ","
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_TIMESTAMP, "desc") + ","
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_LATITUDE, "desc") + ","
+		+ trackPointSubQuery(TrackContentProvider.Schema.COL_LONGITUDE, "desc") + ","
+		+ " min(p." + TrackContentProvider.Schema.COL_LATITUDE + "),"
+		+ " max(p." + TrackContentProvider.Schema.COL_LATITUDE + "),"
+		+ " min(p." + TrackContentProvider.Schema.COL_LONGITUDE + "),"
+		+ " max(p." + TrackContentProvider.Schema.COL_LONGITUDE + ")"
+		+ " from " + TrackContentProvider.Schema.TBL_TRACK + " t left join " + TrackContentProvider.Schema.TBL_TRACKPOINT + " p"
+		+ " on p." + TrackContentProvider.Schema.COL_TRACK_ID + " = t." + TrackContentProvider.Schema.COL_ID
+		+ " group by t." + TrackContentProvider.Schema.COL_ID;
+
+	/**
+	 * @return SQL sub query selecting a column of the first ("asc") or last ("desc") track point of track "t"
+	 */
+	private static String trackPointSubQuery(String column, String order) {
+		return " (select " + column + " from " + TrackContentProvider.Schema.TBL_TRACKPOINT + " tp"
+			+ " where tp." + TrackContentProvider.Schema.COL_TRACK_ID + " = t." + TrackContentProvider.Schema.COL_ID
+			+ " order by tp." + TrackContentProvider.Schema.COL_ID + " " + order + " limit 1)";
+	}
+
+	/**
+	 * SQL for creating table TRACK_METRICS, holding the metrics derived from the
+	 * track points of each track and the state needed to update them, maintained
+	 * by the provider (see {@link net.osmtracker.db.model.TrackMetrics}).
+	 * Rows of the existing tracks are computed lazily, when first needed.
+	 * @since 21
+	 */
+	private static final String SQL_CREATE_TABLE_TRACK_METRICS = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_TRACK_METRICS + " ("
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer primary key,"
+		+ TrackContentProvider.Schema.COL_METRICS_POINT_COUNT + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_METRICS_LAST_ID + " integer not null default -1,"
+		+ TrackContentProvider.Schema.COL_DISTANCE + " double not null default 0,"
+		+ TrackContentProvider.Schema.COL_MOVING_TIME + " long not null default 0,"
+		+ TrackContentProvider.Schema.COL_ASCENT + " double not null default 0,"
+		+ TrackContentProvider.Schema.COL_DESCENT + " double not null default 0,"
+		+ TrackContentProvider.Schema.COL_MAX_SPEED + " double not null default 0,"
+		+ TrackContentProvider.Schema.COL_PREVIOUS_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_PREVIOUS_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_PREVIOUS_TIMESTAMP + " long null,"
+		+ TrackContentProvider.Schema.COL_ELEVATION_SOURCE + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_ELEVATION_FILTERED + " double null,"
+		+ TrackContentProvider.Schema.COL_ELEVATION_REFERENCE + " double null" + ")";
+
+	/**
+	 * SQL for creating the trigger deleting the metrics of a deleted track
+	 * @since 21
+	 */
+	private static final String SQL_CREATE_TRIGGER_TRACK_METRICS = ""
+		+ "create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACK + "_metrics_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_TRACK + " begin"
+		+ " delete from " + TrackContentProvider.Schema.TBL_TRACK_METRICS
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_ID + ";"
+		+ " end";
+
+	/**
+	 * SQL for creating table TRACKPOINT_ARCHIVE, holding the archived track points
+	 * by encoded chunks, see {@link TrackArchive}
+	 * @since 22
+	 */
+	private static final String SQL_CREATE_TABLE_TRACKPOINT_ARCHIVE = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " ("
+		+ TrackContentProvider.Schema.COL_ID + " integer primary key autoincrement,"
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_FIRST_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_LAST_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_POINT_COUNT + " integer not null,"
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + " double not null,"
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + " double not null,"
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + " double not null,"
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + " double not null,"
+		+ TrackContentProvider.Schema.COL_DATA + " blob not null" + ")";
+
+	/**
+	 * SQL for creating the index of TRACKPOINT_ARCHIVE, and the one finding an archived track point by id
+	 * @since 22
+	 */
+	private static final String[] SQL_CREATE_IDX_TRACKPOINT_ARCHIVE = {
+		"create index if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "_idx ON "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", " + TrackContentProvider.Schema.COL_FIRST_ID + ")",
+		"create index if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "_id_idx ON "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "(" + TrackContentProvider.Schema.COL_FIRST_ID + ")"
+	};
+
+	/**
+	 * SQL for creating the trigger deleting the archived track points of a deleted track
+	 * @since 22
+	 */
+	private static final String SQL_CREATE_TRIGGER_TRACKPOINT_ARCHIVE = ""
+		+ "create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACK + "_archive_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_TRACK + " begin"
+		+ " delete from " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_ID + ";"
+		+ " end";
+
+	/**
+	 * SQL for adding the timestamp order of the points of each chunk to TRACKPOINT_ARCHIVE:
+	 * whether their timestamps follow their ids from the previous point, and the greatest.
+	 * Chunks archived before are considered out of order.
+	 * @since 24
+	 */
+	private static final String[] SQL_ADD_COLUMNS_TRACKPOINT_ARCHIVE_TIME = {
+		"alter table " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " add column "
+		+ TrackContentProvider.Schema.COL_TIME_ORDERED + " integer not null default 0",
+		"alter table " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " add column "
+		+ TrackContentProvider.Schema.COL_MAX_TIMESTAMP + " long null"
+	};
+
+	/**
+	 * SQL for adding the smallest timestamp of the points of each chunk to TRACKPOINT_ARCHIVE,
+	 * to read the chunks in timestamp order. Null for the chunks archived before.
+	 * @since 25
+	 */
+	private static final String SQL_ADD_COLUMN_TRACKPOINT_ARCHIVE_MIN_TIMESTAMP = ""
+		+ "alter table " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " add column "
+		+ TrackContentProvider.Schema.COL_MIN_TIMESTAMP + " long null";
+
+	/**
+	 * SQL for creating the triggers counting the archived track points in TRACK_STATS.
+	 * The track points of a chunk are counted when the chunk is inserted, before they
+	 * are deleted from TRACKPOINT, and uncounted when it's deleted.
+	 * @since 24
+	 */
+	private static final String[] SQL_CREATE_TRIGGERS_TRACKPOINT_ARCHIVE_STATS = {
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "_stats_insert"
+		+ " after insert on " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " begin"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " + new." + TrackContentProvider.Schema.COL_POINT_COUNT
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = new." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end",
+		"create trigger if not exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + "_stats_delete"
+		+ " after delete on " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE + " begin"
+		+ " update " + TrackContentProvider.Schema.TBL_TRACK_STATS + " set "
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " = " + TrackContentProvider.Schema.COL_TRACKPOINT_COUNT + " - old." + TrackContentProvider.Schema.COL_POINT_COUNT
+		+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " = old." + TrackContentProvider.Schema.COL_TRACK_ID + ";"
+		+ " end"
+	};
+
 	/**
 	 * Database name.
 	 */
@@ -140,15 +431,161 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 *          TBL_WAYPOINT.COL_COMPASS and TBL_WAYPOINT.COL_COMPASS_ACCURACY
 	 * v17: add TBL_TRACKPOINT.COL_ATMOSPHERIC_PRESSURE and TBL_WAYPOINT.COL_ATMOSPHERIC_PRESSURE
 	 * v18: add TBL_NOTE
+	 * v19: add TBL_TRACK_STATS and its triggers
+	 * v20: add TBL_TRACKPOINT.COL_GRID_CELL, TBL_WAYPOINT.COL_GRID_CELL and their indexes
+	 * v21: add TBL_TRACK_METRICS and its trigger
+	 * v22: add TBL_TRACKPOINT_ARCHIVE, its indexes and trigger
+	 * v23: add the indexes of the queries: by timestamp, by uuid, notes by track, tracks by start date
+	 * v24: add TBL_TRACKPOINT_ARCHIVE.COL_TIME_ORDERED, TBL_TRACKPOINT_ARCHIVE.COL_MAX_TIMESTAMP
+	 *          and the triggers counting the archived track points
+	 * v25: add TBL_TRACKPOINT_ARCHIVE.COL_MIN_TIMESTAMP
 	 *</pre>
 	 */
-	private static final int DB_VERSION = 18;
+	private static final int DB_VERSION = 25;
+
+	/**
+	 * SQLite settings applied when opening the database, see {@link #onConfigure(SQLiteDatabase)}
+	 */
+	public static final class Profile {
+
+		/**
+		 * SQLite defaults: rollback journal, full synchronous writes
+		 */
+		public static final Profile DEFAULT = new Profile(false, null, 0);
+
+		/**
+		 * Profile used by the application, whether a track is being recorded or not:
+		 * the logger writes while the track list and the map read. Write-ahead logging
+		 * lets them read without waiting for the writes, and makes NORMAL synchronous
+		 * writes safe: a power loss can only lose the last transactions, never corrupt
+		 * the database.
+		 */
+		public static final Profile CONCURRENT = new Profile(true, "NORMAL", 4096);
+
+		/**
+		 * Whether to enable write-ahead logging
+		 */
+		public final boolean writeAheadLogging;
+
+		/**
+		 * Value of the synchronous pragma, null to keep the default
+		 */
+		public final String synchronous;
+
+		/**
+		 * Page size in bytes, 0 to keep the default. Only applies to a new database.
+		 */
+		public final int pageSize;
+
+		public Profile(boolean writeAheadLogging, String synchronous, int pageSize) {
+			this.writeAheadLogging = writeAheadLogging;
+			this.synchronous = synchronous;
+			this.pageSize = pageSize;
+		}
+	}
 
 	private Context context;
 
+	private final Profile profile;
+
+	/**
+	 * Compiled insert statement of each table on the database currently open,
+	 * see {@link #getInsertStatement(SQLiteDatabase, String, String[])}
+	 */
+	private final Map<String, SQLiteStatement> insertStatements = new HashMap<String, SQLiteStatement>();
+
 	public DatabaseHelper(Context context) {
-		super(context, DB_NAME, null, DB_VERSION);
+		this(context, DB_NAME, Profile.CONCURRENT);
+	}
+
+	/**
+	 * @param name Name of the database file, {@link #DB_NAME} for the application
+	 * @param profile SQLite settings
+	 */
+	DatabaseHelper(Context context, String name, Profile profile) {
+		super(context, name, null, DB_VERSION);
 		this.context = context;
+		this.profile = profile;
+		setWriteAheadLoggingEnabled(profile.writeAheadLogging);
+	}
+
+	/**
+	 * Applies the {@link Profile}. Only called for the primary connection, which
+	 * runs the writes and the transactions: the profile only holds settings of the
+	 * database file or of the writes, per-connection read settings such as the
+	 * page cache or mmap wouldn't reach the read connections opened by the
+	 * write-ahead logging.
+	 */
+	@Override
+	public void onConfigure(SQLiteDatabase db) {
+		super.onConfigure(db);
+		if (profile.pageSize > 0) {
+			db.execSQL("pragma page_size = " + profile.pageSize);
+		}
+		if (profile.synchronous != null) {
+			db.execSQL("pragma synchronous = " + profile.synchronous);
+		}
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		// Statements compiled on a database closed since then can't be used
+		closeInsertStatements();
+	}
+
+	/**
+	 * Closes the database, along with the compiled insert statements
+	 */
+	@Override
+	public synchronized void close() {
+		closeInsertStatements();
+		super.close();
+	}
+
+	/**
+	 * Returns the compiled insert statement of a table, compiled once on the database
+	 * currently open. Statements hold their bindings: they must be used while
+	 * synchronized on them, and only in a transaction so that their lock is always
+	 * taken after the one of the database.
+	 * @param db Database of this helper
+	 * @param columns Columns of the table, see {@link #buildInsertSql(String, String[])}
+	 */
+	SQLiteStatement getInsertStatement(SQLiteDatabase db, String table, String[] columns) {
+		synchronized (insertStatements) {
+			SQLiteStatement out = insertStatements.get(table);
+			if (out == null) {
+				out = db.compileStatement(buildInsertSql(table, columns));
+				insertStatements.put(table, out);
+			}
+			return out;
+		}
+	}
+
+	private void closeInsertStatements() {
+		synchronized (insertStatements) {
+			for (SQLiteStatement statement : insertStatements.values()) {
+				statement.close();
+			}
+			insertStatements.clear();
+		}
+	}
+
+	/**
+	 * @return SQL of an insert statement into table, with one parameter per column
+	 */
+	static String buildInsertSql(String table, String[] columns) {
+		StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (");
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(',');
+				params.append(',');
+			}
+			sql.append(columns[i]);
+			params.append('?');
+		}
+		return sql.append(") values (").append(params).append(')').toString();
 	}
 
 	@Override
@@ -163,6 +600,40 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		db.execSQL(SQL_CREATE_TABLE_TRACK);
 		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_NOTE);
 		db.execSQL(SQL_CREATE_TABLE_NOTE);
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACK_STATS);
+		db.execSQL(SQL_CREATE_TABLE_TRACK_STATS);
+		for (String sql : SQL_CREATE_TRIGGERS_TRACK_STATS) {
+			db.execSQL(sql);
+		}
+		for (String sql : SQL_CREATE_IDX_GRID) {
+			db.execSQL(sql);
+		}
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACK_METRICS);
+		db.execSQL(SQL_CREATE_TABLE_TRACK_METRICS);
+		db.execSQL(SQL_CREATE_TRIGGER_TRACK_METRICS);
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ARCHIVE);
+		createTrackPointArchive(db);
+		for (String sql : SQL_CREATE_IDX_QUERIES) {
+			db.execSQL(sql);
+		}
+		for (String sql : SQL_ADD_COLUMNS_TRACKPOINT_ARCHIVE_TIME) {
+			db.execSQL(sql);
+		}
+		for (String sql : SQL_CREATE_TRIGGERS_TRACKPOINT_ARCHIVE_STATS) {
+			db.execSQL(sql);
+		}
+		db.execSQL(SQL_ADD_COLUMN_TRACKPOINT_ARCHIVE_MIN_TIMESTAMP);
+	}
+
+	/**
+	 * Creates table TRACKPOINT_ARCHIVE, its indexes and trigger
+	 */
+	private static void createTrackPointArchive(SQLiteDatabase db) {
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_ARCHIVE);
+		for (String sql : SQL_CREATE_IDX_TRACKPOINT_ARCHIVE) {
+			db.execSQL(sql);
+		}
+		db.execSQL(SQL_CREATE_TRIGGER_TRACKPOINT_ARCHIVE);
 	}
 
 	@Override
@@ -202,6 +673,40 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_WAYPOINT + " add column " + TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE + " double null");
 		case 17:
 			db.execSQL(SQL_CREATE_TABLE_NOTE);
+		case 18:
+			db.execSQL(SQL_CREATE_TABLE_TRACK_STATS);
+			for (String sql : SQL_CREATE_TRIGGERS_TRACK_STATS) {
+				db.execSQL(sql);
+			}
+			db.execSQL(SQL_BACKFILL_TRACK_STATS);
+		case 19:
+			for (String table : new String[] {TrackContentProvider.Schema.TBL_TRACKPOINT, TrackContentProvider.Schema.TBL_WAYPOINT}) {
+				db.execSQL("alter table " + table + " add column " + TrackContentProvider.Schema.COL_GRID_CELL + " integer null");
+				db.execSQL("update " + table + " set " + TrackContentProvider.Schema.COL_GRID_CELL + " = "
+						+ GridIndex.sqlCellOf(TrackContentProvider.Schema.COL_LATITUDE, TrackContentProvider.Schema.COL_LONGITUDE));
+			}
+			for (String sql : SQL_CREATE_IDX_GRID) {
+				db.execSQL(sql);
+			}
+		case 20:
+			db.execSQL(SQL_CREATE_TABLE_TRACK_METRICS);
+			db.execSQL(SQL_CREATE_TRIGGER_TRACK_METRICS);
+		case 21:
+			createTrackPointArchive(db);
+		case 22:
+			for (String sql : SQL_CREATE_IDX_QUERIES) {
+				db.execSQL(sql);
+			}
+		case 23:
+			// The archived track points were already added back to TBL_TRACK_STATS
+			for (String sql : SQL_ADD_COLUMNS_TRACKPOINT_ARCHIVE_TIME) {
+				db.execSQL(sql);
+			}
+			for (String sql : SQL_CREATE_TRIGGERS_TRACKPOINT_ARCHIVE_STATS) {
+				db.execSQL(sql);
+			}
+		case 24:
+			db.execSQL(SQL_ADD_COLUMN_TRACKPOINT_ARCHIVE_MIN_TIMESTAMP);
 		}
 	}
 
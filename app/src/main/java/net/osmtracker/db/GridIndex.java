@@ -0,0 +1,110 @@
+package net.osmtracker.db;
+
+/**
+ * Grid index over the coordinates of track points and way points.
+ *
+ * The world is divided into cells of 1/{@link #CELLS_PER_DEGREE} degree, numbered
+ * column by column from the south-west corner. The cell of each point is stored
+ * along with it in {@link TrackContentProvider.Schema#COL_GRID_CELL}, indexed
+ * together with the track id. The points inside a bounding box are then found by
+ * reading only the index ranges of the cell columns covering it, rather than every
+ * point of the track.
+ *
+ * Plain integer columns are used rather than an R*Tree virtual table, as the R*Tree
+ * module is not guaranteed to be available in the SQLite shipped with Android.
+ */
+public final class GridIndex {
+
+	/**
+	 * Number of cells per degree. A cell is about 1.7km high.
+	 */
+	public static final int CELLS_PER_DEGREE = 64;
+
+	/**
+	 * Number of cells in a column, from south to north
+	 */
+	static final int ROWS = 180 * CELLS_PER_DEGREE;
+
+	/**
+	 * Number of columns, from west to east
+	 */
+	static final int COLUMNS = 360 * CELLS_PER_DEGREE;
+
+	/**
+	 * Maximum number of cell columns looked up in the index. Beyond, the
+	 * bounding box covers so much of the track that the coordinates of all
+	 * its points are compared instead.
+	 */
+	static final int MAX_INDEXED_COLUMNS = 32;
+
+	private GridIndex() {
+	}
+
+	/**
+	 * @return Cell of a point
+	 */
+	public static int cellOf(double latitude, double longitude) {
+		return column(longitude) * ROWS + row(latitude);
+	}
+
+	/**
+	 * @return SQL expression computing the cell of the points of a table,
+	 * same as {@link #cellOf(double, double)}
+	 */
+	static String sqlCellOf(String latitudeColumn, String longitudeColumn) {
+		return "(min(max(cast((" + longitudeColumn + " + 180) * " + CELLS_PER_DEGREE + " as integer), 0), " + (COLUMNS - 1) + ")"
+				+ " * " + ROWS
+				+ " + min(max(cast((" + latitudeColumn + " + 90) * " + CELLS_PER_DEGREE + " as integer), 0), " + (ROWS - 1) + "))";
+	}
+
+	/**
+	 * Builds the SQL condition matching the points inside a bounding box.
+	 * If west is greater than east, the box crosses the antimeridian.
+	 * @return SQL condition, without any parameter
+	 * @throws IllegalArgumentException if south is greater than north
+	 */
+	static String selection(double south, double west, double north, double east) {
+		if (south > north) {
+			throw new IllegalArgumentException("South " + south + " is greater than north " + north);
+		}
+		boolean crossesAntimeridian = west > east;
+
+		StringBuilder sql = new StringBuilder();
+		int westColumn = column(west);
+		int eastColumn = column(east);
+		int columns = crossesAntimeridian ? COLUMNS - westColumn + eastColumn + 1 : eastColumn - westColumn + 1;
+		if (columns <= MAX_INDEXED_COLUMNS) {
+			int southRow = row(south);
+			int northRow = row(north);
+			sql.append('(');
+			for (int i = 0; i < columns; i++) {
+				int column = (westColumn + i) % COLUMNS;
+				if (i > 0) {
+					sql.append(" or ");
+				}
+				sql.append(TrackContentProvider.Schema.COL_GRID_CELL).append(" between ")
+						.append(column * ROWS + southRow).append(" and ").append(column * ROWS + northRow);
+			}
+			sql.append(") and ");
+		}
+
+		sql.append(TrackContentProvider.Schema.COL_LATITUDE).append(" between ").append(south).append(" and ").append(north);
+		sql.append(" and ");
+		if (crossesAntimeridian) {
+			sql.append('(').append(TrackContentProvider.Schema.COL_LONGITUDE).append(" >= ").append(west)
+					.append(" or ").append(TrackContentProvider.Schema.COL_LONGITUDE).append(" <= ").append(east).append(')');
+		} else {
+			sql.append(TrackContentProvider.Schema.COL_LONGITUDE).append(" between ").append(west).append(" and ").append(east);
+		}
+		return sql.toString();
+	}
+
+	private static int column(double longitude) {
+		return Math.min(Math.max((int) Math.floor((longitude + 180) * CELLS_PER_DEGREE), 0), COLUMNS - 1);
+	}
+
+	private static int row(double latitude) {
+		return Math.min(Math.max((int) Math.floor((latitude + 90) * CELLS_PER_DEGREE), 0), ROWS - 1);
+	}
+
+}
@@ -0,0 +1,192 @@
+package net.osmtracker.db;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the change notifications of the rows inserted one at a time in
+ * the track points, way points or notes of a track.
+ *
+ * The first insertion in a track Uri starts a window of {@link #getWindow()} ms.
+ * Rows inserted in the same Uri during the window don't notify anything: a single
+ * notification is sent at the end of the window, for all of them. Observers are
+ * therefore woken up at most once per window while recording, whatever the rate
+ * of the fixes.
+ *
+ * The Uri notified carries the range of the ids of the rows inserted, see
+ * {@link #getFirstId(Uri)} and {@link #getLastId(Uri)}. As only the path of the
+ * Uri is compared, observers registered on the track Uri are notified.
+ *
+ * Thread safe.
+ */
+public class NotificationCoalescer {
+
+	/**
+	 * Default duration of the window, in ms
+	 */
+	public static final long DEFAULT_WINDOW_MS = 250;
+
+	/**
+	 * Query parameters of the range of the ids inserted, in the Uris notified
+	 */
+	public static final String QUERY_PARAMETER_FIRST_ID = "first_id";
+	public static final String QUERY_PARAMETER_LAST_ID = "last_id";
+
+	private final ContentResolver contentResolver;
+
+	/**
+	 * Ends the windows, on the main thread
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private volatile long window = DEFAULT_WINDOW_MS;
+
+	/**
+	 * Range of the ids inserted in each Uri during its window. Guarded by this.
+	 */
+	private final Map<Uri, long[]> pending = new LinkedHashMap<Uri, long[]>();
+
+	private final AtomicLong emitted = new AtomicLong();
+	private final AtomicLong suppressed = new AtomicLong();
+
+	/**
+	 * @param contentResolver Content resolver to notify
+	 */
+	public NotificationCoalescer(ContentResolver contentResolver) {
+		this.contentResolver = contentResolver;
+	}
+
+	/**
+	 * Notifies the insertion of a row, at the end of the window of its Uri
+	 * @param uri Uri of the rows of a track, e.g. {@link TrackContentProvider#trackPointsUri(long)}
+	 * @param rowId Id of the row inserted
+	 */
+	public void notifyInsert(Uri uri, long rowId) {
+		final Uri key = uri.buildUpon().clearQuery().build();
+		long delay = window;
+		if (delay <= 0) {
+			emit(key, rowId, rowId);
+			return;
+		}
+		synchronized (this) {
+			long[] range = pending.get(key);
+			if (range != null) {
+				range[0] = Math.min(range[0], rowId);
+				range[1] = Math.max(range[1], rowId);
+				suppressed.incrementAndGet();
+				return;
+			}
+			pending.put(key, new long[] {rowId, rowId});
+		}
+		handler.postDelayed(() -> flush(key), delay);
+	}
+
+	/**
+	 * Notifies the insertion of a range of rows now, e.g. at the end of a bulk insert
+	 * @param uri Uri of the rows of a track
+	 * @param firstId Id of the first row inserted
+	 * @param lastId Id of the last row inserted
+	 */
+	public void notifyRange(Uri uri, long firstId, long lastId) {
+		emit(uri.buildUpon().clearQuery().build(), firstId, lastId);
+	}
+
+	/**
+	 * Sends the pending notifications now, without waiting for the end of their window
+	 */
+	public void flush() {
+		List<Uri> uris;
+		synchronized (this) {
+			uris = new ArrayList<Uri>(pending.keySet());
+		}
+		for (Uri uri : uris) {
+			flush(uri);
+		}
+	}
+
+	private void flush(Uri uri) {
+		long[] range;
+		synchronized (this) {
+			range = pending.remove(uri);
+		}
+		if (range != null) {
+			emit(uri, range[0], range[1]);
+		}
+	}
+
+	private void emit(Uri uri, long firstId, long lastId) {
+		emitted.incrementAndGet();
+		contentResolver.notifyChange(uri.buildUpon()
+				.appendQueryParameter(QUERY_PARAMETER_FIRST_ID, Long.toString(firstId))
+				.appendQueryParameter(QUERY_PARAMETER_LAST_ID, Long.toString(lastId))
+				.build(), null);
+	}
+
+	/**
+	 * @return Duration of the window, in ms
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window Duration of the window, in ms. 0 to notify each insertion immediately.
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+		if (window <= 0) {
+			flush();
+		}
+	}
+
+	/**
+	 * @return Number of notifications sent
+	 */
+	public long getEmittedCount() {
+		return emitted.get();
+	}
+
+	/**
+	 * @return Number of insertions whose notification was merged into another one
+	 */
+	public long getSuppressedCount() {
+		return suppressed.get();
+	}
+
+	/**
+	 * @param uri Uri notified
+	 * @return Id of the first row inserted, or -1 if the Uri doesn't carry a range
+	 */
+	public static long getFirstId(Uri uri) {
+		return getIdParameter(uri, QUERY_PARAMETER_FIRST_ID);
+	}
+
+	/**
+	 * @param uri Uri notified
+	 * @return Id of the last row inserted, or -1 if the Uri doesn't carry a range
+	 */
+	public static long getLastId(Uri uri) {
+		return getIdParameter(uri, QUERY_PARAMETER_LAST_ID);
+	}
+
+	private static long getIdParameter(Uri uri, String name) {
+		String value = (uri != null && uri.isHierarchical()) ? uri.getQueryParameter(name) : null;
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
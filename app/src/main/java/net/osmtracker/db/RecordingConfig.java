@@ -0,0 +1,59 @@
+package net.osmtracker.db;
+
+import android.content.SharedPreferences;
+
+import net.osmtracker.OSMTracker;
+
+/**
+ * Snapshot of the preferences used for each point recorded or exported, read
+ * once instead of looking them up in the {@link SharedPreferences} for every point.
+ *
+ * Immutable: when a preference changes, a new snapshot is built, see
+ * {@link DataHelper#getRecordingConfig()}.
+ */
+public class RecordingConfig {
+
+	/**
+	 * Whether the points are timestamped with the OS clock instead of the GPS clock
+	 */
+	public final boolean ignoreClock;
+
+	/**
+	 * Output of the accuracy, of the HDOP approximation and of the compass in the GPX files
+	 */
+	public final String accuracyOutput;
+	public final boolean fillHDOP;
+	public final String compassOutput;
+
+	public RecordingConfig(boolean ignoreClock, String accuracyOutput, boolean fillHDOP, String compassOutput) {
+		this.ignoreClock = ignoreClock;
+		this.accuracyOutput = accuracyOutput;
+		this.fillHDOP = fillHDOP;
+		this.compassOutput = compassOutput;
+	}
+
+	/**
+	 * Reads the preferences
+	 */
+	public static RecordingConfig fromPreferences(SharedPreferences prefs) {
+		return new RecordingConfig(
+				prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK,
+						OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK),
+				prefs.getString(OSMTracker.Preferences.KEY_OUTPUT_ACCURACY,
+						OSMTracker.Preferences.VAL_OUTPUT_ACCURACY),
+				prefs.getBoolean(OSMTracker.Preferences.KEY_OUTPUT_GPX_HDOP_APPROXIMATION,
+						OSMTracker.Preferences.VAL_OUTPUT_GPX_HDOP_APPROXIMATION),
+				prefs.getString(OSMTracker.Preferences.KEY_OUTPUT_COMPASS,
+						OSMTracker.Preferences.VAL_OUTPUT_COMPASS));
+	}
+
+	/**
+	 * @param locationTime Time of the location, on the GPS clock
+	 * @param receivedTime Time the location was received at, on the OS clock
+	 * @return Timestamp of a point at a location: the OS clock when it was received, or the GPS clock
+	 */
+	public long timestamp(long locationTime, long receivedTime) {
+		return ignoreClock ? receivedTime : locationTime;
+	}
+
+}
@@ -0,0 +1,977 @@
+package net.osmtracker.db;
+
+import android.content.ContentValues;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Archive of the track points of finished tracks.
+ *
+ * Archiving a track moves its track points into {@link Schema#TBL_TRACKPOINT_ARCHIVE},
+ * by chunks of {@link TrackPointCodec#CHUNK_SIZE} points encoded by {@link TrackPointCodec},
+ * about 8 times smaller than the rows of {@link Schema#TBL_TRACKPOINT}. The track metrics
+ * are kept as they are. The archived points keep counting in the track statistics: the
+ * triggers of {@link Schema#TBL_TRACKPOINT_ARCHIVE} count the points of the chunks, the
+ * ones of {@link Schema#TBL_TRACKPOINT} the points that aren't archived.
+ *
+ * Archived track points are still read through the provider: the queries of the track points
+ * of a track with archived points are answered by {@link #query}. The queries paging through
+ * a track by id, or by timestamp and id, decode the chunks needed one at a time and merge them
+ * with the track points recorded after the archiving, if the track has been resumed. The
+ * memory used depends on the page read, not on the length of the track: the queries that
+ * would need the whole track decoded, other selections, sort orders or aggregates, are rejected.
+ *
+ * Each chunk stores the bounds of its points, extended to the last point of the previous
+ * chunk and to the first point of the next one, so that the chunks crossing a bounding
+ * box can be found without decoding them, along with the neighbours of their points.
+ */
+final class TrackArchive {
+
+	/**
+	 * Columns of the track points, returned when no projection is given
+	 */
+	static final String[] TRACKPOINT_COLUMNS = {
+		Schema.COL_ID, Schema.COL_TRACK_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+		Schema.COL_SPEED, Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP,
+		Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY, Schema.COL_ATMOSPHERIC_PRESSURE,
+		Schema.COL_GRID_CELL
+	};
+
+	/**
+	 * Projection counting the track points, see {@link TrackPointCursor}
+	 */
+	static final String COUNT = "count(*)";
+
+	/**
+	 * Selection of the track points following an id, see {@link TrackPointCursor}
+	 */
+	static final String SELECTION_AFTER_ID = Schema.COL_ID + " > ?";
+
+	/**
+	 * Selection of the track points following a (timestamp, _id) key, in the order of
+	 * their timestamps then ids, see {@link TrackPointCursor}. Arguments: the timestamp
+	 * twice, then the id. The range on the timestamp lets the time index be used.
+	 */
+	static final String SELECTION_AFTER_KEY = Schema.COL_TIMESTAMP + " >= ? and ("
+			+ Schema.COL_TIMESTAMP + " > ? or " + Schema.COL_ID + " > ?)";
+
+	/**
+	 * Selection of the track points following both an id and a (timestamp, _id) key.
+	 * Arguments: the id, then the ones of {@link #SELECTION_AFTER_KEY}.
+	 */
+	static final String SELECTION_AFTER_ID_AND_KEY = SELECTION_AFTER_ID + " and " + SELECTION_AFTER_KEY;
+
+	/**
+	 * Columns that aren't stored in the chunks, in {@link #mapColumns(String[])}
+	 */
+	private static final int COLUMN_TRACK_ID = -1;
+	private static final int COLUMN_GRID_CELL = -2;
+
+	private static final String[] CHUNK_COLUMNS = {
+		Schema.COL_ID, Schema.COL_FIRST_ID, Schema.COL_LAST_ID, Schema.COL_POINT_COUNT,
+		Schema.COL_MIN_LATITUDE, Schema.COL_MAX_LATITUDE, Schema.COL_MIN_LONGITUDE, Schema.COL_MAX_LONGITUDE
+	};
+
+	/**
+	 * Sort orders of the track points, in {@link #parseOrder(String)}
+	 */
+	private static final int ORDER_ID = 0;
+	private static final int ORDER_ID_DESC = 1;
+	private static final int ORDER_TIMESTAMP = 2;
+	private static final int ORDER_OTHER = 3;
+
+	/**
+	 * Maximum number of rows evaluated by SQLite at once, see {@link #evaluate}
+	 */
+	private static final int EVALUATED_ROWS = 400;
+
+	private TrackArchive() {
+	}
+
+	/**
+	 * A chunk of archived track points, without its data
+	 */
+	private static final class ChunkInfo {
+		long rowId;
+		long firstId;
+		long lastId;
+		int count;
+		double minLatitude, maxLatitude, minLongitude, maxLongitude;
+
+		ChunkInfo(Cursor c) {
+			rowId = c.getLong(0);
+			firstId = c.getLong(1);
+			lastId = c.getLong(2);
+			count = c.getInt(3);
+			minLatitude = c.getDouble(4);
+			maxLatitude = c.getDouble(5);
+			minLongitude = c.getDouble(6);
+			maxLongitude = c.getDouble(7);
+		}
+	}
+
+	/**
+	 * Moves the track points of a track into the archive
+	 * @param db Database
+	 * @param trackId Id of the track
+	 * @return Number of track points archived
+	 */
+	static int archive(SQLiteDatabase db, long trackId) {
+		String[] trackIdArgs = new String[] {Long.toString(trackId)};
+		int count = 0;
+		db.beginTransaction();
+		try {
+			// Last point archived so far, to extend the bounds of the chunks on each side
+			List<ChunkInfo> chunks = readChunks(db, trackId, -1);
+			ChunkInfo previousChunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			double[] previousPoint = null;
+			long previousTimestamp = Long.MIN_VALUE;
+			if (previousChunk != null) {
+				TrackPointCodec.Chunk decoded = decode(db, previousChunk);
+				previousPoint = new double[] {
+					decoded.getDouble(decoded.size - 1, TrackPointCodec.LATITUDE),
+					decoded.getDouble(decoded.size - 1, TrackPointCodec.LONGITUDE)};
+				previousTimestamp = decoded.getLong(decoded.size - 1, TrackPointCodec.TIMESTAMP);
+			}
+
+			// Points are read by chunks, along with the first point of the next chunk
+			long lastId = -1;
+			boolean more = true;
+			while (more) {
+				Cursor c = db.query(Schema.TBL_TRACKPOINT, TrackPointCodec.COLUMNS,
+						Schema.COL_TRACK_ID + " = ? and " + Schema.COL_ID + " > ?",
+						new String[] {Long.toString(trackId), Long.toString(lastId)},
+						null, null, Schema.COL_ID + " asc", Integer.toString(TrackPointCodec.CHUNK_SIZE + 1));
+				try {
+					if (!c.moveToFirst()) {
+						break;
+					}
+					if (previousChunk != null) {
+						extendBounds(db, previousChunk, c.getDouble(TrackPointCodec.LATITUDE), c.getDouble(TrackPointCodec.LONGITUDE));
+						previousChunk = null;
+					}
+					int size = Math.min(TrackPointCodec.CHUNK_SIZE, c.getCount());
+					more = c.getCount() > size;
+
+					// Bounds of the points, and of their neighbours
+					double[] bounds = {Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+					if (previousPoint != null) {
+						extend(bounds, previousPoint[0], previousPoint[1]);
+					}
+					do {
+						extend(bounds, c.getDouble(TrackPointCodec.LATITUDE), c.getDouble(TrackPointCodec.LONGITUDE));
+					} while (c.moveToNext());
+
+					// Whether the timestamps of the points follow their ids, from the previous point
+					boolean timeOrdered = true;
+					long minTimestamp = Long.MAX_VALUE;
+					long maxTimestamp = Long.MIN_VALUE;
+					for (c.moveToFirst(); c.getPosition() < size; c.moveToNext()) {
+						long timestamp = c.getLong(TrackPointCodec.TIMESTAMP);
+						timeOrdered &= timestamp >= previousTimestamp;
+						minTimestamp = Math.min(minTimestamp, timestamp);
+						maxTimestamp = Math.max(maxTimestamp, timestamp);
+						previousTimestamp = timestamp;
+					}
+
+					c.moveToFirst();
+					ContentValues values = new ContentValues();
+					values.put(Schema.COL_TRACK_ID, trackId);
+					values.put(Schema.COL_FIRST_ID, c.getLong(TrackPointCodec.ID));
+					values.put(Schema.COL_DATA, TrackPointCodec.encode(c, size));
+					lastId = c.getLong(TrackPointCodec.ID);
+					values.put(Schema.COL_LAST_ID, lastId);
+					values.put(Schema.COL_POINT_COUNT, size);
+					values.put(Schema.COL_MIN_LATITUDE, bounds[0]);
+					values.put(Schema.COL_MAX_LATITUDE, bounds[1]);
+					values.put(Schema.COL_MIN_LONGITUDE, bounds[2]);
+					values.put(Schema.COL_MAX_LONGITUDE, bounds[3]);
+					values.put(Schema.COL_TIME_ORDERED, timeOrdered ? 1 : 0);
+					values.put(Schema.COL_MIN_TIMESTAMP, minTimestamp);
+					values.put(Schema.COL_MAX_TIMESTAMP, maxTimestamp);
+					db.insertOrThrow(Schema.TBL_TRACKPOINT_ARCHIVE, null, values);
+
+					previousPoint = new double[] {c.getDouble(TrackPointCodec.LATITUDE), c.getDouble(TrackPointCodec.LONGITUDE)};
+					count += size;
+				} finally {
+					c.close();
+				}
+			}
+
+			if (count > 0) {
+				db.delete(Schema.TBL_TRACKPOINT, Schema.COL_TRACK_ID + " = ?", trackIdArgs);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if some track points of a track are archived
+	 */
+	static boolean hasArchive(SQLiteDatabase db, long trackId) {
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, new String[] {Schema.COL_ID}, Schema.COL_TRACK_ID + " = ?",
+				new String[] {Long.toString(trackId)}, null, null, null, "1");
+		try {
+			return c.moveToFirst();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return Size of the archived track points of a track, in bytes
+	 */
+	static long getArchiveSize(SQLiteDatabase db, long trackId) {
+		Cursor c = db.rawQuery("select sum(length(" + Schema.COL_DATA + ")) from " + Schema.TBL_TRACKPOINT_ARCHIVE
+				+ " where " + Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)});
+		try {
+			return c.moveToFirst() ? c.getLong(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Queries the track points of a track, archived or not, paging through the track by id or
+	 * by timestamp: see {@link #queryChunks} and {@link #queryByTimestamp}.
+	 * @param projection Columns of the track points, or {@link #COUNT}. null for all the columns.
+	 * @param selection Selection of the track points: null for all, {@link #SELECTION_AFTER_ID},
+	 * or {@link #SELECTION_AFTER_KEY} and {@link #SELECTION_AFTER_ID_AND_KEY} in timestamp order
+	 * @param sortOrder Order of the track points: null for the recording order, by id, by
+	 * descending id, or by timestamp then id
+	 * @param limit Maximum number of track points, null for all
+	 * @throws IllegalArgumentException If the query can't page through the archive
+	 */
+	static Cursor query(SQLiteDatabase db, long trackId, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder, String limit) {
+		int order = parseOrder(sortOrder);
+		long afterId = -1;
+		// (timestamp, _id) key the track points follow, if any
+		long[] key = null;
+		if (selection == null) {
+			// All the track points
+		} else if (SELECTION_AFTER_ID.equals(selection) && selectionArgs != null && selectionArgs.length == 1) {
+			afterId = Long.parseLong(selectionArgs[0]);
+		} else if (SELECTION_AFTER_KEY.equals(selection) && selectionArgs != null && selectionArgs.length == 3
+				&& order == ORDER_TIMESTAMP) {
+			key = new long[] {Long.parseLong(selectionArgs[0]), Long.parseLong(selectionArgs[2])};
+		} else if (SELECTION_AFTER_ID_AND_KEY.equals(selection) && selectionArgs != null && selectionArgs.length == 4
+				&& order == ORDER_TIMESTAMP) {
+			afterId = Long.parseLong(selectionArgs[0]);
+			key = new long[] {Long.parseLong(selectionArgs[1]), Long.parseLong(selectionArgs[3])};
+		} else {
+			throw unsupported(projection, selection, sortOrder);
+		}
+		if (order == ORDER_OTHER) {
+			throw unsupported(projection, selection, sortOrder);
+		}
+
+		// The track points that aren't archived are selected as asked
+		String liveSelection = Schema.COL_TRACK_ID + " = ?";
+		String[] liveArgs = new String[] {Long.toString(trackId)};
+		if (selection != null) {
+			liveSelection += " and (" + selection + ")";
+			liveArgs = new String[selectionArgs.length + 1];
+			liveArgs[0] = Long.toString(trackId);
+			System.arraycopy(selectionArgs, 0, liveArgs, 1, selectionArgs.length);
+		}
+
+		if (projection != null && projection.length == 1 && COUNT.equalsIgnoreCase(projection[0])) {
+			if (key != null) {
+				throw unsupported(projection, selection, sortOrder);
+			}
+			int count = new ChunkCursor(db, trackId, TRACKPOINT_COLUMNS, afterId, false, Integer.MAX_VALUE).getCount();
+			Cursor live = db.query(Schema.TBL_TRACKPOINT, projection, liveSelection, liveArgs, null, null, null);
+			try {
+				live.moveToFirst();
+				count += live.getInt(0);
+			} finally {
+				live.close();
+			}
+			MatrixCursor out = new MatrixCursor(projection, 1);
+			out.addRow(new Object[] {count});
+			return out;
+		}
+
+		String[] columns = projection != null ? projection : TRACKPOINT_COLUMNS;
+		if (mapColumns(columns) == null) {
+			throw unsupported(projection, selection, sortOrder);
+		}
+		if (order == ORDER_TIMESTAMP && !isTimeOrdered(db, trackId)) {
+			return queryByTimestamp(db, trackId, columns, afterId, key, liveSelection, liveArgs, limit);
+		}
+		if (key != null) {
+			// On a time ordered track, the archived points following the key are the ones following its id
+			afterId = Math.max(afterId, key[1]);
+		}
+		return queryChunks(db, trackId, columns, afterId, order == ORDER_ID_DESC, liveSelection, liveArgs,
+				order == ORDER_TIMESTAMP ? sortOrder : null, limit);
+	}
+
+	/**
+	 * @return Exception rejecting a query that can't page through the archive
+	 */
+	private static IllegalArgumentException unsupported(String[] projection, String selection, String sortOrder) {
+		return new IllegalArgumentException("Unsupported query of archived track points: projection "
+				+ Arrays.toString(projection) + ", selection " + selection + ", order " + sortOrder);
+	}
+
+	/**
+	 * Queries the track points of a track following an id, decoding the chunks as the cursor moves
+	 * and following them with the track points that aren't archived, whose ids are greater.
+	 * @param columns Columns of the track points, see {@link #mapColumns(String[])}
+	 * @param afterId Only return the archived track points with an _id greater than this one
+	 * @param descending true to return the track points by descending id, false by ascending id
+	 * @param liveSelection Selection of the track points that aren't archived, with its arguments
+	 * @param liveOrder Sort order of the track points that aren't archived, null for their ids.
+	 * Must be consistent with their ids, for the archived track points.
+	 * @param limit Maximum number of track points, null for all
+	 */
+	private static Cursor queryChunks(SQLiteDatabase db, long trackId, String[] columns, long afterId,
+			boolean descending, String liveSelection, String[] liveArgs, String liveOrder, String limit) {
+		int max = limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+		if (liveOrder == null) {
+			liveOrder = Schema.COL_ID + (descending ? " desc" : " asc");
+		}
+		if (!descending) {
+			Cursor archived = new ChunkCursor(db, trackId, columns, afterId, false, max);
+			Cursor live = db.query(Schema.TBL_TRACKPOINT, columns, liveSelection, liveArgs, null, null,
+					liveOrder, Integer.toString(max - archived.getCount()));
+			return new MergeCursor(new Cursor[] {archived, live});
+		} else {
+			Cursor live = db.query(Schema.TBL_TRACKPOINT, columns, liveSelection, liveArgs, null, null,
+					liveOrder, limit);
+			Cursor archived = new ChunkCursor(db, trackId, columns, afterId, true, max - live.getCount());
+			return new MergeCursor(new Cursor[] {live, archived});
+		}
+	}
+
+	/**
+	 * Queries the track points of a track following a (timestamp, _id) key, by timestamp then id,
+	 * when the archived track points weren't recorded in that order. The chunks are decoded one
+	 * at a time by ascending smallest timestamp, keeping the first track points found, until
+	 * the next chunks can only hold later ones: a page of the track only needs the chunks
+	 * around it, and only the page is kept in memory.
+	 * @param columns Columns of the track points, see {@link #mapColumns(String[])}
+	 * @param afterId Only return the track points with an _id greater than this one
+	 * @param key Only return the track points following this (timestamp, _id) key, null for all
+	 * @param liveSelection Selection of the track points that aren't archived, with its arguments
+	 * @param limit Maximum number of track points, null for all
+	 * @return Cursor over the track points, read in memory
+	 */
+	private static Cursor queryByTimestamp(SQLiteDatabase db, long trackId, String[] columns, long afterId,
+			long[] key, String liveSelection, String[] liveArgs, String limit) {
+		final int max = limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+		// Greatest (timestamp, _id) first, to drop it when a smaller one is found
+		PriorityQueue<TimestampedRow> rows = new PriorityQueue<TimestampedRow>(11, Collections.reverseOrder());
+
+		// Track points that aren't archived, in their own order
+		String[] liveColumns = Arrays.copyOf(columns, columns.length + 2);
+		liveColumns[columns.length] = Schema.COL_TIMESTAMP;
+		liveColumns[columns.length + 1] = Schema.COL_ID;
+		Cursor live = db.query(Schema.TBL_TRACKPOINT, liveColumns, liveSelection, liveArgs, null, null,
+				Schema.COL_TIMESTAMP + " asc, " + Schema.COL_ID + " asc", limit);
+		try {
+			while (live.moveToNext()) {
+				rows.add(new TimestampedRow(live.getLong(columns.length), live.getLong(columns.length + 1),
+						values(live, columns.length)));
+			}
+		} finally {
+			live.close();
+		}
+
+		// Chunks that can hold track points following the key
+		String chunkSelection = Schema.COL_TRACK_ID + " = ? and " + Schema.COL_LAST_ID + " > ?";
+		String[] chunkArgs = {Long.toString(trackId), Long.toString(afterId)};
+		if (key != null) {
+			chunkSelection += " and (" + Schema.COL_MAX_TIMESTAMP + " is null or " + Schema.COL_MAX_TIMESTAMP + " >= ?)";
+			chunkArgs = new String[] {chunkArgs[0], chunkArgs[1], Long.toString(key[0])};
+		}
+		List<ChunkInfo> chunks = new ArrayList<ChunkInfo>();
+		List<Long> minTimestamps = new ArrayList<Long>();
+		String[] chunkColumns = Arrays.copyOf(CHUNK_COLUMNS, CHUNK_COLUMNS.length + 1);
+		chunkColumns[CHUNK_COLUMNS.length] = Schema.COL_MIN_TIMESTAMP;
+		// Chunks archived without their smallest timestamp first: it's unknown
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, chunkColumns, chunkSelection, chunkArgs, null, null,
+				Schema.COL_MIN_TIMESTAMP + " asc");
+		try {
+			while (c.moveToNext()) {
+				chunks.add(new ChunkInfo(c));
+				minTimestamps.add(c.isNull(CHUNK_COLUMNS.length) ? null : c.getLong(CHUNK_COLUMNS.length));
+			}
+		} finally {
+			c.close();
+		}
+
+		int[] mapping = mapColumns(columns);
+		for (int i = 0; i < chunks.size(); i++) {
+			Long minTimestamp = minTimestamps.get(i);
+			if (rows.size() >= max && (rows.isEmpty() || (minTimestamp != null && minTimestamp > rows.peek().timestamp))) {
+				// The points of this chunk and of the next ones all come after the page
+				break;
+			}
+			TrackPointCodec.Chunk chunk = decode(db, chunks.get(i));
+			for (int point = 0; point < chunk.size; point++) {
+				long id = chunk.getLong(point, TrackPointCodec.ID);
+				long timestamp = chunk.getLong(point, TrackPointCodec.TIMESTAMP);
+				if (id <= afterId || (key != null && (timestamp < key[0] || (timestamp == key[0] && id <= key[1])))) {
+					continue;
+				}
+				TimestampedRow row = new TimestampedRow(timestamp, id, null);
+				if (rows.size() < max) {
+					row.values = row(chunk, point, mapping, trackId);
+					rows.add(row);
+				} else if (row.compareTo(rows.peek()) < 0) {
+					rows.poll();
+					row.values = row(chunk, point, mapping, trackId);
+					rows.add(row);
+				}
+			}
+		}
+
+		TimestampedRow[] sorted = rows.toArray(new TimestampedRow[0]);
+		Arrays.sort(sorted);
+		MatrixCursor out = new MatrixCursor(columns, sorted.length);
+		for (TimestampedRow row : sorted) {
+			out.addRow(row.values);
+		}
+		return out;
+	}
+
+	/**
+	 * Values of a track point, ordered by timestamp then id
+	 */
+	private static final class TimestampedRow implements Comparable<TimestampedRow> {
+		final long timestamp;
+		final long id;
+		Object[] values;
+
+		TimestampedRow(long timestamp, long id, Object[] values) {
+			this.timestamp = timestamp;
+			this.id = id;
+			this.values = values;
+		}
+
+		@Override
+		public int compareTo(TimestampedRow other) {
+			if (timestamp != other.timestamp) {
+				return timestamp < other.timestamp ? -1 : 1;
+			}
+			return id < other.id ? -1 : (id == other.id ? 0 : 1);
+		}
+	}
+
+	/**
+	 * @return Values of the first columns of the current row of a cursor
+	 */
+	private static Object[] values(Cursor c, int count) {
+		Object[] out = new Object[count];
+		for (int i = 0; i < count; i++) {
+			switch (c.getType(i)) {
+			case Cursor.FIELD_TYPE_NULL:
+				out[i] = null;
+				break;
+			case Cursor.FIELD_TYPE_INTEGER:
+				out[i] = c.getLong(i);
+				break;
+			case Cursor.FIELD_TYPE_FLOAT:
+				out[i] = c.getDouble(i);
+				break;
+			case Cursor.FIELD_TYPE_BLOB:
+				out[i] = c.getBlob(i);
+				break;
+			default:
+				out[i] = c.getString(i);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Evaluates expressions on track points decoded from the chunks: SQLite runs them on
+	 * the values of {@link #EVALUATED_ROWS} rows at most at once, written in the query.
+	 * Nothing is written to the database. The expressions are evaluated row by row:
+	 * aggregates are rejected.
+	 * @param columns Names of the values of the rows
+	 * @param rows Values of the rows: integers, doubles or null
+	 * @param projection Expressions on the columns
+	 * @return Cursor over the values of the expressions, in the order of the rows
+	 * @throws IllegalArgumentException If the expressions don't return a row for each row
+	 */
+	private static MatrixCursor evaluate(SQLiteDatabase db, String[] columns, List<Object[]> rows, String[] projection) {
+		MatrixCursor out = null;
+		for (int start = 0; out == null || start < rows.size(); start += EVALUATED_ROWS) {
+			StringBuilder sql = new StringBuilder("select ").append(TextUtils.join(", ", projection)).append(" from (");
+			List<Object[]> batch = rows.subList(start, Math.min(rows.size(), start + EVALUATED_ROWS));
+			if (batch.isEmpty()) {
+				// Only the names of the columns are read
+				batch = Collections.singletonList(new Object[columns.length]);
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				sql.append(i == 0 ? "select " : " union all select ");
+				for (int column = 0; column < columns.length; column++) {
+					sql.append(column == 0 ? "" : ", ").append(literal(batch.get(i)[column]));
+					if (i == 0) {
+						sql.append(" as ").append(columns[column]);
+					}
+				}
+			}
+			sql.append(") as ").append(Schema.TBL_TRACKPOINT);
+			if (start >= rows.size()) {
+				sql.append(" where 0");
+			}
+			Cursor c = db.rawQuery(sql.toString(), null);
+			try {
+				if (out == null) {
+					out = new MatrixCursor(c.getColumnNames(), rows.size());
+				}
+				if (start < rows.size() && c.getCount() != batch.size()) {
+					throw new IllegalArgumentException("Unsupported expressions on archived track points: "
+							+ Arrays.toString(projection));
+				}
+				while (c.moveToNext()) {
+					out.addRow(values(c, c.getColumnCount()));
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return SQL literal of a value of a track point
+	 */
+	private static String literal(Object value) {
+		if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())) {
+			return "null";
+		}
+		// Doubles always have a decimal point or an exponent, so they're read as reals
+		return String.valueOf(value);
+	}
+
+	/**
+	 * @return Kind of a sort order of the track points: {@link #ORDER_ID}, {@link #ORDER_ID_DESC},
+	 * {@link #ORDER_TIMESTAMP} (ascending timestamps, then ascending ids) or {@link #ORDER_OTHER}
+	 */
+	private static int parseOrder(String sortOrder) {
+		if (sortOrder == null) {
+			return ORDER_ID;
+		}
+		String order = sortOrder.trim().toLowerCase(Locale.US)
+				.replaceAll("\\s+", " ").replaceAll(" ?, ?", ",").replaceAll(" asc(,|$)", "$1");
+		if (order.isEmpty() || order.equals(Schema.COL_ID)) {
+			return ORDER_ID;
+		} else if (order.equals(Schema.COL_ID + " desc")) {
+			return ORDER_ID_DESC;
+		} else if (order.equals(Schema.COL_TIMESTAMP) || order.equals(Schema.COL_TIMESTAMP + "," + Schema.COL_ID)) {
+			return ORDER_TIMESTAMP;
+		}
+		return ORDER_OTHER;
+	}
+
+	/**
+	 * @return true if ordering the track points of a track by timestamp, then by id, orders
+	 * the archived ones by id and before the others: the archived track points were recorded
+	 * in order, and no track point recorded after them is older.
+	 */
+	private static boolean isTimeOrdered(SQLiteDatabase db, long trackId) {
+		return DatabaseUtils.longForQuery(db, "select not exists (select 1 from " + Schema.TBL_TRACKPOINT_ARCHIVE
+				+ " where " + Schema.COL_TRACK_ID + " = ?1 and " + Schema.COL_TIME_ORDERED + " = 0)"
+				+ " and not exists (select 1 from " + Schema.TBL_TRACKPOINT
+				+ " where " + Schema.COL_TRACK_ID + " = ?1 and " + Schema.COL_TIMESTAMP + " < "
+				+ "(select max(" + Schema.COL_MAX_TIMESTAMP + ") from " + Schema.TBL_TRACKPOINT_ARCHIVE
+				+ " where " + Schema.COL_TRACK_ID + " = ?1))",
+				new String[] {Long.toString(trackId)}) == 1;
+	}
+
+	/**
+	 * Queries the archived track points of a track inside a bounding box, along
+	 * with the track points just before and after them, by ascending id.
+	 * If west is greater than east, the box crosses the antimeridian.
+	 * The projection can include {@link Schema#COL_PREVIOUS_ID}.
+	 * @param projection Columns of the track points, or any expression on them. null for all the columns.
+	 */
+	static Cursor queryBox(SQLiteDatabase db, long trackId, String[] projection,
+			double south, double west, double north, double east) {
+		String[] columns = projection != null ? projection : TRACKPOINT_COLUMNS;
+		// The id of the previous point isn't stored, but known when reading the points in order
+		int previousIdColumn = Arrays.asList(columns).indexOf(Schema.COL_PREVIOUS_ID);
+		String[] stored = columns;
+		if (previousIdColumn >= 0) {
+			stored = columns.clone();
+			stored[previousIdColumn] = Schema.COL_ID;
+		}
+		int[] mapping = mapColumns(stored);
+		if (mapping == null) {
+			// Finds the track points from the chunks, then evaluates the expressions on them
+			String[] found = Arrays.copyOf(TRACKPOINT_COLUMNS, TRACKPOINT_COLUMNS.length + 1);
+			found[TRACKPOINT_COLUMNS.length] = Schema.COL_PREVIOUS_ID;
+			Cursor c = queryBox(db, trackId, found, south, west, north, east);
+			List<Object[]> rows = new ArrayList<Object[]>(c.getCount());
+			try {
+				while (c.moveToNext()) {
+					rows.add(values(c, found.length));
+				}
+			} finally {
+				c.close();
+			}
+			return evaluate(db, found, rows, columns);
+		}
+		MatrixCursor out = new MatrixCursor(columns);
+
+		// A point is returned if it or one of its neighbours is inside the box. The points are
+		// read with a delay of one, to know whether the next one is inside when deciding.
+		TrackPointCodec.Chunk previousChunk = null;
+		int previousPoint = 0;
+		boolean previousInside = false, beforePreviousInside = false;
+		// Ids of the point preceding the previous point, and of the last point read
+		Long beforePreviousId = null, lastId = null;
+		for (ChunkInfo info : readChunks(db, trackId, -1)) {
+			if (!intersects(info, south, west, north, east)) {
+				// The neighbours of the points of the chunk are outside too
+				if (previousChunk != null && (beforePreviousInside || previousInside)) {
+					addRow(out, previousChunk, previousPoint, mapping, trackId, previousIdColumn, beforePreviousId);
+				}
+				previousChunk = null;
+				previousInside = beforePreviousInside = false;
+				lastId = info.lastId;
+				continue;
+			}
+			TrackPointCodec.Chunk chunk = decode(db, info);
+			for (int i = 0; i < chunk.size; i++) {
+				boolean inside = contains(chunk.getDouble(i, TrackPointCodec.LATITUDE), chunk.getDouble(i, TrackPointCodec.LONGITUDE),
+						south, west, north, east);
+				if (previousChunk != null && (beforePreviousInside || previousInside || inside)) {
+					addRow(out, previousChunk, previousPoint, mapping, trackId, previousIdColumn, beforePreviousId);
+				}
+				beforePreviousInside = previousInside;
+				previousInside = inside;
+				previousChunk = chunk;
+				previousPoint = i;
+				beforePreviousId = lastId;
+				lastId = chunk.getLong(i, TrackPointCodec.ID);
+			}
+		}
+		if (previousChunk != null && (beforePreviousInside || previousInside)) {
+			addRow(out, previousChunk, previousPoint, mapping, trackId, previousIdColumn, beforePreviousId);
+		}
+		return out;
+	}
+
+	/**
+	 * Adds a row of the bounding box query, see {@link #queryBox}
+	 * @param previousIdColumn Index of {@link Schema#COL_PREVIOUS_ID}, -1 if it isn't queried
+	 * @param previousId Id of the point preceding the point of the row
+	 */
+	private static void addRow(MatrixCursor out, TrackPointCodec.Chunk chunk, int point, int[] mapping, long trackId,
+			int previousIdColumn, Long previousId) {
+		Object[] row = row(chunk, point, mapping, trackId);
+		if (previousIdColumn >= 0) {
+			row[previousIdColumn] = previousId;
+		}
+		out.addRow(row);
+	}
+
+	/**
+	 * Queries an archived track point
+	 * @param projection Columns of the track point, or any expression on them. null for all the columns.
+	 * @return Cursor over the track point, or null if it isn't archived
+	 */
+	static Cursor queryTrackPoint(SQLiteDatabase db, long trackPointId, String[] projection) {
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, new String[] {Schema.COL_TRACK_ID, Schema.COL_DATA},
+				Schema.COL_FIRST_ID + " <= ? and " + Schema.COL_LAST_ID + " >= ?",
+				new String[] {Long.toString(trackPointId), Long.toString(trackPointId)}, null, null, null);
+		try {
+			String[] columns = projection != null ? projection : TRACKPOINT_COLUMNS;
+			int[] mapping = mapColumns(columns);
+			while (c.moveToNext()) {
+				TrackPointCodec.Chunk chunk = TrackPointCodec.decode(c.getBlob(1));
+				int i = Arrays.binarySearch(chunk.values[TrackPointCodec.ID], 0, chunk.size, trackPointId);
+				if (i >= 0 && mapping == null) {
+					return evaluate(db, TRACKPOINT_COLUMNS,
+							Collections.singletonList(row(chunk, i, mapColumns(TRACKPOINT_COLUMNS), c.getLong(0))), columns);
+				} else if (i >= 0) {
+					MatrixCursor out = new MatrixCursor(columns, 1);
+					out.addRow(row(chunk, i, mapping, c.getLong(0)));
+					return out;
+				}
+			}
+			return null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Cursor over the archived track points of a track following an id, decoding
+	 * one chunk at a time as the cursor moves
+	 */
+	private static final class ChunkCursor extends AbstractCursor {
+
+		private final SQLiteDatabase db;
+		private final long trackId;
+		private final String[] columns;
+		private final int[] mapping;
+		private final boolean descending;
+
+		private final List<ChunkInfo> chunks;
+
+		/**
+		 * Position of the first point of each chunk, among all the points of the chunks
+		 */
+		private final int[] chunkStarts;
+
+		/**
+		 * Points of the first chunk preceding the id to start after
+		 */
+		private int skipped = 0;
+
+		private final int total;
+		private final int count;
+
+		private int currentChunkIndex = -1;
+		private TrackPointCodec.Chunk currentChunk;
+		private int currentPoint;
+
+		ChunkCursor(SQLiteDatabase db, long trackId, String[] columns, long afterId, boolean descending, int limit) {
+			this.db = db;
+			this.trackId = trackId;
+			this.columns = columns;
+			this.mapping = mapColumns(columns);
+			this.descending = descending;
+
+			chunks = readChunks(db, trackId, afterId);
+			chunkStarts = new int[chunks.size()];
+			int points = 0;
+			for (int i = 0; i < chunks.size(); i++) {
+				chunkStarts[i] = points;
+				points += chunks.get(i).count;
+			}
+			if (!chunks.isEmpty() && chunks.get(0).firstId <= afterId) {
+				loadChunk(0);
+				while (skipped < currentChunk.size && currentChunk.values[TrackPointCodec.ID][skipped] <= afterId) {
+					skipped++;
+				}
+			}
+			total = points - skipped;
+			count = Math.max(0, Math.min(total, limit));
+		}
+
+		private void loadChunk(int index) {
+			currentChunk = decode(db, chunks.get(index));
+			currentChunkIndex = index;
+		}
+
+		@Override
+		public boolean onMove(int oldPosition, int newPosition) {
+			int point = (descending ? total - 1 - newPosition : newPosition) + skipped;
+			int index = Arrays.binarySearch(chunkStarts, point);
+			if (index < 0) {
+				index = -index - 2;
+			}
+			if (index != currentChunkIndex) {
+				loadChunk(index);
+			}
+			currentPoint = point - chunkStarts[index];
+			return true;
+		}
+
+		@Override
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return columns;
+		}
+
+		@Override
+		public String getString(int column) {
+			Object value = value(currentChunk, currentPoint, mapping[column], trackId);
+			return value == null ? null : value.toString();
+		}
+
+		@Override
+		public short getShort(int column) {
+			return (short) getLong(column);
+		}
+
+		@Override
+		public int getInt(int column) {
+			return (int) getLong(column);
+		}
+
+		@Override
+		public long getLong(int column) {
+			int c = mapping[column];
+			if (c == COLUMN_TRACK_ID) {
+				return trackId;
+			} else if (c == COLUMN_GRID_CELL) {
+				return gridCell(currentChunk, currentPoint);
+			}
+			return currentChunk.getLong(currentPoint, c);
+		}
+
+		@Override
+		public float getFloat(int column) {
+			return (float) getDouble(column);
+		}
+
+		@Override
+		public double getDouble(int column) {
+			int c = mapping[column];
+			if (c < 0) {
+				return getLong(column);
+			}
+			return TrackPointCodec.INTEGERS[c] ? currentChunk.getLong(currentPoint, c) : currentChunk.getDouble(currentPoint, c);
+		}
+
+		@Override
+		public int getType(int column) {
+			int c = mapping[column];
+			if (c < 0 || (TrackPointCodec.INTEGERS[c] && !currentChunk.isNull(currentPoint, c))) {
+				return FIELD_TYPE_INTEGER;
+			}
+			return currentChunk.isNull(currentPoint, c) ? FIELD_TYPE_NULL : FIELD_TYPE_FLOAT;
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			int c = mapping[column];
+			return c >= 0 && currentChunk.isNull(currentPoint, c);
+		}
+	}
+
+	/**
+	 * @return Chunks of a track with points following an id, in order
+	 */
+	private static List<ChunkInfo> readChunks(SQLiteDatabase db, long trackId, long afterId) {
+		List<ChunkInfo> out = new ArrayList<ChunkInfo>();
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, CHUNK_COLUMNS,
+				Schema.COL_TRACK_ID + " = ? and " + Schema.COL_LAST_ID + " > ?",
+				new String[] {Long.toString(trackId), Long.toString(afterId)},
+				null, null, Schema.COL_FIRST_ID + " asc");
+		try {
+			while (c.moveToNext()) {
+				out.add(new ChunkInfo(c));
+			}
+		} finally {
+			c.close();
+		}
+		return out;
+	}
+
+	private static TrackPointCodec.Chunk decode(SQLiteDatabase db, ChunkInfo info) {
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_ARCHIVE, new String[] {Schema.COL_DATA},
+				Schema.COL_ID + " = ?", new String[] {Long.toString(info.rowId)}, null, null, null);
+		try {
+			if (!c.moveToFirst()) {
+				throw new IllegalStateException("Archived track points not found: " + info.rowId);
+			}
+			return TrackPointCodec.decode(c.getBlob(0));
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Extends the bounds of a stored chunk to a point following it
+	 */
+	private static void extendBounds(SQLiteDatabase db, ChunkInfo info, double latitude, double longitude) {
+		double[] bounds = {info.minLatitude, info.maxLatitude, info.minLongitude, info.maxLongitude};
+		extend(bounds, latitude, longitude);
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_MIN_LATITUDE, bounds[0]);
+		values.put(Schema.COL_MAX_LATITUDE, bounds[1]);
+		values.put(Schema.COL_MIN_LONGITUDE, bounds[2]);
+		values.put(Schema.COL_MAX_LONGITUDE, bounds[3]);
+		db.update(Schema.TBL_TRACKPOINT_ARCHIVE, values, Schema.COL_ID + " = ?", new String[] {Long.toString(info.rowId)});
+	}
+
+	private static void extend(double[] bounds, double latitude, double longitude) {
+		bounds[0] = Math.min(bounds[0], latitude);
+		bounds[1] = Math.max(bounds[1], latitude);
+		bounds[2] = Math.min(bounds[2], longitude);
+		bounds[3] = Math.max(bounds[3], longitude);
+	}
+
+	private static boolean contains(double latitude, double longitude, double south, double west, double north, double east) {
+		return latitude >= south && latitude <= north
+				&& (west <= east ? longitude >= west && longitude <= east : longitude >= west || longitude <= east);
+	}
+
+	private static boolean intersects(ChunkInfo info, double south, double west, double north, double east) {
+		if (info.maxLatitude < south || info.minLatitude > north) {
+			return false;
+		}
+		if (west <= east) {
+			return info.maxLongitude >= west && info.minLongitude <= east;
+		}
+		return info.maxLongitude >= west || info.minLongitude <= east;
+	}
+
+	/**
+	 * @return Index of each column in {@link TrackPointCodec#COLUMNS}, or {@link #COLUMN_TRACK_ID}
+	 * or {@link #COLUMN_GRID_CELL}. null if a column isn't a column of the track points.
+	 */
+	private static int[] mapColumns(String[] columns) {
+		List<String> stored = Arrays.asList(TrackPointCodec.COLUMNS);
+		int[] out = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			if (Schema.COL_TRACK_ID.equals(columns[i])) {
+				out[i] = COLUMN_TRACK_ID;
+			} else if (Schema.COL_GRID_CELL.equals(columns[i])) {
+				out[i] = COLUMN_GRID_CELL;
+			} else {
+				out[i] = stored.indexOf(columns[i]);
+				if (out[i] < 0) {
+					return null;
+				}
+			}
+		}
+		return out;
+	}
+
+	private static Object[] row(TrackPointCodec.Chunk chunk, int point, int[] mapping, long trackId) {
+		Object[] out = new Object[mapping.length];
+		for (int i = 0; i < mapping.length; i++) {
+			out[i] = value(chunk, point, mapping[i], trackId);
+		}
+		return out;
+	}
+
+	private static Object value(TrackPointCodec.Chunk chunk, int point, int column, long trackId) {
+		if (column == COLUMN_TRACK_ID) {
+			return trackId;
+		} else if (column == COLUMN_GRID_CELL) {
+			return gridCell(chunk, point);
+		} else if (chunk.isNull(point, column)) {
+			return null;
+		}
+		return TrackPointCodec.INTEGERS[column] ? (Object) chunk.getLong(point, column) : (Object) chunk.getDouble(point, column);
+	}
+
+	private static int gridCell(TrackPointCodec.Chunk chunk, int point) {
+		return GridIndex.cellOf(chunk.getDouble(point, TrackPointCodec.LATITUDE), chunk.getDouble(point, TrackPointCodec.LONGITUDE));
+	}
+
+}
@@ -1,16 +1,30 @@
 package net.osmtracker.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.osmtracker.OSMTracker;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.util.Log;
@@ -64,9 +78,29 @@ public class TrackContentProvider extends ContentProvider {
 	public static final Uri CONTENT_URI_TRACKPOINT = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_TRACKPOINT);
 
 	/**
-	 * tables and joins to be used within a query to get the important informations of a track
+	 * Query parameter limiting the number of rows returned by a trackpoints Uri,
+	 * see {@link #trackPointsUri(long, int)}
 	 */
-	private static final String TRACK_TABLES = Schema.TBL_TRACK + " left join " + Schema.TBL_TRACKPOINT + " on " + Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID;
+	public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+	/**
+	 * Query parameters giving the bounding box of a bounding box Uri,
+	 * see {@link #trackPointsInBoxUri(long, double, double, double, double)}
+	 */
+	public static final String QUERY_PARAMETER_SOUTH = "south";
+	public static final String QUERY_PARAMETER_WEST = "west";
+	public static final String QUERY_PARAMETER_NORTH = "north";
+	public static final String QUERY_PARAMETER_EAST = "east";
+
+	/**
+	 * tables and joins to be used within a query to get the important informations of a track.
+	 * Counts, first/last points and bounds come from the track statistics table, maintained
+	 * by triggers (see {@link DatabaseHelper}), and distance, speed, etc. from the track
+	 * metrics table, so that no track point needs to be read.
+	 */
+	private static final String TRACK_TABLES = Schema.TBL_TRACK
+		+ " left join " + Schema.TBL_TRACK_STATS + " on " + Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + Schema.TBL_TRACK_STATS + "." + Schema.COL_TRACK_ID
+		+ " left join " + Schema.TBL_TRACK_METRICS + " on " + Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + Schema.TBL_TRACK_METRICS + "." + Schema.COL_TRACK_ID;
 	
 	/**
 	 * the projection to be used to get the important informations of a track
@@ -82,26 +116,46 @@ public class TrackContentProvider extends ContentProvider {
 		Schema.COL_TAGS,
 		Schema.COL_OSM_VISIBILITY,
 		Schema.COL_START_DATE,
-		"count(" + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID + ") as " + Schema.COL_TRACKPOINT_COUNT,
-		"(SELECT count(" + Schema.TBL_WAYPOINT + "." + Schema.COL_TRACK_ID +") " +
-				"FROM " + Schema.TBL_WAYPOINT + " " +
-				"WHERE " +	Schema.TBL_WAYPOINT + "." + Schema.COL_TRACK_ID +" " +
-					"= " + Schema.TBL_TRACK + "." + Schema.COL_ID +") " +
-				"as " + Schema.COL_WAYPOINT_COUNT,
-		"(SELECT count(" + Schema.TBL_NOTE + "." + Schema.COL_TRACK_ID +") " +
-				"FROM " + Schema.TBL_NOTE + " " +
-				"WHERE " +	Schema.TBL_NOTE + "." + Schema.COL_TRACK_ID +" " +
-				"= " + Schema.TBL_TRACK + "." + Schema.COL_ID +") " +
-				"as " + Schema.COL_NOTE_COUNT,
+		"ifnull(" + Schema.COL_TRACKPOINT_COUNT + ", 0) as " + Schema.COL_TRACKPOINT_COUNT,
+		"ifnull(" + Schema.COL_WAYPOINT_COUNT + ", 0) as " + Schema.COL_WAYPOINT_COUNT,
+		"ifnull(" + Schema.COL_NOTE_COUNT + ", 0) as " + Schema.COL_NOTE_COUNT,
+		Schema.COL_FIRST_TIMESTAMP,
+		Schema.COL_FIRST_LATITUDE,
+		Schema.COL_FIRST_LONGITUDE,
+		Schema.COL_LAST_TIMESTAMP,
+		Schema.COL_LAST_LATITUDE,
+		Schema.COL_LAST_LONGITUDE,
+		Schema.COL_MIN_LATITUDE,
+		Schema.COL_MAX_LATITUDE,
+		Schema.COL_MIN_LONGITUDE,
+		Schema.COL_MAX_LONGITUDE,
+		Schema.COL_METRICS_POINT_COUNT,
+		Schema.COL_DISTANCE,
+		Schema.COL_MOVING_TIME,
+		Schema.COL_ASCENT,
+		Schema.COL_DESCENT,
+		Schema.COL_MAX_SPEED,
 	};
 
 	/**
-	 * the group by statement that is used for the track statements
+	 * Columns bound by the compiled insert statement of each table, see {@link #bulkInsert(Uri, ContentValues[])}
 	 */
-	private static final String TRACK_TABLES_GROUP_BY = Schema.TBL_TRACK + "." + Schema.COL_ID;
-	
-	
-	
+	private static final String[] TRACKPOINT_INSERT_COLUMNS = {
+		Schema.COL_TRACK_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_SPEED,
+		Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP, Schema.COL_COMPASS,
+		Schema.COL_COMPASS_ACCURACY, Schema.COL_ATMOSPHERIC_PRESSURE, Schema.COL_GRID_CELL
+	};
+	private static final String[] WAYPOINT_INSERT_COLUMNS = {
+		Schema.COL_TRACK_ID, Schema.COL_UUID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+		Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP, Schema.COL_NAME,
+		Schema.COL_LINK, Schema.COL_NBSATELLITES, Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY,
+		Schema.COL_ATMOSPHERIC_PRESSURE, Schema.COL_GRID_CELL
+	};
+	private static final String[] NOTE_INSERT_COLUMNS = {
+		Schema.COL_TRACK_ID, Schema.COL_UUID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+		Schema.COL_TIMESTAMP, Schema.COL_NAME, Schema.COL_OSM_UPLOAD_DATE
+	};
+
 	/**
 	 * Uri Matcher
 	 */
@@ -112,9 +166,13 @@ public class TrackContentProvider extends ContentProvider {
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#", Schema.URI_CODE_TRACK_ID);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/start", Schema.URI_CODE_TRACK_START);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/end", Schema.URI_CODE_TRACK_END);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/metrics", Schema.URI_CODE_TRACK_METRICS);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/archive", Schema.URI_CODE_TRACK_ARCHIVE);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_WAYPOINT + "s", Schema.URI_CODE_TRACK_WAYPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_NOTE + "s", Schema.URI_CODE_TRACK_NOTES);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_TRACKPOINT + "s", Schema.URI_CODE_TRACK_TRACKPOINTS);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_WAYPOINT + "s/bbox", Schema.URI_CODE_TRACK_WAYPOINTS_BBOX);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_TRACKPOINT + "s/bbox", Schema.URI_CODE_TRACK_TRACKPOINTS_BBOX);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_WAYPOINT + "/#", Schema.URI_CODE_WAYPOINT_ID);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_WAYPOINT + "/uuid/*", Schema.URI_CODE_WAYPOINT_UUID);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACKPOINT + "/#", Schema.URI_CODE_TRACKPOINT_ID);
@@ -132,6 +190,15 @@ public class TrackContentProvider extends ContentProvider {
 				Schema.TBL_WAYPOINT + "s" );
 	}
 
+	/**
+	 * @param trackId target track id
+	 * @return Uri for the waypoints of the track inside a bounding box.
+	 * If west is greater than east, the box crosses the antimeridian.
+	 */
+	public static final Uri waypointsInBoxUri(long trackId, double south, double west, double north, double east) {
+		return boundingBoxUri(Uri.withAppendedPath(waypointsUri(trackId), "bbox"), south, west, north, east);
+	}
+
 	/**
 	 * @param waypointId target waypoint id
 	 * @return Uri for the waypoint
@@ -168,6 +235,38 @@ public class TrackContentProvider extends ContentProvider {
 				Schema.TBL_TRACKPOINT + "s" );		
 	}
 
+	/**
+	 * @param trackId target track id
+	 * @param limit maximum number of trackpoints to return
+	 * @return Uri for the trackpoints of the track, limited to the given number
+	 */
+	public static final Uri trackPointsUri(long trackId, int limit) {
+		return trackPointsUri(trackId).buildUpon()
+				.appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+				.build();
+	}
+
+	/**
+	 * @param trackId target track id
+	 * @return Uri for the trackpoints of the track inside a bounding box, along with
+	 * the trackpoints just before and after them in the track, so that the segments
+	 * crossing the edges of the box are complete. If west is greater than east, the
+	 * box crosses the antimeridian. The rows can include {@link Schema#COL_PREVIOUS_ID}
+	 * to tell where the track leaves the box.
+	 */
+	public static final Uri trackPointsInBoxUri(long trackId, double south, double west, double north, double east) {
+		return boundingBoxUri(Uri.withAppendedPath(trackPointsUri(trackId), "bbox"), south, west, north, east);
+	}
+
+	private static Uri boundingBoxUri(Uri uri, double south, double west, double north, double east) {
+		return uri.buildUpon()
+				.appendQueryParameter(QUERY_PARAMETER_SOUTH, Double.toString(south))
+				.appendQueryParameter(QUERY_PARAMETER_WEST, Double.toString(west))
+				.appendQueryParameter(QUERY_PARAMETER_NORTH, Double.toString(north))
+				.appendQueryParameter(QUERY_PARAMETER_EAST, Double.toString(east))
+				.build();
+	}
+
 	/**
 	 * @param trackpointId target trackpoint id
 	 * @return Uri for the trackpoint
@@ -196,17 +295,72 @@ public class TrackContentProvider extends ContentProvider {
 				"end" );		
 	}
 
+	/**
+	 * @param trackId target track id
+	 * @return Uri for the metrics of the track (see {@link net.osmtracker.db.model.TrackMetrics}). Querying it
+	 * computes the metrics first if they are behind the track points, e.g. for the tracks
+	 * recorded by previous versions: query it from a background thread.
+	 */
+	public static final Uri trackMetricsUri(long trackId) {
+		return Uri.withAppendedPath(
+				ContentUris.withAppendedId(CONTENT_URI_TRACK, trackId),
+				"metrics" );
+	}
+
+	/**
+	 * @param trackId target track id
+	 * @return Uri to archive the track points of the track (see {@link TrackArchive}), by
+	 * updating it. The track must not be active. Archived track points are still returned
+	 * by {@link #trackPointsUri(long)}, to the queries paging through them by id or by
+	 * timestamp, see {@link TrackArchive#query}.
+	 */
+	public static final Uri trackArchiveUri(long trackId) {
+		return Uri.withAppendedPath(
+				ContentUris.withAppendedId(CONTENT_URI_TRACK, trackId),
+				"archive" );
+	}
+
 	/**
 	 * Database Helper
 	 */
 	private DatabaseHelper dbHelper;
 
+	/**
+	 * Uris to notify at the end of the current batch, if any.
+	 * While a batch is running, change notifications are collected
+	 * here and sent only once per Uri when it is committed.
+	 */
+	private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<Set<Uri>>();
+
+	/**
+	 * Coalesces the notifications of the rows inserted one at a time
+	 */
+	private NotificationCoalescer notificationCoalescer;
+
 	@Override
 	public boolean onCreate() {
 		dbHelper = new DatabaseHelper(getContext());
+		notificationCoalescer = new NotificationCoalescer(getContext().getContentResolver());
 		return true;
 	}
 
+	/**
+	 * Closes the database, along with its compiled insert statements
+	 */
+	@Override
+	public void shutdown() {
+		dbHelper.close();
+		super.shutdown();
+	}
+
+	/**
+	 * @return Coalescer of the insertion notifications, to configure its window
+	 * or read its counters
+	 */
+	public NotificationCoalescer getNotificationCoalescer() {
+		return notificationCoalescer;
+	}
+
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
 		Log.v(TAG, "delete(), uri=" + uri);
@@ -244,7 +398,7 @@ public class TrackContentProvider extends ContentProvider {
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri, null);
 		return count;
 	}
 
@@ -261,9 +415,11 @@ public class TrackContentProvider extends ContentProvider {
 		// Select which type to return
 		switch (uriMatcher.match(uri)) {
 		case Schema.URI_CODE_TRACK_TRACKPOINTS:
+		case Schema.URI_CODE_TRACK_TRACKPOINTS_BBOX:
 			return ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + OSMTracker.class.getPackage() + "."
 					+ Schema.TBL_TRACKPOINT;
 		case Schema.URI_CODE_TRACK_WAYPOINTS:
+		case Schema.URI_CODE_TRACK_WAYPOINTS_BBOX:
 			return ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + OSMTracker.class.getPackage() + "."
 					+ Schema.TBL_WAYPOINT;
 		case Schema.URI_CODE_TRACK_NOTES:
@@ -288,11 +444,22 @@ public class TrackContentProvider extends ContentProvider {
 			if (values.containsKey(Schema.COL_TRACK_ID) && values.containsKey(Schema.COL_LONGITUDE)
 					&& values.containsKey(Schema.COL_LATITUDE) && values.containsKey(Schema.COL_TIMESTAMP)) {
 
-				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_TRACKPOINT, null, values);
+				// The track metrics are updated along with the track point
+				SQLiteDatabase db = dbHelper.getWritableDatabase();
+				long rowId;
+				db.beginTransaction();
+				try {
+					rowId = insertRow(db, Schema.TBL_TRACKPOINT, TRACKPOINT_INSERT_COLUMNS, withGridCell(values));
+					if (rowId > 0) {
+						TrackMetricsEngine.onTrackPointInserted(db, rowId, values);
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
 				if (rowId > 0) {
-					Uri trackpointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(trackpointUri, null);
-					return trackpointUri;
+					notifyInsert(uri, rowId);
+					return ContentUris.withAppendedId(uri, rowId);
 				}
 			} else {
 				throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
@@ -304,11 +471,11 @@ public class TrackContentProvider extends ContentProvider {
 			if (values.containsKey(Schema.COL_TRACK_ID) && values.containsKey(Schema.COL_LONGITUDE)
 					&& values.containsKey(Schema.COL_LATITUDE) && values.containsKey(Schema.COL_TIMESTAMP) ) {
 
-				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_WAYPOINT, null, values);
+				long rowId = insertRow(dbHelper.getWritableDatabase(), Schema.TBL_WAYPOINT, WAYPOINT_INSERT_COLUMNS,
+						withGridCell(values));
 				if (rowId > 0) {
-					Uri waypointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(waypointUri, null);
-					return waypointUri;
+					notifyInsert(uri, rowId);
+					return ContentUris.withAppendedId(uri, rowId);
 				}
 			} else {
 				throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
@@ -320,11 +487,10 @@ public class TrackContentProvider extends ContentProvider {
 			if (values.containsKey(Schema.COL_TRACK_ID) && values.containsKey(Schema.COL_LONGITUDE)
 					&& values.containsKey(Schema.COL_LATITUDE) && values.containsKey(Schema.COL_TIMESTAMP) ) {
 
-				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_NOTE, null, values);
+				long rowId = insertRow(dbHelper.getWritableDatabase(), Schema.TBL_NOTE, NOTE_INSERT_COLUMNS, values);
 				if (rowId > 0) {
-					Uri noteUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(noteUri, null);
-					return noteUri;
+					notifyInsert(uri, rowId);
+					return ContentUris.withAppendedId(uri, rowId);
 				}
 			}
 			break;
@@ -333,7 +499,7 @@ public class TrackContentProvider extends ContentProvider {
 				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_TRACK, null, values);
 				if (rowId > 0) {
 					Uri trackUri = ContentUris.withAppendedId(CONTENT_URI_TRACK, rowId);
-					getContext().getContentResolver().notifyChange(trackUri, null);
+					notifyChange(CONTENT_URI_TRACK, trackUri);
 					return trackUri;
 				}
 			} else {
@@ -347,18 +513,297 @@ public class TrackContentProvider extends ContentProvider {
 		return null;
 	}
 
-	
+
+	/**
+	 * Inserts several track points, way points or notes in a single transaction,
+	 * with the compiled insert statement of their table. The metrics of the tracks
+	 * are updated with the track points in the same transaction. A single change
+	 * notification is sent per track Uri once the transaction is committed, with the
+	 * range of the ids inserted (see {@link NotificationCoalescer}).
+	 * Other URIs fall back to the default row-by-row implementation.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		Log.v(TAG, "bulkInsert(), uri=" + uri + ", count=" + values.length);
+
+		String table;
+		String[] columns;
+		switch (uriMatcher.match(uri)) {
+		case Schema.URI_CODE_TRACK_TRACKPOINTS:
+			table = Schema.TBL_TRACKPOINT;
+			columns = TRACKPOINT_INSERT_COLUMNS;
+			break;
+		case Schema.URI_CODE_TRACK_WAYPOINTS:
+			table = Schema.TBL_WAYPOINT;
+			columns = WAYPOINT_INSERT_COLUMNS;
+			break;
+		case Schema.URI_CODE_TRACK_NOTES:
+			table = Schema.TBL_NOTE;
+			columns = NOTE_INSERT_COLUMNS;
+			break;
+		default:
+			return super.bulkInsert(uri, values);
+		}
+
+		// Grid cell of the point, computed from its coordinates
+		int gridCellParameter = Arrays.asList(columns).indexOf(Schema.COL_GRID_CELL) + 1;
+
+		int count = 0;
+		// First and last ids inserted, by track
+		Map<Long, long[]> insertedIds = new LinkedHashMap<Long, long[]>();
+		// Track points inserted, by track, to update the metrics
+		Map<Long, List<Long>> trackPointIds = new HashMap<Long, List<Long>>();
+		Map<Long, List<ContentValues>> trackPointValues = new HashMap<Long, List<ContentValues>>();
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			SQLiteStatement statement = dbHelper.getInsertStatement(db, table, columns);
+			synchronized (statement) {
+				for (ContentValues v : values) {
+					// Check that mandatory columns are present.
+					if (!(v.containsKey(Schema.COL_TRACK_ID) && v.containsKey(Schema.COL_LONGITUDE)
+							&& v.containsKey(Schema.COL_LATITUDE) && v.containsKey(Schema.COL_TIMESTAMP))) {
+						throw new IllegalArgumentException("values should provide " + Schema.COL_TRACK_ID + ", "
+								+ Schema.COL_LONGITUDE + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_TIMESTAMP);
+					}
+					bindInsertValues(statement, columns, v);
+					if (gridCellParameter > 0) {
+						statement.bindLong(gridCellParameter, GridIndex.cellOf(
+								v.getAsDouble(Schema.COL_LATITUDE), v.getAsDouble(Schema.COL_LONGITUDE)));
+					}
+					long rowId = statement.executeInsert();
+					if (rowId > 0) {
+						long[] range = insertedIds.get(v.getAsLong(Schema.COL_TRACK_ID));
+						if (range == null) {
+							insertedIds.put(v.getAsLong(Schema.COL_TRACK_ID), new long[] {rowId, rowId});
+						} else {
+							range[1] = rowId;
+						}
+						if (Schema.TBL_TRACKPOINT.equals(table)) {
+							long trackId = v.getAsLong(Schema.COL_TRACK_ID);
+							if (!trackPointIds.containsKey(trackId)) {
+								trackPointIds.put(trackId, new ArrayList<Long>());
+								trackPointValues.put(trackId, new ArrayList<ContentValues>());
+							}
+							trackPointIds.get(trackId).add(rowId);
+							trackPointValues.get(trackId).add(v);
+						}
+						count++;
+					}
+				}
+			}
+			for (Map.Entry<Long, List<Long>> entry : trackPointIds.entrySet()) {
+				TrackMetricsEngine.onTrackPointsInserted(db, entry.getKey(), entry.getValue(),
+						trackPointValues.get(entry.getKey()));
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		for (Map.Entry<Long, long[]> entry : insertedIds.entrySet()) {
+			notificationCoalescer.notifyRange(Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI_TRACK, entry.getKey()),
+					table + "s"), entry.getValue()[0], entry.getValue()[1]);
+		}
+		return count;
+	}
+
+	/**
+	 * Applies all operations in a single transaction. Change notifications
+	 * are coalesced and sent once per Uri after the transaction is committed.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		Log.v(TAG, "applyBatch(), count=" + operations.size());
+
+		Set<Uri> notifications = new LinkedHashSet<Uri>();
+		batchNotifications.set(notifications);
+		ContentProviderResult[] results;
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			batchNotifications.remove();
+		}
+
+		for (Uri uri : notifications) {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+		return results;
+	}
+
+	/**
+	 * Notifies observers of a change, or defers the notification
+	 * to the end of the current batch if any.
+	 * @param uri Uri to notify at the end of a batch, shared by all the rows of a batch
+	 * @param rowUri Uri to notify outside of a batch, or null to use uri
+	 */
+	private void notifyChange(Uri uri, Uri rowUri) {
+		Set<Uri> notifications = batchNotifications.get();
+		if (notifications != null) {
+			notifications.add(uri);
+		} else {
+			getContext().getContentResolver().notifyChange(rowUri != null ? rowUri : uri, null);
+		}
+	}
+
+	/**
+	 * Notifies observers of a row inserted in the rows of a track, at the end of
+	 * the window of the {@link NotificationCoalescer}, or defers the notification
+	 * to the end of the current batch if any.
+	 * @param uri Uri of the rows of the track
+	 * @param rowId Id of the row inserted
+	 */
+	private void notifyInsert(Uri uri, long rowId) {
+		Set<Uri> notifications = batchNotifications.get();
+		if (notifications != null) {
+			notifications.add(uri);
+		} else {
+			notificationCoalescer.notifyInsert(uri, rowId);
+		}
+	}
+
+	/**
+	 * @return Copy of the values of a point, with the grid cell of its coordinates
+	 * @see GridIndex
+	 */
+	private static ContentValues withGridCell(ContentValues values) {
+		ContentValues out = new ContentValues(values);
+		out.put(Schema.COL_GRID_CELL, GridIndex.cellOf(
+				values.getAsDouble(Schema.COL_LATITUDE), values.getAsDouble(Schema.COL_LONGITUDE)));
+		return out;
+	}
+
+	/**
+	 * @return SQL condition matching the points inside the bounding box of a Uri
+	 * @throws IllegalArgumentException if the bounding box is missing or invalid
+	 */
+	private static String boundingBoxSelection(Uri uri) {
+		return GridIndex.selection(
+				getDoubleParameter(uri, QUERY_PARAMETER_SOUTH), getDoubleParameter(uri, QUERY_PARAMETER_WEST),
+				getDoubleParameter(uri, QUERY_PARAMETER_NORTH), getDoubleParameter(uri, QUERY_PARAMETER_EAST));
+	}
+
+	private static double getDoubleParameter(Uri uri, String name) {
+		String value = uri.getQueryParameter(name);
+		try {
+			return Double.parseDouble(value);
+		} catch (NullPointerException | NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+	}
+
+	/**
+	 * Inserts a row with the compiled insert statement of its table, or with
+	 * {@link SQLiteDatabase#insert(String, String, ContentValues)} if it has
+	 * other columns.
+	 * @return Id of the row inserted, or -1 if an error occurred, as {@link SQLiteDatabase#insert(String, String, ContentValues)}
+	 */
+	private long insertRow(SQLiteDatabase db, String table, String[] columns, ContentValues values) {
+		if (!Arrays.asList(columns).containsAll(values.keySet())) {
+			return db.insert(table, null, values);
+		}
+		db.beginTransaction();
+		try {
+			SQLiteStatement statement = dbHelper.getInsertStatement(db, table, columns);
+			long rowId;
+			synchronized (statement) {
+				bindInsertValues(statement, columns, values);
+				rowId = statement.executeInsert();
+			}
+			db.setTransactionSuccessful();
+			return rowId;
+		} catch (SQLException e) {
+			Log.e(TAG, "Error inserting " + values, e);
+			return -1;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Binds values to the parameters of a statement built by {@link DatabaseHelper#buildInsertSql(String, String[])}.
+	 * Missing columns are bound to null.
+	 * @throws IllegalArgumentException if values contains an unknown column
+	 */
+	private static void bindInsertValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+		statement.clearBindings();
+		int bound = 0;
+		for (int i = 0; i < columns.length; i++) {
+			if (values.containsKey(columns[i])) {
+				DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+				bound++;
+			}
+		}
+		if (bound != values.size()) {
+			throw new IllegalArgumentException("Unknown column in " + values.keySet()
+					+ ", expected " + Arrays.toString(columns));
+		}
+	}
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selectionIn, String[] selectionArgsIn, String sortOrder) {
 		Log.v(TAG, "query(), uri=" + uri);
 
+		// Track points moved to the archive are read from it, along with the others
+		Cursor archived = queryArchive(uri, projection, selectionIn, selectionArgsIn, sortOrder);
+		if (archived != null) {
+			archived.setNotificationUri(getContext().getContentResolver(), uri);
+			return archived;
+		}
+
+		if (uriMatcher.match(uri) == Schema.URI_CODE_TRACK_METRICS) {
+			// Catch up with the track points first, if needed
+			TrackMetricsEngine.update(dbHelper.getWritableDatabase(), Long.parseLong(uri.getPathSegments().get(1)));
+		}
+
+		SqlQuery query = buildQuery(uri, projection, selectionIn, selectionArgsIn, sortOrder);
+		Cursor c = dbHelper.getReadableDatabase().rawQuery(query.sql, query.selectionArgs);
+		if (uriMatcher.match(uri) == Schema.URI_CODE_TRACK_TRACKPOINTS_BBOX) {
+			// Archived track points have lower ids than the others
+			long bboxTrackId = Long.parseLong(uri.getPathSegments().get(1));
+			if (TrackArchive.hasArchive(dbHelper.getReadableDatabase(), bboxTrackId)) {
+				c = new MergeCursor(new Cursor[] {
+					TrackArchive.queryBox(dbHelper.getReadableDatabase(), bboxTrackId, projection,
+							getDoubleParameter(uri, QUERY_PARAMETER_SOUTH), getDoubleParameter(uri, QUERY_PARAMETER_WEST),
+							getDoubleParameter(uri, QUERY_PARAMETER_NORTH), getDoubleParameter(uri, QUERY_PARAMETER_EAST)),
+					c});
+			}
+		}
+		c.setNotificationUri(getContext().getContentResolver(), uri);
+		return c;
+	}
+
+	/**
+	 * SQL query answering a Uri, see {@link #buildQuery(Uri, String[], String, String[], String)}
+	 */
+	static final class SqlQuery {
+		final String sql;
+		final String[] selectionArgs;
+
+		SqlQuery(String sql, String[] selectionArgs) {
+			this.sql = sql;
+			this.selectionArgs = selectionArgs;
+		}
+	}
+
+	/**
+	 * Builds the SQL query of the rows of a Uri, without running it, so that its
+	 * query plan can be checked. Parameters are the ones of {@link #query}.
+	 * @throws IllegalArgumentException if the Uri is unknown
+	 */
+	SqlQuery buildQuery(Uri uri, String[] projection, String selectionIn, String[] selectionArgsIn, String sortOrder) {
 		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		String selection = selectionIn;
 		String[] selectionArgs = selectionArgsIn;
 		
 		String groupBy = null;
 		String limit = null;
-		
+
 		// Select which datatype was requested
 		switch (uriMatcher.match(uri)) {
 		case Schema.URI_CODE_TRACK_TRACKPOINTS:
@@ -382,6 +827,8 @@ public class TrackContentProvider extends ContentProvider {
 			// Finished with the temporary selection arguments list. release it for GC
 			selctionArgsList.clear();
 			selctionArgsList = null;
+
+			limit = getLimitParameter(uri);
 			break;
 		case Schema.URI_CODE_TRACK_WAYPOINTS:
 			if (selectionIn != null || selectionArgsIn != null) {
@@ -393,6 +840,48 @@ public class TrackContentProvider extends ContentProvider {
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
 			break;
+		case Schema.URI_CODE_TRACK_TRACKPOINTS_BBOX:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			trackId = Long.toString(Long.parseLong(uri.getPathSegments().get(1)));
+			qb.setTables(Schema.TBL_TRACKPOINT);
+			// Points inside the box are found with the grid index, then read by
+			// id along with their neighbours. Ids of the tracks recorded at the same
+			// time are interleaved: the neighbours are the points of the track with the
+			// closest ids, looked up in the track index. "+" keeps SQLite from scanning
+			// the track index rather than looking the ids up. As it also drops the
+			// column affinity, the track id can't be given as a string argument.
+			String inBox = " from " + Schema.TBL_TRACKPOINT + " b"
+					+ " where " + Schema.COL_TRACK_ID + " = " + trackId + " and " + boundingBoxSelection(uri);
+			selection = "+" + Schema.COL_TRACK_ID + " = " + trackId + " and " + Schema.COL_ID + " in ("
+					+ "select " + neighbourId(trackId, "b", true) + inBox
+					+ " union select " + Schema.COL_ID + inBox
+					+ " union select " + neighbourId(trackId, "b", false) + inBox + ")";
+			selectionArgs = null;
+			if (projection != null) {
+				projection = projection.clone();
+				for (int i = 0; i < projection.length; i++) {
+					if (Schema.COL_PREVIOUS_ID.equals(projection[i])) {
+						// Archived points precede the others
+						projection[i] = "ifnull(" + neighbourId(trackId, Schema.TBL_TRACKPOINT, true) + ", "
+								+ "(select max(" + Schema.COL_LAST_ID + ") from " + Schema.TBL_TRACKPOINT_ARCHIVE
+								+ " where " + Schema.COL_TRACK_ID + " = " + trackId + ")) as " + Schema.COL_PREVIOUS_ID;
+					}
+				}
+			}
+			break;
+		case Schema.URI_CODE_TRACK_WAYPOINTS_BBOX:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			trackId = uri.getPathSegments().get(1);
+			qb.setTables(Schema.TBL_WAYPOINT);
+			selection = Schema.COL_TRACK_ID + " = ? and " + boundingBoxSelection(uri);
+			selectionArgs = new String[] {trackId};
+			break;
 		case Schema.URI_CODE_TRACK_NOTES:
 			if (selectionIn != null || selectionArgsIn != null) {
 				// Any selection/selectionArgs will be ignored
@@ -437,11 +926,20 @@ public class TrackContentProvider extends ContentProvider {
 			sortOrder = Schema.COL_ID + " desc";
 			limit = "1";
 			break;
+		case Schema.URI_CODE_TRACK_METRICS:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			trackId = Long.toString(Long.parseLong(uri.getPathSegments().get(1)));
+			qb.setTables(Schema.TBL_TRACK_METRICS);
+			selection = Schema.COL_TRACK_ID + " = ?";
+			selectionArgs = new String[] {trackId};
+			break;
 		case Schema.URI_CODE_TRACK:
 			qb.setTables(TRACK_TABLES);
 			if (projection == null)
 				projection = TRACK_TABLES_PROJECTION;
-			groupBy = TRACK_TABLES_GROUP_BY;
 			break;
 		case Schema.URI_CODE_TRACK_ID:
 			if (selectionIn != null || selectionArgsIn != null) {
@@ -452,7 +950,6 @@ public class TrackContentProvider extends ContentProvider {
 			qb.setTables(TRACK_TABLES);
 			if (projection == null)
 				projection = TRACK_TABLES_PROJECTION;
-			groupBy = TRACK_TABLES_GROUP_BY;
 			selection = Schema.TBL_TRACK + "." + Schema.COL_ID + " = ?";
 			selectionArgs = new String[] {trackId};			
 			break;
@@ -489,9 +986,64 @@ public class TrackContentProvider extends ContentProvider {
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		Cursor c = qb.query(dbHelper.getReadableDatabase(), projection, selection, selectionArgs, groupBy, null, sortOrder, limit);
-		c.setNotificationUri(getContext().getContentResolver(), uri);
-		return c;
+		return new SqlQuery(qb.buildQuery(projection, selection, groupBy, null, sortOrder, limit), selectionArgs);
+	}
+
+	/**
+	 * @param trackId Id of the track
+	 * @param table Table or alias of the track point
+	 * @param previous true for the track point preceding it in the track, false for the one following it
+	 * @return SQL sub query of the id of the track point preceding or following a track point in
+	 * its track, looked up by id in the track index. null if there's none.
+	 */
+	private static String neighbourId(String trackId, String table, boolean previous) {
+		return "(select " + (previous ? "max" : "min") + "(n." + Schema.COL_ID + ")"
+				+ " from " + Schema.TBL_TRACKPOINT + " n where n." + Schema.COL_TRACK_ID + " = " + trackId
+				+ " and n." + Schema.COL_ID + (previous ? " < " : " > ") + table + "." + Schema.COL_ID + ")";
+	}
+
+	/**
+	 * Queries the track points of the tracks having archived track points, see {@link TrackArchive}
+	 * @return Cursor over the track points, or null if the Uri isn't about archived track points
+	 */
+	private Cursor queryArchive(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+		switch (uriMatcher.match(uri)) {
+		case Schema.URI_CODE_TRACK_TRACKPOINTS:
+		case Schema.URI_CODE_TRACK_START:
+		case Schema.URI_CODE_TRACK_END:
+			long trackId = Long.parseLong(uri.getPathSegments().get(1));
+			if (!TrackArchive.hasArchive(db, trackId)) {
+				return null;
+			}
+			switch (uriMatcher.match(uri)) {
+			case Schema.URI_CODE_TRACK_START:
+				return TrackArchive.query(db, trackId, projection, null, null, Schema.COL_ID + " asc", "1");
+			case Schema.URI_CODE_TRACK_END:
+				return TrackArchive.query(db, trackId, projection, null, null, Schema.COL_ID + " desc", "1");
+			default:
+				return TrackArchive.query(db, trackId, projection, selection, selectionArgs, sortOrder, getLimitParameter(uri));
+			}
+		case Schema.URI_CODE_TRACKPOINT_ID:
+			return TrackArchive.queryTrackPoint(db, ContentUris.parseId(uri), projection);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return Maximum number of rows to return, from {@link #QUERY_PARAMETER_LIMIT}, or null if none
+	 */
+	private static String getLimitParameter(Uri uri) {
+		String limitParameter = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+		if (limitParameter != null) {
+			try {
+				return Integer.toString(Integer.parseInt(limitParameter));
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Invalid limit: " + limitParameter);
+			}
+		}
+		return null;
 	}
 
 	@Override
@@ -537,6 +1089,20 @@ public class TrackContentProvider extends ContentProvider {
 			selection = Schema.COL_ID + " = ?";
 			selectionArgs = new String[] {trackId};			
 			break;
+		case Schema.URI_CODE_TRACK_ARCHIVE:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			long archivedTrackId = Long.parseLong(uri.getPathSegments().get(1));
+			if (DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(),
+					"select count(*) from " + Schema.TBL_TRACK + " where " + Schema.COL_ID + " = ? and " + Schema.COL_ACTIVE + " = ?",
+					new String[] {Long.toString(archivedTrackId), Integer.toString(Schema.VAL_TRACK_ACTIVE)}) > 0) {
+				throw new IllegalArgumentException("The active track can't be archived");
+			}
+			int archived = TrackArchive.archive(dbHelper.getWritableDatabase(), archivedTrackId);
+			notifyChange(ContentUris.withAppendedId(CONTENT_URI_TRACK, archivedTrackId), null);
+			return archived;
 		case Schema.URI_CODE_TRACK_ACTIVE:
 			if (selectionIn != null || selectionArgsIn != null) {
 				// Any selection/selectionArgs will be ignored
@@ -556,7 +1122,7 @@ public class TrackContentProvider extends ContentProvider {
 		}
 		
 		int rows = dbHelper.getWritableDatabase().update(table, values, selection, selectionArgs);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri, null);
 		return rows;
 
 	}
@@ -569,6 +1135,9 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String TBL_WAYPOINT = "waypoint";
 		public static final String TBL_NOTE = "note";
 		public static final String TBL_TRACK = "track";
+		public static final String TBL_TRACK_STATS = "track_stats";
+		public static final String TBL_TRACK_METRICS = "track_metrics";
+		public static final String TBL_TRACKPOINT_ARCHIVE = "trackpoint_archive";
 		public static final String COL_ID = "_id";
 		public static final String COL_TRACK_ID = "track_id";
 		public static final String COL_UUID = "uuid";
@@ -593,11 +1162,52 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String COL_COMPASS = "compass_heading";
 		public static final String COL_COMPASS_ACCURACY = "compass_accuracy";
 		public static final String COL_ATMOSPHERIC_PRESSURE = "atmospheric_pressure";
+		/** Cell of the point in the {@link GridIndex}, computed by the provider */
+		public static final String COL_GRID_CELL = "grid_cell";
+		/**
+		 * Id of the track point preceding a track point in its track, null for the first one.
+		 * Only returned by {@link TrackContentProvider#trackPointsInBoxUri(long, double, double, double, double)}.
+		 */
+		public static final String COL_PREVIOUS_ID = "previous_id";
 		
-		// virtual colums that are used in some sqls but dont exist in database
+		// columns of TBL_TRACK_STATS, maintained by triggers
 		public static final String COL_TRACKPOINT_COUNT = "tp_count";
 		public static final String COL_WAYPOINT_COUNT = "wp_count";
 		public static final String COL_NOTE_COUNT = "note_count";
+		public static final String COL_FIRST_TIMESTAMP = "first_timestamp";
+		public static final String COL_FIRST_LATITUDE = "first_latitude";
+		public static final String COL_FIRST_LONGITUDE = "first_longitude";
+		public static final String COL_LAST_TIMESTAMP = "last_timestamp";
+		public static final String COL_LAST_LATITUDE = "last_latitude";
+		public static final String COL_LAST_LONGITUDE = "last_longitude";
+		public static final String COL_MIN_LATITUDE = "min_latitude";
+		public static final String COL_MAX_LATITUDE = "max_latitude";
+		public static final String COL_MIN_LONGITUDE = "min_longitude";
+		public static final String COL_MAX_LONGITUDE = "max_longitude";
+
+		// columns of TBL_TRACK_METRICS, maintained by the provider, see TrackMetrics
+		public static final String COL_METRICS_POINT_COUNT = "metrics_tp_count";
+		public static final String COL_METRICS_LAST_ID = "metrics_last_id";
+		public static final String COL_DISTANCE = "distance";
+		public static final String COL_MOVING_TIME = "moving_time";
+		public static final String COL_ASCENT = "ascent";
+		public static final String COL_DESCENT = "descent";
+		public static final String COL_MAX_SPEED = "max_speed";
+		public static final String COL_PREVIOUS_LATITUDE = "previous_latitude";
+		public static final String COL_PREVIOUS_LONGITUDE = "previous_longitude";
+		public static final String COL_PREVIOUS_TIMESTAMP = "previous_timestamp";
+		public static final String COL_ELEVATION_SOURCE = "elevation_source";
+		public static final String COL_ELEVATION_FILTERED = "elevation_filtered";
+		public static final String COL_ELEVATION_REFERENCE = "elevation_reference";
+
+		// columns of TBL_TRACKPOINT_ARCHIVE, see TrackArchive. Bounds use COL_MIN_LATITUDE...
+		public static final String COL_FIRST_ID = "first_id";
+		public static final String COL_LAST_ID = "last_id";
+		public static final String COL_POINT_COUNT = "point_count";
+		public static final String COL_TIME_ORDERED = "time_ordered";
+		public static final String COL_MIN_TIMESTAMP = "min_timestamp";
+		public static final String COL_MAX_TIMESTAMP = "max_timestamp";
+		public static final String COL_DATA = "data";
 
 		// Codes for UriMatcher
 		public static final int URI_CODE_TRACK = 3;
@@ -613,6 +1223,10 @@ public class TrackContentProvider extends ContentProvider {
 		public static final int URI_CODE_TRACK_NOTES = 13;
 		public static final int URI_CODE_NOTE_ID = 14;
 		public static final int URI_CODE_NOTE_UUID = 15;
+		public static final int URI_CODE_TRACK_TRACKPOINTS_BBOX = 16;
+		public static final int URI_CODE_TRACK_WAYPOINTS_BBOX = 17;
+		public static final int URI_CODE_TRACK_METRICS = 18;
+		public static final int URI_CODE_TRACK_ARCHIVE = 19;
 
 
 		public static final int VAL_TRACK_ACTIVE = 1;
@@ -0,0 +1,151 @@
+package net.osmtracker.db;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.LruCache;
+
+import net.osmtracker.db.model.TrackBuffer;
+import net.osmtracker.util.TrackSimplifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decimated geometry of tracks, shared by the map views displaying several tracks
+ * so that opening them again doesn't require reading every track point again.
+ *
+ * The points of each track are simplified for {@link #DECIMATION_ZOOM}, and kept in
+ * a {@link TrackBuffer}. The least recently used tracks are evicted beyond a budget
+ * of an eighth of the memory available. A cached track is read again if its number
+ * of track points changed since it was cached, e.g. while being recorded.
+ *
+ * Thread safe: tracks can be read in parallel.
+ */
+public class TrackGeometryCache {
+
+	/**
+	 * Zoom level the tracks are simplified for, where a pixel is a few meters wide.
+	 * Points closer than a pixel at this zoom level are merged.
+	 */
+	public static final int DECIMATION_ZOOM = 16;
+
+	/**
+	 * Heap used by a point of a {@link TrackBuffer}: latitude, longitude, timestamp and elevation
+	 */
+	static final int BYTES_PER_POINT = 8 + 8 + 8 + 4;
+
+	/**
+	 * One pixel at zoom level 0, in degrees, for 256px tiles
+	 */
+	private static final double TOLERANCE_AT_ZOOM_ZERO = 360.0 / 256;
+
+	private static TrackGeometryCache instance;
+
+	/**
+	 * Decimated points of a track, and the number of track points they were read from
+	 */
+	private static class Entry {
+		final int trackPointCount;
+		final TrackBuffer points;
+
+		Entry(int trackPointCount, TrackBuffer points) {
+			this.trackPointCount = trackPointCount;
+			this.points = points;
+		}
+	}
+
+	private final LruCache<Long, Entry> cache;
+
+	private final AtomicInteger hitCount = new AtomicInteger();
+
+	/**
+	 * @return Cache shared by the whole application
+	 */
+	public static synchronized TrackGeometryCache getInstance() {
+		if (instance == null) {
+			instance = new TrackGeometryCache(Runtime.getRuntime().maxMemory() / 8);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param maxBytes Heap the cached points can use
+	 */
+	TrackGeometryCache(long maxBytes) {
+		cache = new LruCache<Long, Entry>((int) Math.min(Integer.MAX_VALUE, maxBytes)) {
+			@Override
+			protected int sizeOf(Long trackId, Entry entry) {
+				return Math.max(1, entry.points.size() * BYTES_PER_POINT);
+			}
+		};
+	}
+
+	/**
+	 * Returns the decimated points of a track, read from the database if they aren't cached
+	 * or if the track changed since. Reading a track blocks: call from a background thread.
+	 * @param context Context, to read the track
+	 * @param trackId Id of the track
+	 * @return Decimated points of the track, not to be modified
+	 */
+	public TrackBuffer get(Context context, long trackId) {
+		int trackPointCount = readTrackPointCount(context, trackId);
+		Entry entry = cache.get(trackId);
+		if (entry != null && entry.trackPointCount == trackPointCount) {
+			hitCount.incrementAndGet();
+			return entry.points;
+		}
+
+		TrackBuffer trackPoints = new TrackBuffer(trackPointCount);
+		new DataHelper(context).readTrackPoints(trackId, -1, trackPoints);
+		TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE_AT_ZOOM_ZERO);
+		simplifier.append(trackPoints);
+		int[] level = simplifier.getLevel(DECIMATION_ZOOM);
+
+		TrackBuffer points = new TrackBuffer(level.length);
+		for (int i : level) {
+			points.add(trackPoints.getLatitude(i), trackPoints.getLongitude(i),
+					trackPoints.getTimestamp(i), trackPoints.getElevation(i));
+		}
+		cache.put(trackId, new Entry(trackPointCount, points));
+		return points;
+	}
+
+	/**
+	 * Removes all the tracks from the cache
+	 */
+	public void clear() {
+		cache.evictAll();
+	}
+
+	/**
+	 * @return Heap used by the points cached, in bytes
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return Number of tracks read from the cache rather than from the database
+	 */
+	public int hitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return Number of track points of a track, from the track statistics
+	 */
+	private static int readTrackPointCount(Context context, long trackId) {
+		Cursor c = context.getContentResolver().query(
+				ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+				new String[] {TrackContentProvider.Schema.COL_TRACKPOINT_COUNT}, null, null, null);
+		int out = 0;
+		if (c != null) {
+			if (c.moveToFirst()) {
+				out = c.getInt(0);
+			}
+			c.close();
+		}
+		return out;
+	}
+
+}
@@ -0,0 +1,166 @@
+package net.osmtracker.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maintains the {@link TrackMetrics} of the tracks in {@link Schema#TBL_TRACK_METRICS}.
+ *
+ * The metrics of a track are up to date when they were computed from as many
+ * track points as the track statistics count. Each track point inserted by the
+ * provider, one at a time or in bulk, is added to the metrics in the same
+ * transaction, so opening a track being recorded never requires reading its
+ * track points.
+ *
+ * Metrics can be behind the track points: tracks recorded before the metrics
+ * existed, or points inserted without the provider. They are then caught up by {@link #update},
+ * which only reads the track points following the last one added.
+ */
+class TrackMetricsEngine {
+
+	/**
+	 * Number of track points read at once when catching up
+	 */
+	static final int PAGE_SIZE = TrackPointCursor.DEFAULT_PAGE_SIZE;
+
+	private TrackMetricsEngine() {
+	}
+
+	/**
+	 * Adds a track point just inserted to the metrics of its track, if they were up to date.
+	 * Must be called in the transaction of the insertion.
+	 * @param db Database, in a transaction
+	 * @param trackPointId Id of the track point inserted
+	 * @param values Values of the track point inserted
+	 */
+	static void onTrackPointInserted(SQLiteDatabase db, long trackPointId, ContentValues values) {
+		onTrackPointsInserted(db, values.getAsLong(Schema.COL_TRACK_ID),
+				Collections.singletonList(trackPointId), Collections.singletonList(values));
+	}
+
+	/**
+	 * Adds track points of a track just inserted together to the metrics of the
+	 * track, if they were up to date, reading and writing the metrics only once.
+	 * Must be called in the transaction of the insertion.
+	 * @param db Database, in a transaction
+	 * @param trackId Id of the track
+	 * @param trackPointIds Ids of the track points inserted, in ascending order
+	 * @param values Values of the track points inserted, in the same order
+	 */
+	static void onTrackPointsInserted(SQLiteDatabase db, long trackId, List<Long> trackPointIds,
+			List<ContentValues> values) {
+		Cursor c = queryMetrics(db, trackId);
+		try {
+			if (!c.moveToFirst()) {
+				return;
+			}
+			TrackMetrics metrics = TrackMetrics.fromCursor(c);
+			// The statistics already count the points inserted
+			if (metrics.getPointCount() == c.getInt(c.getColumnIndex(Schema.COL_TRACKPOINT_COUNT)) - values.size()) {
+				for (int i = 0; i < values.size(); i++) {
+					metrics.add(trackPointIds.get(i), values.get(i));
+				}
+				db.replace(Schema.TBL_TRACK_METRICS, null, metrics.toContentValues(trackId));
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Brings the metrics of a track up to date. The track points missing from the
+	 * metrics are read page by page outside of any transaction, so that recording
+	 * isn't blocked while a long track is read. The points inserted meanwhile are
+	 * added in a final transaction.
+	 * Blocks while reading the track points: call from a background thread.
+	 * @param db Database
+	 * @param trackId Id of the track
+	 * @return The metrics of the track, up to date
+	 */
+	static TrackMetrics update(SQLiteDatabase db, long trackId) {
+		TrackMetrics metrics = read(db, trackId);
+		if (metrics.getPointCount() == readTrackPointCount(db, trackId)) {
+			return metrics;
+		}
+		while (addTrackPoints(db, trackId, metrics) == PAGE_SIZE) {
+			// Next page
+		}
+
+		db.beginTransaction();
+		try {
+			// The metrics may have been updated by another thread meanwhile
+			TrackMetrics stored = read(db, trackId);
+			if (stored.getLastTrackPointId() > metrics.getLastTrackPointId()) {
+				metrics = stored;
+			}
+			while (addTrackPoints(db, trackId, metrics) == PAGE_SIZE) {
+				// Next page
+			}
+			db.replace(Schema.TBL_TRACK_METRICS, null, metrics.toContentValues(trackId));
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return metrics;
+	}
+
+	/**
+	 * Adds a page of the track points following the last one of the metrics,
+	 * archived or not
+	 * @return Number of track points added
+	 */
+	private static int addTrackPoints(SQLiteDatabase db, long trackId, TrackMetrics metrics) {
+		Cursor c = TrackArchive.query(db, trackId, TrackMetrics.TRACKPOINT_PROJECTION, TrackArchive.SELECTION_AFTER_ID,
+				new String[] {Long.toString(metrics.getLastTrackPointId())},
+				Schema.COL_ID + " asc", Integer.toString(PAGE_SIZE));
+		try {
+			while (c.moveToNext()) {
+				metrics.add(c);
+			}
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return The metrics stored for a track, empty if none
+	 */
+	private static TrackMetrics read(SQLiteDatabase db, long trackId) {
+		Cursor c = db.query(Schema.TBL_TRACK_METRICS, null, Schema.COL_TRACK_ID + " = ?",
+				new String[] {Long.toString(trackId)}, null, null, null);
+		try {
+			return c.moveToFirst() ? TrackMetrics.fromCursor(c) : new TrackMetrics();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return Cursor over the statistics of a track joined with its metrics, if any
+	 */
+	private static Cursor queryMetrics(SQLiteDatabase db, long trackId) {
+		return db.rawQuery("select s." + Schema.COL_TRACKPOINT_COUNT + ", m.*"
+				+ " from " + Schema.TBL_TRACK_STATS + " s left join " + Schema.TBL_TRACK_METRICS + " m"
+				+ " on m." + Schema.COL_TRACK_ID + " = s." + Schema.COL_TRACK_ID
+				+ " where s." + Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)});
+	}
+
+	private static int readTrackPointCount(SQLiteDatabase db, long trackId) {
+		Cursor c = db.query(Schema.TBL_TRACK_STATS, new String[] {Schema.COL_TRACKPOINT_COUNT},
+				Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)}, null, null, null);
+		try {
+			return c.moveToFirst() ? c.getInt(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+
+}
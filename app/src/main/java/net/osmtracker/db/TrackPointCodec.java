@@ -0,0 +1,194 @@
+package net.osmtracker.db;
+
+import android.database.Cursor;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact binary encoding of a chunk of consecutive track points of a track,
+ * used to archive the track points of finished tracks (see {@link TrackArchive}).
+ *
+ * Every column is stored as a fixed-point integer ({@link #SCALES}): coordinates
+ * in 1e-7 degree, timestamps in ms, elevation and accuracy in cm... Each value is
+ * stored as the zigzag varint of its difference with the same column of the
+ * previous point, so that the slowly varying values of a track take one or two
+ * bytes. Each point starts with a varint bit mask of its non null columns;
+ * null values aren't stored. The track id is the same for the whole chunk and the
+ * grid cell is computed from the coordinates, so neither of them is stored.
+ *
+ *<pre>
+ * chunk := varint(VERSION) varint(count) point*
+ * point := varint(mask) zigzag(delta)*   (one delta per non null column, in COLUMNS order)
+ *</pre>
+ */
+final class TrackPointCodec {
+
+	/**
+	 * Version of the encoding, stored first
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Number of track points per chunk
+	 */
+	static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Columns stored, in order
+	 */
+	static final String[] COLUMNS = {
+		Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_SPEED,
+		Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP, Schema.COL_COMPASS,
+		Schema.COL_COMPASS_ACCURACY, Schema.COL_ATMOSPHERIC_PRESSURE
+	};
+
+	/**
+	 * Index of the columns in {@link #COLUMNS}
+	 */
+	static final int ID = 0;
+	static final int LATITUDE = 1;
+	static final int LONGITUDE = 2;
+	static final int TIMESTAMP = 6;
+
+	/**
+	 * Fixed-point scale of each column: 1e-7 degree, cm, cm/s, 1e-2 degree, 1e-3 hPa.
+	 * 1 for the integer columns.
+	 */
+	static final double[] SCALES = {1, 1e7, 1e7, 100, 100, 100, 1, 100, 1, 1000};
+
+	/**
+	 * Whether each column is an integer column
+	 */
+	static final boolean[] INTEGERS = {true, false, false, false, false, false, true, false, true, false};
+
+	private TrackPointCodec() {
+	}
+
+	/**
+	 * Decoded chunk, in columns
+	 */
+	static final class Chunk {
+
+		/**
+		 * Fixed-point values, by column then point
+		 */
+		final long[][] values;
+
+		/**
+		 * Bit mask of the non null columns of each point
+		 */
+		final int[] masks;
+
+		final int size;
+
+		Chunk(int size) {
+			this.size = size;
+			values = new long[COLUMNS.length][size];
+			masks = new int[size];
+		}
+
+		boolean isNull(int point, int column) {
+			return (masks[point] & (1 << column)) == 0;
+		}
+
+		long getLong(int point, int column) {
+			return INTEGERS[column] ? values[column][point] : Math.round(getDouble(point, column));
+		}
+
+		double getDouble(int point, int column) {
+			return values[column][point] / SCALES[column];
+		}
+	}
+
+	/**
+	 * Encodes track points
+	 * @param c Cursor over track points with the columns of {@link #COLUMNS}, in the
+	 * same order, positioned on the first point to encode
+	 * @param count Number of points to encode. The cursor is left on the last one.
+	 * @return Encoded points
+	 */
+	static byte[] encode(Cursor c, int count) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(count * 16);
+		writeVarint(out, VERSION);
+		writeVarint(out, count);
+		long[] previous = new long[COLUMNS.length];
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				c.moveToNext();
+			}
+			int mask = 0;
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if (!c.isNull(column)) {
+					mask |= 1 << column;
+				}
+			}
+			writeVarint(out, mask);
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if ((mask & (1 << column)) != 0) {
+					long value = INTEGERS[column] ? c.getLong(column) : Math.round(c.getDouble(column) * SCALES[column]);
+					writeVarint(out, zigzag(value - previous[column]));
+					previous[column] = value;
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes track points encoded by {@link #encode(Cursor, int)}
+	 * @throws IllegalArgumentException if the data wasn't encoded by a known version
+	 */
+	static Chunk decode(byte[] data) {
+		int[] position = {0};
+		int version = (int) readVarint(data, position);
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unknown track point encoding: " + version);
+		}
+		Chunk out = new Chunk((int) readVarint(data, position));
+		long[] previous = new long[COLUMNS.length];
+		for (int i = 0; i < out.size; i++) {
+			int mask = (int) readVarint(data, position);
+			out.masks[i] = mask;
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if ((mask & (1 << column)) != 0) {
+					previous[column] += unzigzag(readVarint(data, position));
+				}
+				out.values[column][i] = previous[column];
+			}
+		}
+		return out;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarint(byte[] data, int[] position) {
+		long out = 0;
+		int shift = 0;
+		int p = position[0];
+		byte b;
+		do {
+			b = data[p++];
+			out |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		position[0] = p;
+		return out;
+	}
+
+}
@@ -0,0 +1,294 @@
+package net.osmtracker.db;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only cursor over the track points of a track, in chronological order:
+ * by timestamp, then by _id for the points with the same timestamp.
+ *
+ * Track points are fetched by pages of a fixed size using keyset pagination on
+ * (timestamp, _id), see {@link TrackArchive#SELECTION_AFTER_KEY}, so that only one
+ * page is held in memory whatever the length of the track, and each page is read
+ * from the time index. Designed for forward iteration: moving backwards restarts
+ * from the first page.
+ *
+ * The number of points is counted when the cursor is created, points
+ * recorded afterwards are not returned.
+ */
+public class TrackPointCursor extends AbstractCursor {
+
+	/**
+	 * Default number of track points per page
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * Order of the track points, matching the key of the pages
+	 */
+	static final String SORT_ORDER = TrackContentProvider.Schema.COL_TIMESTAMP + " asc, "
+			+ TrackContentProvider.Schema.COL_ID + " asc";
+
+	private final ContentResolver contentResolver;
+	private final long trackId;
+	private final int pageSize;
+
+	/**
+	 * Only track points with an _id greater than this one are returned
+	 */
+	private final long afterId;
+
+	/**
+	 * Columns requested by the caller
+	 */
+	private final String[] columns;
+
+	/**
+	 * Columns queried: the requested ones, plus the timestamp and _id used as the key of the pages
+	 */
+	private final String[] queriedColumns;
+	private final int timestampColumn;
+	private final int idColumn;
+
+	private final int count;
+
+	/**
+	 * Current page, and position of its first row in this cursor
+	 */
+	private Cursor page;
+	private int pageStart;
+
+	/**
+	 * Key of the last row of the current page
+	 */
+	private long pageLastTimestamp;
+	private long pageLastId;
+
+	/**
+	 * Number of pages fetched so far
+	 */
+	private int pageCount = 0;
+
+	/**
+	 * Greatest number of rows held by a page so far
+	 */
+	private int maxPageSize = 0;
+
+	/**
+	 * Greatest _id of the rows the cursor has been moved to
+	 */
+	private long lastId;
+
+	/**
+	 * @param contentResolver Content resolver to query
+	 * @param trackId Id of the track
+	 * @param projection Columns to return
+	 * @param afterId Only return track points with an _id greater than this one, -1 for all the track points
+	 * @param pageSize Number of track points to fetch at once
+	 */
+	public TrackPointCursor(ContentResolver contentResolver, long trackId, String[] projection, long afterId, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Invalid page size: " + pageSize);
+		}
+		this.contentResolver = contentResolver;
+		this.trackId = trackId;
+		this.pageSize = pageSize;
+		this.afterId = afterId;
+		lastId = afterId;
+
+		columns = projection;
+		List<String> queried = new ArrayList<>(Arrays.asList(projection));
+		if (!queried.contains(TrackContentProvider.Schema.COL_TIMESTAMP)) {
+			queried.add(TrackContentProvider.Schema.COL_TIMESTAMP);
+		}
+		if (!queried.contains(TrackContentProvider.Schema.COL_ID)) {
+			queried.add(TrackContentProvider.Schema.COL_ID);
+		}
+		queriedColumns = queried.toArray(new String[0]);
+		timestampColumn = queried.indexOf(TrackContentProvider.Schema.COL_TIMESTAMP);
+		idColumn = queried.indexOf(TrackContentProvider.Schema.COL_ID);
+
+		count = readCount();
+	}
+
+	/**
+	 * @return Number of track points to return
+	 */
+	private int readCount() {
+		Cursor c;
+		if (afterId < 0) {
+			// Whole track, use the track statistics
+			c = contentResolver.query(
+					ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+					new String[] {TrackContentProvider.Schema.COL_TRACKPOINT_COUNT}, null, null, null);
+		} else {
+			c = contentResolver.query(TrackContentProvider.trackPointsUri(trackId),
+					new String[] {"count(*)"},
+					TrackContentProvider.Schema.COL_ID + " > ?", new String[] {Long.toString(afterId)}, null);
+		}
+		int out = 0;
+		if (c != null) {
+			if (c.moveToFirst()) {
+				out = c.getInt(0);
+			}
+			c.close();
+		}
+		return out;
+	}
+
+	/**
+	 * Replaces the current page with the one following it,
+	 * or with the first page if there's no current page.
+	 * @return false if there are no more track points
+	 */
+	private boolean fetchNextPage() {
+		String selection;
+		String[] selectionArgs;
+		if (page != null) {
+			pageStart += page.getCount();
+			page.close();
+			String timestamp = Long.toString(pageLastTimestamp);
+			String id = Long.toString(pageLastId);
+			if (afterId < 0) {
+				selection = TrackArchive.SELECTION_AFTER_KEY;
+				selectionArgs = new String[] {timestamp, timestamp, id};
+			} else {
+				selection = TrackArchive.SELECTION_AFTER_ID_AND_KEY;
+				selectionArgs = new String[] {Long.toString(afterId), timestamp, timestamp, id};
+			}
+		} else {
+			pageStart = 0;
+			if (afterId < 0) {
+				selection = null;
+				selectionArgs = null;
+			} else {
+				selection = TrackArchive.SELECTION_AFTER_ID;
+				selectionArgs = new String[] {Long.toString(afterId)};
+			}
+		}
+
+		page = contentResolver.query(TrackContentProvider.trackPointsUri(trackId, pageSize),
+				queriedColumns, selection, selectionArgs, SORT_ORDER);
+		pageCount++;
+		if (page == null || !page.moveToLast()) {
+			return false;
+		}
+		maxPageSize = Math.max(maxPageSize, page.getCount());
+		pageLastTimestamp = page.getLong(timestampColumn);
+		pageLastId = page.getLong(idColumn);
+		return true;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		if (page == null || newPosition < pageStart) {
+			closePage();
+			if (!fetchNextPage()) {
+				return false;
+			}
+		}
+		while (newPosition >= pageStart + page.getCount()) {
+			if (page.getCount() < pageSize || !fetchNextPage()) {
+				// No more points in the DB
+				return false;
+			}
+		}
+		if (!page.moveToPosition(newPosition - pageStart)) {
+			return false;
+		}
+		lastId = Math.max(lastId, page.getLong(idColumn));
+		return true;
+	}
+
+	private void closePage() {
+		if (page != null) {
+			page.close();
+			page = null;
+		}
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columns;
+	}
+
+	@Override
+	public String getString(int column) {
+		return page.getString(column);
+	}
+
+	@Override
+	public short getShort(int column) {
+		return page.getShort(column);
+	}
+
+	@Override
+	public int getInt(int column) {
+		return page.getInt(column);
+	}
+
+	@Override
+	public long getLong(int column) {
+		return page.getLong(column);
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return page.getFloat(column);
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return page.getDouble(column);
+	}
+
+	@Override
+	public int getType(int column) {
+		return page.getType(column);
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		return page.isNull(column);
+	}
+
+	@Override
+	public void close() {
+		closePage();
+		super.close();
+	}
+
+	/**
+	 * @return Greatest _id of the rows the cursor has been moved to, or the _id
+	 * it starts after if it hasn't moved. Once the cursor has been read to
+	 * the end, newer track points can be read by starting after this _id.
+	 */
+	public long getLastId() {
+		return lastId;
+	}
+
+	/**
+	 * @return Number of pages fetched so far
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * @return Greatest number of track points held at once so far, at most the page size
+	 */
+	public int getMaxPageSize() {
+		return maxPageSize;
+	}
+}
@@ -95,6 +95,10 @@ public class Track {
 
 		out.noteCount = tc.getInt(tc.getColumnIndex(TrackContentProvider.Schema.COL_NOTE_COUNT));
 
+		// First and last track points are part of the track cursor since v19,
+		// no need to query them separately
+		out.readExtraInformation(tc);
+
 		if(withExtraInformation){
 			out.readExtraInformation();
 		}
@@ -102,6 +106,26 @@ public class Track {
 		return out;		
 	}
 	
+	/**
+	 * Reads first and last track point information from the track statistics
+	 * columns of the given cursor, if available.
+	 */
+	private void readExtraInformation(Cursor tc) {
+		int firstTimestampIdx = tc.getColumnIndex(TrackContentProvider.Schema.COL_FIRST_TIMESTAMP);
+		if (firstTimestampIdx < 0) {
+			return;
+		}
+		if (!tc.isNull(firstTimestampIdx)) {
+			startDate = tc.getLong(firstTimestampIdx);
+			startLat = tc.getFloat(tc.getColumnIndex(TrackContentProvider.Schema.COL_FIRST_LATITUDE));
+			startLong = tc.getFloat(tc.getColumnIndex(TrackContentProvider.Schema.COL_FIRST_LONGITUDE));
+			endDate = tc.getLong(tc.getColumnIndex(TrackContentProvider.Schema.COL_LAST_TIMESTAMP));
+			endLat = tc.getFloat(tc.getColumnIndex(TrackContentProvider.Schema.COL_LAST_LATITUDE));
+			endLong = tc.getFloat(tc.getColumnIndex(TrackContentProvider.Schema.COL_LAST_LONGITUDE));
+		}
+		extraInformationRead = true;
+	}
+
 	private void readExtraInformation(){
 		if(!extraInformationRead){
 			Cursor startCursor = cr.query(TrackContentProvider.trackStartUri(trackId), null, null, null, null);
@@ -0,0 +1,246 @@
+package net.osmtracker.db.model;
+
+import android.database.Cursor;
+
+import net.osmtracker.db.TrackContentProvider;
+
+import java.util.Arrays;
+
+/**
+ * Compact in-memory representation of a sequence of track points.
+ *
+ * Points are stored column by column in parallel primitive arrays (latitude,
+ * longitude, timestamp, elevation), rather than as one object per point.
+ * Elevation is {@link Float#NaN} when unknown.
+ *
+ * The backing arrays are exposed for bulk processing: only the first
+ * {@link #size()} values are meaningful, and the arrays are replaced
+ * when the buffer grows, so they must not be kept across appends.
+ */
+public class TrackBuffer {
+
+	/**
+	 * Columns read by {@link #append(Cursor)}
+	 */
+	public static final String[] COLUMNS = {
+			TrackContentProvider.Schema.COL_LATITUDE,
+			TrackContentProvider.Schema.COL_LONGITUDE,
+			TrackContentProvider.Schema.COL_TIMESTAMP,
+			TrackContentProvider.Schema.COL_ELEVATION
+	};
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private double[] lat;
+	private double[] lon;
+	private long[] time;
+	private float[] ele;
+
+	private int size = 0;
+
+	public TrackBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Initial number of points that can be stored without growing
+	 */
+	public TrackBuffer(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		lat = new double[capacity];
+		lon = new double[capacity];
+		time = new long[capacity];
+		ele = new float[capacity];
+	}
+
+	/**
+	 * @return Number of points in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Makes sure the buffer can hold a number of points without growing again
+	 * @param capacity Number of points
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > lat.length) {
+			// Grow by 50% at least, so that appending point by point is amortized
+			int newCapacity = Math.max(capacity, lat.length + (lat.length >> 1) + 1);
+			lat = Arrays.copyOf(lat, newCapacity);
+			lon = Arrays.copyOf(lon, newCapacity);
+			time = Arrays.copyOf(time, newCapacity);
+			ele = Arrays.copyOf(ele, newCapacity);
+		}
+	}
+
+	/**
+	 * Releases the unused capacity
+	 */
+	public void trimToSize() {
+		if (size < lat.length) {
+			lat = Arrays.copyOf(lat, size);
+			lon = Arrays.copyOf(lon, size);
+			time = Arrays.copyOf(time, size);
+			ele = Arrays.copyOf(ele, size);
+		}
+	}
+
+	/**
+	 * Removes all the points, keeping the capacity
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends a point
+	 * @param latitude Latitude
+	 * @param longitude Longitude
+	 * @param timestamp Timestamp
+	 * @param elevation Elevation, {@link Float#NaN} if unknown
+	 */
+	public void add(double latitude, double longitude, long timestamp, float elevation) {
+		ensureCapacity(size + 1);
+		lat[size] = latitude;
+		lon[size] = longitude;
+		time[size] = timestamp;
+		ele[size] = elevation;
+		size++;
+	}
+
+	/**
+	 * Appends a range of points of another buffer
+	 * @param other Buffer to copy points from
+	 * @param from Index of the first point to copy
+	 * @param to Index after the last point to copy
+	 */
+	public void append(TrackBuffer other, int from, int to) {
+		checkRange(from, to, other.size);
+		int count = to - from;
+		ensureCapacity(size + count);
+		System.arraycopy(other.lat, from, lat, size, count);
+		System.arraycopy(other.lon, from, lon, size, count);
+		System.arraycopy(other.time, from, time, size, count);
+		System.arraycopy(other.ele, from, ele, size, count);
+		size += count;
+	}
+
+	/**
+	 * Appends all the remaining rows of a cursor, starting after its current position.
+	 * Latitude and longitude columns are mandatory, timestamp and elevation
+	 * are optional (see {@link #COLUMNS}).
+	 * @param c Cursor to read, left after its last row
+	 * @return Number of points appended
+	 */
+	public int append(Cursor c) {
+		return append(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Appends the next rows of a cursor, starting after its current position,
+	 * so that a long cursor can be read by chunks.
+	 * @param c Cursor to read, left on the last row appended
+	 * @param maxPoints Maximum number of points to append
+	 * @return Number of points appended, less than maxPoints if the cursor has been read to the end
+	 * @see #append(Cursor)
+	 */
+	public int append(Cursor c, int maxPoints) {
+		int latColumn = c.getColumnIndexOrThrow(TrackContentProvider.Schema.COL_LATITUDE);
+		int lonColumn = c.getColumnIndexOrThrow(TrackContentProvider.Schema.COL_LONGITUDE);
+		int timeColumn = c.getColumnIndex(TrackContentProvider.Schema.COL_TIMESTAMP);
+		int eleColumn = c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION);
+
+		int before = size;
+		ensureCapacity(size + Math.max(0, Math.min(maxPoints, c.getCount() - c.getPosition() - 1)));
+		while (size - before < maxPoints && c.moveToNext()) {
+			add(c.getDouble(latColumn), c.getDouble(lonColumn),
+					timeColumn < 0 ? 0 : c.getLong(timeColumn),
+					(eleColumn < 0 || c.isNull(eleColumn)) ? Float.NaN : c.getFloat(eleColumn));
+		}
+		return size - before;
+	}
+
+	/**
+	 * @param from Index of the first point
+	 * @param to Index after the last point
+	 * @return A new buffer holding a copy of the points in the range
+	 */
+	public TrackBuffer slice(int from, int to) {
+		checkRange(from, to, size);
+		TrackBuffer out = new TrackBuffer(to - from);
+		out.append(this, from, to);
+		return out;
+	}
+
+	public double getLatitude(int i) {
+		checkIndex(i);
+		return lat[i];
+	}
+
+	public double getLongitude(int i) {
+		checkIndex(i);
+		return lon[i];
+	}
+
+	public long getTimestamp(int i) {
+		checkIndex(i);
+		return time[i];
+	}
+
+	/**
+	 * @return Elevation of the point, {@link Float#NaN} if unknown
+	 */
+	public float getElevation(int i) {
+		checkIndex(i);
+		return ele[i];
+	}
+
+	/**
+	 * @return Backing array of latitudes, valid up to {@link #size()}
+	 */
+	public double[] getLatitudes() {
+		return lat;
+	}
+
+	/**
+	 * @return Backing array of longitudes, valid up to {@link #size()}
+	 */
+	public double[] getLongitudes() {
+		return lon;
+	}
+
+	/**
+	 * @return Backing array of timestamps, valid up to {@link #size()}
+	 */
+	public long[] getTimestamps() {
+		return time;
+	}
+
+	/**
+	 * @return Backing array of elevations, valid up to {@link #size()}
+	 */
+	public float[] getElevations() {
+		return ele;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		}
+	}
+
+	private static void checkRange(int from, int to, int size) {
+		if (from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), size: " + size);
+		}
+	}
+
+}
@@ -0,0 +1,327 @@
+package net.osmtracker.db.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+/**
+ * Metrics derived from the track points of a track: distance, moving time,
+ * ascent, descent, maximum and average speed.
+ *
+ * Metrics are computed incrementally: each track point is {@link #add added} in
+ * recording order, and only the state needed to add the next one is kept (the
+ * previous point and the elevation filter). This state is persisted with the
+ * metrics in {@link Schema#TBL_TRACK_METRICS}, so that recording can resume
+ * without reading the track points again.
+ *
+ * Ascent and descent are computed from the barometric altitude when the point
+ * has an atmospheric pressure, otherwise from its GPS elevation. The altitude is
+ * smoothed by an exponential filter, and only changes greater than a threshold
+ * are counted, to ignore the noise of the sensors.
+ */
+public class TrackMetrics {
+
+	/**
+	 * Mean radius of the earth, in meters
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/**
+	 * Speed under which the device is considered stationary, in m/s
+	 */
+	public static final double MIN_MOVING_SPEED = 0.5;
+
+	/**
+	 * Minimum duration of a segment for its speed to be taken into account
+	 * in the maximum speed, in ms. Shorter segments are too noisy.
+	 */
+	static final long MIN_SPEED_DURATION = 1000;
+
+	/**
+	 * Weight of a new altitude in the filtered altitude
+	 */
+	static final double ELEVATION_FILTER_ALPHA = 0.25;
+
+	/**
+	 * Minimum change of the filtered altitude counted as an ascent or a descent, in meters
+	 */
+	static final double ELEVATION_THRESHOLD = 5;
+	static final double PRESSURE_ALTITUDE_THRESHOLD = 1;
+
+	/**
+	 * Sources of the altitude used for the ascent and the descent
+	 */
+	static final int ELEVATION_SOURCE_NONE = 0;
+	static final int ELEVATION_SOURCE_GPS = 1;
+	static final int ELEVATION_SOURCE_PRESSURE = 2;
+
+	/**
+	 * Standard atmospheric pressure at sea level, in hPa
+	 */
+	private static final double SEA_LEVEL_PRESSURE = 1013.25;
+
+	/**
+	 * Columns of the track points needed by {@link #add(Cursor)}
+	 */
+	public static final String[] TRACKPOINT_PROJECTION = {
+		Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_TIMESTAMP,
+		Schema.COL_ELEVATION, Schema.COL_ATMOSPHERIC_PRESSURE, Schema.COL_SPEED
+	};
+
+	private int pointCount = 0;
+	private long lastTrackPointId = -1;
+
+	private double distance = 0;
+	private long movingTime = 0;
+	private double ascent = 0;
+	private double descent = 0;
+	private double maxSpeed = 0;
+
+	private double previousLatitude;
+	private double previousLongitude;
+	private long previousTimestamp;
+
+	private int elevationSource = ELEVATION_SOURCE_NONE;
+	private double elevationFiltered;
+	private double elevationReference;
+
+	/**
+	 * Adds the next track point of the track
+	 * @param trackPointId Id of the track point
+	 * @param latitude Latitude, in degrees
+	 * @param longitude Longitude, in degrees
+	 * @param timestamp Timestamp, in ms
+	 * @param elevation GPS elevation in meters, NaN if unknown
+	 * @param pressure Atmospheric pressure in hPa, NaN if unknown
+	 * @param speed Speed measured by the GPS in m/s, NaN if unknown
+	 */
+	public void add(long trackPointId, double latitude, double longitude, long timestamp,
+			double elevation, double pressure, double speed) {
+		if (pointCount > 0) {
+			double d = distance(previousLatitude, previousLongitude, latitude, longitude);
+			long duration = timestamp - previousTimestamp;
+			distance += d;
+			if (duration > 0) {
+				double segmentSpeed = d * 1000 / duration;
+				if (segmentSpeed >= MIN_MOVING_SPEED) {
+					movingTime += duration;
+				}
+				if (Double.isNaN(speed) && duration >= MIN_SPEED_DURATION) {
+					maxSpeed = Math.max(maxSpeed, segmentSpeed);
+				}
+			}
+		}
+		if (!Double.isNaN(speed)) {
+			maxSpeed = Math.max(maxSpeed, speed);
+		}
+
+		if (!Double.isNaN(pressure) && pressure > 0) {
+			addAltitude(ELEVATION_SOURCE_PRESSURE, pressureAltitude(pressure), PRESSURE_ALTITUDE_THRESHOLD);
+		} else if (!Double.isNaN(elevation)) {
+			addAltitude(ELEVATION_SOURCE_GPS, elevation, ELEVATION_THRESHOLD);
+		}
+
+		previousLatitude = latitude;
+		previousLongitude = longitude;
+		previousTimestamp = timestamp;
+		lastTrackPointId = trackPointId;
+		pointCount++;
+	}
+
+	/**
+	 * Filters an altitude, and counts the ascent or descent since the last one counted
+	 * if it is greater than the threshold. The filter is reset when the source changes,
+	 * as barometric and GPS altitudes can't be compared.
+	 */
+	private void addAltitude(int source, double altitude, double threshold) {
+		if (source != elevationSource) {
+			elevationSource = source;
+			elevationFiltered = altitude;
+			elevationReference = altitude;
+			return;
+		}
+		elevationFiltered += ELEVATION_FILTER_ALPHA * (altitude - elevationFiltered);
+		double change = elevationFiltered - elevationReference;
+		if (change >= threshold) {
+			ascent += change;
+			elevationReference = elevationFiltered;
+		} else if (change <= -threshold) {
+			descent -= change;
+			elevationReference = elevationFiltered;
+		}
+	}
+
+	/**
+	 * Adds the track point at the current position of a cursor
+	 * @param c Cursor over track points, with at least the columns of {@link #TRACKPOINT_PROJECTION}
+	 */
+	public void add(Cursor c) {
+		add(c.getLong(c.getColumnIndex(Schema.COL_ID)),
+				c.getDouble(c.getColumnIndex(Schema.COL_LATITUDE)),
+				c.getDouble(c.getColumnIndex(Schema.COL_LONGITUDE)),
+				c.getLong(c.getColumnIndex(Schema.COL_TIMESTAMP)),
+				getDouble(c, Schema.COL_ELEVATION),
+				getDouble(c, Schema.COL_ATMOSPHERIC_PRESSURE),
+				getDouble(c, Schema.COL_SPEED));
+	}
+
+	/**
+	 * Adds a track point inserted in the database
+	 * @param trackPointId Id of the track point
+	 * @param values Values of the track point
+	 */
+	public void add(long trackPointId, ContentValues values) {
+		add(trackPointId,
+				values.getAsDouble(Schema.COL_LATITUDE),
+				values.getAsDouble(Schema.COL_LONGITUDE),
+				values.getAsLong(Schema.COL_TIMESTAMP),
+				getDouble(values, Schema.COL_ELEVATION),
+				getDouble(values, Schema.COL_ATMOSPHERIC_PRESSURE),
+				getDouble(values, Schema.COL_SPEED));
+	}
+
+	/**
+	 * Reads the metrics and their state from a cursor over {@link Schema#TBL_TRACK_METRICS}
+	 * @param c Cursor positioned on a row of the metrics
+	 * @return Metrics, empty if the row is null (e.g. from a left join)
+	 */
+	public static TrackMetrics fromCursor(Cursor c) {
+		TrackMetrics out = new TrackMetrics();
+		int pointCountIndex = c.getColumnIndex(Schema.COL_METRICS_POINT_COUNT);
+		if (pointCountIndex < 0 || c.isNull(pointCountIndex)) {
+			return out;
+		}
+		out.pointCount = c.getInt(pointCountIndex);
+		out.distance = c.getDouble(c.getColumnIndex(Schema.COL_DISTANCE));
+		out.movingTime = c.getLong(c.getColumnIndex(Schema.COL_MOVING_TIME));
+		out.ascent = c.getDouble(c.getColumnIndex(Schema.COL_ASCENT));
+		out.descent = c.getDouble(c.getColumnIndex(Schema.COL_DESCENT));
+		out.maxSpeed = c.getDouble(c.getColumnIndex(Schema.COL_MAX_SPEED));
+
+		// The state is only needed to add points, it isn't part of the track projection
+		int lastIdIndex = c.getColumnIndex(Schema.COL_METRICS_LAST_ID);
+		if (lastIdIndex >= 0) {
+			out.lastTrackPointId = c.getLong(lastIdIndex);
+			out.previousLatitude = c.getDouble(c.getColumnIndex(Schema.COL_PREVIOUS_LATITUDE));
+			out.previousLongitude = c.getDouble(c.getColumnIndex(Schema.COL_PREVIOUS_LONGITUDE));
+			out.previousTimestamp = c.getLong(c.getColumnIndex(Schema.COL_PREVIOUS_TIMESTAMP));
+			out.elevationSource = c.getInt(c.getColumnIndex(Schema.COL_ELEVATION_SOURCE));
+			out.elevationFiltered = c.getDouble(c.getColumnIndex(Schema.COL_ELEVATION_FILTERED));
+			out.elevationReference = c.getDouble(c.getColumnIndex(Schema.COL_ELEVATION_REFERENCE));
+		}
+		return out;
+	}
+
+	/**
+	 * @param trackId Id of the track
+	 * @return Values of the row of the track in {@link Schema#TBL_TRACK_METRICS}
+	 */
+	public ContentValues toContentValues(long trackId) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_METRICS_POINT_COUNT, pointCount);
+		values.put(Schema.COL_METRICS_LAST_ID, lastTrackPointId);
+		values.put(Schema.COL_DISTANCE, distance);
+		values.put(Schema.COL_MOVING_TIME, movingTime);
+		values.put(Schema.COL_ASCENT, ascent);
+		values.put(Schema.COL_DESCENT, descent);
+		values.put(Schema.COL_MAX_SPEED, maxSpeed);
+		values.put(Schema.COL_PREVIOUS_LATITUDE, previousLatitude);
+		values.put(Schema.COL_PREVIOUS_LONGITUDE, previousLongitude);
+		values.put(Schema.COL_PREVIOUS_TIMESTAMP, previousTimestamp);
+		values.put(Schema.COL_ELEVATION_SOURCE, elevationSource);
+		values.put(Schema.COL_ELEVATION_FILTERED, elevationFiltered);
+		values.put(Schema.COL_ELEVATION_REFERENCE, elevationReference);
+		return values;
+	}
+
+	/**
+	 * @return Number of track points the metrics were computed from
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @return Id of the last track point added, -1 if none
+	 */
+	public long getLastTrackPointId() {
+		return lastTrackPointId;
+	}
+
+	/**
+	 * @return Distance, in meters
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return Time spent moving faster than {@link #MIN_MOVING_SPEED}, in ms
+	 */
+	public long getMovingTime() {
+		return movingTime;
+	}
+
+	/**
+	 * @return Cumulated elevation gain, in meters
+	 */
+	public double getAscent() {
+		return ascent;
+	}
+
+	/**
+	 * @return Cumulated elevation loss, in meters
+	 */
+	public double getDescent() {
+		return descent;
+	}
+
+	/**
+	 * @return Maximum speed, in m/s
+	 */
+	public double getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	/**
+	 * @return Average speed while moving, in m/s
+	 */
+	public double getAverageSpeed() {
+		return movingTime > 0 ? distance * 1000 / movingTime : 0;
+	}
+
+	/**
+	 * Haversine distance between two points
+	 * @return Distance, in meters
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double sinLat = Math.sin(dLat / 2);
+		double sinLon = Math.sin(dLon / 2);
+		double a = sinLat * sinLat
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * @param pressure Atmospheric pressure, in hPa
+	 * @return Altitude in the standard atmosphere, in meters
+	 */
+	static double pressureAltitude(double pressure) {
+		return 44330 * (1 - Math.pow(pressure / SEA_LEVEL_PRESSURE, 1 / 5.255));
+	}
+
+	private static double getDouble(Cursor c, String column) {
+		int index = c.getColumnIndex(column);
+		return (index < 0 || c.isNull(index)) ? Double.NaN : c.getDouble(index);
+	}
+
+	private static double getDouble(ContentValues values, String column) {
+		Double value = values.getAsDouble(column);
+		return value == null ? Double.NaN : value;
+	}
+
+}
@@ -16,20 +16,23 @@ import android.widget.Toast;
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.RecordingConfig;
 import net.osmtracker.db.TrackContentProvider;
 import net.osmtracker.exception.ExportTrackException;
 import net.osmtracker.util.FileSystemUtils;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.net.URLEncoder;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import static net.osmtracker.db.DataHelper.EXTENSION_GPX;
@@ -48,6 +51,18 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 
 	private static final String TAG = ExportTrackTask.class.getSimpleName();
 
+	/**
+	 * Maximum number of tracks exported in parallel. Beyond that
+	 * the export is limited by the storage, not by the CPU.
+	 */
+	private static final int MAX_EXPORT_THREADS = 4;
+
+	/**
+	 * Lock held while choosing the directory and the name of an exported
+	 * file, so that parallel exports don't pick the same name
+	 */
+	private static final Object EXPORT_NAMING_LOCK = new Object();
+
 	/**
 	 * Characters to replace in track filename, for use by buildGPXFilename. <BR>
 	 * The characters are: (space) ' " / \ * ? ~ @ &lt; &gt; <BR>
@@ -57,47 +72,44 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 		Pattern.compile("[ '\"/\\\\*?~@<>]");  // must double-escape \
 
 	/**
-	 * XML header.
+	 * {@link Context} to get resources
 	 */
-	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>";
+	protected Context context;
 
-	private static final String CDATA_START = "<![CDATA[";
-	private static final String CDATA_END = "]]>";
+	/**
+	 * Track IDs to export
+	 */
+	private long[] trackIds;
 
 	/**
-	 * GPX opening tag
+	 * Dialog to display while exporting
 	 */
-	private static final String TAG_GPX = "<gpx"
-			+ " xmlns=\"http://www.topografix.com/GPX/1/1\""
-			+ " version=\"1.1\""
-			+ " creator=\"OSMTracker for Android™ - https://github.com/labexp/osmtracker-android\""
-			+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
-			+ " xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd \">";
+	protected ProgressDialog dialog;
 
 	/**
-	 * Date format for a point timestamp.
+	 * Message in case of an error
 	 */
-	private SimpleDateFormat pointDateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	private String errorMsg = null;
 
 	/**
-	 * {@link Context} to get resources
+	 * Whether progress is reported for all the tracks at once, instead of track by track
 	 */
-	protected Context context;
+	private boolean aggregateProgress = false;
 
 	/**
-	 * Track IDs to export
+	 * Progress not yet published, when {@link #aggregateProgress} is set
 	 */
-	private long[] trackIds;
+	private final AtomicLong pendingProgress = new AtomicLong();
 
 	/**
-	 * Dialog to display while exporting
+	 * Amount of progress to accumulate before publishing it, when {@link #aggregateProgress} is set
 	 */
-	protected ProgressDialog dialog;
+	private long progressThreshold = 1;
 
 	/**
-	 * Message in case of an error
+	 * Output preferences, read once for all the tracks exported
 	 */
-	private String errorMsg = null;
+	private RecordingConfig config;
 
 	/**
 	 * @param startDate
@@ -121,7 +133,6 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 	public ExportTrackTask(Context context, long... trackIds) {
 		this.context = context;
 		this.trackIds = trackIds;
-		pointDateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
 	@Override
@@ -138,22 +149,157 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 
 	@Override
 	protected Boolean doInBackground(Void... params) {
+		config = RecordingConfig.fromPreferences(PreferenceManager.getDefaultSharedPreferences(context));
+		if (trackIds.length == 1) {
+			try {
+				exportTrackAsGpx(trackIds[0]);
+			} catch (ExportTrackException ete) {
+				errorMsg = ete.getMessage();
+				return false;
+			}
+			return true;
+		} else {
+			return exportTracksInParallel();
+		}
+	}
+
+	/**
+	 * Exports all the tracks, several at a time. Each track is read and
+	 * written by its own worker, and the failure of a track doesn't prevent
+	 * the other ones from being exported.
+	 * @return true if all the tracks were exported
+	 */
+	private boolean exportTracksInParallel() {
+		aggregateProgress = true;
+		long total = countPointsToExport();
+		progressThreshold = Math.max(1, total / 100);
+		publishProgress((long) trackIds.length, total);
+
+		int threads = Math.min(trackIds.length,
+				Math.max(2, Math.min(MAX_EXPORT_THREADS, Runtime.getRuntime().availableProcessors())));
+		Log.d(TAG, "Exporting " + trackIds.length + " tracks with " + threads + " threads");
+
+		// Error of each track that failed, even when several fail the same way
+		final Map<Long, String> errors = new ConcurrentHashMap<Long, String>();
+		List<Callable<Void>> exports = new ArrayList<Callable<Void>>(trackIds.length);
+		for (final long trackId : trackIds) {
+			exports.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					if (isCancelled()) {
+						return null;
+					}
+					try {
+						exportTrackAsGpx(trackId);
+					} catch (ExportTrackException | RuntimeException e) {
+						Log.e(TAG, "Could not export track #" + trackId, e);
+						errors.put(trackId, e.getMessage() != null ? e.getMessage() : e.toString());
+					}
+					return null;
+				}
+			});
+		}
+
+		String interrupted = null;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 		try {
+			executor.invokeAll(exports);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			interrupted = ie.toString();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		long remaining = pendingProgress.getAndSet(0);
+		if (remaining > 0) {
+			publishProgress(remaining);
+		}
+
+		if (!errors.isEmpty() || interrupted != null) {
+			StringBuilder sb = new StringBuilder();
+			// In the order of the tracks to export
 			for (long trackId : trackIds) {
-				exportTrackAsGpx(trackId);
+				String error = errors.get(trackId);
+				if (error != null) {
+					if (sb.length() > 0) {
+						sb.append('\n');
+					}
+					sb.append('#').append(trackId).append(": ").append(error);
+				}
+			}
+			if (interrupted != null) {
+				if (sb.length() > 0) {
+					sb.append('\n');
+				}
+				sb.append(interrupted);
 			}
-		} catch (ExportTrackException ete) {
-			errorMsg = ete.getMessage();
+			errorMsg = sb.toString();
 			return false;
 		}
 		return true;
 	}
 
+	/**
+	 * @return total number of track points and way points of the tracks to export
+	 */
+	private long countPointsToExport() {
+		long[] sortedIds = trackIds.clone();
+		Arrays.sort(sortedIds);
+
+		long total = 0;
+		Cursor c = context.getContentResolver().query(TrackContentProvider.CONTENT_URI_TRACK,
+				null, null, null, null);
+		if (c != null) {
+			int idCol = c.getColumnIndex(TrackContentProvider.Schema.COL_ID);
+			int tpCountCol = c.getColumnIndex(TrackContentProvider.Schema.COL_TRACKPOINT_COUNT);
+			int wpCountCol = c.getColumnIndex(TrackContentProvider.Schema.COL_WAYPOINT_COUNT);
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				if (Arrays.binarySearch(sortedIds, c.getLong(idCol)) >= 0) {
+					total += c.getLong(tpCountCol) + c.getLong(wpCountCol);
+				}
+			}
+			c.close();
+		}
+		return total;
+	}
+
+	/**
+	 * Reports progress of the export of a track
+	 * @param count Number of points exported since the last call
+	 */
+	private void reportProgress(long count) {
+		if (!aggregateProgress) {
+			publishProgress(count);
+			return;
+		}
+
+		// Workers share a single progress bar, publish about every 1%
+		long pending = pendingProgress.addAndGet(count);
+		if (pending >= progressThreshold && pendingProgress.compareAndSet(pending, 0)) {
+			publishProgress(pending);
+		}
+	}
+
 	@Override
 	protected void onProgressUpdate(Long... values) {
 		if (values.length == 1) {
 			// Standard progress update
 			dialog.incrementProgressBy(values[0].intValue());
+		} else if (values.length == 2) {
+			// Parallel export of several tracks: number of tracks, number of points
+			dialog.dismiss();
+
+			dialog = new ProgressDialog(context);
+			dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+			dialog.setIndeterminate(false);
+			dialog.setCancelable(false);
+			dialog.setProgress(0);
+			dialog.setMax(values[1].intValue());
+			dialog.setTitle(
+					context.getResources().getString(R.string.trackmgr_exporting_tracks)
+							.replace("{0}", Long.toString(values[0])));
+			dialog.show();
 		} else if (values.length == 3) {
 			// To initialise the dialog, 3 values are passed to onProgressUpdate()
 			// trackId, number of track points, number of waypoints
@@ -217,8 +363,19 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 			startDate.setTime(startDateInMilliseconds);
 		}
 
-		File trackGPXExportDirectory = getExportDirectory(startDate);
-		String filenameBase = buildGPXFilename(c, trackGPXExportDirectory);
+		File trackGPXExportDirectory;
+		String filenameBase;
+		synchronized (EXPORT_NAMING_LOCK) {
+			trackGPXExportDirectory = getExportDirectory(startDate);
+			filenameBase = buildGPXFilename(c, trackGPXExportDirectory);
+			try {
+				// Reserve the name, in case other tracks are being exported in parallel
+				new File(trackGPXExportDirectory, filenameBase).createNewFile();
+			} catch (IOException ioe) {
+				c.close();
+				throw new ExportTrackException(ioe.getMessage());
+			}
+		}
 
 
 		String tags = c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_TAGS));
@@ -230,15 +387,16 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 
 		File trackFile = new File(trackGPXExportDirectory, filenameBase);
 
-		Cursor cTrackPoints = cr.query(TrackContentProvider.trackPointsUri(trackId), null,
-				null, null,
-				TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
+		// Track points are read by pages, whatever the length of the track
+		Cursor cTrackPoints = new DataHelper(context).openTrackPoints(trackId, GpxWriter.TRACKPOINT_COLUMNS);
 		Cursor cWayPoints = cr.query(TrackContentProvider.waypointsUri(trackId), null,
 				null, null,
 				TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
 
 		if (null != cTrackPoints && null != cWayPoints) {
-			publishProgress(trackId, (long) cTrackPoints.getCount(), (long) cWayPoints.getCount());
+			if (!aggregateProgress) {
+				publishProgress(trackId, (long) cTrackPoints.getCount(), (long) cWayPoints.getCount());
+			}
 
 			try {
 				writeGpxFile(track_name, tags, track_description, cTrackPoints, cWayPoints,
@@ -275,250 +433,23 @@ public abstract class ExportTrackTask extends AsyncTask<Void, Long, Boolean> {
 	 */
 	private void writeGpxFile(String trackName, String tags, String track_description, Cursor cTrackPoints, Cursor cWayPoints, File target) throws IOException {
 
-		String accuracyOutput = PreferenceManager.getDefaultSharedPreferences(context).getString(
-				OSMTracker.Preferences.KEY_OUTPUT_ACCURACY,
-				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY);
-		boolean fillHDOP = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
-				OSMTracker.Preferences.KEY_OUTPUT_GPX_HDOP_APPROXIMATION,
-				OSMTracker.Preferences.VAL_OUTPUT_GPX_HDOP_APPROXIMATION);
-		String compassOutput = PreferenceManager.getDefaultSharedPreferences(context).getString(
-				OSMTracker.Preferences.KEY_OUTPUT_COMPASS,
-				OSMTracker.Preferences.VAL_OUTPUT_COMPASS);
+		RecordingConfig config = this.config;
+		if (config == null) {
+			config = RecordingConfig.fromPreferences(PreferenceManager.getDefaultSharedPreferences(context));
+		}
 
-		Log.v(TAG, "write preferences: compass:" + compassOutput);
+		Log.v(TAG, "write preferences: compass:" + config.compassOutput);
 
-		Writer writer = null;
+		GpxWriter writer = new GpxWriter(GpxWriter.openFile(target), context.getResources(),
+				config.accuracyOutput, config.fillHDOP, config.compassOutput);
+		writer.setProgressListener(count -> reportProgress(count));
 		try {
-
-			writer = new BufferedWriter(new FileWriter(target));
-
-			writer.write(XML_HEADER + "\n");
-			writer.write(TAG_GPX + "\n");
-
-			writer.write("\t<metadata>\n");
-
-			// Write the track's name to a tag
-			if((trackName != null && !trackName.equals(""))) writer.write("\t\t<name>"+ trackName +"</name>\n");
-
-			if (tags != null && !tags.equals("")) {
-				for (String tag : tags.split(","))
-					writer.write("\t\t<keywords>" + tag.trim() + "</keywords>\n");
-			}
-
-			if ((track_description != null && !track_description.equals(""))) writer.write("\t\t<desc>" + track_description + "</desc>\n");
-
-			writer.write("\t</metadata>\n");
-
-			writeWayPoints(writer, cWayPoints, accuracyOutput, fillHDOP, compassOutput);
-			writeTrackPoints(context.getResources().getString(R.string.gpx_track_name), writer, cTrackPoints, fillHDOP, compassOutput);
-			writer.write("</gpx>");
-
+			writer.writeHeader(trackName, tags, track_description);
+			writer.writeWayPoints(cWayPoints);
+			writer.writeTrackPoints(context.getResources().getString(R.string.gpx_track_name), cTrackPoints);
+			writer.writeFooter();
 		} finally {
-			if (writer != null) {
-				writer.close();
-			}
-		}
-	}
-
-	/**
-	 * Iterates on track points and write them.
-	 * @param trackName Name of the track (metadata).
-	 * @param fw Writer to the target file.
-	 * @param c Cursor to track points.
-	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
-	 * @param compass Indicates if and how to write compass heading to the GPX ('none', 'comment', 'extension')
-	 * @throws IOException
-	 */
-	private void writeTrackPoints(String trackName, Writer fw, Cursor c, boolean fillHDOP, String compass) throws IOException {
-		// Update dialog every 1%
-		int dialogUpdateThreshold = c.getCount() / 100;
-		if (dialogUpdateThreshold == 0) {
-			dialogUpdateThreshold++;
-		}
-
-		fw.write("\t" + "<trk>" + "\n");
-		fw.write("\t\t" + "<name>" + CDATA_START + trackName + CDATA_END + "</name>" + "\n");
-		if (fillHDOP) {
-			fw.write("\t\t" + "<cmt>"
-					+ CDATA_START
-					+ context.getResources().getString(R.string.gpx_hdop_approximation_cmt)
-					+ CDATA_END
-					+ "</cmt>" + "\n");
-		}
-		fw.write("\t\t" + "<trkseg>" + "\n");
-
-		int i=0;
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(),i++) {
-			StringBuffer out = new StringBuffer();
-			out.append("\t\t\t" + "<trkpt lat=\""
-					+ c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE)) + "\" "
-					+ "lon=\"" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE)) + "\">" + "\n");
-			if (! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION))) {
-				out.append("\t\t\t\t" + "<ele>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION)) + "</ele>" + "\n");
-			}
-			out.append("\t\t\t\t" + "<time>" + pointDateFormatter.format(new Date(c.getLong(c.getColumnIndex(TrackContentProvider.Schema.COL_TIMESTAMP)))) + "</time>" + "\n");
-
-			if(fillHDOP && ! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY))) {
-				out.append("\t\t\t\t" + "<hdop>" + (c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY)) / OSMTracker.HDOP_APPROXIMATION_FACTOR) + "</hdop>" + "\n");
-			}
-			if(OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compass) && !c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-				out.append("\t\t\t\t" + "<cmt>"+CDATA_START+"compass heading: " +
-						c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) +
-						"deg\n\t\t\t\t\tcompass accuracy: " +
-						c.getLong(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY))+
-						CDATA_END+"</cmt>"+"\n");
-			}
-
-			String buff = "";
-			if(! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_SPEED))) {
-				buff += "\t\t\t\t\t" + "<speed>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_SPEED)) + "</speed>" + "\n";
-			}
-			if(OSMTracker.Preferences.VAL_OUTPUT_COMPASS_EXTENSION.equals(compass) && !c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-				buff += "\t\t\t\t\t" + "<compass>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) + "</compass>" + "\n";
-				buff += "\t\t\t\t\t" + "<compass_accuracy>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY)) + "</compass_accuracy>" + "\n";
-			}
-
-			if (! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE))) { //Checking if the database contains atmospheric_pressure data
-				double pressure = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE));
-				String pressure_formatted = String.format("%.1f", pressure);
-				buff += "\t\t\t\t\t" + "<baro>" + pressure_formatted + "</baro>" + "\n";
-			}
-
-			if(! buff.equals("")) {
-				out.append("\t\t\t\t" + "<extensions>\n");
-				out.append(buff);
-				out.append("\t\t\t\t" + "</extensions>\n");
-			}
-
-			out.append("\t\t\t" + "</trkpt>" + "\n");
-			fw.write(out.toString());
-
-			if (i % dialogUpdateThreshold == 0) {
-				publishProgress((long) dialogUpdateThreshold);
-			}
-		}
-
-		fw.write("\t\t" + "</trkseg>" + "\n");
-		fw.write("\t" + "</trk>" + "\n");
-	}
-
-	/**
-	 * Iterates on way points and write them.
-	 * @param fw Writer to the target file.
-	 * @param c Cursor to way points.
-	 * @param accuracyInfo Constant describing how to include (or not) accuracy info for way points.
-	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
-	 * @param compass Indicates if and how to write compass heading to the GPX ('none', 'comment', 'extension')
-	 * @throws IOException
-	 */
-	private void writeWayPoints(Writer fw, Cursor c, String accuracyInfo, boolean fillHDOP, String compass) throws IOException {
-
-		// Update dialog every 1%
-		int dialogUpdateThreshold = c.getCount() / 100;
-		if (dialogUpdateThreshold == 0) {
-			dialogUpdateThreshold++;
-		}
-
-		// Label for meter unit
-		String meterUnit = context.getResources().getString(R.string.various_unit_meters);
-		// Word "accuracy"
-		String accuracy = context.getResources().getString(R.string.various_accuracy);
-
-		int i=0;
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(), i++) {
-			StringBuilder out = new StringBuilder();
-			out.append("\t" + "<wpt lat=\""
-					+ c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE)) + "\" "
-					+ "lon=\"" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE)) + "\">" + "\n");
-			if (! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION))) {
-				out.append("\t\t" + "<ele>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION)) + "</ele>" + "\n");
-			}
-			out.append("\t\t" + "<time>" + pointDateFormatter.format(new Date(c.getLong(c.getColumnIndex(TrackContentProvider.Schema.COL_TIMESTAMP)))) + "</time>" + "\n");
-
-			String name = c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_NAME));
-
-			if (! OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE.equals(accuracyInfo) && ! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY))) {
-				// Outputs accuracy info for way point
-				if (OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_WPT_NAME.equals(accuracyInfo)) {
-					// Output accuracy with name
-					out.append("\t\t" + "<name>"
-							+ CDATA_START
-							+ name
-							+ " (" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY)) + meterUnit + ")"
-							+ CDATA_END
-							+ "</name>" + "\n");
-					if (OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compass) &&
-							! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-						out.append("\t\t"+ "<cmt>" + CDATA_START + "compass heading: " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) +
-								"deg\n\t\t\tcompass accuracy: " + c.getInt(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY)) + CDATA_END + "</cmt>\n");
-					}
-				} else if (OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_WPT_CMT.equals(accuracyInfo)) {
-					// Output accuracy in separate tag
-					out.append("\t\t" + "<name>" + CDATA_START + name + CDATA_END + "</name>" + "\n");
-					if (OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compass) &&
-							! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-						out.append("\t\t" + "<cmt>" + CDATA_START + accuracy + ": " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY)) + meterUnit +
-								"\n\t\t\t compass heading: " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) +
-								"deg\n\t\t\t compass accuracy: " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY)) +CDATA_END + "</cmt>" + "\n");
-					} else {
-						out.append("\t\t" + "<cmt>" + CDATA_START + accuracy + ": " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY)) + meterUnit + CDATA_END + "</cmt>" + "\n");
-					}
-				} else {
-					// Unknown value for accuracy info, shouldn't occur but who knows ?
-					// See issue #68. Output at least the name just in case.
-					out.append("\t\t" + "<name>" + CDATA_START + name + CDATA_END + "</name>" + "\n");
-				}
-			} else {
-				// No accuracy info requested, or available
-				out.append("\t\t" + "<name>" + CDATA_START + name + CDATA_END + "</name>" + "\n");
-				if (OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compass) &&
-						! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-					out.append("\t\t"+ "<cmt>" + CDATA_START + "compass heading: " + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) +
-							"deg\n\t\t\tcompass accuracy: " + c.getInt(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY)) + CDATA_END + "</cmt>\n");
-				}
-			}
-
-			String link = c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_LINK));
-			if (link != null) {
-				out.append("\t\t" + "<link href=\"" + URLEncoder.encode(link) + "\">" + "\n");
-				out.append("\t\t\t" + "<text>" + link +"</text>\n");
-				out.append("\t\t" + "</link>" + "\n");
-			}
-
-			if (! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_NBSATELLITES))) {
-				out.append("\t\t" + "<sat>" + c.getInt(c.getColumnIndex(TrackContentProvider.Schema.COL_NBSATELLITES)) + "</sat>" + "\n");
-			}
-
-			if(fillHDOP && ! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY))) {
-				out.append("\t\t" + "<hdop>" + (c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY)) / OSMTracker.HDOP_APPROXIMATION_FACTOR) + "</hdop>" + "\n");
-			}
-
-			String buff = "";
-
-			if(OSMTracker.Preferences.VAL_OUTPUT_COMPASS_EXTENSION.equals(compass) && !c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS))) {
-				buff += "\t\t\t\t\t" + "<compass>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS)) + "</compass>" + "\n";
-				buff += "\t\t\t\t\t" + "<compass_accuracy>" + c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY)) + "</compass_accuracy>" + "\n";
-			}
-
-			if (! c.isNull(c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE))) { //Checking if the database contains atmospheric_pressure data
-				double pressure = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE));
-				String pressure_formatted = String.format("%.1f", pressure);
-				buff += "\t\t\t\t\t" + "<baro>" + pressure_formatted + "</baro>" + "\n";
-			}
-
-			if(! buff.equals("")) {
-				out.append("\t\t\t\t" + "<extensions>\n");
-				out.append(buff);
-				out.append("\t\t\t\t" + "</extensions>\n");
-			}
-
-			out.append("\t" + "</wpt>" + "\n");
-
-			fw.write(out.toString());
-
-			if (i % dialogUpdateThreshold == 0) {
-				publishProgress((long) dialogUpdateThreshold);
-			}
+			writer.close();
 		}
 	}
 
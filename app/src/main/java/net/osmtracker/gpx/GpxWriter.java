@@ -0,0 +1,560 @@
+package net.osmtracker.gpx;
+
+import android.content.res.Resources;
+import android.database.Cursor;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.R;
+import net.osmtracker.db.TrackContentProvider;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Streaming GPX serializer.
+ *
+ * Points are appended to a single reusable {@link StringBuilder}, which is copied
+ * to the underlying {@link Writer} in large chunks. Cursor column indices are
+ * resolved once per cursor, and timestamps are formatted without going through
+ * {@link SimpleDateFormat}, so that no object is allocated per point in the
+ * common case.
+ *
+ * The output is the same, byte for byte, as the writer previously embedded in
+ * {@link ExportTrackTask}, including its locale dependent formatting of the
+ * atmospheric pressure: when the default locale doesn't use ASCII digits or a
+ * Gregorian calendar, the legacy formatters are used instead.
+ *
+ * Not thread safe.
+ */
+public class GpxWriter implements Closeable {
+
+	/**
+	 * Size of the buffer of the output stream, in chars
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Pending output is written to the stream once it reaches this size
+	 */
+	private static final int FLUSH_THRESHOLD = 16 * 1024;
+
+	/**
+	 * XML header.
+	 */
+	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>";
+
+	private static final String CDATA_START = "<![CDATA[";
+	private static final String CDATA_END = "]]>";
+
+	/**
+	 * GPX opening tag
+	 */
+	private static final String TAG_GPX = "<gpx"
+			+ " xmlns=\"http://www.topografix.com/GPX/1/1\""
+			+ " version=\"1.1\""
+			+ " creator=\"OSMTracker for Android™ - https://github.com/labexp/osmtracker-android\""
+			+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+			+ " xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd \">";
+
+	private static final String EXTENSIONS_START = "\t\t\t\t<extensions>\n";
+	private static final String EXTENSIONS_END = "\t\t\t\t</extensions>\n";
+
+	/**
+	 * Upper bound (exclusive) of the timestamps formatted by {@link #appendTimestamp(long)},
+	 * 10000-01-01T00:00:00Z. Other timestamps are formatted by {@link #legacyDateFormatter}.
+	 */
+	private static final long MAX_FAST_TIMESTAMP = 253402300800000L;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	/**
+	 * Track point columns read by {@link #writeTrackPoints(String, Cursor)}
+	 */
+	public static final String[] TRACKPOINT_COLUMNS = {
+			TrackContentProvider.Schema.COL_LATITUDE,
+			TrackContentProvider.Schema.COL_LONGITUDE,
+			TrackContentProvider.Schema.COL_ELEVATION,
+			TrackContentProvider.Schema.COL_TIMESTAMP,
+			TrackContentProvider.Schema.COL_ACCURACY,
+			TrackContentProvider.Schema.COL_COMPASS,
+			TrackContentProvider.Schema.COL_COMPASS_ACCURACY,
+			TrackContentProvider.Schema.COL_SPEED,
+			TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE};
+
+	/**
+	 * Receives progress updates while writing points
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param count Number of points written since the last call
+		 */
+		void onProgress(long count);
+	}
+
+	private final Writer out;
+
+	/**
+	 * Pending output, reused for the whole file
+	 */
+	private final StringBuilder sb = new StringBuilder(FLUSH_THRESHOLD * 2);
+
+	/**
+	 * Buffer used to copy {@link #sb} to {@link #out} without creating Strings
+	 */
+	private char[] chars = new char[FLUSH_THRESHOLD * 2];
+
+	private final String accuracyOutput;
+	private final boolean fillHDOP;
+	private final String compassOutput;
+
+	private final String meterUnit;
+	private final String accuracyLabel;
+	private final String hdopApproximationComment;
+
+	/**
+	 * Formatter used previously for timestamps, still used when {@link #fastFormat} is false
+	 */
+	private final SimpleDateFormat legacyDateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+	/**
+	 * Whether the default locale formats numbers and dates like {@link #appendTimestamp(long)}
+	 * and {@link #appendPressure(double)} do
+	 */
+	private final boolean fastFormat;
+
+	/**
+	 * Decimal separator used by String.format() in the default locale
+	 */
+	private final char decimalSeparator;
+
+	/**
+	 * Formatted "yyyy-MM-ddT" of the last formatted day
+	 */
+	private final char[] dayPrefix = new char[11];
+	private long dayPrefixDay = Long.MIN_VALUE;
+
+	private ProgressListener progressListener;
+
+	/**
+	 * Opens a buffered UTF-8 writer for the given file
+	 */
+	public static Writer openFile(File target) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * @param out Writer to write to. Closed by {@link #close()}.
+	 * @param resources Resources to get labels from
+	 * @param accuracyOutput Constant describing how to include (or not) accuracy info for way points.
+	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
+	 * @param compassOutput Indicates if and how to write compass heading to the GPX ('none', 'comment', 'extension')
+	 */
+	public GpxWriter(Writer out, Resources resources, String accuracyOutput, boolean fillHDOP, String compassOutput) {
+		this.out = out;
+		this.accuracyOutput = accuracyOutput;
+		this.fillHDOP = fillHDOP;
+		this.compassOutput = compassOutput;
+		meterUnit = resources.getString(R.string.various_unit_meters);
+		accuracyLabel = resources.getString(R.string.various_accuracy);
+		hdopApproximationComment = resources.getString(R.string.gpx_hdop_approximation_cmt);
+
+		legacyDateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+		decimalSeparator = symbols.getDecimalSeparator();
+		fastFormat = symbols.getZeroDigit() == '0'
+				&& legacyDateFormatter.getCalendar().getClass() == GregorianCalendar.class;
+	}
+
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Writes the XML header, the GPX opening tag and the metadata
+	 */
+	public void writeHeader(String trackName, String tags, String trackDescription) throws IOException {
+		sb.append(XML_HEADER).append('\n');
+		sb.append(TAG_GPX).append('\n');
+
+		sb.append("\t<metadata>\n");
+
+		if (trackName != null && !trackName.equals("")) {
+			sb.append("\t\t<name>").append(trackName).append("</name>\n");
+		}
+
+		if (tags != null && !tags.equals("")) {
+			for (String tag : tags.split(",")) {
+				sb.append("\t\t<keywords>").append(tag.trim()).append("</keywords>\n");
+			}
+		}
+
+		if (trackDescription != null && !trackDescription.equals("")) {
+			sb.append("\t\t<desc>").append(trackDescription).append("</desc>\n");
+		}
+
+		sb.append("\t</metadata>\n");
+	}
+
+	/**
+	 * Writes the GPX closing tag
+	 */
+	public void writeFooter() throws IOException {
+		sb.append("</gpx>");
+	}
+
+	/**
+	 * Iterates on track points and write them.
+	 * @param trackName Name of the track (metadata).
+	 * @param c Cursor to track points.
+	 */
+	public void writeTrackPoints(String trackName, Cursor c) throws IOException {
+		// Update progress every 1%
+		int progressThreshold = Math.max(1, c.getCount() / 100);
+
+		sb.append("\t<trk>\n");
+		sb.append("\t\t<name>").append(CDATA_START).append(trackName).append(CDATA_END).append("</name>\n");
+		if (fillHDOP) {
+			sb.append("\t\t<cmt>").append(CDATA_START).append(hdopApproximationComment).append(CDATA_END).append("</cmt>\n");
+		}
+		sb.append("\t\t<trkseg>\n");
+
+		final int colLatitude = c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE);
+		final int colLongitude = c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE);
+		final int colElevation = c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION);
+		final int colTimestamp = c.getColumnIndex(TrackContentProvider.Schema.COL_TIMESTAMP);
+		final int colAccuracy = c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY);
+		final int colCompass = c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS);
+		final int colCompassAccuracy = c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY);
+		final int colSpeed = c.getColumnIndex(TrackContentProvider.Schema.COL_SPEED);
+		final int colPressure = c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE);
+
+		final boolean compassComment = OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compassOutput);
+		final boolean compassExtension = OSMTracker.Preferences.VAL_OUTPUT_COMPASS_EXTENSION.equals(compassOutput);
+
+		int i = 0;
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext(), i++) {
+			sb.append("\t\t\t<trkpt lat=\"").append(c.getDouble(colLatitude))
+					.append("\" lon=\"").append(c.getDouble(colLongitude)).append("\">\n");
+			if (!c.isNull(colElevation)) {
+				sb.append("\t\t\t\t<ele>").append(c.getDouble(colElevation)).append("</ele>\n");
+			}
+			sb.append("\t\t\t\t<time>");
+			appendTimestamp(c.getLong(colTimestamp));
+			sb.append("</time>\n");
+
+			if (fillHDOP && !c.isNull(colAccuracy)) {
+				sb.append("\t\t\t\t<hdop>")
+						.append(c.getDouble(colAccuracy) / OSMTracker.HDOP_APPROXIMATION_FACTOR)
+						.append("</hdop>\n");
+			}
+			if (compassComment && !c.isNull(colCompass)) {
+				sb.append("\t\t\t\t<cmt>").append(CDATA_START).append("compass heading: ")
+						.append(c.getDouble(colCompass))
+						.append("deg\n\t\t\t\t\tcompass accuracy: ")
+						.append(c.getLong(colCompassAccuracy))
+						.append(CDATA_END).append("</cmt>\n");
+			}
+
+			int extensionsStart = sb.length();
+			sb.append(EXTENSIONS_START);
+			int extensionsContent = sb.length();
+			if (!c.isNull(colSpeed)) {
+				sb.append("\t\t\t\t\t<speed>").append(c.getDouble(colSpeed)).append("</speed>\n");
+			}
+			if (compassExtension && !c.isNull(colCompass)) {
+				appendCompassExtension(c, colCompass, colCompassAccuracy);
+			}
+			if (!c.isNull(colPressure)) {
+				sb.append("\t\t\t\t\t<baro>");
+				appendPressure(c.getDouble(colPressure));
+				sb.append("</baro>\n");
+			}
+			endExtensions(extensionsStart, extensionsContent);
+
+			sb.append("\t\t\t</trkpt>\n");
+			flushIfNeeded();
+
+			if (progressListener != null && i % progressThreshold == 0) {
+				progressListener.onProgress(progressThreshold);
+			}
+		}
+
+		sb.append("\t\t</trkseg>\n");
+		sb.append("\t</trk>\n");
+	}
+
+	/**
+	 * Iterates on way points and write them.
+	 * @param c Cursor to way points.
+	 */
+	public void writeWayPoints(Cursor c) throws IOException {
+		// Update progress every 1%
+		int progressThreshold = Math.max(1, c.getCount() / 100);
+
+		final int colLatitude = c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE);
+		final int colLongitude = c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE);
+		final int colElevation = c.getColumnIndex(TrackContentProvider.Schema.COL_ELEVATION);
+		final int colTimestamp = c.getColumnIndex(TrackContentProvider.Schema.COL_TIMESTAMP);
+		final int colName = c.getColumnIndex(TrackContentProvider.Schema.COL_NAME);
+		final int colAccuracy = c.getColumnIndex(TrackContentProvider.Schema.COL_ACCURACY);
+		final int colCompass = c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS);
+		final int colCompassAccuracy = c.getColumnIndex(TrackContentProvider.Schema.COL_COMPASS_ACCURACY);
+		final int colLink = c.getColumnIndex(TrackContentProvider.Schema.COL_LINK);
+		final int colNbSatellites = c.getColumnIndex(TrackContentProvider.Schema.COL_NBSATELLITES);
+		final int colPressure = c.getColumnIndex(TrackContentProvider.Schema.COL_ATMOSPHERIC_PRESSURE);
+
+		final boolean compassComment = OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT.equals(compassOutput);
+		final boolean compassExtension = OSMTracker.Preferences.VAL_OUTPUT_COMPASS_EXTENSION.equals(compassOutput);
+
+		int i = 0;
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext(), i++) {
+			sb.append("\t<wpt lat=\"").append(c.getDouble(colLatitude))
+					.append("\" lon=\"").append(c.getDouble(colLongitude)).append("\">\n");
+			if (!c.isNull(colElevation)) {
+				sb.append("\t\t<ele>").append(c.getDouble(colElevation)).append("</ele>\n");
+			}
+			sb.append("\t\t<time>");
+			appendTimestamp(c.getLong(colTimestamp));
+			sb.append("</time>\n");
+
+			String name = c.getString(colName);
+
+			if (!OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE.equals(accuracyOutput) && !c.isNull(colAccuracy)) {
+				// Outputs accuracy info for way point
+				if (OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_WPT_NAME.equals(accuracyOutput)) {
+					// Output accuracy with name
+					sb.append("\t\t<name>").append(CDATA_START).append(name)
+							.append(" (").append(c.getDouble(colAccuracy)).append(meterUnit).append(")")
+							.append(CDATA_END).append("</name>\n");
+					if (compassComment && !c.isNull(colCompass)) {
+						appendCompassComment(c, colCompass, colCompassAccuracy);
+					}
+				} else if (OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_WPT_CMT.equals(accuracyOutput)) {
+					// Output accuracy in separate tag
+					sb.append("\t\t<name>").append(CDATA_START).append(name).append(CDATA_END).append("</name>\n");
+					sb.append("\t\t<cmt>").append(CDATA_START).append(accuracyLabel).append(": ")
+							.append(c.getDouble(colAccuracy)).append(meterUnit);
+					if (compassComment && !c.isNull(colCompass)) {
+						sb.append("\n\t\t\t compass heading: ").append(c.getDouble(colCompass))
+								.append("deg\n\t\t\t compass accuracy: ").append(c.getDouble(colCompassAccuracy));
+					}
+					sb.append(CDATA_END).append("</cmt>\n");
+				} else {
+					// Unknown value for accuracy info, shouldn't occur but who knows ?
+					// See issue #68. Output at least the name just in case.
+					sb.append("\t\t<name>").append(CDATA_START).append(name).append(CDATA_END).append("</name>\n");
+				}
+			} else {
+				// No accuracy info requested, or available
+				sb.append("\t\t<name>").append(CDATA_START).append(name).append(CDATA_END).append("</name>\n");
+				if (compassComment && !c.isNull(colCompass)) {
+					appendCompassComment(c, colCompass, colCompassAccuracy);
+				}
+			}
+
+			String link = c.getString(colLink);
+			if (link != null) {
+				sb.append("\t\t<link href=\"").append(URLEncoder.encode(link)).append("\">\n");
+				sb.append("\t\t\t<text>").append(link).append("</text>\n");
+				sb.append("\t\t</link>\n");
+			}
+
+			if (!c.isNull(colNbSatellites)) {
+				sb.append("\t\t<sat>").append(c.getInt(colNbSatellites)).append("</sat>\n");
+			}
+
+			if (fillHDOP && !c.isNull(colAccuracy)) {
+				sb.append("\t\t<hdop>")
+						.append(c.getDouble(colAccuracy) / OSMTracker.HDOP_APPROXIMATION_FACTOR)
+						.append("</hdop>\n");
+			}
+
+			int extensionsStart = sb.length();
+			sb.append(EXTENSIONS_START);
+			int extensionsContent = sb.length();
+			if (compassExtension && !c.isNull(colCompass)) {
+				appendCompassExtension(c, colCompass, colCompassAccuracy);
+			}
+			if (!c.isNull(colPressure)) {
+				sb.append("\t\t\t\t\t<baro>");
+				appendPressure(c.getDouble(colPressure));
+				sb.append("</baro>\n");
+			}
+			endExtensions(extensionsStart, extensionsContent);
+
+			sb.append("\t</wpt>\n");
+			flushIfNeeded();
+
+			if (progressListener != null && i % progressThreshold == 0) {
+				progressListener.onProgress(progressThreshold);
+			}
+		}
+	}
+
+	/**
+	 * Writes pending output and closes the underlying writer
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Compass comment of a way point, when accuracy isn't output as a comment
+	 */
+	private void appendCompassComment(Cursor c, int colCompass, int colCompassAccuracy) {
+		sb.append("\t\t<cmt>").append(CDATA_START).append("compass heading: ").append(c.getDouble(colCompass))
+				.append("deg\n\t\t\tcompass accuracy: ").append(c.getInt(colCompassAccuracy))
+				.append(CDATA_END).append("</cmt>\n");
+	}
+
+	private void appendCompassExtension(Cursor c, int colCompass, int colCompassAccuracy) {
+		sb.append("\t\t\t\t\t<compass>").append(c.getDouble(colCompass)).append("</compass>\n");
+		sb.append("\t\t\t\t\t<compass_accuracy>").append(c.getDouble(colCompassAccuracy)).append("</compass_accuracy>\n");
+	}
+
+	/**
+	 * Closes the extensions tag opened at extensionsStart, or removes it if nothing
+	 * has been written inside.
+	 */
+	private void endExtensions(int extensionsStart, int extensionsContent) {
+		if (sb.length() == extensionsContent) {
+			sb.setLength(extensionsStart);
+		} else {
+			sb.append(EXTENSIONS_END);
+		}
+	}
+
+	/**
+	 * Appends a timestamp formatted as yyyy-MM-dd'T'HH:mm:ss'Z' (UTC)
+	 */
+	private void appendTimestamp(long timestamp) {
+		if (!fastFormat || timestamp < 0 || timestamp >= MAX_FAST_TIMESTAMP) {
+			sb.append(legacyDateFormatter.format(new Date(timestamp)));
+			return;
+		}
+
+		long day = timestamp / MILLIS_PER_DAY;
+		if (day != dayPrefixDay) {
+			formatDay(day);
+			dayPrefixDay = day;
+		}
+		sb.append(dayPrefix);
+
+		int secondOfDay = (int) ((timestamp % MILLIS_PER_DAY) / 1000);
+		appendTwoDigits(secondOfDay / 3600);
+		sb.append(':');
+		appendTwoDigits((secondOfDay / 60) % 60);
+		sb.append(':');
+		appendTwoDigits(secondOfDay % 60);
+		sb.append('Z');
+	}
+
+	/**
+	 * Formats the given day since epoch as yyyy-MM-ddT into {@link #dayPrefix}
+	 * (proleptic Gregorian calendar, see http://howardhinnant.github.io/date_algorithms.html)
+	 */
+	private void formatDay(long day) {
+		long z = day + 719468;
+		long era = z / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int dayOfMonth = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+		dayPrefix[0] = (char) ('0' + year / 1000);
+		dayPrefix[1] = (char) ('0' + (year / 100) % 10);
+		dayPrefix[2] = (char) ('0' + (year / 10) % 10);
+		dayPrefix[3] = (char) ('0' + year % 10);
+		dayPrefix[4] = '-';
+		dayPrefix[5] = (char) ('0' + month / 10);
+		dayPrefix[6] = (char) ('0' + month % 10);
+		dayPrefix[7] = '-';
+		dayPrefix[8] = (char) ('0' + dayOfMonth / 10);
+		dayPrefix[9] = (char) ('0' + dayOfMonth % 10);
+		dayPrefix[10] = 'T';
+	}
+
+	private void appendTwoDigits(int value) {
+		sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+
+	/**
+	 * Appends the pressure as String.format("%.1f", pressure) would: the shortest
+	 * decimal representation rounded half-up to one decimal, using the decimal
+	 * separator of the default locale.
+	 */
+	private void appendPressure(double pressure) {
+		// Negative, NaN, or written in scientific notation by append(double)
+		if (!fastFormat || !(pressure >= 0.001 && pressure < 1e7)) {
+			sb.append(String.format("%.1f", pressure));
+			return;
+		}
+
+		int start = sb.length();
+		sb.append(pressure);
+		int dot = sb.indexOf(".", start);
+		sb.setCharAt(dot, decimalSeparator);
+
+		if (sb.length() > dot + 2) {
+			boolean roundUp = sb.charAt(dot + 2) >= '5';
+			sb.setLength(dot + 2);
+			if (roundUp) {
+				int i = dot + 1;
+				while (true) {
+					if (i == dot) {
+						i--;
+					}
+					if (i < start) {
+						sb.insert(start, '1');
+						break;
+					}
+					char digit = sb.charAt(i);
+					if (digit == '9') {
+						sb.setCharAt(i, '0');
+						i--;
+					} else {
+						sb.setCharAt(i, (char) (digit + 1));
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private void flushIfNeeded() throws IOException {
+		if (sb.length() >= FLUSH_THRESHOLD) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		int length = sb.length();
+		if (chars.length < length) {
+			chars = new char[length];
+		}
+		sb.getChars(0, length, chars, 0);
+		out.write(chars, 0, length);
+		sb.setLength(0);
+	}
+}
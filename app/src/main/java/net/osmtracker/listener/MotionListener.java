@@ -0,0 +1,111 @@
+package net.osmtracker.listener;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Listener for the accelerometer, telling whether the device moves.
+ * Used by the adaptive GPS sampling to sample rarely while standing still, and
+ * to leave that state without waiting for the next, distant, GPS fix.
+ * Register the listener with your context using the register/unregister functions
+ *
+ */
+public class MotionListener implements SensorEventListener {
+
+    /**
+     * TAG for this class
+     */
+    private static final String TAG = MotionListener.class.getSimpleName();
+
+    /**
+     * Variance of the acceleration magnitude above which the device moves, in (m/s²)²
+     */
+    static final float MOVING_VARIANCE = 0.05f;
+
+    /**
+     * Variance under which the device is still again. Lower than {@link #MOVING_VARIANCE}
+     * so that the state doesn't flip on the threshold.
+     */
+    static final float STILL_VARIANCE = 0.02f;
+
+    /**
+     * Weight of a sample in the moving average of the variance
+     */
+    static final float SMOOTHING = 0.1f;
+
+    /**
+     * Called when the device starts or stops moving
+     */
+    public interface OnMotionChangedListener {
+        void onMotionChanged(boolean moving);
+    }
+
+    private SensorManager sensorService;
+    private OnMotionChangedListener listener;
+    private float variance = 0;
+    private boolean moving = true;
+
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+        float deviation = (float) Math.sqrt(x * x + y * y + z * z) - SensorManager.GRAVITY_EARTH;
+        variance += SMOOTHING * (deviation * deviation - variance);
+
+        boolean wasMoving = moving;
+        if (moving && variance < STILL_VARIANCE) {
+            moving = false;
+        } else if (!moving && variance > MOVING_VARIANCE) {
+            moving = true;
+        }
+        if (moving != wasMoving && listener != null) {
+            listener.onMotionChanged(moving);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    /**
+     * @param handler Handler of the thread to receive the sensor events and call the listener on
+     * @return true if the accelerometer is available and registered
+     */
+    public boolean register (Context context, OnMotionChangedListener listener, Handler handler) {
+        sensorService = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        Sensor accelerometer = sensorService.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (accelerometer == null) {
+            Log.w(TAG, "Accelerometer not found");
+            sensorService = null;
+            return false;
+        }
+        this.listener = listener;
+        sensorService.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL, handler);
+        Log.i(TAG, "Registered for accelerometer");
+        return true;
+    }
+
+    public void unregister () {
+        if (sensorService != null) {
+            sensorService.unregisterListener(this);
+            sensorService = null;
+            listener = null;
+            Log.v(TAG, "unregistered");
+        }
+    }
+
+    /**
+     * @return Whether the device moves. true when unknown, so that nothing is missed.
+     */
+    public boolean isMoving () {
+        return moving;
+    }
+}
@@ -0,0 +1,568 @@
+package net.osmtracker.overlay;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.LruCache;
+
+import net.osmtracker.db.model.TrackBuffer;
+import net.osmtracker.util.TrackSimplifier;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Overlay displaying a track from bitmap tiles, so that panning the map
+ * only copies bitmaps rather than drawing every segment of the track again.
+ *
+ * The track is drawn into tiles of {@link #TILE_SIZE} pixels on a background thread,
+ * with the points of the {@link TrackSimplifier} level of the tile zoom. Tiles are
+ * cached in memory, and on disk under the cache directory so that opening a track
+ * again doesn't require drawing it again.
+ *
+ * Tiles are identified by their zoom level, coordinates, track id and version. The
+ * version of a tile is the id of the last track point appended in it, so appending
+ * points only changes the tiles they are drawn in. Tiles no point is drawn in are
+ * neither drawn nor cached.
+ */
+public class TrackTileOverlay extends Overlay {
+
+	private static final String TAG = TrackTileOverlay.class.getSimpleName();
+
+	/**
+	 * Size of the tiles, in pixels
+	 */
+	public static final int TILE_SIZE = 256;
+
+	/**
+	 * Highest zoom level tiles are drawn for. Beyond, the tiles of this level are scaled.
+	 */
+	public static final int MAX_ZOOM = 18;
+
+	/**
+	 * Directory of the tiles, in the cache directory
+	 */
+	static final String CACHE_DIRECTORY = "track-tiles";
+
+	/**
+	 * Maximum number of tiles kept on disk
+	 */
+	static final int MAX_DISK_TILES = 4096;
+
+	/**
+	 * Latitude of the north and south edges of the world
+	 */
+	private static final double MAX_LATITUDE = 85.05112877980659;
+
+	/**
+	 * Distance under which track points are merged, in pixels
+	 */
+	private static final double SIMPLIFICATION_TOLERANCE_PX = 1;
+
+	private final long trackId;
+
+	/**
+	 * Paint of the track lines
+	 */
+	private final Paint paint;
+
+	private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * Distance around the points that can be drawn, in pixels:
+	 * half the width of the lines and the simplification tolerance
+	 */
+	private final double margin;
+
+	/**
+	 * Draws the tiles and appends points. Owns {@link #simplifier}.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Executor created by this overlay, to shut down when detached
+	 */
+	private final ExecutorService ownedExecutor;
+
+	private final LruCache<String, Bitmap> memoryCache;
+
+	private final File diskCache;
+
+	/**
+	 * Points of the track. Only accessed from {@link #executor}.
+	 */
+	private TrackSimplifier simplifier;
+
+	/**
+	 * Level of {@link #simplifier} last used to draw tiles, for {@link #levelZoom}
+	 * and {@link #levelPoints} points
+	 */
+	private int[] level;
+	private int levelZoom = -1;
+	private int levelPoints = -1;
+
+	/**
+	 * Versions of the tiles, by zoom level then packed coordinates, see {@link #pack(int, int)}
+	 */
+	private final List<Map<Long, Long>> versions = new ArrayList<>();
+
+	/**
+	 * Keys of the tiles waiting to be drawn
+	 */
+	private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Keys of the tiles visible when the overlay was last drawn. Tiles
+	 * that are no longer visible are not drawn.
+	 */
+	private volatile Set<String> visible = Collections.emptySet();
+
+	/**
+	 * Map view to redraw when tiles are ready
+	 */
+	private volatile MapView mapView;
+
+	/**
+	 * Work buffer of the line coordinates of a tile
+	 */
+	private float[] lines = new float[1024];
+
+	private final Point topLeft = new Point();
+	private final Point bottomRight = new Point();
+	private final Rect source = new Rect();
+	private final Rect destination = new Rect();
+
+	/**
+	 * @param context Context, for the cache directory
+	 * @param trackId Id of the track, part of the tile keys
+	 * @param paint Paint of the track lines
+	 */
+	public TrackTileOverlay(Context context, long trackId, Paint paint) {
+		this(context, trackId, paint, Executors.newSingleThreadExecutor());
+	}
+
+	/**
+	 * @param executor Executor to draw the tiles, running tasks one at a time
+	 */
+	TrackTileOverlay(Context context, long trackId, Paint paint, Executor executor) {
+		this.trackId = trackId;
+		this.paint = paint;
+		this.margin = paint.getStrokeWidth() / 2 + SIMPLIFICATION_TOLERANCE_PX + 1;
+		this.executor = executor;
+		this.ownedExecutor = (executor instanceof ExecutorService) ? (ExecutorService) executor : null;
+		this.diskCache = new File(context.getCacheDir(), CACHE_DIRECTORY);
+		for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+			versions.add(new ConcurrentHashMap<Long, Long>());
+		}
+
+		// An eighth of the memory available, or at least a screen of tiles
+		int cacheSize = (int) Math.max(Runtime.getRuntime().maxMemory() / 8, 32 * TILE_SIZE * TILE_SIZE * 4);
+		memoryCache = new LruCache<String, Bitmap>(cacheSize) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getByteCount();
+			}
+		};
+
+		executor.execute(() -> {
+			simplifier = new TrackSimplifier(SIMPLIFICATION_TOLERANCE_PX * 360.0 / TILE_SIZE);
+			trimDiskCache();
+		});
+	}
+
+	/**
+	 * Appends points at the end of the track, in the background
+	 * @param points Points to append
+	 * @param lastId Id of the last point, version of the tiles the points are drawn in
+	 */
+	public void append(final TrackBuffer points, final long lastId) {
+		executor.execute(() -> {
+			int from = simplifier.size();
+			simplifier.append(points);
+			if (invalidateTiles(Math.max(0, from - 1), simplifier.size(), lastId)) {
+				redraw();
+			}
+		});
+	}
+
+	/**
+	 * Removes all the points of the track, in the background
+	 */
+	public void clear() {
+		executor.execute(() -> {
+			simplifier = new TrackSimplifier(SIMPLIFICATION_TOLERANCE_PX * 360.0 / TILE_SIZE);
+			levelZoom = -1;
+			for (Map<Long, Long> zoomVersions : versions) {
+				zoomVersions.clear();
+			}
+			redraw();
+		});
+	}
+
+	@Override
+	public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+		if (shadow) {
+			return;
+		}
+		this.mapView = mapView;
+
+		Projection projection = mapView.getProjection();
+		int zoom = getTileZoom(projection.getZoomLevel());
+		int tiles = 1 << zoom;
+		BoundingBox box = projection.getBoundingBox();
+		int minX = clamp((int) Math.floor(toX(box.getLonWest()) * tiles), tiles);
+		int maxX = clamp((int) Math.floor(toX(box.getLonEast()) * tiles), tiles);
+		int minY = clamp((int) Math.floor(toY(box.getLatNorth()) * tiles), tiles);
+		int maxY = clamp((int) Math.floor(toY(box.getLatSouth()) * tiles), tiles);
+
+		Set<String> keys = new HashSet<>();
+		List<long[]> missing = new ArrayList<>();
+		for (int x = minX; x <= maxX; x++) {
+			for (int y = minY; y <= maxY; y++) {
+				Long version = versions.get(zoom).get(pack(x, y));
+				if (version == null) {
+					// Nothing drawn in this tile
+					continue;
+				}
+				String key = key(zoom, x, y, version);
+				keys.add(key);
+
+				projection.toPixels(new GeoPoint(toLatitude(y, tiles), toLongitude(x, tiles)), topLeft);
+				projection.toPixels(new GeoPoint(toLatitude(y + 1, tiles), toLongitude(x + 1, tiles)), bottomRight);
+				destination.set(topLeft.x, topLeft.y, bottomRight.x, bottomRight.y);
+
+				Bitmap tile = memoryCache.get(key);
+				if (tile != null) {
+					canvas.drawBitmap(tile, null, destination, bitmapPaint);
+					continue;
+				}
+				missing.add(new long[] {x, y, version});
+
+				// Until the tile is ready, scale the quarter of its parent tile if any
+				Long parentVersion = zoom > 0 ? versions.get(zoom - 1).get(pack(x / 2, y / 2)) : null;
+				Bitmap parent = parentVersion != null ? memoryCache.get(key(zoom - 1, x / 2, y / 2, parentVersion)) : null;
+				if (parent != null) {
+					int half = parent.getWidth() / 2;
+					source.set((x % 2) * half, (y % 2) * half, (x % 2 + 1) * half, (y % 2 + 1) * half);
+					canvas.drawBitmap(parent, source, destination, bitmapPaint);
+				}
+			}
+		}
+
+		visible = keys;
+		for (long[] tile : missing) {
+			request(zoom, (int) tile[0], (int) tile[1], tile[2]);
+		}
+	}
+
+	@Override
+	public void onDetach(MapView mapView) {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+		}
+		memoryCache.evictAll();
+		this.mapView = null;
+		super.onDetach(mapView);
+	}
+
+	/**
+	 * Draws a tile in the background, unless it is already being drawn
+	 */
+	private void request(final int zoom, final int x, final int y, final long version) {
+		final String key = key(zoom, x, y, version);
+		if (!pending.add(key)) {
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				if (!visible.contains(key)) {
+					// Scrolled away since requested
+					return;
+				}
+				memoryCache.put(key, getTile(zoom, x, y, version));
+				redraw();
+			} finally {
+				pending.remove(key);
+			}
+		});
+	}
+
+	/**
+	 * Reads a tile from the disk cache, or draws it and saves it in the disk cache.
+	 * Must be called from {@link #executor}.
+	 */
+	Bitmap getTile(int zoom, int x, int y, long version) {
+		String key = key(zoom, x, y, version);
+		Bitmap tile = loadTile(key);
+		if (tile == null) {
+			tile = drawTile(zoom, x, y);
+			saveTile(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Sets the version of the tiles the segments between points are drawn in.
+	 * The tiles of the segments are looked for around their bounding box,
+	 * or around points every half tile for segments crossing several tiles.
+	 * Must be called from {@link #executor}.
+	 * @param from Index of the first point
+	 * @param to Index after the last point
+	 * @param version Version of the tiles
+	 * @return true if visible tiles were changed
+	 */
+	boolean invalidateTiles(int from, int to, long version) {
+		double[] longitudes = simplifier.getPoints().getLongitudes();
+		double[] mercatorY = simplifier.getMercatorY();
+		boolean changed = false;
+		for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+			double scale = 1 << zoom;
+			double tileMargin = margin / TILE_SIZE;
+			// Tiles marked for the previous segment, to skip consecutive segments in the same tiles
+			int lastMinX = -1, lastMaxX = -1, lastMinY = -1, lastMaxY = -1;
+			for (int i = from; i < to; i++) {
+				double x1 = toX(longitudes[i]) * scale;
+				double y1 = toMercatorY(mercatorY[i]) * scale;
+				double x0 = (i > from) ? toX(longitudes[i - 1]) * scale : x1;
+				double y0 = (i > from) ? toMercatorY(mercatorY[i - 1]) * scale : y1;
+
+				int minX = (int) Math.floor(Math.min(x0, x1) - tileMargin);
+				int maxX = (int) Math.floor(Math.max(x0, x1) + tileMargin);
+				int minY = (int) Math.floor(Math.min(y0, y1) - tileMargin);
+				int maxY = (int) Math.floor(Math.max(y0, y1) + tileMargin);
+				if (maxX - minX <= 1 && maxY - minY <= 1) {
+					if (minX != lastMinX || maxX != lastMaxX || minY != lastMinY || maxY != lastMaxY) {
+						changed |= setVersion(zoom, minX, maxX, minY, maxY, version);
+						lastMinX = minX;
+						lastMaxX = maxX;
+						lastMinY = minY;
+						lastMaxY = maxY;
+					}
+				} else {
+					// Any point of the segment is within a quarter of a tile of a sample
+					int steps = (int) Math.ceil(Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0)) * 2);
+					double around = 0.5 + tileMargin;
+					for (int step = 0; step <= steps; step++) {
+						double x = x0 + (x1 - x0) * step / steps;
+						double y = y0 + (y1 - y0) * step / steps;
+						changed |= setVersion(zoom, (int) Math.floor(x - around), (int) Math.floor(x + around),
+								(int) Math.floor(y - around), (int) Math.floor(y + around), version);
+					}
+					lastMinX = -1;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Sets the version of a range of tiles, and removes their previous version from the memory cache
+	 * @return true if one of the tiles is visible
+	 */
+	private boolean setVersion(int zoom, int minX, int maxX, int minY, int maxY, long version) {
+		int tiles = 1 << zoom;
+		Set<String> visibleKeys = visible;
+		boolean changed = false;
+		for (int x = Math.max(minX, 0); x <= Math.min(maxX, tiles - 1); x++) {
+			for (int y = Math.max(minY, 0); y <= Math.min(maxY, tiles - 1); y++) {
+				Long previous = versions.get(zoom).put(pack(x, y), version);
+				if (previous != null && previous != version) {
+					String key = key(zoom, x, y, previous);
+					memoryCache.remove(key);
+					changed |= visibleKeys.contains(key);
+				} else if (previous == null) {
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Draws a tile with the points of the level of its zoom.
+	 * Must be called from {@link #executor}.
+	 */
+	Bitmap drawTile(int zoom, int x, int y) {
+		if (levelZoom != zoom || levelPoints != simplifier.size()) {
+			level = simplifier.getLevel(zoom);
+			levelZoom = zoom;
+			levelPoints = simplifier.size();
+		}
+		double[] longitudes = simplifier.getPoints().getLongitudes();
+		double[] mercatorY = simplifier.getMercatorY();
+		double scale = (double) (1 << zoom) * TILE_SIZE;
+		double originX = (double) x * TILE_SIZE;
+		double originY = (double) y * TILE_SIZE;
+		double min = -margin;
+		double max = TILE_SIZE + margin;
+
+		int count = 0;
+		double previousX = 0, previousY = 0;
+		for (int k = 0; k < level.length; k++) {
+			int i = level[k];
+			double pointX = toX(longitudes[i]) * scale - originX;
+			double pointY = toMercatorY(mercatorY[i]) * scale - originY;
+			// Skip the segments on one side of the tile
+			if (k > 0 && !(previousX < min && pointX < min) && !(previousX > max && pointX > max)
+					&& !(previousY < min && pointY < min) && !(previousY > max && pointY > max)) {
+				if (count + 4 > lines.length) {
+					lines = Arrays.copyOf(lines, lines.length * 2);
+				}
+				lines[count++] = (float) previousX;
+				lines[count++] = (float) previousY;
+				lines[count++] = (float) pointX;
+				lines[count++] = (float) pointY;
+			}
+			previousX = pointX;
+			previousY = pointY;
+		}
+
+		Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+		new Canvas(tile).drawLines(lines, 0, count, paint);
+		return tile;
+	}
+
+	/**
+	 * @return Tile read from the disk cache, or null if not cached
+	 */
+	private Bitmap loadTile(String key) {
+		File file = new File(diskCache, key + ".png");
+		if (!file.exists()) {
+			return null;
+		}
+		Bitmap tile = BitmapFactory.decodeFile(file.getAbsolutePath());
+		if (tile != null) {
+			// Keep recently used tiles when trimming the cache
+			file.setLastModified(System.currentTimeMillis());
+		}
+		return tile;
+	}
+
+	private void saveTile(String key, Bitmap tile) {
+		if (!diskCache.isDirectory() && !diskCache.mkdirs()) {
+			return;
+		}
+		File file = new File(diskCache, key + ".png");
+		try (OutputStream out = new FileOutputStream(file)) {
+			tile.compress(Bitmap.CompressFormat.PNG, 100, out);
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to cache tile " + file, e);
+			file.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used tiles from the disk cache, beyond {@link #MAX_DISK_TILES}
+	 */
+	private void trimDiskCache() {
+		File[] files = diskCache.listFiles();
+		if (files == null || files.length <= MAX_DISK_TILES) {
+			return;
+		}
+		long[] lastModified = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+		}
+		Arrays.sort(lastModified);
+		long oldest = lastModified[files.length - MAX_DISK_TILES];
+		for (File file : files) {
+			if (file.lastModified() < oldest) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Redraws the map view, from any thread
+	 */
+	private void redraw() {
+		MapView view = mapView;
+		if (view != null) {
+			view.postInvalidate();
+		}
+	}
+
+	/**
+	 * @return Version of a tile, or null if nothing is drawn in it
+	 */
+	Long getVersion(int zoom, int x, int y) {
+		return versions.get(zoom).get(pack(x, y));
+	}
+
+	/**
+	 * @param mapZoom Zoom level of the map
+	 * @return Zoom level of the tiles whose pixels are the closest to the screen pixels
+	 */
+	static int getTileZoom(double mapZoom) {
+		double zoom = mapZoom + Math.log(TileSystem.getTileSize() / (double) TILE_SIZE) / Math.log(2);
+		return Math.max(0, Math.min(MAX_ZOOM, (int) Math.round(zoom)));
+	}
+
+	private String key(int zoom, int x, int y, long version) {
+		return trackId + "_" + zoom + "_" + x + "_" + y + "_" + version;
+	}
+
+	private static long pack(int x, int y) {
+		return ((long) x << 32) | y;
+	}
+
+	private static int clamp(int tile, int tiles) {
+		return Math.max(0, Math.min(tiles - 1, tile));
+	}
+
+	/**
+	 * @return X of a longitude in the world, from 0 (west) to 1 (east)
+	 */
+	static double toX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * @return Y of a latitude in the world, from 0 (north) to 1 (south)
+	 */
+	static double toY(double latitude) {
+		double latitudeRadians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+		return (1 - Math.log(Math.tan(latitudeRadians) + 1 / Math.cos(latitudeRadians)) / Math.PI) / 2;
+	}
+
+	/**
+	 * @return Y in the world of a Mercator Y computed by {@link TrackSimplifier}, in degrees
+	 */
+	private static double toMercatorY(double mercatorY) {
+		return (180 - mercatorY) / 360;
+	}
+
+	private static double toLongitude(int x, int tiles) {
+		return (double) x / tiles * 360 - 180;
+	}
+
+	private static double toLatitude(int y, int tiles) {
+		return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2.0 * y / tiles))));
+	}
+
+}
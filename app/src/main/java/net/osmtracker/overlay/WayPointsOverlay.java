@@ -5,8 +5,10 @@ import java.util.List;
 
 import net.osmtracker.R;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.util.BackgroundLoader;
 
 import org.osmdroid.api.IMapView;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.overlay.ItemizedOverlay;
 import org.osmdroid.views.overlay.OverlayItem;
@@ -16,6 +18,7 @@ import android.content.ContentResolver;
 import android.database.Cursor;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 
 public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
 
@@ -25,8 +28,23 @@ public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
 	private List<OverlayItem> wayPointItems = new ArrayList<OverlayItem>();
 	
 	private long trackId;
+
+	/**
+	 * Bounding box of the waypoints to display, null to display all of them
+	 */
+	private volatile BoundingBox boundingBox;
 	
 	private ContentResolver pContentResolver;
+
+	/**
+	 * Reads the waypoints in the background
+	 */
+	private final BackgroundLoader loader = new BackgroundLoader(this::load);
+
+	/**
+	 * Called once the waypoints have been read, to redraw the map
+	 */
+	private Runnable onRefreshListener;
 	
 	public WayPointsOverlay(
 			final Drawable pDefaultMarker,
@@ -65,14 +83,56 @@ public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
 		return wayPointItems.size();
 	}
 	
+	/**
+	 * Only displays the waypoints inside a bounding box, usually the visible
+	 * area of the map and a margin around it.
+	 * @param boundingBox Bounding box of the waypoints to display, null to display all of them
+	 */
+	public void setBoundingBox(BoundingBox boundingBox) {
+		this.boundingBox = boundingBox;
+		refresh();
+	}
+
+	/**
+	 * @param listener Called on the UI thread once the waypoints have been read again
+	 */
+	public void setOnRefreshListener(Runnable listener) {
+		this.onRefreshListener = listener;
+	}
+
+	/**
+	 * Reads the waypoints again in the background. Refreshes requested
+	 * while waiting for the previous one are only done once.
+	 */
 	public void refresh() {
-		wayPointItems.clear();
-		
+		loader.request();
+	}
+
+	/**
+	 * Stops reading the waypoints, until refreshed again
+	 */
+	public void cancel() {
+		loader.cancel();
+	}
+
+	/**
+	 * Stops the background thread reading the waypoints
+	 */
+	public void shutdown() {
+		loader.shutdown();
+	}
+
+	private void load(BackgroundLoader.Session session) {
+		final List<OverlayItem> items = new ArrayList<OverlayItem>();
+
+		BoundingBox boundingBox = this.boundingBox;
+		Uri uri = (boundingBox == null) ? TrackContentProvider.waypointsUri(trackId)
+				: TrackContentProvider.waypointsInBoxUri(trackId, boundingBox.getLatSouth(), boundingBox.getLonWest(),
+						boundingBox.getLatNorth(), boundingBox.getLonEast());
 		Cursor c = this.pContentResolver.query(
-				TrackContentProvider.waypointsUri(trackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
+				uri, null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
  
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+		for(c.moveToFirst(); !c.isAfterLast() && !session.isCancelled(); c.moveToNext()) {
 			OverlayItem i = new OverlayItem(
 					c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_NAME)),
 					c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_NAME)),
@@ -80,10 +140,17 @@ public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
 							c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE)),
 							c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE)))
 					);
-			wayPointItems.add(i);
+			items.add(i);
 		}
 		c.close();
-		populate();
+
+		session.deliver(() -> {
+			wayPointItems = items;
+			populate();
+			if (onRefreshListener != null) {
+				onRefreshListener.run();
+			}
+		});
 	}
 
 
@@ -0,0 +1,267 @@
+package net.osmtracker.service.gps;
+
+import net.osmtracker.db.model.TrackMetrics;
+
+/**
+ * Adaptive sampling of the GPS fixes, instead of a fixed logging interval and
+ * distance: the interval and the distance between track points follow the
+ * motion, in a few {@link Band}s. Walking is sampled every few meters, driving
+ * every few seconds, corners every second and nothing is recorded while
+ * standing still.
+ *
+ * The band is chosen from the speed, the heading change between fixes and
+ * whether the accelerometer senses motion (see
+ * {@link net.osmtracker.listener.MotionListener}). The location updates only
+ * need to be requested again when the band changes: a finer band is adopted at
+ * once, so that corners aren't cut, a coarser one once it has been stable for
+ * {@link #COARSER_FIXES} fixes. The stationary band is the exception, the
+ * accelerometer confirming the low speed.
+ *
+ * Fixes are given in the order they are received. The ones closer than the
+ * interval or the distance of the band to the last fix kept are dropped, as the
+ * LocationManager would, so that a 1 Hz recording can be replayed.
+ */
+public class AdaptiveSampler {
+
+	/**
+	 * Sampling bands, from the coarsest to the finest
+	 */
+	public enum Band {
+		STATIONARY(30000, 20),
+		SLOW(5000, 5),
+		MEDIUM(3000, 5),
+		FAST(2000, 10),
+		TURNING(1000, 0);
+
+		/**
+		 * Minimum time between fixes, in ms
+		 */
+		public final long interval;
+
+		/**
+		 * Minimum distance between fixes, in m
+		 */
+		public final float minDistance;
+
+		Band(long interval, float minDistance) {
+			this.interval = interval;
+			this.minDistance = minDistance;
+		}
+	}
+
+	/**
+	 * Speed under which the device is stationary, unless the accelerometer senses motion, in m/s
+	 */
+	static final float STATIONARY_SPEED = 0.5f;
+
+	/**
+	 * Upper speed of the {@link Band#SLOW} band, walking, in m/s
+	 */
+	static final float SLOW_SPEED = 2.5f;
+
+	/**
+	 * Upper speed of the {@link Band#MEDIUM} band, cycling or driving in town, in m/s
+	 */
+	static final float MEDIUM_SPEED = 9f;
+
+	/**
+	 * Heading change rate above which the device is turning, in degrees/s
+	 */
+	static final float TURN_RATE = 15f;
+
+	/**
+	 * Speed above which the heading is reliable enough to detect turns, in m/s
+	 */
+	static final float TURN_SPEED = 1f;
+
+	/**
+	 * Distance from which a bearing is computed between fixes without one, as the
+	 * position error would dominate under it, in m
+	 */
+	static final float MIN_BEARING_DISTANCE = 5f;
+
+	/**
+	 * Number of consecutive fixes in a coarser band before adopting it
+	 */
+	static final int COARSER_FIXES = 3;
+
+	/**
+	 * Tolerance on the interval between fixes, as fixes are never delivered exactly on time, in ms
+	 */
+	static final long INTERVAL_TOLERANCE = 100;
+
+	private Band band = Band.SLOW;
+
+	/**
+	 * Coarser band being considered, and number of consecutive fixes in it
+	 */
+	private Band candidate;
+	private int candidateFixes;
+
+	/**
+	 * Whether the accelerometer senses motion. Assumed until told otherwise, so that
+	 * nothing is missed without an accelerometer.
+	 */
+	private boolean moving = true;
+
+	/**
+	 * Last fix kept
+	 */
+	private boolean hasLastFix = false;
+	private long lastTime;
+	private double lastLatitude, lastLongitude;
+	private float lastSpeed = Float.NaN;
+	private float lastBearing = Float.NaN;
+
+	private long fixCount = 0;
+	private long keptCount = 0;
+	private long bandChanges = 0;
+
+	/**
+	 * @return Current band, giving the interval and distance to request location updates with
+	 */
+	public Band getBand() {
+		return band;
+	}
+
+	/**
+	 * Updates the motion sensed by the accelerometer. The stationary band is left
+	 * without waiting for a fix, as the fixes are far apart, and entered if the last
+	 * fix was slow already: a walk stopping, not a smooth train ride.
+	 * @param moving Whether the device moves
+	 * @return true if the band changed
+	 */
+	public boolean onMotion(boolean moving) {
+		this.moving = moving;
+		if (moving && band == Band.STATIONARY) {
+			setBand(Band.SLOW);
+			return true;
+		}
+		if (!moving && band != Band.STATIONARY && lastSpeed < SLOW_SPEED) {
+			setBand(Band.STATIONARY);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Samples a fix
+	 * @param time Time of the fix, in ms
+	 * @param speed Speed measured by the GPS in m/s, NaN if none
+	 * @param bearing Bearing measured by the GPS in degrees, NaN if none
+	 * @return true if the fix is to be recorded. {@link #getBand()} may have changed.
+	 */
+	public boolean onFix(long time, double latitude, double longitude, float speed, float bearing) {
+		fixCount++;
+		if (!hasLastFix) {
+			keep(time, latitude, longitude, speed, bearing);
+			return true;
+		}
+		long elapsed = time - lastTime;
+		double distance = TrackMetrics.distance(lastLatitude, lastLongitude, latitude, longitude);
+		if (elapsed < band.interval - INTERVAL_TOLERANCE || distance < band.minDistance) {
+			return false;
+		}
+
+		if (Float.isNaN(speed) && elapsed > 0) {
+			speed = (float) (distance * 1000 / elapsed);
+		}
+		if (Float.isNaN(bearing) && distance >= MIN_BEARING_DISTANCE) {
+			bearing = (float) initialBearing(lastLatitude, lastLongitude, latitude, longitude);
+		}
+		boolean turning = false;
+		if (speed >= TURN_SPEED && !Float.isNaN(bearing) && !Float.isNaN(lastBearing) && elapsed > 0) {
+			turning = headingChange(lastBearing, bearing) * 1000 / elapsed > TURN_RATE;
+		}
+
+		Band wanted;
+		if (speed < STATIONARY_SPEED && !moving) {
+			wanted = Band.STATIONARY;
+		} else if (turning) {
+			wanted = Band.TURNING;
+		} else if (speed < SLOW_SPEED) {
+			wanted = Band.SLOW;
+		} else if (speed < MEDIUM_SPEED) {
+			wanted = Band.MEDIUM;
+		} else {
+			wanted = Band.FAST;
+		}
+
+		if (wanted.ordinal() > band.ordinal() || wanted == Band.STATIONARY) {
+			setBand(wanted);
+		} else if (wanted != band) {
+			if (wanted == candidate) {
+				candidateFixes++;
+			} else {
+				candidate = wanted;
+				candidateFixes = 1;
+			}
+			if (candidateFixes >= COARSER_FIXES) {
+				setBand(wanted);
+			}
+		} else {
+			candidate = null;
+		}
+
+		keep(time, latitude, longitude, speed, bearing);
+		return true;
+	}
+
+	private void keep(long time, double latitude, double longitude, float speed, float bearing) {
+		hasLastFix = true;
+		lastTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastSpeed = speed;
+		lastBearing = bearing;
+		keptCount++;
+	}
+
+	private void setBand(Band band) {
+		this.band = band;
+		candidate = null;
+		bandChanges++;
+	}
+
+	/**
+	 * @return Number of fixes received
+	 */
+	public long getFixCount() {
+		return fixCount;
+	}
+
+	/**
+	 * @return Number of fixes kept
+	 */
+	public long getKeptCount() {
+		return keptCount;
+	}
+
+	/**
+	 * @return Number of band changes, each one requiring location updates to be requested again
+	 */
+	public long getBandChanges() {
+		return bandChanges;
+	}
+
+	/**
+	 * @return Absolute difference between two headings, in degrees from 0 to 180
+	 */
+	static double headingChange(double from, double to) {
+		double out = Math.abs(to - from) % 360;
+		return out > 180 ? 360 - out : out;
+	}
+
+	/**
+	 * @return Initial bearing from a point to another, in degrees from 0 to 360
+	 */
+	static double initialBearing(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double deltaLambda = Math.toRadians(lon2 - lon1);
+		double y = Math.sin(deltaLambda) * Math.cos(phi2);
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+		return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+	}
+
+}
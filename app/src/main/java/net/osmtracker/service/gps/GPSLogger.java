@@ -18,6 +18,7 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -28,12 +29,21 @@ import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.activity.TrackLogger;
 import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.RecordingConfig;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.listener.MotionListener;
 import net.osmtracker.listener.PressureListener;
 import net.osmtracker.listener.SensorListener;
+import net.osmtracker.service.gps.filter.Fix;
+import net.osmtracker.service.gps.filter.TrackFilter;
+import net.osmtracker.service.gps.filter.TrackFilterChain;
 
 /**
  * GPS logging service.
+ *
+ * The location updates are delivered on the looper of the {@link TrackWriterThread},
+ * which filters and writes them without going through the main thread. The
+ * intents, received on the main thread, are posted to it.
  * 
  * @author Nicolas Guillaumin
  *
@@ -47,15 +57,49 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private DataHelper dataHelper;
 
+	/**
+	 * Write-behind queue for track points, flushed in batches.
+	 */
+	private TrackPointWriteQueue trackPointQueue;
+
+	/**
+	 * Thread of all the persistence: the fixes and the intents are handled on it.
+	 */
+	private TrackWriterThread trackWriter;
+
+	/**
+	 * Filters of the fixes of the current track, before they're queued. null if not
+	 * tracking, as seen from the writer thread.
+	 */
+	private TrackFilter trackFilter;
+
+	/**
+	 * Preferences of the current track, taken when it started so that they
+	 * don't change in the middle of it. Used from the writer thread.
+	 */
+	private RecordingConfig recordingConfig;
+
+	/**
+	 * Queues the fixes output by the filters
+	 */
+	private final TrackFilter.Output trackFilterOutput = new TrackFilter.Output() {
+		@Override
+		public void onFix(Fix fix) {
+			LocationFix locationFix = (LocationFix) fix;
+			trackPointQueue.add(currentTrackId, locationFix.getLocation(), locationFix.azimuth,
+					locationFix.compassAccuracy, locationFix.pressure, recordingConfig, locationFix.receivedTime);
+		}
+	};
+
 	/**
 	 * Are we currently tracking ?
 	 */
-	private boolean isTracking = false;
+	private volatile boolean isTracking = false;
 	
 	/**
 	 * Is GPS enabled ?
 	 */
-	private boolean isGpsEnabled = false;
+	private volatile boolean isGpsEnabled = false;
 
 	/**
 	 * Use barometer yes/no ?
@@ -81,18 +125,23 @@ public class GPSLogger extends Service implements LocationListener {
 	/**
 	 * Current Track ID
 	 */
-	private long currentTrackId = -1;
+	private volatile long currentTrackId = -1;
 
 	/**
-	 * the timestamp of the last GPS fix we used
+	 * Chooses the fixes logged at the logging interval
 	 */
-	private long lastGPSTimestamp = 0;
+	private LoggingScheduler loggingScheduler;
 	
 	/**
 	 * the interval (in ms) to log GPS fixes defined in the preferences
 	 */
 	private long gpsLoggingInterval;
 	private long gpsLoggingMinDistance;
+
+	/**
+	 * Adaptive sampling, replacing the logging interval and distance. null if disabled.
+	 */
+	private AdaptiveSampler adaptiveSampler;
 	
 	/**
 	 * sensors for magnetic orientation
@@ -104,15 +153,25 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private PressureListener pressureListener = new PressureListener();
 
+	/**
+	 * accelerometer, for the adaptive sampling
+	 */
+	private MotionListener motionListener = new MotionListener();
+
 	/**
 	 * Receives Intent for way point and notes tracking, and stop/start logging.
 	 */
 	private BroadcastReceiver receiver = new BroadcastReceiver() {
 
 		@Override
-		public void onReceive(Context context, Intent intent) {
+		public void onReceive(final Context context, final Intent intent) {
 			Log.v(TAG, "Received intent " + intent.getAction());
+			// Handled on the writer thread, as they write to the database. Actions
+			// of the user, never dropped.
+			trackWriter.post(() -> handleIntent(context, intent));
+		}
 
+		private void handleIntent(Context context, Intent intent) {
 			if (OSMTracker.INTENT_TRACK_WP.equals(intent.getAction())) {
 				// Track a way point
 				Bundle extras = intent.getExtras();
@@ -122,6 +181,9 @@ public class GPSLogger extends Service implements LocationListener {
 					if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
 						lastLocation = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
 						if (lastLocation != null) {
+							// Persist pending track points before the way point
+							flushTrackPoints();
+
 							Long trackId = extras.getLong(TrackContentProvider.Schema.COL_TRACK_ID);
 							String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
 							String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
@@ -130,7 +192,8 @@ public class GPSLogger extends Service implements LocationListener {
 							dataHelper.wayPoint(trackId, lastLocation, name, link, uuid, sensorListener.getAzimuth(), sensorListener.getAccuracy(), pressureListener.getPressure());
 
 							// If there is a waypoint in the track, there should also be a trackpoint
-							dataHelper.track(currentTrackId, lastLocation, sensorListener.getAzimuth(), sensorListener.getAccuracy(), pressureListener.getPressure());
+							dataHelper.track(currentTrackId, lastLocation, sensorListener.getAzimuth(), sensorListener.getAccuracy(), pressureListener.getPressure(),
+									recordingConfig != null ? recordingConfig : dataHelper.getRecordingConfig());
 						}
 					}
 				}
@@ -167,6 +230,9 @@ public class GPSLogger extends Service implements LocationListener {
 					if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
 						lastLocation = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
 						if (lastLocation != null) {
+							// Persist pending track points before the note
+							flushTrackPoints();
+
 							//TODO: CHECK THIS
 							long trackId = extras.getLong(TrackContentProvider.Schema.COL_TRACK_ID);
 							String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
@@ -235,20 +301,34 @@ public class GPSLogger extends Service implements LocationListener {
 		public GPSLogger getService() {			
 			return GPSLogger.this;
 		}
+
+		/**
+		 * @return Backpressure metrics of the writer thread: queue depth, latency
+		 */
+		public TrackWriterThread.Stats getWriterStats() {
+			return trackWriter.getStats();
+		}
 	}
 	
 	@Override
 	public void onCreate() {
 		Log.v(TAG, "Service onCreate()");
 		dataHelper = new DataHelper(this);
+		trackWriter = new TrackWriterThread();
+		trackPointQueue = new TrackPointWriteQueue(dataHelper, trackWriter.getHandler());
 
 		//read the logging interval from preferences
 		gpsLoggingInterval = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getString(
 				OSMTracker.Preferences.KEY_GPS_LOGGING_INTERVAL, OSMTracker.Preferences.VAL_GPS_LOGGING_INTERVAL)) * 1000;
+		loggingScheduler = new LoggingScheduler(gpsLoggingInterval);
 		gpsLoggingMinDistance = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getString(
 				OSMTracker.Preferences.KEY_GPS_LOGGING_MIN_DISTANCE, OSMTracker.Preferences.VAL_GPS_LOGGING_MIN_DISTANCE));
 		use_barometer = PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getBoolean(
 				OSMTracker.Preferences.KEY_USE_BAROMETER, OSMTracker.Preferences.VAL_USE_BAROMETER);
+		if (PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getBoolean(
+				OSMTracker.Preferences.KEY_GPS_ADAPTIVE_SAMPLING, OSMTracker.Preferences.VAL_GPS_ADAPTIVE_SAMPLING)) {
+			adaptiveSampler = new AdaptiveSampler();
+		}
 
 		// Register our broadcast receiver
 		IntentFilter filter = new IntentFilter();
@@ -267,10 +347,7 @@ public class GPSLogger extends Service implements LocationListener {
 
 		// Register ourselves for location updates
 		lmgr = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-
-		if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-			lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, gpsLoggingInterval, gpsLoggingMinDistance, this);
-		}
+		requestLocationUpdates();
 		
 		//register for Orientation updates
 		sensorListener.register(this);
@@ -278,6 +355,18 @@ public class GPSLogger extends Service implements LocationListener {
 		// register for atmospheric pressure updates
 		pressureListener.register(this, use_barometer);
 
+		// register for motion updates, to leave the stationary band as soon as we move
+		if (adaptiveSampler != null) {
+			motionListener.register(this, new MotionListener.OnMotionChangedListener() {
+				@Override
+				public void onMotionChanged(boolean moving) {
+					if (adaptiveSampler.onMotion(moving)) {
+						requestLocationUpdates();
+					}
+				}
+			}, trackWriter.getHandler());
+		}
+
 		super.onCreate();
 	}
 	
@@ -292,10 +381,6 @@ public class GPSLogger extends Service implements LocationListener {
 	@Override
 	public void onDestroy() {
 		Log.v(TAG, "Service onDestroy()");
-		if (isTracking) {
-			// If we're currently tracking, save user data.
-			stopTrackingAndSave();
-		}
 
 		// Unregister listener
 		lmgr.removeUpdates(this);
@@ -309,6 +394,23 @@ public class GPSLogger extends Service implements LocationListener {
 		// stop sensors
 		sensorListener.unregister();
 		pressureListener.unregister();
+		motionListener.unregister();
+
+		final boolean wasTracking = isTracking;
+		isTracking = false;
+
+		// Once the pending fixes are processed, write the last track points and stop the writer thread
+		trackWriter.quit(() -> {
+			// Never leave points behind
+			flushTrackPoints();
+			if (wasTracking) {
+				// We were tracking: save user data, once all the points of the track are written
+				dataHelper.stopTracking(currentTrackId);
+			}
+			trackFilter = null;
+			currentTrackId = -1;
+			Log.v(TAG, "Writer stopped, " + trackWriter.getStats());
+		});
 
 		super.onDestroy();
 	}
@@ -318,6 +420,8 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private void startTracking(long trackId) {
 		currentTrackId = trackId;
+		trackFilter = TrackFilterChain.fromPreferences(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()));
+		recordingConfig = dataHelper.getRecordingConfig();
 		Log.v(TAG, "Starting track logging for track #" + trackId);
 		// Refresh notification with correct Track ID
 		NotificationManager nmgr = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -330,28 +434,102 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private void stopTrackingAndSave() {
 		isTracking = false;
+		flushTrackPoints();
 		dataHelper.stopTracking(currentTrackId);
 		currentTrackId = -1;
+		trackFilter = null;
 		this.stopSelf();
 	}
 
+	/**
+	 * Registers for location updates with the logging interval and distance, or the
+	 * ones of the current band when sampling adaptively. Replaces any previous request.
+	 */
+	private void requestLocationUpdates() {
+		if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+			if (adaptiveSampler != null) {
+				AdaptiveSampler.Band band = adaptiveSampler.getBand();
+				Log.v(TAG, "Sampling band " + band);
+				lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, band.interval, band.minDistance, this, trackWriter.getHandler().getLooper());
+			} else {
+				lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, gpsLoggingInterval, gpsLoggingMinDistance, this, trackWriter.getHandler().getLooper());
+			}
+		}
+	}
+
+	/**
+	 * Receives a fix, on the writer thread
+	 */
 	@Override
-	public void onLocationChanged(Location location) {		
+	public void onLocationChanged(final Location location) {
 		// We're receiving location, so GPS is enabled
 		isGpsEnabled = true;
+		// Time on the OS clock, taken now as the fix may be held by the filters
+		long receivedTime = System.currentTimeMillis();
+		// If the writer is that far behind, the fix is dropped
+		if (trackWriter.admit(getElapsedRealtimeNanos(location))) {
+			onFix(location, receivedTime);
+		}
+	}
+
+	/**
+	 * Processes a fix, on the writer thread
+	 * @param receivedTime Time the fix was received at, on the OS clock
+	 */
+	private void onFix(Location location, long receivedTime) {
+		if (adaptiveSampler != null) {
+			AdaptiveSampler.Band band = adaptiveSampler.getBand();
+			if (adaptiveSampler.onFix(getElapsedRealtimeNanos(location) / 1000000, location.getLatitude(), location.getLongitude(),
+					location.hasSpeed() ? location.getSpeed() : Float.NaN,
+					location.hasBearing() ? location.getBearing() : Float.NaN)) {
+				lastLocation = location;
+				if (trackFilter != null) {
+					track(location, receivedTime);
+				}
+			}
+			// Only register again when the band changes
+			if (adaptiveSampler.getBand() != band) {
+				requestLocationUpdates();
+			}
+			return;
+		}
 		
-		// first of all we check if the time from the last used fix to the current fix is greater than the logging interval
-		if((lastGPSTimestamp + gpsLoggingInterval) < System.currentTimeMillis()){
-			lastGPSTimestamp = System.currentTimeMillis(); // save the time of this fix
-		
+		// first of all we check if the fix falls in the next slot of the logging interval
+		if (loggingScheduler.accept(getElapsedRealtimeNanos(location))) {
 			lastLocation = location;
 			
-			if (isTracking) {
-				dataHelper.track(currentTrackId, location, sensorListener.getAzimuth(), sensorListener.getAccuracy(), pressureListener.getPressure());
+			if (trackFilter != null) {
+				track(location, receivedTime);
 			}
 		}
 	}
 
+	/**
+	 * @return Time of a fix on the monotonic clock, or the time it's received if the provider didn't set it, in ns
+	 */
+	private static long getElapsedRealtimeNanos(Location location) {
+		long out = location.getElapsedRealtimeNanos();
+		return out > 0 ? out : SystemClock.elapsedRealtimeNanos();
+	}
+
+	/**
+	 * Records a fix of the current track, through the filters
+	 */
+	private void track(Location location, long receivedTime) {
+		trackFilter.onFix(new LocationFix(location, receivedTime, sensorListener.getAzimuth(), sensorListener.getAccuracy(),
+				pressureListener.getPressure()), trackFilterOutput);
+	}
+
+	/**
+	 * Writes the track points held by the filters and the queue
+	 */
+	private void flushTrackPoints() {
+		if (trackFilter != null) {
+			trackFilter.flush(trackFilterOutput);
+		}
+		trackPointQueue.flush();
+	}
+
 	/**
 	 * Builds the notification to display when tracking in background.
 	 */
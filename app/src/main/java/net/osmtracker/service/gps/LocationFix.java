@@ -0,0 +1,50 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+
+import net.osmtracker.service.gps.filter.Fix;
+
+/**
+ * Fix going through the filters, with the location and the sensor values at the time it was received.
+ *
+ * The filters may hold a fix for a while before releasing it: the time it was
+ * received at is kept with it, so that its timestamp on the OS clock doesn't
+ * depend on when it's written.
+ */
+class LocationFix extends Fix {
+	private final Location location;
+	final long receivedTime;
+	final float azimuth;
+	final int compassAccuracy;
+	final float pressure;
+
+	/**
+	 * @param receivedTime Time the location was received at, on the OS clock
+	 */
+	LocationFix(Location location, long receivedTime, float azimuth, int compassAccuracy, float pressure) {
+		super(location.getTime(), location.getLatitude(), location.getLongitude(),
+				location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+				location.hasSpeed() ? location.getSpeed() : Float.NaN);
+		this.location = location;
+		this.receivedTime = receivedTime;
+		this.azimuth = azimuth;
+		this.compassAccuracy = compassAccuracy;
+		this.pressure = pressure;
+	}
+
+	/**
+	 * @return Location of the fix, moved to the filtered position
+	 */
+	Location getLocation() {
+		if (getLatitude() == location.getLatitude() && getLongitude() == location.getLongitude()) {
+			return location;
+		}
+		Location out = new Location(location);
+		out.setLatitude(getLatitude());
+		out.setLongitude(getLongitude());
+		if (!Float.isNaN(getAccuracy())) {
+			out.setAccuracy(getAccuracy());
+		}
+		return out;
+	}
+}
@@ -0,0 +1,111 @@
+package net.osmtracker.service.gps;
+
+/**
+ * Chooses the fixes logged at the logging interval, on the monotonic clock of the
+ * fixes ({@link android.location.Location#getElapsedRealtimeNanos()}), immune to the
+ * changes of the wall clock.
+ *
+ * The fixes are logged on a grid of slots, one per interval, starting with the
+ * first fix: the first fix of each slot is logged, then the next slot is awaited.
+ * As the slots don't depend on the time of the fixes logged, a late fix doesn't
+ * delay the next ones, and the cadence doesn't drift.
+ *
+ * A slot opens half a delivery interval early, the delivery interval being the
+ * interval between the fixes received, or the logging interval if longer. When the
+ * provider delivers at the logging interval, a fix slightly early is still logged
+ * instead of being dropped, with the next fix a whole interval later. When it
+ * delivers faster, the fix nearest to the start of the slot is logged.
+ */
+public class LoggingScheduler {
+
+	/**
+	 * Weight of an interval between fixes in the delivery interval, as a power of two
+	 */
+	private static final int DELIVERY_INTERVAL_SHIFT = 3;
+
+	private final long intervalNanos;
+
+	/**
+	 * Interval between the fixes received, averaged, in ns. At most {@link #intervalNanos},
+	 * negative until the second fix.
+	 */
+	private long deliveryIntervalNanos = -1;
+
+	/**
+	 * Start of the next slot, and time of the last fix received, in ns
+	 */
+	private long nextSlotNanos;
+	private long lastFixNanos;
+	private boolean started = false;
+
+	private long acceptedCount = 0;
+	private long droppedCount = 0;
+
+	/**
+	 * @param intervalMillis Logging interval, in ms. 0 to log every fix.
+	 */
+	public LoggingScheduler(long intervalMillis) {
+		this.intervalNanos = Math.max(0, intervalMillis) * 1000000;
+	}
+
+	/**
+	 * @param elapsedRealtimeNanos Time of the fix on the monotonic clock, in ns
+	 * @return true if the fix is to be logged
+	 */
+	public boolean accept(long elapsedRealtimeNanos) {
+		if (intervalNanos == 0) {
+			acceptedCount++;
+			return true;
+		}
+		if (!started) {
+			started = true;
+			lastFixNanos = elapsedRealtimeNanos;
+			nextSlotNanos = elapsedRealtimeNanos + intervalNanos;
+			acceptedCount++;
+			return true;
+		}
+
+		long delivery = elapsedRealtimeNanos - lastFixNanos;
+		if (delivery <= 0) {
+			// Same or older fix
+			droppedCount++;
+			return false;
+		}
+		lastFixNanos = elapsedRealtimeNanos;
+		delivery = Math.min(delivery, intervalNanos);
+		if (deliveryIntervalNanos < 0) {
+			deliveryIntervalNanos = delivery;
+		} else {
+			deliveryIntervalNanos += (delivery - deliveryIntervalNanos) >> DELIVERY_INTERVAL_SHIFT;
+		}
+
+		long tolerance = deliveryIntervalNanos / 2;
+		if (elapsedRealtimeNanos < nextSlotNanos - tolerance) {
+			droppedCount++;
+			return false;
+		}
+		// Next slot after this fix, skipping the slots without fixes
+		nextSlotNanos += ((elapsedRealtimeNanos + tolerance - nextSlotNanos) / intervalNanos + 1) * intervalNanos;
+		acceptedCount++;
+		return true;
+	}
+
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	/**
+	 * @return Number of fixes logged
+	 */
+	public long getAcceptedCount() {
+		return acceptedCount;
+	}
+
+	/**
+	 * @return Number of fixes dropped, received for nothing
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+}
@@ -0,0 +1,162 @@
+package net.osmtracker.service.gps;
+
+import android.content.ContentValues;
+import android.location.Location;
+import android.os.Handler;
+import android.util.Log;
+
+import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.RecordingConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write-behind queue for track points.
+ * Fixes are accumulated in memory and written to the DB in a single
+ * transaction every {@link #getMaxPoints()} points, or at the latest
+ * {@link #getMaxDelay()} ms after the first pending point was queued.
+ * Those two limits are also the crash-safety bound: no more than
+ * that many points, or that much time, can be lost if the process dies.
+ *
+ * Not thread safe, must be used from the thread of the given {@link Handler}.
+ */
+public class TrackPointWriteQueue {
+
+	private static final String TAG = TrackPointWriteQueue.class.getSimpleName();
+
+	/**
+	 * Default number of points after which the queue is flushed
+	 */
+	public static final int DEFAULT_MAX_POINTS = 10;
+
+	/**
+	 * Default maximum time (in ms) a point can wait in the queue
+	 */
+	public static final long DEFAULT_MAX_DELAY = 10000;
+
+	/**
+	 * Data helper used to write points.
+	 */
+	private final DataHelper dataHelper;
+
+	/**
+	 * Handler used to schedule time based flushes.
+	 */
+	private final Handler handler;
+
+	private final int maxPoints;
+	private final long maxDelay;
+
+	/**
+	 * Points waiting to be written, all belonging to {@link #pendingTrackId}
+	 */
+	private final List<ContentValues> pending = new ArrayList<ContentValues>();
+	private long pendingTrackId = -1;
+
+	/**
+	 * Number of flushes (i.e. DB transactions) done so far
+	 */
+	private int flushCount = 0;
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public TrackPointWriteQueue(DataHelper dataHelper, Handler handler) {
+		this(dataHelper, handler, DEFAULT_MAX_POINTS, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * @param dataHelper Data helper used to write points
+	 * @param handler Handler used to schedule time based flushes
+	 * @param maxPoints Number of points after which the queue is flushed. Use 1 to disable batching.
+	 * @param maxDelay Maximum time (in ms) a point can wait in the queue
+	 */
+	public TrackPointWriteQueue(DataHelper dataHelper, Handler handler, int maxPoints, long maxDelay) {
+		this.dataHelper = dataHelper;
+		this.handler = handler;
+		this.maxPoints = Math.max(1, maxPoints);
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Queues a track point, with the current preferences. See
+	 * {@link #add(long, Location, float, int, float, RecordingConfig)}.
+	 */
+	public void add(long trackId, Location location, float azimuth, int accuracy, float pressure) {
+		add(trackId, location, azimuth, accuracy, pressure, dataHelper.getRecordingConfig());
+	}
+
+	/**
+	 * Queues a track point received now. See
+	 * {@link #add(long, Location, float, int, float, RecordingConfig, long)}.
+	 */
+	public void add(long trackId, Location location, float azimuth, int accuracy, float pressure,
+			RecordingConfig config) {
+		add(trackId, location, azimuth, accuracy, pressure, config, System.currentTimeMillis());
+	}
+
+	/**
+	 * Queues a track point. See
+	 * {@link DataHelper#trackPointValues(long, Location, float, int, float, RecordingConfig, long)}
+	 * for the parameters.
+	 */
+	public void add(long trackId, Location location, float azimuth, int accuracy, float pressure,
+			RecordingConfig config, long receivedTime) {
+		if (trackId != pendingTrackId) {
+			// Points of a previous track must not be mixed with the new ones
+			flush();
+			pendingTrackId = trackId;
+		}
+
+		pending.add(dataHelper.trackPointValues(trackId, location, azimuth, accuracy, pressure, config, receivedTime));
+
+		if (pending.size() >= maxPoints) {
+			flush();
+		} else if (pending.size() == 1) {
+			handler.postDelayed(flushTask, maxDelay);
+		}
+	}
+
+	/**
+	 * Writes all pending points to the DB, in a single transaction.
+	 */
+	public void flush() {
+		handler.removeCallbacks(flushTask);
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		ContentValues[] values = pending.toArray(new ContentValues[0]);
+		pending.clear();
+		Log.v(TAG, "Flushing " + values.length + " track points (trackId=" + pendingTrackId + ")");
+		dataHelper.track(pendingTrackId, values);
+		flushCount++;
+	}
+
+	/**
+	 * @return number of points waiting to be written
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return number of flushes (i.e. DB transactions) done so far
+	 */
+	public int getFlushCount() {
+		return flushCount;
+	}
+
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+}
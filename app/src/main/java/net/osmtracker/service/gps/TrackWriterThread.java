@@ -0,0 +1,203 @@
+package net.osmtracker.service.gps;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread owning the persistence of the GPS logger, so that a slow write to the
+ * storage never stalls the main thread.
+ *
+ * The work that can be dropped, the processing of the fixes, is submitted with
+ * {@link #offer(Runnable)}: when the writer is stalled that long, it's rejected
+ * instead of piling up. The actions of the user are submitted with
+ * {@link #post(Runnable)}: they're never rejected, only counted when the queue is
+ * over its capacity. The depth of the queue and the time the tasks wait in it are
+ * measured, see {@link #getStats()}.
+ *
+ * Callbacks can also be delivered directly on the looper of the thread, e.g. the
+ * location updates, saving a hop through another thread. They can't be bounded
+ * when they're queued: they're checked with {@link #admit(long)} when they run,
+ * which rejects the ones that waited longer than the maximum latency, so that a
+ * stalled writer drops the stale work instead of catching up with all of it.
+ *
+ * Thread safe.
+ */
+public class TrackWriterThread {
+
+	private static final String TAG = TrackWriterThread.class.getSimpleName();
+
+	/**
+	 * Default maximum number of tasks waiting
+	 */
+	public static final int DEFAULT_CAPACITY = 100;
+
+	/**
+	 * Default maximum time (in ms) a callback delivered on the thread can wait
+	 */
+	public static final long DEFAULT_MAX_LATENCY = 10000;
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final int capacity;
+	private final long maxLatencyBoundNanos;
+
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+	private final AtomicLong taskCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong overCapacityCount = new AtomicLong();
+
+	public TrackWriterThread() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TrackWriterThread(int capacity) {
+		this(capacity, DEFAULT_MAX_LATENCY);
+	}
+
+	/**
+	 * Starts the thread
+	 * @param capacity Maximum number of tasks waiting
+	 * @param maxLatency Maximum time (in ms) a callback delivered on the thread can wait, see {@link #admit(long)}
+	 */
+	public TrackWriterThread(int capacity, long maxLatency) {
+		this.capacity = Math.max(1, capacity);
+		this.maxLatencyBoundNanos = maxLatency * 1000000;
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Queues a task that can be dropped
+	 * @return false if the queue is full and the task was rejected
+	 */
+	public boolean offer(Runnable task) {
+		int queued = depth.incrementAndGet();
+		if (queued > capacity) {
+			depth.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			Log.w(TAG, "Writer queue full, task rejected");
+			return false;
+		}
+		enqueue(task, queued);
+		return true;
+	}
+
+	/**
+	 * Queues a task that must not be dropped, whatever the capacity
+	 */
+	public void post(Runnable task) {
+		int queued = depth.incrementAndGet();
+		if (queued > capacity) {
+			overCapacityCount.incrementAndGet();
+			Log.w(TAG, "Writer queue over capacity: " + queued + "/" + capacity);
+		}
+		enqueue(task, queued);
+	}
+
+	/**
+	 * Checks a callback delivered directly on the thread, when it runs. It's
+	 * counted as a task, with the time since it was produced as its latency.
+	 * @param producedNanos Time the callback was produced, on the {@link SystemClock#elapsedRealtimeNanos()} clock
+	 * @return false if it waited longer than the maximum latency and was rejected
+	 */
+	public boolean admit(long producedNanos) {
+		long latency = SystemClock.elapsedRealtimeNanos() - producedNanos;
+		if (latency > maxLatencyBoundNanos) {
+			rejectedCount.incrementAndGet();
+			Log.w(TAG, "Writer late by " + latency / 1000000 + " ms, callback rejected");
+			return false;
+		}
+		taskCount.incrementAndGet();
+		maxLatencyNanos.accumulateAndGet(latency, Math::max);
+		return true;
+	}
+
+	/**
+	 * Posts a task counted in the queue, stamped to measure its time in the queue
+	 */
+	private void enqueue(final Runnable task, int queued) {
+		maxDepth.accumulateAndGet(queued, Math::max);
+		final long enqueued = SystemClock.elapsedRealtimeNanos();
+		handler.post(() -> {
+			depth.decrementAndGet();
+			taskCount.incrementAndGet();
+			maxLatencyNanos.accumulateAndGet(SystemClock.elapsedRealtimeNanos() - enqueued, Math::max);
+			task.run();
+		});
+	}
+
+	/**
+	 * Runs a last task after the tasks queued, whatever the capacity, then stops the thread
+	 */
+	public void quit(Runnable last) {
+		post(last);
+		thread.quitSafely();
+	}
+
+	/**
+	 * @return Handler of the thread, to schedule work on. Its looper can be given to
+	 * register callbacks, checked with {@link #admit(long)}.
+	 */
+	public Handler getHandler() {
+		return handler;
+	}
+
+	public Stats getStats() {
+		return new Stats(depth.get(), maxDepth.get(), capacity, maxLatencyNanos.get() / 1000000,
+				taskCount.get(), rejectedCount.get(), overCapacityCount.get());
+	}
+
+	/**
+	 * Backpressure metrics of the writer
+	 */
+	public static class Stats {
+
+		/**
+		 * Number of tasks waiting, now and at most
+		 */
+		public final int queueDepth;
+		public final int maxQueueDepth;
+		public final int capacity;
+
+		/**
+		 * Maximum time a task waited in the queue, or a callback since it was produced, in ms
+		 */
+		public final long maxLatency;
+
+		/**
+		 * Number of tasks run, of tasks rejected as the queue was full or as they
+		 * were too late, and of tasks posted while the queue was full
+		 */
+		public final long taskCount;
+		public final long rejectedCount;
+		public final long overCapacityCount;
+
+		Stats(int queueDepth, int maxQueueDepth, int capacity, long maxLatency, long taskCount, long rejectedCount,
+				long overCapacityCount) {
+			this.queueDepth = queueDepth;
+			this.maxQueueDepth = maxQueueDepth;
+			this.capacity = capacity;
+			this.maxLatency = maxLatency;
+			this.taskCount = taskCount;
+			this.rejectedCount = rejectedCount;
+			this.overCapacityCount = overCapacityCount;
+		}
+
+		@Override
+		public String toString() {
+			return "queue " + queueDepth + "/" + capacity + " (max " + maxQueueDepth + "), max latency " + maxLatency
+					+ " ms, " + taskCount + " tasks, " + rejectedCount + " rejected, " + overCapacityCount
+					+ " over capacity";
+		}
+	}
+
+}
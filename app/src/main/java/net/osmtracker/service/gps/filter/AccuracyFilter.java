@@ -0,0 +1,51 @@
+package net.osmtracker.service.gps.filter;
+
+/**
+ * Drops the fixes less accurate than a threshold: the first fixes after a cold
+ * start, and the ones computed from few satellites or reflected signals.
+ * Fixes without accuracy are kept.
+ */
+public class AccuracyFilter implements TrackFilter {
+
+	/**
+	 * Default maximum accuracy, in m
+	 */
+	public static final float DEFAULT_MAX_ACCURACY = 30;
+
+	private final float maxAccuracy;
+
+	private long dropped = 0;
+
+	public AccuracyFilter() {
+		this(DEFAULT_MAX_ACCURACY);
+	}
+
+	/**
+	 * @param maxAccuracy Maximum accuracy of the fixes kept, in m
+	 */
+	public AccuracyFilter(float maxAccuracy) {
+		this.maxAccuracy = maxAccuracy;
+	}
+
+	@Override
+	public void onFix(Fix fix, Output out) {
+		if (fix.getAccuracy() > maxAccuracy) {
+			dropped++;
+		} else {
+			out.onFix(fix);
+		}
+	}
+
+	@Override
+	public void flush(Output out) {
+		// Nothing held
+	}
+
+	/**
+	 * @return Number of fixes dropped
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+}
@@ -0,0 +1,71 @@
+package net.osmtracker.service.gps.filter;
+
+/**
+ * A GPS fix going through the {@link TrackFilter}s. Immutable: a filter moving a
+ * fix outputs a copy, made with {@link #moveTo(double, double, float)}, so that
+ * subclasses carrying the rest of the data of the fix keep it.
+ */
+public class Fix implements Cloneable {
+
+	private long time;
+	private double latitude;
+	private double longitude;
+	private float accuracy;
+	private float speed;
+
+	/**
+	 * @param time Time of the fix, in ms
+	 * @param accuracy Accuracy of the position in m, NaN if unknown
+	 * @param speed Speed in m/s, NaN if unknown
+	 */
+	public Fix(long time, double latitude, double longitude, float accuracy, float speed) {
+		this.time = time;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.accuracy = accuracy;
+		this.speed = speed;
+	}
+
+	/**
+	 * @return Copy of this fix at another position
+	 */
+	public Fix moveTo(double latitude, double longitude, float accuracy) {
+		Fix out;
+		try {
+			out = (Fix) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		out.latitude = latitude;
+		out.longitude = longitude;
+		out.accuracy = accuracy;
+		return out;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * @return Accuracy of the position in m, NaN if unknown
+	 */
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	/**
+	 * @return Speed in m/s, NaN if unknown
+	 */
+	public float getSpeed() {
+		return speed;
+	}
+
+}
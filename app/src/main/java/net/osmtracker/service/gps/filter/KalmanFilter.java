@@ -0,0 +1,76 @@
+package net.osmtracker.service.gps.filter;
+
+/**
+ * Kalman filter of the position, smoothing the jitter of the fixes.
+ *
+ * The state is the position, with the same variance on both axes. Between fixes
+ * the device may have moved: the variance grows by the square of the speed per
+ * second, the speed of the fix or {@link #DEFAULT_PROCESS_NOISE} if slower, so
+ * that the filter follows the device at speed and smooths more when slow. Each fix
+ * is then weighted by its accuracy. The fixes output are at the filtered position,
+ * with its standard deviation as accuracy.
+ */
+public class KalmanFilter implements TrackFilter {
+
+	/**
+	 * Default minimum speed at which the position may change, in m/s
+	 */
+	public static final float DEFAULT_PROCESS_NOISE = 3;
+
+	/**
+	 * Accuracy of the fixes without one, or claiming a better one, in m
+	 */
+	static final float MIN_ACCURACY = 1;
+
+	private final float processNoise;
+
+	/**
+	 * Filtered position, and its variance in m². Negative before the first fix.
+	 */
+	private double latitude, longitude;
+	private double variance = -1;
+	private long time;
+
+	public KalmanFilter() {
+		this(DEFAULT_PROCESS_NOISE);
+	}
+
+	/**
+	 * @param processNoise Minimum speed at which the position may change, in m/s
+	 */
+	public KalmanFilter(float processNoise) {
+		this.processNoise = processNoise;
+	}
+
+	@Override
+	public void onFix(Fix fix, Output out) {
+		float accuracy = fix.getAccuracy() >= MIN_ACCURACY ? fix.getAccuracy() : MIN_ACCURACY;
+		double measurementVariance = accuracy * accuracy;
+		if (variance < 0) {
+			latitude = fix.getLatitude();
+			longitude = fix.getLongitude();
+			variance = measurementVariance;
+			time = fix.getTime();
+			out.onFix(fix);
+			return;
+		}
+
+		long elapsed = fix.getTime() - time;
+		if (elapsed > 0) {
+			double speed = fix.getSpeed() > processNoise ? fix.getSpeed() : processNoise;
+			variance += elapsed * speed * speed / 1000;
+			time = fix.getTime();
+		}
+		double gain = variance / (variance + measurementVariance);
+		latitude += gain * (fix.getLatitude() - latitude);
+		longitude += gain * (fix.getLongitude() - longitude);
+		variance = (1 - gain) * variance;
+		out.onFix(fix.moveTo(latitude, longitude, (float) Math.sqrt(variance)));
+	}
+
+	@Override
+	public void flush(Output out) {
+		// Nothing held
+	}
+
+}
@@ -0,0 +1,128 @@
+package net.osmtracker.service.gps.filter;
+
+import net.osmtracker.db.model.TrackMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Online simplification of the track with the opening window algorithm: the
+ * fixes are dropped as long as the segment from the last fix output to the new
+ * fix passes within a tolerance of all of them. Otherwise the previous fix is
+ * output and starts the next window. Every fix dropped is then within the
+ * tolerance of the track written.
+ *
+ * A window is also closed after {@link #getMaxPoints()} fixes or
+ * {@link #getMaxDelay()} ms, bounding the work per fix and the delay before the
+ * position is written.
+ */
+public class OpeningWindowFilter implements TrackFilter {
+
+	/**
+	 * Default tolerance, in m
+	 */
+	public static final float DEFAULT_TOLERANCE = 5;
+
+	/**
+	 * Default maximum number of fixes in a window
+	 */
+	public static final int DEFAULT_MAX_POINTS = 100;
+
+	/**
+	 * Default maximum duration of a window, in ms
+	 */
+	public static final long DEFAULT_MAX_DELAY = 30000;
+
+	private static final double METERS_PER_DEGREE = Math.toRadians(TrackMetrics.EARTH_RADIUS);
+
+	private final float tolerance;
+	private final int maxPoints;
+	private final long maxDelay;
+
+	/**
+	 * Last fix output, start of the window
+	 */
+	private Fix anchor;
+
+	/**
+	 * Fixes of the window, not output yet
+	 */
+	private final List<Fix> window = new ArrayList<Fix>();
+
+	public OpeningWindowFilter() {
+		this(DEFAULT_TOLERANCE, DEFAULT_MAX_POINTS, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * @param tolerance Maximum distance of a fix dropped to the track, in m
+	 * @param maxPoints Maximum number of fixes in a window
+	 * @param maxDelay Maximum duration of a window, in ms
+	 */
+	public OpeningWindowFilter(float tolerance, int maxPoints, long maxDelay) {
+		this.tolerance = tolerance;
+		this.maxPoints = Math.max(1, maxPoints);
+		this.maxDelay = maxDelay;
+	}
+
+	@Override
+	public void onFix(Fix fix, Output out) {
+		if (anchor == null) {
+			anchor = fix;
+			out.onFix(fix);
+			return;
+		}
+		if (!window.isEmpty() && (window.size() >= maxPoints || fix.getTime() - anchor.getTime() > maxDelay
+				|| !fits(fix))) {
+			flush(out);
+		}
+		window.add(fix);
+	}
+
+	@Override
+	public void flush(Output out) {
+		if (!window.isEmpty()) {
+			anchor = window.get(window.size() - 1);
+			window.clear();
+			out.onFix(anchor);
+		}
+	}
+
+	/**
+	 * @return true if all the fixes of the window are within the tolerance of the segment from the anchor to a fix
+	 */
+	private boolean fits(Fix end) {
+		for (Fix fix : window) {
+			if (distanceToSegment(fix, anchor, end) > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Distance from a fix to a segment, in m, on the plane tangent at the start of the segment
+	 */
+	static double distanceToSegment(Fix fix, Fix start, Fix end) {
+		double scale = Math.cos(Math.toRadians(start.getLatitude()));
+		double x = (fix.getLongitude() - start.getLongitude()) * scale;
+		double y = fix.getLatitude() - start.getLatitude();
+		double dx = (end.getLongitude() - start.getLongitude()) * scale;
+		double dy = end.getLatitude() - start.getLatitude();
+		double length = dx * dx + dy * dy;
+		double t = length == 0 ? 0 : Math.max(0, Math.min(1, (x * dx + y * dy) / length));
+		return Math.hypot(x - t * dx, y - t * dy) * METERS_PER_DEGREE;
+	}
+
+	public float getTolerance() {
+		return tolerance;
+	}
+
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+}
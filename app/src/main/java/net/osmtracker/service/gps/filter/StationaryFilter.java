@@ -0,0 +1,96 @@
+package net.osmtracker.service.gps.filter;
+
+import net.osmtracker.db.model.TrackMetrics;
+
+/**
+ * Collapses the fixes received while stationary, which only record the jitter of
+ * the GPS around the same place.
+ *
+ * The fixes slower than {@link TrackMetrics#MIN_MOVING_SPEED}, their speed or the
+ * one since the previous fix, and within a radius of the last fix output form a cluster. The cluster is
+ * output as a single fix at its centroid, with the time of its last fix so that
+ * the time spent there is kept, when a fix leaves it or when flushed.
+ */
+public class StationaryFilter implements TrackFilter {
+
+	/**
+	 * Default radius of a cluster, in m
+	 */
+	public static final float DEFAULT_RADIUS = 10;
+
+	private final float radius;
+
+	/**
+	 * Last fix output, center of the cluster
+	 */
+	private Fix anchor;
+
+	/**
+	 * Fixes of the cluster: number, sum of their coordinates and last one
+	 */
+	private int count = 0;
+	private double latitudeSum, longitudeSum;
+	private Fix last;
+
+	/**
+	 * Previous fix received
+	 */
+	private Fix previous;
+
+	public StationaryFilter() {
+		this(DEFAULT_RADIUS);
+	}
+
+	/**
+	 * @param radius Radius of a cluster, in m
+	 */
+	public StationaryFilter(float radius) {
+		this.radius = radius;
+	}
+
+	@Override
+	public void onFix(Fix fix, Output out) {
+		boolean stationary = anchor != null && speed(fix) < TrackMetrics.MIN_MOVING_SPEED
+				&& TrackMetrics.distance(anchor.getLatitude(), anchor.getLongitude(),
+						fix.getLatitude(), fix.getLongitude()) <= radius;
+		previous = fix;
+		if (stationary) {
+			count++;
+			latitudeSum += fix.getLatitude();
+			longitudeSum += fix.getLongitude();
+			last = fix;
+			return;
+		}
+		flush(out);
+		anchor = fix;
+		out.onFix(fix);
+	}
+
+	/**
+	 * @return Speed of a fix, or since the previous fix if it has none, in m/s. Infinite if unknown.
+	 */
+	private double speed(Fix fix) {
+		if (!Float.isNaN(fix.getSpeed())) {
+			return fix.getSpeed();
+		}
+		if (previous == null || fix.getTime() <= previous.getTime()) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return TrackMetrics.distance(previous.getLatitude(), previous.getLongitude(), fix.getLatitude(), fix.getLongitude())
+				* 1000 / (fix.getTime() - previous.getTime());
+	}
+
+	@Override
+	public void flush(Output out) {
+		if (count == 1) {
+			out.onFix(last);
+		} else if (count > 1) {
+			out.onFix(last.moveTo(latitudeSum / count, longitudeSum / count, last.getAccuracy()));
+		}
+		count = 0;
+		latitudeSum = 0;
+		longitudeSum = 0;
+		last = null;
+	}
+
+}
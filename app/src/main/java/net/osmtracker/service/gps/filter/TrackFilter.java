@@ -0,0 +1,33 @@
+package net.osmtracker.service.gps.filter;
+
+/**
+ * Streaming filter of the GPS fixes, between the location updates and the track
+ * points written. A filter receives the fixes one by one, in time order, and
+ * outputs any number of fixes for each, possibly later: a filter may hold fixes
+ * until it knows what to do with them, and outputs them when flushed.
+ *
+ * Filters are chained with {@link TrackFilterChain}. They aren't thread safe, and
+ * hold the state of one track.
+ */
+public interface TrackFilter {
+
+	/**
+	 * Receives the fixes output by a filter
+	 */
+	interface Output {
+		void onFix(Fix fix);
+	}
+
+	/**
+	 * Filters a fix
+	 * @param out Output of the filtered fixes
+	 */
+	void onFix(Fix fix, Output out);
+
+	/**
+	 * Outputs the fixes held, when the track stops or needs to be complete
+	 * @param out Output of the filtered fixes
+	 */
+	void flush(Output out);
+
+}
@@ -0,0 +1,76 @@
+package net.osmtracker.service.gps.filter;
+
+import android.content.SharedPreferences;
+
+import net.osmtracker.OSMTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters in sequence, each one receiving the output of the previous one.
+ */
+public class TrackFilterChain implements TrackFilter {
+
+	private final List<TrackFilter> filters;
+
+	public TrackFilterChain(List<TrackFilter> filters) {
+		this.filters = new ArrayList<TrackFilter>(filters);
+	}
+
+	/**
+	 * Builds the chain of the filters enabled in the preferences, in that order: accuracy
+	 * gate, Kalman filter, stationary clusters and simplification. Empty by default.
+	 */
+	public static TrackFilterChain fromPreferences(SharedPreferences prefs) {
+		List<TrackFilter> filters = new ArrayList<TrackFilter>();
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER_ACCURACY, OSMTracker.Preferences.VAL_GPS_FILTER_ACCURACY)) {
+			filters.add(new AccuracyFilter());
+		}
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER_KALMAN, OSMTracker.Preferences.VAL_GPS_FILTER_KALMAN)) {
+			filters.add(new KalmanFilter());
+		}
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER_STATIONARY, OSMTracker.Preferences.VAL_GPS_FILTER_STATIONARY)) {
+			filters.add(new StationaryFilter());
+		}
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER_SIMPLIFY, OSMTracker.Preferences.VAL_GPS_FILTER_SIMPLIFY)) {
+			filters.add(new OpeningWindowFilter());
+		}
+		return new TrackFilterChain(filters);
+	}
+
+	@Override
+	public void onFix(Fix fix, Output out) {
+		outputOf(0, out).onFix(fix);
+	}
+
+	/**
+	 * Flushes the filters in order, so that the fixes flushed by a filter go through the next ones before they're flushed
+	 */
+	@Override
+	public void flush(Output out) {
+		for (int i = 0; i < filters.size(); i++) {
+			filters.get(i).flush(outputOf(i + 1, out));
+		}
+	}
+
+	/**
+	 * @return Output feeding the filter at an index, or the output of the chain after the last one
+	 */
+	private Output outputOf(final int index, final Output out) {
+		if (index == filters.size()) {
+			return out;
+		}
+		return new Output() {
+			@Override
+			public void onFix(Fix fix) {
+				filters.get(index).onFix(fix, outputOf(index + 1, out));
+			}
+		};
+	}
+
+	public List<TrackFilter> getFilters() {
+		return filters;
+	}
+
+}
@@ -45,4 +45,46 @@ public final class ArrayUtils {
 		return out;
 	}
 
+	/**
+	 * Finds minimum value of a range of an array
+	 * 
+	 * @param in
+	 *				Input array
+	 * @param from
+	 *				Index of the first value to consider
+	 * @param to
+	 *				Index after the last value to consider
+	 * @return minimum value of the range
+	 */
+	public static double findMin(double[] in, int from, int to) {
+		double out = in[from];
+		for (int i = from + 1; i < to; i++) {
+			if (in[i] < out) {
+				out = in[i];
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Finds maximum value of a range of an array
+	 * 
+	 * @param in
+	 *				Input array
+	 * @param from
+	 *				Index of the first value to consider
+	 * @param to
+	 *				Index after the last value to consider
+	 * @return maximum value of the range
+	 */
+	public static double findMax(double[] in, int from, int to) {
+		double out = in[from];
+		for (int i = from + 1; i < to; i++) {
+			if (in[i] > out) {
+				out = in[i];
+			}
+		}
+		return out;
+	}
+
 }
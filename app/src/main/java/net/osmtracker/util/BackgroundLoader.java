@@ -0,0 +1,149 @@
+package net.osmtracker.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a loading job in the background, and delivers its results to the UI thread.
+ *
+ * Requests are coalesced: while the job is waiting to run, further requests are
+ * ignored, so that a burst of requests (e.g. one per track point inserted) runs it
+ * once. A request made while the job is running runs it once more afterwards, so
+ * that data changed while it was reading isn't missed.
+ *
+ * Cancelling the loader drops the job waiting to run and the results not yet
+ * delivered. A running job should check {@link Session#isCancelled()} between
+ * chunks of work and stop early.
+ */
+public class BackgroundLoader {
+
+	/**
+	 * Job loading data in the background
+	 */
+	public interface Job {
+		/**
+		 * Loads data, on the background thread. Jobs run one at a time.
+		 * @param session Session of the job, to deliver results to the UI thread
+		 */
+		void load(Session session);
+	}
+
+	/**
+	 * One run of the job, until the loader is cancelled
+	 */
+	public class Session {
+
+		private final int generation;
+
+		private Session(int generation) {
+			this.generation = generation;
+		}
+
+		/**
+		 * @return true if the loader has been cancelled since the job started
+		 */
+		public boolean isCancelled() {
+			return generation != BackgroundLoader.this.generation.get();
+		}
+
+		/**
+		 * @return Identifies the runs of the job between two cancellations. The job can
+		 * keep state from one run to the next, and reset it when the generation changes.
+		 */
+		public int getGeneration() {
+			return generation;
+		}
+
+		/**
+		 * Runs a result on the UI thread, unless the loader is cancelled before
+		 */
+		public void deliver(final Runnable result) {
+			handler.post(() -> {
+				if (!isCancelled()) {
+					result.run();
+				}
+			});
+		}
+	}
+
+	private final Job job;
+
+	private final Executor executor;
+
+	/**
+	 * Executor created by this loader, to shut down
+	 */
+	private final ExecutorService ownedExecutor;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Whether the job is waiting to run
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/**
+	 * Incremented on each cancellation
+	 */
+	private final AtomicInteger generation = new AtomicInteger(0);
+
+	/**
+	 * @param job Job to run, on a thread of its own
+	 */
+	public BackgroundLoader(Job job) {
+		this(job, Executors.newSingleThreadExecutor());
+	}
+
+	/**
+	 * @param executor Executor running tasks one at a time
+	 */
+	BackgroundLoader(Job job, Executor executor) {
+		this.job = job;
+		this.executor = executor;
+		this.ownedExecutor = (executor instanceof ExecutorService) ? (ExecutorService) executor : null;
+	}
+
+	/**
+	 * Runs the job in the background, unless it is already waiting to run
+	 */
+	public void request() {
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		final int requestGeneration = generation.get();
+		executor.execute(() -> {
+			if (requestGeneration != generation.get()) {
+				// Cancelled while waiting
+				return;
+			}
+			scheduled.set(false);
+			job.load(new Session(requestGeneration));
+		});
+	}
+
+	/**
+	 * Cancels the job waiting to run, the running job and their results not yet
+	 * delivered. Must be called from the UI thread. The loader can be requested again.
+	 */
+	public void cancel() {
+		generation.incrementAndGet();
+		scheduled.set(false);
+	}
+
+	/**
+	 * Cancels the job and stops the background thread. The loader can't be used anymore.
+	 */
+	public void shutdown() {
+		cancel();
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+		}
+	}
+
+}
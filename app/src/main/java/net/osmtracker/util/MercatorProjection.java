@@ -96,6 +96,73 @@ public class MercatorProjection {
 		return out;
 	}
 
+	/**
+	 * Projects a range of lon/lat coordinates into this projection, without
+	 * allocating anything.
+	 * 
+	 * @param longitude
+	 *				Longitudes to project
+	 * @param latitude
+	 *				Latitudes to project
+	 * @param from
+	 *				Index of the first coordinate to project
+	 * @param to
+	 *				Index after the last coordinate to project
+	 * @param outXY
+	 *				Receives the projected coordinates: X and Y of the coordinate
+	 *				at index i are written at 2*i + {@link MercatorProjection}.X and
+	 *				2*i + {@link MercatorProjection}.Y
+	 */
+	public void projectAll(double[] longitude, double[] latitude, int from, int to, float[] outXY) {
+		for (int i = from; i < to; i++) {
+			outXY[2 * i + X] = (float) (((convertLongitude(longitude[i]) - topX) / dimX) * width);
+			outXY[2 * i + Y] = (float) (height - (((convertLatitude(latitude[i]) - topY) / dimY) * height));
+		}
+	}
+
+	/**
+	 * Same as {@link #projectAll(double[], double[], int, int, float[])}, but
+	 * using latitudes already converted by {@link #toMercatorY(double[], int, int, double[])}.
+	 * Converted latitudes don't depend on the projection bounds nor on its size,
+	 * so they can be kept and reused: the projection is then a mere affine transform.
+	 * 
+	 * @param longitude
+	 *				Longitudes to project
+	 * @param mercatorY
+	 *				Converted latitudes to project
+	 * @param from
+	 *				Index of the first coordinate to project
+	 * @param to
+	 *				Index after the last coordinate to project
+	 * @param outXY
+	 *				Receives the projected coordinates, see
+	 *				{@link #projectAll(double[], double[], int, int, float[])}
+	 */
+	public void projectAllMercator(double[] longitude, double[] mercatorY, int from, int to, float[] outXY) {
+		for (int i = from; i < to; i++) {
+			outXY[2 * i + X] = (float) (((convertLongitude(longitude[i]) - topX) / dimX) * width);
+			outXY[2 * i + Y] = (float) (height - (((mercatorY[i] - topY) / dimY) * height));
+		}
+	}
+
+	/**
+	 * Converts a range of latitudes to Mercator Y coordinates.
+	 * 
+	 * @param latitude
+	 *				Latitudes to convert
+	 * @param from
+	 *				Index of the first latitude to convert
+	 * @param to
+	 *				Index after the last latitude to convert
+	 * @param outY
+	 *				Receives the Y coordinates, at the same indexes as the latitudes
+	 */
+	public static void toMercatorY(double[] latitude, int from, int to, double[] outY) {
+		for (int i = from; i < to; i++) {
+			outY[i] = convertLatitude(latitude[i]);
+		}
+	}
+
 	/**
 	 * Convert longitude to X coordinate.
 	 * 
@@ -103,7 +170,7 @@ public class MercatorProjection {
 	 *				Longitude to convert.
 	 * @return Converted X coordinate.
 	 */
-	private double convertLongitude(double longitude) {
+	private static double convertLongitude(double longitude) {
 		return longitude;
 	}
 
@@ -114,7 +181,7 @@ public class MercatorProjection {
 	 *				Latitude to convert.
 	 * @return Converted Y coordinate.
 	 */
-	private double convertLatitude(double latitude) {
+	private static double convertLatitude(double latitude) {
 		if (latitude < -MAX_LATITUDE) {
 			latitude = -MAX_LATITUDE;
 		} else if (latitude > MAX_LATITUDE) {
@@ -0,0 +1,240 @@
+package net.osmtracker.util;
+
+import net.osmtracker.db.model.TrackBuffer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Multi-resolution representation of a track, to display only the points
+ * that are visible at a given zoom level.
+ *
+ * Points are simplified with the Douglas-Peucker algorithm, in Mercator
+ * coordinates. Rather than running it once per zoom level, each point is
+ * given the greatest tolerance at which Douglas-Peucker keeps it: the level
+ * of a zoom is then made of the points whose tolerance is greater than the
+ * size of a pixel at this zoom.
+ *
+ * So that appending points while recording doesn't require simplifying the
+ * whole track again, the track is simplified by chunks of {@link #CHUNK_SIZE}
+ * points. The points of the last, incomplete chunk are all part of the levels
+ * until the chunk is complete.
+ *
+ * Not thread safe.
+ */
+public class TrackSimplifier {
+
+	/**
+	 * Number of segments of the chunks simplified independently
+	 */
+	public static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Tolerance at zoom level 0, in degrees. It is halved at each zoom level.
+	 */
+	private final double toleranceAtZoomZero;
+
+	private final TrackBuffer points = new TrackBuffer();
+
+	/**
+	 * Mercator Y of the points
+	 */
+	private double[] mercatorY = new double[0];
+
+	/**
+	 * Greatest tolerance at which each point is kept, for the points of the complete chunks
+	 */
+	private float[] importance = new float[0];
+
+	/**
+	 * Index of the first point of the incomplete chunk. Points before are simplified.
+	 */
+	private int simplifiedEnd = 0;
+
+	/**
+	 * Cached levels, by zoom
+	 */
+	private final Map<Integer, Level> levels = new HashMap<>();
+
+	/**
+	 * Work stack for the simplification: ranges to split and their parent importance
+	 */
+	private final int[] stackFrom = new int[CHUNK_SIZE];
+	private final int[] stackTo = new int[CHUNK_SIZE];
+	private final float[] stackImportance = new float[CHUNK_SIZE];
+
+	/**
+	 * Simplified points of a level, for the complete chunks
+	 */
+	private static class Level {
+		int[] indexes = new int[64];
+		int count = 0;
+		/** Index after the last point considered */
+		int end = 0;
+	}
+
+	/**
+	 * @param toleranceAtZoomZero Distance under which points are merged at zoom level 0,
+	 *				in degrees. Usually the size of a pixel or so at this zoom.
+	 */
+	public TrackSimplifier(double toleranceAtZoomZero) {
+		this.toleranceAtZoomZero = toleranceAtZoomZero;
+	}
+
+	/**
+	 * Appends points at the end of the track
+	 * @param newPoints Points to append
+	 * @return true if some chunks have been completed, which changes the levels
+	 * beyond the points appended
+	 */
+	public boolean append(TrackBuffer newPoints) {
+		int from = points.size();
+		points.append(newPoints, 0, newPoints.size());
+		int to = points.size();
+
+		if (mercatorY.length < to) {
+			mercatorY = Arrays.copyOf(mercatorY, points.getLatitudes().length);
+			importance = Arrays.copyOf(importance, points.getLatitudes().length);
+		}
+		MercatorProjection.toMercatorY(points.getLatitudes(), from, to, mercatorY);
+
+		boolean simplified = false;
+		while (to - 1 - simplifiedEnd >= CHUNK_SIZE) {
+			simplify(simplifiedEnd, simplifiedEnd + CHUNK_SIZE);
+			simplifiedEnd += CHUNK_SIZE;
+			simplified = true;
+		}
+		return simplified;
+	}
+
+	/**
+	 * @return Number of points of the track
+	 */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * @return Points of the track
+	 */
+	public TrackBuffer getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return Mercator Y of the points, as computed by {@link MercatorProjection#toMercatorY(double[], int, int, double[])}.
+	 * This is the backing array: only the first {@link #size()} values are valid.
+	 */
+	public double[] getMercatorY() {
+		return mercatorY;
+	}
+
+	/**
+	 * @param zoom Zoom level
+	 * @return Indexes of the points to display at this zoom level, in track order.
+	 * The first and last points are always part of it.
+	 */
+	public int[] getLevel(int zoom) {
+		Level level = levels.get(zoom);
+		if (level == null) {
+			level = new Level();
+			levels.put(zoom, level);
+		}
+
+		// Add the points of the chunks simplified since the last call
+		if (level.end < simplifiedEnd) {
+			float tolerance = (float) Math.scalb(toleranceAtZoomZero, -zoom);
+			if (level.indexes.length < level.count + simplifiedEnd - level.end) {
+				level.indexes = Arrays.copyOf(level.indexes,
+						Math.max(level.indexes.length * 2, level.count + simplifiedEnd - level.end));
+			}
+			for (int i = level.end; i < simplifiedEnd; i++) {
+				if (importance[i] >= tolerance) {
+					level.indexes[level.count++] = i;
+				}
+			}
+			level.end = simplifiedEnd;
+		}
+
+		// Points of the incomplete chunk are all displayed
+		int size = points.size();
+		int[] out = Arrays.copyOf(level.indexes, level.count + size - simplifiedEnd);
+		for (int i = simplifiedEnd; i < size; i++) {
+			out[level.count + i - simplifiedEnd] = i;
+		}
+		return out;
+	}
+
+	/**
+	 * Computes the importance of the points of a chunk
+	 * @param from Index of the first point of the chunk
+	 * @param to Index of the last point of the chunk
+	 */
+	private void simplify(int from, int to) {
+		double[] x = points.getLongitudes();
+		double[] y = mercatorY;
+
+		// End points are always kept
+		importance[from] = Float.POSITIVE_INFINITY;
+		importance[to] = Float.POSITIVE_INFINITY;
+
+		int stack = 0;
+		stackFrom[stack] = from;
+		stackTo[stack] = to;
+		stackImportance[stack] = Float.POSITIVE_INFINITY;
+		stack++;
+
+		while (stack > 0) {
+			stack--;
+			int a = stackFrom[stack];
+			int b = stackTo[stack];
+			float parentImportance = stackImportance[stack];
+			if (b - a < 2) {
+				continue;
+			}
+
+			// Find the farthest point from the segment
+			int farthest = a + 1;
+			double maxDistance = -1;
+			for (int i = a + 1; i < b; i++) {
+				double d = segmentDistanceSquared(x[i], y[i], x[a], y[a], x[b], y[b]);
+				if (d > maxDistance) {
+					maxDistance = d;
+					farthest = i;
+				}
+			}
+
+			// A point can't be kept at a tolerance its parent isn't kept at
+			float pointImportance = (float) Math.min(Math.sqrt(maxDistance), parentImportance);
+			importance[farthest] = pointImportance;
+
+			stackFrom[stack] = a;
+			stackTo[stack] = farthest;
+			stackImportance[stack] = pointImportance;
+			stack++;
+			stackFrom[stack] = farthest;
+			stackTo[stack] = b;
+			stackImportance[stack] = pointImportance;
+			stack++;
+		}
+	}
+
+	/**
+	 * @return Square of the distance between a point and a segment
+	 */
+	private static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = 0;
+		if (lengthSquared > 0) {
+			t = ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+			t = Math.max(0, Math.min(1, t));
+		}
+		double ex = px - (ax + t * dx);
+		double ey = py - (ay + t * dy);
+		return ex * ex + ey * ey;
+	}
+
+}
@@ -1,9 +1,12 @@
 package net.osmtracker.view;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 
 import net.osmtracker.R;
+import net.osmtracker.db.DataHelper;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.model.TrackBuffer;
 import net.osmtracker.util.ArrayUtils;
 import net.osmtracker.util.MercatorProjection;
 
@@ -13,6 +16,7 @@ import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.os.Handler;
@@ -46,22 +50,70 @@ public class DisplayTrackView extends TextView {
 	/**
 	 * Coordinates to draw (before projection)
 	 */
-	private double[][] coords;
+	private TrackBuffer coords = new TrackBuffer();
 
 	/**
-	 * Array of pixels coordinates to display track
+	 * Mercator Y of the coordinates. It doesn't depend on the projection
+	 * bounds, so it's computed only once per point.
 	 */
-	private int[][] pixels;
+	private double[] mercatorY = new double[0];
+
+	/**
+	 * Number of coordinates whose Mercator Y is known
+	 */
+	private int mercatorYCount = 0;
+
+	/**
+	 * Pixels coordinates to display track, as consecutive X, Y pairs
+	 */
+	private float[] pixels = new float[0];
+
+	/**
+	 * Number of valid values in pixels
+	 */
+	private int pixelsLength = 0;
+
+	/**
+	 * Track segments, as consecutive X1, Y1, X2, Y2 values for
+	 * {@link Canvas#drawLines(float[], int, int, Paint)}
+	 */
+	private float[] lines = new float[0];
+
+	/**
+	 * Number of valid values in lines
+	 */
+	private int linesLength = 0;
+
+	/**
+	 * Offscreen layer holding the track and the way points, redrawn when
+	 * the projection changes. New segments are drawn on top of it.
+	 */
+	private Bitmap trackLayer;
+
+	/**
+	 * Canvas drawing on trackLayer
+	 */
+	private Canvas trackLayerCanvas;
+
+	/**
+	 * Whether trackLayer is up to date with the current projection
+	 */
+	private boolean trackLayerValid = false;
 	
 	/**
 	 * Coordinates of waypoints
 	 */
-	private double[][] wayPointsCoords;
+	private TrackBuffer wayPointsCoords = new TrackBuffer();
 	
 	/**
-	 * Pixels coordinates to display waypoints
+	 * Pixels coordinates to display waypoints, as consecutive X, Y pairs
 	 */
-	private int[][] wayPointsPixels;
+	private float[] wayPointsPixels = new float[0];
+
+	/**
+	 * Number of valid values in wayPointsPixels
+	 */
+	private int wayPointsPixelsLength = 0;
 
 	/**
 	 * The projection used to convert coordinates to pixels.
@@ -102,6 +154,25 @@ public class DisplayTrackView extends TextView {
 	 * Current track id
 	 */
 	private long currentTrackId;
+
+	/**
+	 * _id of the last track point read, -1 if none
+	 */
+	private long lastTrackPointId = -1;
+
+	/**
+	 * Bounds of the track points
+	 */
+	private double minLat, minLon, maxLat, maxLon;
+
+	/**
+	 * Bounds used by the current projection. While recording they're
+	 * extended beyond the track bounds, so that the next points can
+	 * be projected without changing the projection.
+	 */
+	private double projMinLat, projMinLon, projMaxLat, projMaxLon;
+
+	private DataHelper dataHelper;
 	
 	/**
 	 * ContentObserver to be notified about any new trackpoint and
@@ -119,21 +190,55 @@ public class DisplayTrackView extends TextView {
 			// not been attached to window & measured when onChange()
 			// is fired.
 			if (getWidth() > 0 && getHeight() > 0) {
-				// Populate new data, and recompute projection
-				populateCoords();
-				projectData(getWidth(), getHeight());
-				// Force view redraw
-				invalidate();
+				// Read the new points only
+				int from = coords.size();
+				readNewTrackPoints();
+				if (coords.size() > from) {
+					if (projection == null || minLat < projMinLat || minLon < projMinLon
+							|| maxLat > projMaxLat || maxLon > projMaxLon) {
+						// Out of the current projection, recompute it
+						projectData(getWidth(), getHeight(), true);
+					} else {
+						projectNewPoints(from);
+					}
+					// Force view redraw
+					invalidate();
+				}
 			}
 		}
 		
 	}
+
+	/**
+	 * ContentObserver to be notified about way points changes
+	 */
+	private class WayPointContentObserver extends ContentObserver {
+
+		public WayPointContentObserver(Handler handler) {
+			super(handler);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			populateWayPoints();
+			if (projection != null) {
+				projectWayPoints();
+				invalidate();
+			}
+		}
+
+	}
 	
 	/**
 	 * Instance of TrackpointContentObserver
 	 */
 	private TrackPointContentObserver trackpointContentObserver;
 
+	/**
+	 * Instance of WayPointContentObserver
+	 */
+	private WayPointContentObserver wayPointContentObserver;
+
 	public DisplayTrackView(Context context) {
 		super(context);
 	}
@@ -142,6 +247,7 @@ public class DisplayTrackView extends TextView {
 		super(context);
 
 		currentTrackId = trackId;
+		dataHelper = new DataHelper(context);
 		
 		// Set text align to center
 		getPaint().setTextAlign(Align.CENTER);
@@ -161,14 +267,22 @@ public class DisplayTrackView extends TextView {
 		context.getContentResolver().registerContentObserver(
 				TrackContentProvider.trackPointsUri(currentTrackId),
 				true, trackpointContentObserver);
+		wayPointContentObserver = new WayPointContentObserver(new Handler());
+		context.getContentResolver().registerContentObserver(
+				TrackContentProvider.waypointsUri(currentTrackId),
+				true, wayPointContentObserver);
 	}
 
 	@Override
 	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
 		Log.v(TAG, "onSizeChanged: " + w + "," + h + ". Old: " + oldw + "," + oldh);
 		
-		// Populate data from content provider
-		populateCoords();
+		// Populate data from content provider, if not done yet
+		if (lastTrackPointId < 0) {
+			populateCoords();
+		} else {
+			readNewTrackPoints();
+		}
 		// Project coordinates into 2D screen
 		projectData(w, h);
 	
@@ -179,6 +293,13 @@ public class DisplayTrackView extends TextView {
 	protected void onDetachedFromWindow() {
 		// Unregister content observer
 		getContext().getContentResolver().unregisterContentObserver(trackpointContentObserver);
+		getContext().getContentResolver().unregisterContentObserver(wayPointContentObserver);
+		// Release the offscreen layer, it will be redrawn if needed
+		if (trackLayer != null) {
+			trackLayer.recycle();
+			trackLayer = null;
+			trackLayerValid = false;
+		}
 		super.onDetachedFromWindow();
 	}
 	
@@ -187,31 +308,18 @@ public class DisplayTrackView extends TextView {
 		super.onDraw(canvas);
 
 		// If we have data to paint
-		if (pixels != null && pixels.length > 0) {
-			int length = pixels.length;
-			for (int i = 1; i < length; i++) {
-				// Draw a line between each point
-				canvas.drawLine(
-						PADDING + pixels[i - 1][MercatorProjection.X],
-						PADDING	+ pixels[i - 1][MercatorProjection.Y],
-						PADDING + pixels[i][MercatorProjection.X],
-						PADDING	+ pixels[i][MercatorProjection.Y], trackPaint);
-			}
-			
-			// Draw a marker for each waypoint
-			if (wayPointsPixels != null && wayPointsPixels.length > 0) {
-				int wpLength = wayPointsPixels.length;
-				for (int i = 0; i < wpLength; i++) {
-					canvas.drawBitmap(wayPointMarker,
-							PADDING + wayPointsPixels[i][MercatorProjection.X],
-							PADDING + wayPointsPixels[i][MercatorProjection.Y],
-							this.getPaint());
-				}
+		if (pixelsLength > 0) {
+			int length = pixelsLength;
+
+			// Track and way points are drawn from the offscreen layer
+			if (!trackLayerValid) {
+				drawTrackLayer();
 			}
+			canvas.drawBitmap(trackLayer, 0, 0, null);
 
 			// Draw current position marker
-			canvas.drawBitmap(marker, pixels[length - 1][MercatorProjection.X],
-					pixels[length - 1][MercatorProjection.Y], this.getPaint());
+			canvas.drawBitmap(marker, pixels[length - 2 + MercatorProjection.X],
+					pixels[length - 2 + MercatorProjection.Y], this.getPaint());
 
 			// Draw scale information
 			drawScale(canvas);
@@ -244,6 +352,37 @@ public class DisplayTrackView extends TextView {
 				PADDING + SCALE_DELIM_HEIGHT + getPaint().getTextSize(), this.getPaint());
 	}
 
+	/**
+	 * Draw the track and the way points on the offscreen layer,
+	 * creating it if needed.
+	 */
+	private void drawTrackLayer() {
+		if (trackLayer == null || trackLayer.getWidth() != getWidth() || trackLayer.getHeight() != getHeight()) {
+			if (trackLayer != null) {
+				trackLayer.recycle();
+			}
+			trackLayer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+			trackLayerCanvas = new Canvas(trackLayer);
+		}
+		trackLayer.eraseColor(Color.TRANSPARENT);
+
+		trackLayerCanvas.save();
+		trackLayerCanvas.translate(PADDING, PADDING);
+		// Draw all the segments at once
+		trackLayerCanvas.drawLines(lines, 0, linesLength, trackPaint);
+
+		// Draw a marker for each waypoint
+		int wpLength = wayPointsPixelsLength;
+		for (int i = 0; i < wpLength; i += 2) {
+			trackLayerCanvas.drawBitmap(wayPointMarker,
+					wayPointsPixels[i + MercatorProjection.X],
+					wayPointsPixels[i + MercatorProjection.Y],
+					this.getPaint());
+		}
+		trackLayerCanvas.restore();
+		trackLayerValid = true;
+	}
+
 	/**
 	 * Draw various static gfx (Compass ...)
 	 * 
@@ -260,32 +399,60 @@ public class DisplayTrackView extends TextView {
 	 * Populate coordinates from a cursor to current track Database
 	 */
 	public void populateCoords() {		
-		Cursor c = getContext().getContentResolver().query(
-				TrackContentProvider.trackPointsUri(currentTrackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
-		coords = new double[c.getCount()][2];
-		int i=0;
-		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(), i++) {
-			coords[i][MercatorProjection.LONGITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE));
-			coords[i][MercatorProjection.LATITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE));
+		coords.clear();
+		mercatorYCount = 0;
+		lastTrackPointId = -1;
+		pixelsLength = 0;
+		linesLength = 0;
+		trackLayerValid = false;
+		readNewTrackPoints();
+		populateWayPoints();
+	}
+
+	/**
+	 * Reads the track points recorded since the last read, and updates the bounds
+	 */
+	private void readNewTrackPoints() {
+		// Track points are read by pages, in chronological order
+		int from = coords.size();
+		lastTrackPointId = dataHelper.readTrackPoints(currentTrackId, lastTrackPointId, coords);
+		int to = coords.size();
+
+		if (to > from) {
+			double[] lat = coords.getLatitudes();
+			double[] lon = coords.getLongitudes();
+			double newMinLat = ArrayUtils.findMin(lat, from, to);
+			double newMinLon = ArrayUtils.findMin(lon, from, to);
+			double newMaxLat = ArrayUtils.findMax(lat, from, to);
+			double newMaxLon = ArrayUtils.findMax(lon, from, to);
+			if (from == 0) {
+				minLat = newMinLat;
+				minLon = newMinLon;
+				maxLat = newMaxLat;
+				maxLon = newMaxLon;
+			} else {
+				minLat = Math.min(minLat, newMinLat);
+				minLon = Math.min(minLon, newMinLon);
+				maxLat = Math.max(maxLat, newMaxLat);
+				maxLon = Math.max(maxLon, newMaxLon);
+			}
 		}
-		c.close();
 		
-		Log.v(TAG, "Extracted " + coords.length + " track points from DB.");
-		
-		c = getContext().getContentResolver().query(
+		Log.v(TAG, "Extracted " + (to - from) + " track points from DB.");
+	}
+
+	/**
+	 * Populate way points coordinates from current track Database
+	 */
+	private void populateWayPoints() {
+		Cursor c = getContext().getContentResolver().query(
 				TrackContentProvider.waypointsUri(currentTrackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
-		wayPointsCoords = new double[c.getCount()][2];
-		
-		for(c.moveToFirst(), i=0; !c.isAfterLast(); c.moveToNext(), i++) {
-			wayPointsCoords[i][MercatorProjection.LONGITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE));
-			wayPointsCoords[i][MercatorProjection.LATITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE));
-		}
+				TrackBuffer.COLUMNS, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
+		wayPointsCoords.clear();
+		wayPointsCoords.append(c);
 		c.close();
 		
-		Log.v(TAG, "Extracted " + wayPointsCoords.length + " way points from DB.");
+		Log.v(TAG, "Extracted " + wayPointsCoords.size() + " way points from DB.");
 	}
 	
 	/**
@@ -294,37 +461,111 @@ public class DisplayTrackView extends TextView {
 	 * @param height Height of the display screen
 	 */
 	public void projectData(int width, int height) {
+		projectData(width, height, false);
+	}
+
+	/**
+	 * Project current coordinates into a 2D screen
+	 * @param width Width of the display screen
+	 * @param height Height of the display screen
+	 * @param extend Whether to extend the projection beyond the track bounds,
+	 *				on the sides the track has grown on
+	 */
+	private void projectData(int width, int height, boolean extend) {
 		// If we got coordinates, start projecting.
-		if (coords != null && coords.length > 0) {
-			projection = new MercatorProjection(
-					ArrayUtils.findMin(coords, MercatorProjection.LATITUDE),
-					ArrayUtils.findMin(coords, MercatorProjection.LONGITUDE),
-					ArrayUtils.findMax(coords, MercatorProjection.LATITUDE),
-					ArrayUtils.findMax(coords, MercatorProjection.LONGITUDE),
+		if (!coords.isEmpty()) {
+			if (extend && projection != null) {
+				// Leave room for 1/8 of the track size, so that a track growing
+				// steadily triggers fewer and fewer projection changes
+				double latMargin = (maxLat - minLat) / 8;
+				double lonMargin = (maxLon - minLon) / 8;
+				if (minLat < projMinLat) {
+					projMinLat = minLat - latMargin;
+				}
+				if (minLon < projMinLon) {
+					projMinLon = minLon - lonMargin;
+				}
+				if (maxLat > projMaxLat) {
+					projMaxLat = maxLat + latMargin;
+				}
+				if (maxLon > projMaxLon) {
+					projMaxLon = maxLon + lonMargin;
+				}
+			} else {
+				projMinLat = minLat;
+				projMinLon = minLon;
+				projMaxLat = maxLat;
+				projMaxLon = maxLon;
+			}
+			projection = new MercatorProjection(projMinLat, projMinLon, projMaxLat, projMaxLon,
 					width - PADDING * 2, height - PADDING * 2);
 
 			// Project each coordinate into pixels.
-			pixels = new int[coords.length][2];
-			
-			int length = pixels.length;
-			for (int i = 0; i < length; i++) {
-				pixels[i] = projection.project(coords[i][MercatorProjection.LONGITUDE],
-						coords[i][MercatorProjection.LATITUDE]);
-			}
+			pixelsLength = 0;
+			linesLength = 0;
+			trackLayerValid = false;
+			projectNewPoints(0);
 		
 			// Same thing for way points, using same projection
-			if (wayPointsCoords != null && wayPointsCoords.length > 0) {
-	
-				// Project each coordinate into pixels.
-				wayPointsPixels = new int[wayPointsCoords.length][2];
-				
-				length = wayPointsPixels.length;
-				for (int i = 0; i < length; i++) {
-					wayPointsPixels[i] = projection.project(wayPointsCoords[i][MercatorProjection.LONGITUDE],
-							wayPointsCoords[i][MercatorProjection.LATITUDE]);
-				}
-			}
+			projectWayPoints();
+		}
+	}
+
+	/**
+	 * Project the track points from an index with the current projection
+	 * @param from Index of the first track point to project
+	 */
+	private void projectNewPoints(int from) {
+		int length = coords.size();
+		double[] lat = coords.getLatitudes();
+
+		// Convert latitudes of the new points only
+		if (mercatorY.length < length) {
+			mercatorY = Arrays.copyOf(mercatorY, lat.length);
+		}
+		MercatorProjection.toMercatorY(lat, mercatorYCount, length, mercatorY);
+		mercatorYCount = length;
+
+		if (pixels.length < length * 2) {
+			pixels = Arrays.copyOf(pixels, lat.length * 2);
+		}
+		projection.projectAllMercator(coords.getLongitudes(), mercatorY, from, length, pixels);
+		pixelsLength = length * 2;
+
+		// Build the segments ending at the new points
+		int firstSegment = Math.max(from, 1);
+		if (lines.length < (length - 1) * 4) {
+			lines = Arrays.copyOf(lines, lat.length * 4);
+		}
+		for (int i = firstSegment; i < length; i++) {
+			int segment = (i - 1) * 4;
+			lines[segment] = pixels[(i - 1) * 2 + MercatorProjection.X];
+			lines[segment + 1] = pixels[(i - 1) * 2 + MercatorProjection.Y];
+			lines[segment + 2] = pixels[i * 2 + MercatorProjection.X];
+			lines[segment + 3] = pixels[i * 2 + MercatorProjection.Y];
+		}
+		linesLength = Math.max(0, length - 1) * 4;
+
+		if (trackLayerValid && firstSegment < length) {
+			// Same projection, only draw the new segments on the layer
+			trackLayerCanvas.save();
+			trackLayerCanvas.translate(PADDING, PADDING);
+			trackLayerCanvas.drawLines(lines, (firstSegment - 1) * 4, (length - firstSegment) * 4, trackPaint);
+			trackLayerCanvas.restore();
+		}
+	}
+
+	/**
+	 * Project the way points with the current projection
+	 */
+	private void projectWayPoints() {
+		int wpLength = wayPointsCoords.size();
+		if (wayPointsPixels.length < wpLength * 2) {
+			wayPointsPixels = new float[wpLength * 2];
 		}
+		projection.projectAll(wayPointsCoords.getLongitudes(), wayPointsCoords.getLatitudes(), 0, wpLength, wayPointsPixels);
+		wayPointsPixelsLength = wpLength * 2;
+		trackLayerValid = false;
 	}
 
 }
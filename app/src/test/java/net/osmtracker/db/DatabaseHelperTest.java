@@ -0,0 +1,55 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DatabaseHelperTest {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	@Test
+	public void testConcurrentProfileIsApplied() {
+		SQLiteDatabase db = new DatabaseHelper(context).getWritableDatabase();
+		assertEquals("wal", DatabaseUtils.stringForQuery(db, "pragma journal_mode", null).toLowerCase());
+		// NORMAL
+		assertEquals(1, DatabaseUtils.longForQuery(db, "pragma synchronous", null));
+		assertEquals(DatabaseHelper.Profile.CONCURRENT.pageSize, DatabaseUtils.longForQuery(db, "pragma page_size", null));
+	}
+
+	@Test
+	public void testInsertStatementsFollowTheDatabase() {
+		DatabaseHelper helper = new DatabaseHelper(context);
+		SQLiteDatabase db = helper.getWritableDatabase();
+		String[] columns = {Schema.COL_START_DATE};
+		SQLiteStatement statement = helper.getInsertStatement(db, Schema.TBL_TRACK, columns);
+		assertSame(statement, helper.getInsertStatement(db, Schema.TBL_TRACK, columns));
+
+		// Compiled again on the database opened again
+		helper.close();
+		db = helper.getWritableDatabase();
+		SQLiteStatement reopened = helper.getInsertStatement(db, Schema.TBL_TRACK, columns);
+		assertNotSame(statement, reopened);
+		reopened.bindLong(1, 0);
+		assertTrue(reopened.executeInsert() > 0);
+		helper.close();
+	}
+
+}
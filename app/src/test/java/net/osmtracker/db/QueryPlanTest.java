@@ -0,0 +1,159 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the queries of the provider, as the application runs them, are answered
+ * with the indexes: no full scan of a table and no temporary B-tree to sort the rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class QueryPlanTest {
+
+	/**
+	 * Scan of a table, "SCAN TABLE x" or "SCAN x" depending on the SQLite version
+	 */
+	private static final Pattern SCAN = Pattern.compile("^SCAN (TABLE )?(\\w+)");
+
+	/**
+	 * Sort of the rows in a temporary B-tree
+	 */
+	private static final Pattern TEMP_SORT = Pattern.compile("TEMP B-TREE FOR (ORDER|GROUP) BY");
+
+	private static final List<String> TABLES = Arrays.asList(Schema.TBL_TRACK, Schema.TBL_TRACKPOINT,
+			Schema.TBL_WAYPOINT, Schema.TBL_NOTE, Schema.TBL_TRACK_STATS, Schema.TBL_TRACK_METRICS);
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	private TrackContentProvider provider;
+	private SQLiteDatabase db;
+
+	@Before
+	public void setUp() {
+		provider = Robolectric.buildContentProvider(TrackContentProvider.class)
+				.create(TrackContentProvider.AUTHORITY).get();
+		db = new DatabaseHelper(context).getReadableDatabase();
+	}
+
+	@Test
+	public void testTrackPointQueries() {
+		// TrackPointCursor pages, read from the time index
+		checkQuery(TrackContentProvider.trackPointsUri(1, TrackPointCursor.DEFAULT_PAGE_SIZE), TrackBuffer.COLUMNS,
+				null, null, TrackPointCursor.SORT_ORDER);
+		checkQuery(TrackContentProvider.trackPointsUri(1, TrackPointCursor.DEFAULT_PAGE_SIZE), TrackBuffer.COLUMNS,
+				TrackArchive.SELECTION_AFTER_KEY, new String[] {"1000", "1000", "10"}, TrackPointCursor.SORT_ORDER);
+		checkQuery(TrackContentProvider.trackPointsUri(1), new String[] {"count(*)"},
+				Schema.COL_ID + " > ?", new String[] {"0"}, null);
+		// Export, DataHelper.getTrackPointIdsOfTrack
+		checkQuery(TrackContentProvider.trackPointsUri(1), null, null, null, Schema.COL_TIMESTAMP + " asc");
+		checkQuery(TrackContentProvider.trackPointsInBoxUri(1, 45, 6, 46, 7), null, null, null, Schema.COL_ID + " asc");
+		// DataHelper.readTrackSegments
+		checkQuery(TrackContentProvider.trackPointsInBoxUri(1, 45, 6, 46, 7),
+				new String[] {Schema.COL_ID, Schema.COL_PREVIOUS_ID, Schema.COL_LATITUDE}, null, null, Schema.COL_ID + " asc");
+		checkQuery(TrackContentProvider.trackStartUri(1), null, null, null, null);
+		checkQuery(TrackContentProvider.trackEndUri(1), null, null, null, null);
+		checkQuery(TrackContentProvider.trackpointUri(1), null, null, null, null);
+	}
+
+	@Test
+	public void testWayPointAndNoteQueries() {
+		checkQuery(TrackContentProvider.waypointsUri(1), null, null, null, Schema.COL_TIMESTAMP + " asc");
+		checkQuery(TrackContentProvider.waypointsUri(1), null, null, null, Schema.COL_TIMESTAMP + " desc");
+		checkQuery(TrackContentProvider.waypointsInBoxUri(1, 45, 6, 46, 7), null, null, null, null);
+		checkQuery(TrackContentProvider.waypointUri(1), null, null, null, null);
+		checkQuery(TrackContentProvider.notesUri(1), null, null, null, Schema.COL_TIMESTAMP + " desc");
+		checkQuery(TrackContentProvider.noteUri(1), null, null, null, null);
+
+		// DataHelper.updateWayPoint, updateNote, deleteWayPoint and deleteNote
+		checkPlan("update " + Schema.TBL_WAYPOINT + " set " + Schema.COL_NAME + " = ? where "
+				+ Schema.COL_UUID + " = ?", new String[] {"a", "b"}, false);
+		checkPlan("update " + Schema.TBL_NOTE + " set " + Schema.COL_NAME + " = ? where "
+				+ Schema.COL_UUID + " = ?", new String[] {"a", "b"}, false);
+		checkPlan("delete from " + Schema.TBL_WAYPOINT + " where " + Schema.COL_UUID + " = ?", new String[] {"a"}, false);
+		checkPlan("delete from " + Schema.TBL_NOTE + " where " + Schema.COL_UUID + " = ?", new String[] {"a"}, false);
+	}
+
+	@Test
+	public void testTrackQueries() {
+		checkQuery(TrackContentProvider.trackMetricsUri(1), null, null, null, null);
+		checkQuery(Uri.withAppendedPath(TrackContentProvider.CONTENT_URI_TRACK, "1"), null, null, null, null);
+		// The track list reads all the tracks: the table is scanned, but not sorted
+		SqlPlan plan = checkPlan(provider.buildQuery(TrackContentProvider.CONTENT_URI_TRACK, null, null, null,
+				Schema.COL_START_DATE + " desc"), true);
+		assertTrue(plan.toString(), plan.scans.equals(Arrays.asList(Schema.TBL_TRACK)));
+	}
+
+	private void checkQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		checkPlan(provider.buildQuery(uri, projection, selection, selectionArgs, sortOrder), false);
+	}
+
+	private SqlPlan checkPlan(TrackContentProvider.SqlQuery query, boolean allowScans) {
+		return checkPlan(query.sql, query.selectionArgs, allowScans);
+	}
+
+	/**
+	 * Fails if the plan of a query sorts in a temporary B-tree, or scans a table
+	 * @param allowScans Whether scanning tables is expected
+	 */
+	private SqlPlan checkPlan(String sql, String[] selectionArgs, boolean allowScans) {
+		SqlPlan out = new SqlPlan(sql);
+		Cursor c = db.rawQuery("explain query plan " + sql, selectionArgs);
+		int detail = c.getColumnIndexOrThrow("detail");
+		while (c.moveToNext()) {
+			String step = c.getString(detail);
+			out.steps.add(step);
+			Matcher scan = SCAN.matcher(step);
+			if (scan.find() && TABLES.contains(scan.group(2))) {
+				out.scans.add(scan.group(2));
+			}
+			if (TEMP_SORT.matcher(step).find()) {
+				fail("Temporary sort: " + out);
+			}
+		}
+		c.close();
+		if (!allowScans && !out.scans.isEmpty()) {
+			fail("Full scan: " + out);
+		}
+		return out;
+	}
+
+	private static class SqlPlan {
+		final String sql;
+		final List<String> steps = new ArrayList<>();
+		final List<String> scans = new ArrayList<>();
+
+		SqlPlan(String sql) {
+			this.sql = sql;
+		}
+
+		@Override
+		public String toString() {
+			return sql + " " + steps;
+		}
+	}
+
+}
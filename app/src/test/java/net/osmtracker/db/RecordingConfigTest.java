@@ -0,0 +1,75 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Looper;
+
+import androidx.preference.PreferenceManager;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class RecordingConfigTest {
+
+	private static final long GPS_TIME = 1000000000000L;
+
+	private Context context;
+	private SharedPreferences prefs;
+	private DataHelper dataHelper;
+
+	@Before
+	public void setUp() {
+		context = ApplicationProvider.getApplicationContext();
+		prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		prefs.edit().clear().commit();
+		dataHelper = new DataHelper(context);
+	}
+
+	@Test
+	public void testConfigIsCachedAndRefreshed() {
+		RecordingConfig config = dataHelper.getRecordingConfig();
+		assertFalse(config.ignoreClock);
+		assertEquals(OSMTracker.Preferences.VAL_OUTPUT_COMPASS, config.compassOutput);
+		assertSame(config, dataHelper.getRecordingConfig());
+		assertEquals(GPS_TIME, timestamp());
+
+		prefs.edit().putBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, true).commit();
+		shadowOf(Looper.getMainLooper()).idle();
+		assertTrue(dataHelper.getRecordingConfig().ignoreClock);
+		assertTrue(Math.abs(timestamp() - System.currentTimeMillis()) < 60000);
+
+		prefs.edit().putBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, false).commit();
+		shadowOf(Looper.getMainLooper()).idle();
+		assertEquals(GPS_TIME, timestamp());
+	}
+
+	private long timestamp() {
+		return dataHelper.trackPointValues(1, createLocation(), -1, 0, 0)
+				.getAsLong(TrackContentProvider.Schema.COL_TIMESTAMP);
+	}
+
+	private static Location createLocation() {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setLatitude(45);
+		location.setLongitude(6);
+		location.setTime(GPS_TIME);
+		return location;
+	}
+
+}
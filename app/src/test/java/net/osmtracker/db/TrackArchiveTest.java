@@ -0,0 +1,376 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackArchiveTest {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+	private final ContentResolver cr = context.getContentResolver();
+
+	@Test
+	public void testArchivedTrackPointsAreReadTheSame() {
+		long trackId = createTrack();
+		// More than a chunk, with null columns
+		for (int i = 0; i < TrackPointCodec.CHUNK_SIZE + 100; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		List<List<Object>> before = readAll(trackId);
+		List<List<Object>> start = readRows(TrackContentProvider.trackStartUri(trackId));
+		List<List<Object>> end = readRows(TrackContentProvider.trackEndUri(trackId));
+		int count = readCount(trackId);
+
+		assertEquals(TrackPointCodec.CHUNK_SIZE + 100, new DataHelper(context).archiveTrack(trackId));
+		assertEquals(0, DatabaseUtils.queryNumEntries(getDatabase(), Schema.TBL_TRACKPOINT,
+				Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)}));
+
+		assertEquals(before, readAll(trackId));
+		assertEquals(start, readRows(TrackContentProvider.trackStartUri(trackId)));
+		assertEquals(end, readRows(TrackContentProvider.trackEndUri(trackId)));
+		assertEquals(count, readCount(trackId));
+		long id = (Long) before.get(1234).get(0);
+		assertEquals(before.subList(1234, 1235), readRows(TrackContentProvider.trackpointUri(id)));
+	}
+
+	@Test
+	public void testResumedTrackPointsFollowArchivedOnes() {
+		long trackId = createTrack();
+		for (int i = 0; i < 100; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		new DataHelper(context).archiveTrack(trackId);
+		for (int i = 100; i < 150; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+
+		List<List<Object>> all = readAll(trackId);
+		assertEquals(150, all.size());
+		for (int i = 1; i < all.size(); i++) {
+			assertTrue((Long) all.get(i).get(0) > (Long) all.get(i - 1).get(0));
+		}
+		assertEquals(150, readCount(trackId));
+		assertEquals(all.subList(149, 150), readRows(TrackContentProvider.trackEndUri(trackId)));
+
+		// Archiving again appends the resumed points to the archive
+		assertEquals(50, new DataHelper(context).archiveTrack(trackId));
+		assertEquals(all, readAll(trackId));
+	}
+
+	@Test
+	public void testArchivedTrackPointsKeepCounting() {
+		long trackId = createTrack();
+		for (int i = 0; i < 100; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		DataHelper dataHelper = new DataHelper(context);
+		dataHelper.archiveTrack(trackId);
+		assertEquals(100, readTrackPointCount(trackId));
+		for (int i = 100; i < 150; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		assertEquals(150, readTrackPointCount(trackId));
+		dataHelper.archiveTrack(trackId);
+		assertEquals(150, readTrackPointCount(trackId));
+		assertEquals(150, readCount(trackId));
+
+		// Deleting the chunks uncounts their points
+		getDatabase().delete(Schema.TBL_TRACKPOINT_ARCHIVE, Schema.COL_TRACK_ID + " = ?",
+				new String[] {Long.toString(trackId)});
+		assertEquals(0, readTrackPointCount(trackId));
+	}
+
+	@Test
+	public void testQueriesOfArchivedTrackOutOfOrder() {
+		long trackId = createTrack();
+		// Several chunks, the clock going back in the second one
+		int points = 2 * TrackPointCodec.CHUNK_SIZE + 300;
+		for (int i = 0; i < points; i++) {
+			ContentValues values = point(trackId, i);
+			if (i >= TrackPointCodec.CHUNK_SIZE + 100 && i < TrackPointCodec.CHUNK_SIZE + 110) {
+				values.put(Schema.COL_TIMESTAMP, 1700000000000L + (i - 2000) * 1013L);
+			}
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), values);
+		}
+		List<List<List<Object>>> before = readQueries(trackId);
+		Uri pointUri = TrackContentProvider.trackpointUri((Long) readAll(trackId).get(123).get(0));
+		String[] projection = {Schema.COL_ID, Schema.COL_TIMESTAMP + " / 1000"};
+		List<List<Object>> point = readRows(pointUri, projection, null, null, null);
+
+		new DataHelper(context).archiveTrack(trackId);
+		assertEquals(before, readQueries(trackId));
+		assertEquals(point, readRows(pointUri, projection, null, null, null));
+		assertEquals(1, point.size());
+
+		// Resumed with points older than the archived ones
+		for (int i = 0; i < 20; i++) {
+			ContentValues values = point(trackId, i + points);
+			values.put(Schema.COL_TIMESTAMP, 1700000000000L + (1000 + 97 * i) * 1013L);
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), values);
+		}
+		List<List<Object>> all = readRows(TrackContentProvider.trackPointsUri(trackId), TrackArchive.TRACKPOINT_COLUMNS,
+				null, null, Schema.COL_TIMESTAMP + ", " + Schema.COL_ID);
+		assertEquals(points + 20, all.size());
+		assertEquals(all, readAll(trackId, 7));
+		assertEquals(all, readAll(trackId, 500));
+	}
+
+	@Test
+	public void testQueriesThatCantPageAreRejected() {
+		long trackId = createTrack();
+		for (int i = 0; i < 100; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		new DataHelper(context).archiveTrack(trackId);
+		Uri uri = TrackContentProvider.trackPointsUri(trackId);
+
+		assertRejected(uri, null, Schema.COL_SPEED + " > ?", new String[] {"2"}, null);
+		assertRejected(uri, null, null, null, Schema.COL_SPEED + " desc");
+		assertRejected(uri, new String[] {"max(" + Schema.COL_LATITUDE + ")"}, null, null, null);
+		assertRejected(uri, new String[] {Schema.COL_TIMESTAMP + " - 1700000000000 as t"}, null, null, null);
+		assertRejected(uri, null, TrackArchive.SELECTION_AFTER_KEY, new String[] {"0", "0", "0"}, null);
+		// Aggregates on the track points in a box
+		assertRejected(TrackContentProvider.trackPointsInBoxUri(trackId, 40, 0, 50, 10),
+				new String[] {"count(*)"}, null, null, null);
+	}
+
+	@Test
+	public void testTimestampOrderOfArchivedTrack() {
+		long trackId = createTrack();
+		for (int i = 0; i < 100; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+		Uri uri = TrackContentProvider.trackPointsUri(trackId);
+		String order = Schema.COL_TIMESTAMP + ", " + Schema.COL_ID;
+		List<List<Object>> before = readRows(uri, TrackArchive.TRACKPOINT_COLUMNS, null, null, order);
+
+		new DataHelper(context).archiveTrack(trackId);
+		assertEquals(before, readRows(uri, TrackArchive.TRACKPOINT_COLUMNS, null, null, order));
+		// Pages following a (timestamp, _id) key, across the archived and the resumed points
+		assertEquals(before, readAll(trackId, 7));
+
+		// A point resumed with an older timestamp is read before the archived ones following it
+		ContentValues values = point(trackId, 100);
+		values.put(Schema.COL_TIMESTAMP, 1700000000500L);
+		cr.insert(uri, values);
+		List<List<Object>> after = readRows(uri, TrackArchive.TRACKPOINT_COLUMNS, null, null, order);
+		int timestamp = Arrays.asList(TrackArchive.TRACKPOINT_COLUMNS).indexOf(Schema.COL_TIMESTAMP);
+		assertEquals(101, after.size());
+		assertEquals(before.get(0), after.get(0));
+		assertEquals(1700000000500L, after.get(1).get(timestamp));
+		assertEquals(before.subList(1, 100), after.subList(2, 101));
+		assertEquals(after, readAll(trackId, 7));
+	}
+
+	@Test
+	public void testArchiveIsSmallerThanRows() {
+		final int points = 3 * TrackPointCodec.CHUNK_SIZE;
+		SQLiteDatabase db = getDatabase();
+		long trackId = createTrack();
+		long pagesBefore = DatabaseUtils.longForQuery(db, "pragma page_count", null);
+		insertPoints(trackId, points);
+		long rowBytes = (DatabaseUtils.longForQuery(db, "pragma page_count", null) - pagesBefore)
+				* DatabaseUtils.longForQuery(db, "pragma page_size", null);
+
+		assertEquals(points, TrackArchive.archive(db, trackId));
+		assertTrue(rowBytes > 5 * TrackArchive.getArchiveSize(db, trackId));
+	}
+
+	@Test
+	public void testBoundingBoxOfArchivedTrack() {
+		long trackId = createTrack();
+		insertPoints(trackId, 3 * TrackPointCodec.CHUNK_SIZE);
+		DataHelper dataHelper = new DataHelper(context);
+		// Boxes crossed by the track several times, and across chunks
+		double[][] boxes = {{45.03, 5.99, 45.05, 6.02}, {45.04, 6.04, 45.08, 6.1}, {46, 7, 47, 8}};
+		List<List<List<Object>>> before = new ArrayList<>();
+		for (double[] box : boxes) {
+			before.add(readRows(TrackContentProvider.trackPointsInBoxUri(trackId, box[0], box[1], box[2], box[3])));
+		}
+		Uri boxUri = TrackContentProvider.trackPointsInBoxUri(trackId, boxes[0][0], boxes[0][1], boxes[0][2], boxes[0][3]);
+		String[] previousIds = {Schema.COL_ID, Schema.COL_PREVIOUS_ID};
+		List<List<Object>> neighbours = readRows(boxUri, previousIds, null, null, null);
+		String[] projection = {Schema.COL_ID, Schema.COL_PREVIOUS_ID, Schema.COL_TIMESTAMP + " / 1000"};
+		List<List<Object>> expressions = readRows(boxUri, projection, null, null, null);
+
+		dataHelper.archiveTrack(trackId);
+		for (int i = 0; i < boxes.length; i++) {
+			double[] box = boxes[i];
+			assertEquals(before.get(i), readRows(TrackContentProvider.trackPointsInBoxUri(trackId, box[0], box[1], box[2], box[3])));
+		}
+		assertEquals(neighbours, readRows(boxUri, previousIds, null, null, null));
+		assertEquals(expressions, readRows(boxUri, projection, null, null, null));
+		assertTrue(before.get(0).size() > 0);
+		assertTrue(before.get(2).isEmpty());
+	}
+
+	private SQLiteDatabase getDatabase() {
+		return new DatabaseHelper(context).getWritableDatabase();
+	}
+
+	/**
+	 * @return All the columns of all the track points of a track, read page by page
+	 */
+	private List<List<Object>> readAll(long trackId) {
+		return readAll(trackId, TrackPointCursor.DEFAULT_PAGE_SIZE);
+	}
+
+	private List<List<Object>> readAll(long trackId, int pageSize) {
+		List<List<Object>> out = new ArrayList<>();
+		TrackPointCursor c = new TrackPointCursor(cr, trackId, TrackArchive.TRACKPOINT_COLUMNS, -1, pageSize);
+		while (c.moveToNext()) {
+			out.add(row(c));
+		}
+		c.close();
+		return out;
+	}
+
+	private List<List<Object>> readRows(Uri uri) {
+		return readRows(uri, TrackArchive.TRACKPOINT_COLUMNS, null, null, Schema.COL_ID + " asc");
+	}
+
+	private List<List<Object>> readRows(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder) {
+		List<List<Object>> out = new ArrayList<>();
+		Cursor c = cr.query(uri, projection, selection, selectionArgs, sortOrder);
+		while (c.moveToNext()) {
+			out.add(row(c));
+		}
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Rows of the queries paging through the track points of a track: by timestamp,
+	 * whole or by pages, by descending id, and their count
+	 */
+	private List<List<List<Object>>> readQueries(long trackId) {
+		Uri uri = TrackContentProvider.trackPointsUri(trackId);
+		List<List<List<Object>>> out = new ArrayList<>();
+		out.add(readRows(uri, null, null, null, Schema.COL_TIMESTAMP + " asc, " + Schema.COL_ID + " asc"));
+		out.add(readRows(uri, new String[] {Schema.COL_ID}, null, null, Schema.COL_TIMESTAMP + " asc"));
+		out.add(readAll(trackId, 7));
+		out.add(readAll(trackId, 1000));
+		out.add(readRows(TrackContentProvider.trackPointsUri(trackId, 20), new String[] {Schema.COL_ID, Schema.COL_TIMESTAMP},
+				TrackArchive.SELECTION_AFTER_ID, new String[] {"0"}, Schema.COL_ID + " desc"));
+		List<Object> count = new ArrayList<>();
+		count.add((long) readCount(trackId));
+		out.add(Collections.singletonList(count));
+		return out;
+	}
+
+	private void assertRejected(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder) {
+		assertThrows(IllegalArgumentException.class, () -> cr.query(uri, projection, selection, selectionArgs, sortOrder));
+	}
+
+	private int readCount(long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(trackId), new String[] {TrackArchive.COUNT}, null, null, null);
+		c.moveToFirst();
+		int out = c.getInt(0);
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Number of track points of a track, from the track statistics
+	 */
+	private int readTrackPointCount(long trackId) {
+		Cursor c = cr.query(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+				new String[] {Schema.COL_TRACKPOINT_COUNT}, null, null, null);
+		c.moveToFirst();
+		int out = c.getInt(0);
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Values of a row, the way they were recorded: integers and doubles, at
+	 * the precision of the archive
+	 */
+	private static List<Object> row(Cursor c) {
+		List<Object> out = new ArrayList<>();
+		for (int i = 0; i < c.getColumnCount(); i++) {
+			String column = c.getColumnName(i);
+			if (c.isNull(i)) {
+				out.add(null);
+			} else if (column.equals(Schema.COL_ID) || column.equals(Schema.COL_TRACK_ID)
+					|| column.equals(Schema.COL_TIMESTAMP) || column.equals(Schema.COL_COMPASS_ACCURACY)
+					|| column.equals(Schema.COL_GRID_CELL)) {
+				out.add(c.getLong(i));
+			} else {
+				out.add(Math.round(c.getDouble(i) * 1e7) / 1e7);
+			}
+		}
+		return out;
+	}
+
+	private long createTrack() {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	/**
+	 * @return Point i of a track, with the precision of a GPS and some columns missing
+	 */
+	private static ContentValues point(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45.1234567 + Math.sin(i / 50.0) * 0.001);
+		values.put(Schema.COL_LONGITUDE, 6.7654321 + i * 0.0000123);
+		values.put(Schema.COL_TIMESTAMP, 1700000000000L + i * 1013L);
+		values.put(Schema.COL_ACCURACY, 3.5f + (i % 7));
+		if (i % 3 != 0) {
+			values.put(Schema.COL_ELEVATION, 300.25 + (i % 11));
+			values.put(Schema.COL_SPEED, 1.25f * (i % 5));
+		}
+		if (i % 10 == 0) {
+			values.put(Schema.COL_COMPASS, 12.5f * (i % 29));
+			values.put(Schema.COL_COMPASS_ACCURACY, 3);
+			values.put(Schema.COL_ATMOSPHERIC_PRESSURE, 951.125f);
+		}
+		return values;
+	}
+
+	/**
+	 * Inserts the points of a track zigzagging north east directly in the database, as fast as possible
+	 */
+	private void insertPoints(long trackId, int points) {
+		getDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_SPEED + ", " + Schema.COL_ELEVATION + ", " + Schema.COL_ACCURACY + ", "
+				+ Schema.COL_TIMESTAMP + ", " + Schema.COL_GRID_CELL + ")"
+				+ " select " + trackId + ", lat, lon, 1.5 + (i % 7) * 0.25, 300 + (i % 100) * 0.1, 4 + i % 3,"
+				+ " 1700000000000 + i * 1000, " + GridIndex.sqlCellOf("lat", "lon")
+				+ " from (select i, 45 + i * 0.00001 as lat, 6 + (i % 2000) * 0.00005 as lon from seq)");
+	}
+
+}
@@ -0,0 +1,338 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackContentProviderTest {
+
+	private ContentResolver cr;
+
+	@Before
+	public void setUp() {
+		cr = ApplicationProvider.getApplicationContext().getContentResolver();
+	}
+
+	@Test
+	public void testBulkInsertTrackPoints() {
+		CountingObserver observer = register(TrackContentProvider.trackPointsUri(1));
+
+		ContentValues[] values = new ContentValues[100];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = point(1, i);
+		}
+
+		assertEquals(100, cr.bulkInsert(TrackContentProvider.trackPointsUri(1), values));
+		assertEquals(100, count(TrackContentProvider.trackPointsUri(1)));
+		assertEquals("One notification per track", 1, observer.changes);
+		assertEquals(99, NotificationCoalescer.getLastId(observer.lastUri)
+				- NotificationCoalescer.getFirstId(observer.lastUri));
+	}
+
+	@Test
+	public void testBulkInsertWayPointsAndNotes() {
+		ContentValues[] wayPoints = new ContentValues[10];
+		ContentValues[] notes = new ContentValues[10];
+		for (int i = 0; i < 10; i++) {
+			wayPoints[i] = point(2, i);
+			wayPoints[i].put(Schema.COL_NAME, "wp" + i);
+			wayPoints[i].put(Schema.COL_NBSATELLITES, 4);
+			notes[i] = point(2, i);
+			notes[i].put(Schema.COL_NAME, "note" + i);
+		}
+
+		assertEquals(10, cr.bulkInsert(TrackContentProvider.waypointsUri(2), wayPoints));
+		assertEquals(10, cr.bulkInsert(TrackContentProvider.notesUri(2), notes));
+		assertEquals(10, count(TrackContentProvider.waypointsUri(2)));
+		assertEquals(10, count(TrackContentProvider.notesUri(2)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBulkInsertRejectsIncompleteValues() {
+		ContentValues values = point(3, 0);
+		values.remove(Schema.COL_TIMESTAMP);
+		cr.bulkInsert(TrackContentProvider.trackPointsUri(3), new ContentValues[] {values});
+	}
+
+	@Test
+	public void testApplyBatchCoalescesNotifications() throws Exception {
+		CountingObserver observer = register(TrackContentProvider.trackPointsUri(4));
+
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < 20; i++) {
+			operations.add(ContentProviderOperation.newInsert(TrackContentProvider.trackPointsUri(4))
+					.withValues(point(4, i)).build());
+		}
+
+		assertEquals(20, cr.applyBatch(TrackContentProvider.AUTHORITY, operations).length);
+		assertEquals(20, count(TrackContentProvider.trackPointsUri(4)));
+		assertEquals("One notification per Uri", 1, observer.changes);
+	}
+
+	@Test
+	public void testInsertNotificationsAreCoalesced() {
+		TrackContentProvider provider = Robolectric.buildContentProvider(TrackContentProvider.class)
+				.create(TrackContentProvider.AUTHORITY).get();
+		NotificationCoalescer coalescer = provider.getNotificationCoalescer();
+		long trackId = createTrack();
+		CountingObserver observer = register(TrackContentProvider.trackPointsUri(trackId));
+
+		long firstId = -1, lastId = -1;
+		for (int i = 0; i < 10; i++) {
+			lastId = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i)));
+			if (i == 0) {
+				firstId = lastId;
+			}
+		}
+		assertEquals("Notified at the end of the window", 0, observer.changes);
+
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NotificationCoalescer.DEFAULT_WINDOW_MS));
+		assertEquals(1, observer.changes);
+		assertEquals(firstId, NotificationCoalescer.getFirstId(observer.lastUri));
+		assertEquals(lastId, NotificationCoalescer.getLastId(observer.lastUri));
+		assertEquals(1, coalescer.getEmittedCount());
+		assertEquals(9, coalescer.getSuppressedCount());
+
+		// Without window, each insertion is notified
+		coalescer.setWindow(0);
+		lastId = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, 10)));
+		assertEquals(2, observer.changes);
+		assertEquals(lastId, NotificationCoalescer.getFirstId(observer.lastUri));
+	}
+
+	@Test
+	public void testTrackStatsAreMaintained() {
+		ContentValues track = new ContentValues();
+		track.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, track));
+
+		ContentValues[] values = new ContentValues[5];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = point(trackId, i);
+		}
+		cr.bulkInsert(TrackContentProvider.trackPointsUri(trackId), values);
+		ContentValues wayPoint = point(trackId, 0);
+		wayPoint.put(Schema.COL_NAME, "wp");
+		wayPoint.put(Schema.COL_NBSATELLITES, 4);
+		wayPoint.put(Schema.COL_UUID, "wp-1");
+		cr.insert(TrackContentProvider.waypointsUri(trackId), wayPoint);
+		wayPoint.put(Schema.COL_UUID, "wp-2");
+		cr.insert(TrackContentProvider.waypointsUri(trackId), wayPoint);
+		cr.delete(Uri.withAppendedPath(TrackContentProvider.CONTENT_URI_WAYPOINT_UUID, "wp-1"), null, null);
+
+		Cursor c = cr.query(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+				null, null, null, null);
+		assertTrue(c.moveToFirst());
+		assertEquals(5, c.getInt(c.getColumnIndex(Schema.COL_TRACKPOINT_COUNT)));
+		assertEquals(1, c.getInt(c.getColumnIndex(Schema.COL_WAYPOINT_COUNT)));
+		assertEquals(0, c.getInt(c.getColumnIndex(Schema.COL_NOTE_COUNT)));
+		assertEquals(0, c.getLong(c.getColumnIndex(Schema.COL_FIRST_TIMESTAMP)));
+		assertEquals(4000, c.getLong(c.getColumnIndex(Schema.COL_LAST_TIMESTAMP)));
+		assertEquals(45, c.getDouble(c.getColumnIndex(Schema.COL_MIN_LATITUDE)), 1e-9);
+		assertEquals(45.0004, c.getDouble(c.getColumnIndex(Schema.COL_MAX_LATITUDE)), 1e-9);
+		assertEquals(6.0004, c.getDouble(c.getColumnIndex(Schema.COL_LAST_LONGITUDE)), 1e-9);
+		c.close();
+
+		cr.delete(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId), null, null);
+		c = cr.query(TrackContentProvider.CONTENT_URI_TRACK, null,
+				Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + trackId, null, null);
+		assertEquals(0, c.getCount());
+		c.close();
+	}
+
+	/**
+	 * Track going east then back west further north, crossing the box twice
+	 */
+	@Test
+	public void testTrackPointsInBox() {
+		long trackId = createTrack();
+		long otherTrackId = createTrack();
+		ContentValues[] values = new ContentValues[400];
+		for (int i = 0; i < 200; i++) {
+			values[i] = point(trackId, 0);
+			values[i].put(Schema.COL_LONGITUDE, 6 + i * 0.01);
+			values[200 + i] = point(trackId, 0);
+			values[200 + i].put(Schema.COL_LATITUDE, 45.05);
+			values[200 + i].put(Schema.COL_LONGITUDE, 7.99 - i * 0.01);
+		}
+		cr.bulkInsert(TrackContentProvider.trackPointsUri(trackId), values);
+		cr.insert(TrackContentProvider.trackPointsUri(otherTrackId), point(otherTrackId, 5000));
+
+		List<TrackBuffer> segments = new DataHelper(ApplicationProvider.getApplicationContext())
+				.readTrackSegments(trackId, 44.9, 6.495, 45.1, 6.705);
+		assertEquals(2, segments.size());
+		// 21 points inside the box, and one on each side
+		assertEquals(23, segments.get(0).size());
+		assertEquals(6.49, segments.get(0).getLongitude(0), 1e-9);
+		assertEquals(6.71, segments.get(0).getLongitude(22), 1e-9);
+		assertEquals(23, segments.get(1).size());
+		assertEquals(6.71, segments.get(1).getLongitude(0), 1e-9);
+		assertEquals(45.05, segments.get(1).getLatitude(0), 1e-9);
+		assertEquals(6.49, segments.get(1).getLongitude(22), 1e-9);
+
+		// Wide box, compared without the index
+		assertEquals(400, count(TrackContentProvider.trackPointsInBoxUri(trackId, 40, 0, 50, 10)));
+		// Box across the antimeridian, west of 6 and east of 7: 101 points and their neighbours
+		assertEquals(0, count(TrackContentProvider.trackPointsInBoxUri(trackId, 40, 170, 50, -170)));
+		assertEquals(104, count(TrackContentProvider.trackPointsInBoxUri(trackId, 44.99, 7, 45.01, 6)));
+	}
+
+	/**
+	 * Tracks recorded at the same time, with interleaved ids. The track leaves the box
+	 * for two points, then for three points.
+	 */
+	@Test
+	public void testTrackPointsInBoxOfInterleavedTracks() {
+		long trackId = createTrack();
+		long otherTrackId = createTrack();
+		double[] longitudes = new double[25];
+		for (int i = 0; i < longitudes.length; i++) {
+			longitudes[i] = 6.6 + i * 0.001;
+		}
+		longitudes[10] = 6.8;
+		longitudes[11] = 6.81;
+		longitudes[17] = 6.9;
+		longitudes[18] = 6.91;
+		longitudes[19] = 6.92;
+		for (int i = 0; i < longitudes.length; i++) {
+			ContentValues values = point(trackId, 0);
+			values.put(Schema.COL_LONGITUDE, longitudes[i]);
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), values);
+			// The other track stays inside the box
+			cr.insert(TrackContentProvider.trackPointsUri(otherTrackId), point(otherTrackId, 0));
+		}
+
+		DataHelper dataHelper = new DataHelper(ApplicationProvider.getApplicationContext());
+		List<TrackBuffer> segments = dataHelper.readTrackSegments(trackId, 44.9, 5.9, 45.1, 6.7);
+		assertEquals(2, segments.size());
+		// Points inside, the two points outside, points inside and the next point outside
+		assertEquals(18, segments.get(0).size());
+		assertEquals(6.8, segments.get(0).getLongitude(10), 1e-9);
+		assertEquals(6.81, segments.get(0).getLongitude(11), 1e-9);
+		assertEquals(6.9, segments.get(0).getLongitude(17), 1e-9);
+		// The point outside before the last points inside
+		assertEquals(6, segments.get(1).size());
+		assertEquals(6.92, segments.get(1).getLongitude(0), 1e-9);
+		assertEquals(24, count(TrackContentProvider.trackPointsInBoxUri(trackId, 44.9, 5.9, 45.1, 6.7)));
+
+		segments = dataHelper.readTrackSegments(otherTrackId, 44.9, 5.9, 45.1, 6.7);
+		assertEquals(1, segments.size());
+		assertEquals(longitudes.length, segments.get(0).size());
+	}
+
+	@Test
+	public void testWayPointsInBox() {
+		long trackId = createTrack();
+		for (int i = 0; i < 10; i++) {
+			ContentValues wayPoint = point(trackId, i * 100);
+			wayPoint.put(Schema.COL_NAME, "wp" + i);
+			wayPoint.put(Schema.COL_NBSATELLITES, 4);
+			cr.insert(TrackContentProvider.waypointsUri(trackId), wayPoint);
+		}
+
+		for (double longitude : new double[] {179.99, -179.99}) {
+			ContentValues wayPoint = point(trackId, 0);
+			wayPoint.put(Schema.COL_LONGITUDE, longitude);
+			wayPoint.put(Schema.COL_NAME, "antimeridian");
+			wayPoint.put(Schema.COL_NBSATELLITES, 4);
+			cr.insert(TrackContentProvider.waypointsUri(trackId), wayPoint);
+		}
+
+		// Way points 3 to 5
+		assertEquals(3, count(TrackContentProvider.waypointsInBoxUri(trackId, 45.025, 6.025, 45.055, 6.055)));
+		assertEquals(2, count(TrackContentProvider.waypointsInBoxUri(trackId, 44.9, 179.9, 45.1, -179.9)));
+		assertEquals(12, count(TrackContentProvider.waypointsInBoxUri(trackId, -90, -180, 90, 180)));
+	}
+
+	/**
+	 * The SQL computing the grid cells of existing points when upgrading
+	 * the database must match the cells computed when inserting points
+	 */
+	@Test
+	public void testGridCellSqlMatchesJava() {
+		double[][] coordinates = {{45.123, 6.456}, {-33.9, -70.6}, {0, 0}, {90, 180}, {-90, -180}, {51.4779, -0.0015}};
+		SQLiteDatabase db = new DatabaseHelper(ApplicationProvider.getApplicationContext()).getReadableDatabase();
+		for (double[] point : coordinates) {
+			Cursor c = db.rawQuery("select " + GridIndex.sqlCellOf(Double.toString(point[0]), Double.toString(point[1])), null);
+			assertTrue(c.moveToFirst());
+			assertEquals(GridIndex.cellOf(point[0], point[1]), c.getInt(0));
+			c.close();
+		}
+	}
+
+	private long createTrack() {
+		ContentValues track = new ContentValues();
+		track.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, track));
+	}
+
+	private CountingObserver register(Uri uri) {
+		CountingObserver observer = new CountingObserver();
+		cr.registerContentObserver(uri, true, observer);
+		return observer;
+	}
+
+	private int count(Uri uri) {
+		Cursor c = cr.query(uri, null, null, null, null);
+		int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	private static ContentValues point(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45 + i * 0.0001);
+		values.put(Schema.COL_LONGITUDE, 6 + i * 0.0001);
+		values.put(Schema.COL_TIMESTAMP, 1000L * i);
+		return values;
+	}
+
+	private static class CountingObserver extends ContentObserver {
+		int changes = 0;
+		Uri lastUri;
+
+		CountingObserver() {
+			super(null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			changes++;
+		}
+
+		@Override
+		public void onChange(boolean selfChange, Uri uri) {
+			lastUri = uri;
+			onChange(selfChange);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackGeometryCacheTest {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	@Test
+	public void testTracksAreDecimatedAndCached() {
+		long trackId = createTrack(10000);
+		TrackGeometryCache cache = new TrackGeometryCache(Long.MAX_VALUE);
+
+		TrackBuffer points = cache.get(context, trackId);
+		assertTrue(points.size() > 2);
+		assertTrue(points.size() < 10000);
+		assertEquals(45, points.getLatitude(0), 0);
+		assertEquals(0, cache.hitCount());
+		assertEquals(points.size() * TrackGeometryCache.BYTES_PER_POINT, cache.size());
+
+		assertSame(points, cache.get(context, trackId));
+		assertEquals(1, cache.hitCount());
+
+		// New points are read
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 47.0);
+		values.put(Schema.COL_LONGITUDE, 7.0);
+		values.put(Schema.COL_TIMESTAMP, 1800000000000L);
+		context.getContentResolver().insert(TrackContentProvider.trackPointsUri(trackId), values);
+		TrackBuffer updated = cache.get(context, trackId);
+		assertNotSame(points, updated);
+		assertEquals(47.0, updated.getLatitude(updated.size() - 1), 0);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedTracksAreEvicted() {
+		long first = createTrack(1000);
+		long second = createTrack(1000);
+		TrackGeometryCache cache = new TrackGeometryCache(Long.MAX_VALUE);
+		int bytes = cache.get(context, first).size() * TrackGeometryCache.BYTES_PER_POINT;
+
+		cache = new TrackGeometryCache(bytes);
+		cache.get(context, first);
+		cache.get(context, second);
+		cache.get(context, second);
+		cache.get(context, first);
+		assertEquals(1, cache.hitCount());
+	}
+
+	/**
+	 * @return Id of a new track going north-east, meandering about 100m
+	 */
+	private long createTrack(int points) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(context.getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001, 6 + i * 0.00001 + ((i / 100) % 2) * (i % 100) * 0.00001,"
+				+ " 300, 1700000000000 + i * 1000 from seq");
+		return trackId;
+	}
+
+}
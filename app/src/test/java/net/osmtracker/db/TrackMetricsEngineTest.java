@@ -0,0 +1,180 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackMetrics;
+import net.osmtracker.service.gps.TrackPointWriteQueue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackMetricsEngineTest {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+	private final ContentResolver cr = context.getContentResolver();
+
+	@Test
+	public void testMetricsAreUpdatedOnInsert() {
+		long trackId = createTrack();
+		TrackMetrics expected = new TrackMetrics();
+		for (int i = 0; i < 50; i++) {
+			ContentValues values = point(trackId, i);
+			long id = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), values));
+			expected.add(id, values);
+		}
+
+		TrackMetrics metrics = readTrackMetrics(trackId);
+		assertEquals(50, metrics.getPointCount());
+		assertEquals(expected.getDistance(), metrics.getDistance(), 0);
+		assertEquals(expected.getMovingTime(), metrics.getMovingTime());
+		assertEquals(expected.getAscent(), metrics.getAscent(), 0);
+		assertTrue(metrics.getAscent() > 0);
+	}
+
+	/**
+	 * The logger writes the track points in bulk through its write queue: the metrics
+	 * read with the track are up to date without being caught up.
+	 */
+	@Test
+	public void testMetricsAreUpdatedOnBulkInsert() {
+		long trackId = createTrack();
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(new DataHelper(context),
+				new Handler(Looper.getMainLooper()), 10, 60000);
+		for (int i = 0; i < 55; i++) {
+			Location location = new Location(LocationManager.GPS_PROVIDER);
+			location.setLatitude(45 + i * 0.00001);
+			location.setLongitude(6.0);
+			location.setAltitude(300 + i / 10.0);
+			location.setTime(1700000000000L + i * 1000L);
+			queue.add(trackId, location, -1, 0, 0);
+			if (i == 24) {
+				// Partial batch
+				queue.flush();
+			}
+		}
+		queue.flush();
+
+		TrackMetrics expected = new TrackMetrics();
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(trackId), TrackMetrics.TRACKPOINT_PROJECTION,
+				null, null, Schema.COL_ID + " asc");
+		while (c.moveToNext()) {
+			expected.add(c);
+		}
+		c.close();
+
+		TrackMetrics metrics = readTrackMetrics(trackId);
+		assertEquals(55, metrics.getPointCount());
+		assertEquals(expected.getLastTrackPointId(), metrics.getLastTrackPointId());
+		assertEquals(expected.getDistance(), metrics.getDistance(), 1e-6);
+		assertEquals(expected.getMovingTime(), metrics.getMovingTime());
+		assertEquals(expected.getAscent(), metrics.getAscent(), 1e-6);
+		assertTrue(metrics.getDistance() > 0);
+
+		// Single inserts go on from there
+		cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, 55));
+		assertEquals(56, readTrackMetrics(trackId).getPointCount());
+	}
+
+	@Test
+	public void testLegacyTracksAreCaughtUp() {
+		long trackId = createTrack();
+		// Points inserted without the provider, as by previous versions
+		insertPoints(trackId, 2500);
+		assertEquals(0, readTrackMetrics(trackId).getPointCount());
+
+		TrackMetrics metrics = queryMetrics(trackId);
+		assertEquals(2500, metrics.getPointCount());
+		assertEquals(2500, readTrackMetrics(trackId).getPointCount());
+
+		// Recording resumes incrementally from the caught up metrics
+		cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, 2500));
+		TrackMetrics resumed = readTrackMetrics(trackId);
+		assertEquals(2501, resumed.getPointCount());
+		assertTrue(resumed.getDistance() > metrics.getDistance());
+
+		// Same as computing the whole track at once
+		TrackMetrics all = new TrackMetrics();
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(trackId), TrackMetrics.TRACKPOINT_PROJECTION,
+				null, null, Schema.COL_ID + " asc");
+		while (c.moveToNext()) {
+			all.add(c);
+		}
+		c.close();
+		assertEquals(all.getDistance(), resumed.getDistance(), 1e-6);
+		assertEquals(all.getMovingTime(), resumed.getMovingTime());
+		assertEquals(all.getAscent(), resumed.getAscent(), 1e-6);
+		assertEquals(all.getMaxSpeed(), resumed.getMaxSpeed(), 1e-9);
+	}
+
+	/**
+	 * @return Metrics read along with the track, as TrackDetail does
+	 */
+	private TrackMetrics readTrackMetrics(long trackId) {
+		Cursor c = cr.query(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId), null, null, null, null);
+		c.moveToFirst();
+		TrackMetrics out = TrackMetrics.fromCursor(c);
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Metrics from the metrics Uri, caught up with the track points
+	 */
+	private TrackMetrics queryMetrics(long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackMetricsUri(trackId), null, null, null, null);
+		c.moveToFirst();
+		TrackMetrics out = TrackMetrics.fromCursor(c);
+		c.close();
+		return out;
+	}
+
+	private long createTrack() {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	/**
+	 * @return Point i of a track going north, climbing a meter every 10 points
+	 */
+	private static ContentValues point(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45 + i * 0.00001);
+		values.put(Schema.COL_LONGITUDE, 6.0);
+		values.put(Schema.COL_ELEVATION, 300 + i / 10.0);
+		values.put(Schema.COL_TIMESTAMP, 1700000000000L + i * 1000L);
+		return values;
+	}
+
+	/**
+	 * Inserts the first points of a track directly in the database, bypassing the provider
+	 */
+	private void insertPoints(long trackId, int points) {
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001, 6.0, 300 + i / 10.0, 1700000000000 + i * 1000 from seq");
+	}
+
+}
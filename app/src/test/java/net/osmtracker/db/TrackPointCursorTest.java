@@ -0,0 +1,226 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackBuffer;
+import net.osmtracker.gpx.GpxWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.Writer;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackPointCursorTest {
+
+	private static final String[] PROJECTION = {Schema.COL_LATITUDE, Schema.COL_TIMESTAMP};
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+	private ContentResolver cr;
+
+	@Before
+	public void setUp() {
+		cr = context.getContentResolver();
+	}
+
+	@Test
+	public void testReadsAllPagesInRecordingOrder() {
+		long trackId = createTrack();
+		long otherTrackId = createTrack();
+		// Interleave points of both tracks, so that pages can't rely on contiguous ids
+		for (int i = 0; i < 25; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+			cr.insert(TrackContentProvider.trackPointsUri(otherTrackId), point(otherTrackId, 1000 + i));
+		}
+
+		TrackPointCursor c = new TrackPointCursor(cr, trackId, PROJECTION, -1, 10);
+		assertEquals(25, c.getCount());
+		assertEquals(PROJECTION.length, c.getColumnCount());
+		int i = 0;
+		while (c.moveToNext()) {
+			assertEquals(1000L * i, c.getLong(1));
+			i++;
+		}
+		assertEquals(25, i);
+		assertEquals(3, c.getPageCount());
+
+		// Moving backwards restarts from the first page
+		assertTrue(c.moveToPosition(12));
+		assertEquals(12000L, c.getLong(1));
+		assertTrue(c.moveToFirst());
+		assertEquals(0L, c.getLong(1));
+		c.close();
+	}
+
+	@Test
+	public void testReadsPointsAfterId() {
+		long trackId = createTrack();
+		long lastId = -1;
+		for (int i = 0; i < 7; i++) {
+			lastId = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i)));
+		}
+		for (int i = 7; i < 10; i++) {
+			cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i));
+		}
+
+		TrackPointCursor c = new TrackPointCursor(cr, trackId, PROJECTION, lastId, 2);
+		assertEquals(3, c.getCount());
+		assertTrue(c.moveToFirst());
+		assertEquals(7000L, c.getLong(1));
+		assertTrue(c.moveToLast());
+		assertEquals(9000L, c.getLong(1));
+		assertFalse(c.moveToNext());
+		c.close();
+	}
+
+	@Test
+	public void testReadTrackPointsIncrementally() {
+		long trackId = createTrack();
+		DataHelper dataHelper = new DataHelper(context);
+		TrackBuffer buffer = new TrackBuffer();
+
+		assertEquals(-1, dataHelper.readTrackPoints(trackId, -1, buffer));
+		long lastId = -1;
+		for (int i = 0; i < 5; i++) {
+			lastId = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i)));
+		}
+		assertEquals(lastId, dataHelper.readTrackPoints(trackId, -1, buffer));
+		assertEquals(5, buffer.size());
+
+		long previousId = lastId;
+		for (int i = 5; i < 8; i++) {
+			lastId = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, i)));
+		}
+		assertEquals(lastId, dataHelper.readTrackPoints(trackId, previousId, buffer));
+		assertEquals(8, buffer.size());
+		assertEquals(7000L, buffer.getTimestamp(7));
+		// Nothing new
+		assertEquals(lastId, dataHelper.readTrackPoints(trackId, lastId, buffer));
+		assertEquals(8, buffer.size());
+	}
+
+	@Test
+	public void testEmptyTrack() {
+		TrackPointCursor c = new DataHelper(context).openTrackPoints(createTrack(), PROJECTION);
+		assertEquals(0, c.getCount());
+		assertFalse(c.moveToNext());
+		c.close();
+	}
+
+	@Test
+	public void testReadsInChronologicalOrder() {
+		long trackId = createTrack();
+		// The clock goes back, and points share timestamps across pages
+		long[] timestamps = {5, 3, 3, 3, 9, 1, 3, 7, 0, 3};
+		long[] ids = new long[timestamps.length];
+		for (int i = 0; i < timestamps.length; i++) {
+			ContentValues values = point(trackId, i);
+			values.put(Schema.COL_TIMESTAMP, timestamps[i]);
+			ids[i] = ContentUris.parseId(cr.insert(TrackContentProvider.trackPointsUri(trackId), values));
+		}
+		int[] expected = {8, 5, 1, 2, 3, 6, 9, 0, 7, 4};
+
+		String[] projection = {Schema.COL_ID, Schema.COL_TIMESTAMP};
+		TrackPointCursor c = new TrackPointCursor(cr, trackId, projection, -1, 2);
+		assertEquals(expected.length, c.getCount());
+		for (int i : expected) {
+			assertTrue(c.moveToNext());
+			assertEquals(ids[i], c.getLong(0));
+			assertEquals(timestamps[i], c.getLong(1));
+		}
+		assertFalse(c.moveToNext());
+		assertEquals(ids[9], c.getLastId());
+		c.close();
+
+		// Points after an id, in chronological order among them
+		c = new TrackPointCursor(cr, trackId, projection, ids[4], 2);
+		int[] expectedAfter = {8, 5, 6, 9, 7};
+		assertEquals(expectedAfter.length, c.getCount());
+		for (int i : expectedAfter) {
+			assertTrue(c.moveToNext());
+			assertEquals(ids[i], c.getLong(0));
+		}
+		assertFalse(c.moveToNext());
+		c.close();
+	}
+
+	/**
+	 * Exports a 200k point track: the pages read stay within their size,
+	 * so the memory used doesn't depend on the number of points.
+	 */
+	@Test
+	public void testExportLongTrackByBoundedPages() throws IOException {
+		final int points = 200000;
+
+		long trackId = createTrack();
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", "
+				+ Schema.COL_ELEVATION + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.000001, 6 + i * 0.000001, 300 + i % 1000, 1700000000000 + i * 1000 from seq");
+
+		CountingWriter out = new CountingWriter();
+		TrackPointCursor c = new DataHelper(context).openTrackPoints(trackId, GpxWriter.TRACKPOINT_COLUMNS);
+		GpxWriter writer = new GpxWriter(out, context.getResources(),
+				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE, false,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS_NONE);
+		writer.writeTrackPoints("Track", c);
+		writer.close();
+
+		assertEquals(points, c.getCount());
+		assertTrue("All the points have been read", c.isAfterLast());
+		assertTrue(out.count > 0);
+		assertEquals(points / TrackPointCursor.DEFAULT_PAGE_SIZE, c.getPageCount());
+		assertEquals(TrackPointCursor.DEFAULT_PAGE_SIZE, c.getMaxPageSize());
+		c.close();
+	}
+
+	private long createTrack() {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	private static ContentValues point(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45 + i * 0.0001);
+		values.put(Schema.COL_LONGITUDE, 6 + i * 0.0001);
+		values.put(Schema.COL_TIMESTAMP, 1000L * i);
+		return values;
+	}
+
+	private static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package net.osmtracker.db.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.MatrixCursor;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackBufferTest {
+
+	@Test
+	public void testGrowsWhenAddingPoints() {
+		TrackBuffer buffer = new TrackBuffer(0);
+		for (int i = 0; i < 1000; i++) {
+			buffer.add(45 + i, 6 + i, 1000L * i, i);
+		}
+		assertEquals(1000, buffer.size());
+		assertEquals(45 + 999, buffer.getLatitude(999), 0);
+		assertEquals(6 + 999, buffer.getLongitude(999), 0);
+		assertEquals(999000L, buffer.getTimestamp(999));
+		assertEquals(999f, buffer.getElevation(999), 0);
+		assertTrue(buffer.getLatitudes().length >= 1000);
+
+		buffer.trimToSize();
+		assertEquals(1000, buffer.getLatitudes().length);
+		assertEquals(1000, buffer.getElevations().length);
+
+		buffer.clear();
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testSliceAndAppend() {
+		TrackBuffer buffer = new TrackBuffer();
+		for (int i = 0; i < 10; i++) {
+			buffer.add(i, -i, i, Float.NaN);
+		}
+
+		TrackBuffer slice = buffer.slice(3, 7);
+		assertEquals(4, slice.size());
+		assertEquals(3, slice.getLatitude(0), 0);
+		assertEquals(-6, slice.getLongitude(3), 0);
+
+		slice.append(buffer, 9, 10);
+		assertEquals(5, slice.size());
+		assertEquals(9L, slice.getTimestamp(4));
+		assertTrue(Float.isNaN(slice.getElevation(4)));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRejectsIndexPastSize() {
+		TrackBuffer buffer = new TrackBuffer(10);
+		buffer.add(1, 2, 3, 4);
+		buffer.getLatitude(1);
+	}
+
+	@Test
+	public void testAppendCursor() {
+		MatrixCursor c = new MatrixCursor(TrackBuffer.COLUMNS);
+		c.addRow(new Object[] {45.5, 6.25, 1000L, 1234.5});
+		c.addRow(new Object[] {45.6, 6.35, 2000L, null});
+
+		TrackBuffer buffer = new TrackBuffer(0);
+		assertEquals(2, buffer.append(c));
+		assertEquals(45.6, buffer.getLatitude(1), 0);
+		assertEquals(6.25, buffer.getLongitude(0), 0);
+		assertEquals(2000L, buffer.getTimestamp(1));
+		assertEquals(1234.5f, buffer.getElevation(0), 0);
+		assertTrue(Float.isNaN(buffer.getElevation(1)));
+
+		// Only latitude and longitude are required
+		c = new MatrixCursor(new String[] {Schema.COL_LONGITUDE, Schema.COL_LATITUDE});
+		c.addRow(new Object[] {1.0, 2.0});
+		assertEquals(1, buffer.append(c));
+		assertEquals(2.0, buffer.getLatitude(2), 0);
+		assertEquals(0L, buffer.getTimestamp(2));
+	}
+
+	@Test
+	public void testAppendCursorByChunks() {
+		MatrixCursor c = new MatrixCursor(TrackBuffer.COLUMNS);
+		for (int i = 0; i < 5; i++) {
+			c.addRow(new Object[] {45.0 + i, 6.0, i, null});
+		}
+
+		TrackBuffer buffer = new TrackBuffer(0);
+		assertEquals(2, buffer.append(c, 2));
+		assertEquals(2, buffer.append(c, 2));
+		assertEquals(1, buffer.append(c, 2));
+		assertEquals(0, buffer.append(c, 2));
+		assertEquals(5, buffer.size());
+		assertEquals(49.0, buffer.getLatitude(4), 0);
+	}
+
+}
@@ -0,0 +1,87 @@
+package net.osmtracker.db.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrackMetricsTest {
+
+	/**
+	 * One degree of latitude, in meters
+	 */
+	private static final double DEGREE = Math.PI * TrackMetrics.EARTH_RADIUS / 180;
+
+	@Test
+	public void testDistance() {
+		assertEquals(DEGREE, TrackMetrics.distance(45, 6, 46, 6), 1e-6);
+		assertEquals(0, TrackMetrics.distance(45, 6, 45, 6), 0);
+		// Across the antimeridian
+		assertEquals(DEGREE * Math.cos(Math.toRadians(10)), TrackMetrics.distance(10, 179.5, 10, -179.5), 10);
+	}
+
+	@Test
+	public void testMovingTimeAndSpeeds() {
+		TrackMetrics metrics = new TrackMetrics();
+		long t = 0;
+		// 100 s walking north at about 1.1 m/s
+		for (int i = 0; i <= 100; i++) {
+			metrics.add(i, 45 + i * 0.00001, 6, t, Double.NaN, Double.NaN, Double.NaN);
+			t += 1000;
+		}
+		// 100 s stopped
+		for (int i = 0; i < 100; i++) {
+			metrics.add(101 + i, 45.001, 6, t, Double.NaN, Double.NaN, Double.NaN);
+			t += 1000;
+		}
+
+		assertEquals(201, metrics.getPointCount());
+		assertEquals(200, metrics.getLastTrackPointId());
+		assertEquals(0.001 * DEGREE, metrics.getDistance(), 0.01);
+		assertEquals(100000, metrics.getMovingTime());
+		assertEquals(0.00001 * DEGREE, metrics.getAverageSpeed(), 0.01);
+		assertEquals(0.00001 * DEGREE, metrics.getMaxSpeed(), 0.01);
+
+		// Speeds measured by the GPS take precedence
+		metrics.add(201, 45.001, 6, t, Double.NaN, Double.NaN, 3.5);
+		assertEquals(3.5, metrics.getMaxSpeed(), 0);
+	}
+
+	@Test
+	public void testAscentIgnoresNoise() {
+		TrackMetrics metrics = new TrackMetrics();
+		// Flat track with +/- 4m of GPS noise, then a climb of 100m
+		for (int i = 0; i < 200; i++) {
+			metrics.add(i, 45, 6 + i * 0.0001, i * 1000L, 300 + (i % 2 == 0 ? 4 : -4), Double.NaN, Double.NaN);
+		}
+		assertEquals(0, metrics.getAscent(), 0);
+		assertEquals(0, metrics.getDescent(), 0);
+
+		for (int i = 0; i <= 100; i++) {
+			metrics.add(200 + i, 45, 6.02 + i * 0.0001, (200 + i) * 1000L, 300 + i, Double.NaN, Double.NaN);
+		}
+		for (int i = 0; i < 20; i++) {
+			metrics.add(301 + i, 45, 6.03 + i * 0.0001, (301 + i) * 1000L, 400, Double.NaN, Double.NaN);
+		}
+		// Changes smaller than the threshold aren't counted, at each end of the climb
+		assertEquals(100, metrics.getAscent(), 2 * TrackMetrics.ELEVATION_THRESHOLD);
+		assertEquals(0, metrics.getDescent(), 0);
+	}
+
+	@Test
+	public void testAscentFromPressure() {
+		TrackMetrics metrics = new TrackMetrics();
+		// Barometric descent of about 50m, while the GPS elevation is noise
+		double start = 950;
+		double end = 950 + 50 / 8.3;
+		for (int i = 0; i <= 100; i++) {
+			double pressure = start + (end - start) * Math.min(i, 80) / 80;
+			metrics.add(i, 45, 6 + i * 0.0001, i * 1000L, 500 + (i % 3) * 10, pressure, Double.NaN);
+		}
+		double expected = TrackMetrics.pressureAltitude(start) - TrackMetrics.pressureAltitude(end);
+		assertTrue(expected > 45 && expected < 55);
+		assertEquals(expected, metrics.getDescent(), TrackMetrics.PRESSURE_ALTITUDE_THRESHOLD);
+		assertEquals(0, metrics.getAscent(), 0);
+	}
+
+}
@@ -2,12 +2,17 @@ package net.osmtracker.gpx;
 
 import static junit.framework.TestCase.assertEquals;
 import static net.osmtracker.db.TrackContentProvider.Schema;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -18,6 +23,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import net.osmtracker.OSMTracker.Preferences;
 import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.TrackContentProvider;
 import net.osmtracker.db.model.Track;
 import net.osmtracker.exception.ExportTrackException;
 
@@ -134,6 +140,60 @@ public class ExportToStorageTaskTest {
 		assertEquals("Category_Sub_Track", result);
 	}
 
+	// --- Parallel Export Tests ---
+
+	@Test
+	public void testExportTracksInParallel_ContinuesAfterFailure() throws Exception {
+		ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+		ContentResolver cr = context.getContentResolver();
+
+		// Same start date for all tracks, so that they compete for the same file name
+		long[] trackIds = new long[13];
+		for (int i = 0; i < trackIds.length - 1; i++) {
+			ContentValues track = new ContentValues();
+			track.put(Schema.COL_START_DATE, createDate().getTime());
+			trackIds[i] = ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, track));
+
+			ContentValues[] points = new ContentValues[50];
+			for (int j = 0; j < points.length; j++) {
+				points[j] = new ContentValues();
+				points[j].put(Schema.COL_TRACK_ID, trackIds[i]);
+				points[j].put(Schema.COL_LATITUDE, 45 + j * 0.001);
+				points[j].put(Schema.COL_LONGITUDE, 6 + j * 0.001);
+				points[j].put(Schema.COL_TIMESTAMP, createDate().getTime() + j * 1000L);
+			}
+			cr.bulkInsert(TrackContentProvider.trackPointsUri(trackIds[i]), points);
+		}
+		// Track that doesn't exist, its export fails
+		trackIds[trackIds.length - 1] = 9999;
+
+		ExportToStorageTask parallelTask = new ExportToStorageTask(context, mockDataHelper, trackIds);
+
+		assertFalse(parallelTask.doInBackground());
+		assertNotNull(parallelTask.getErrorMsg());
+		File[] files = parallelTask.getBaseExportDirectory().listFiles((dir, name) -> name.endsWith(DataHelper.EXTENSION_GPX));
+		assertEquals(trackIds.length - 1, files.length);
+		for (File file : files) {
+			assertTrue(file.getName() + " should be complete", file.length() > 0);
+		}
+	}
+
+	@Test
+	public void testExportTracksInParallel_ReportsEachFailedTrack() throws Exception {
+		ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+		// Tracks that don't exist fail with the same message
+		long[] trackIds = {9998, 9999};
+
+		ExportToStorageTask parallelTask = new ExportToStorageTask(context, mockDataHelper, trackIds);
+
+		assertFalse(parallelTask.doInBackground());
+		String[] errors = parallelTask.getErrorMsg().split("\n");
+		assertEquals(2, errors.length);
+		assertTrue(errors[0], errors[0].startsWith("#9998: "));
+		assertTrue(errors[1], errors[1].startsWith("#9999: "));
+		assertEquals(errors[0].substring("#9998: ".length()), errors[1].substring("#9999: ".length()));
+	}
+
 	// --- Internal Helpers ---
 
 	private void setupFilenamePreference(String format) {
@@ -0,0 +1,142 @@
+package net.osmtracker.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.R;
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class GpxWriterTest {
+
+	private static final String[] COLUMNS = {
+			Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_ELEVATION, Schema.COL_TIMESTAMP,
+			Schema.COL_ACCURACY, Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY, Schema.COL_SPEED,
+			Schema.COL_ATMOSPHERIC_PRESSURE, Schema.COL_NAME, Schema.COL_LINK, Schema.COL_NBSATELLITES};
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Expected output has been produced by the writer previously embedded in ExportTrackTask
+	 */
+	@Test
+	public void testOutputMatchesPreviousWriter() throws IOException {
+		StringWriter out = new StringWriter();
+		GpxWriter writer = new GpxWriter(out, context.getResources(),
+				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_WPT_CMT, true,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS_COMMENT);
+		writer.writeHeader("My track", "tag1, tag2", null);
+		writer.writeWayPoints(createWayPoints());
+		writer.writeTrackPoints("Track", createTrackPoints());
+		writer.writeFooter();
+		writer.close();
+
+		String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+				+ "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"OSMTracker for Android™ - https://github.com/labexp/osmtracker-android\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd \">\n"
+				+ "\t<metadata>\n"
+				+ "\t\t<name>My track</name>\n"
+				+ "\t\t<keywords>tag1</keywords>\n"
+				+ "\t\t<keywords>tag2</keywords>\n"
+				+ "\t</metadata>\n"
+				+ "\t<wpt lat=\"45.5\" lon=\"6.25\">\n"
+				+ "\t\t<ele>1234.5</ele>\n"
+				+ "\t\t<time>2023-11-14T22:13:20Z</time>\n"
+				+ "\t\t<name><![CDATA[Summit]]></name>\n"
+				+ "\t\t<cmt><![CDATA[Accuracy: 12.0m\n"
+				+ "\t\t\t compass heading: 180.5deg\n"
+				+ "\t\t\t compass accuracy: 3.0]]></cmt>\n"
+				+ "\t\t<link href=\"photo+1.jpg\">\n"
+				+ "\t\t\t<text>photo 1.jpg</text>\n"
+				+ "\t\t</link>\n"
+				+ "\t\t<sat>7</sat>\n"
+				+ "\t\t<hdop>3.0</hdop>\n"
+				+ "\t\t\t\t<extensions>\n"
+				+ "\t\t\t\t\t<baro>1013.3</baro>\n"
+				+ "\t\t\t\t</extensions>\n"
+				+ "\t</wpt>\n"
+				+ "\t<wpt lat=\"45.51\" lon=\"6.26\">\n"
+				+ "\t\t<time>2023-11-14T22:14:20Z</time>\n"
+				+ "\t\t<name><![CDATA[Note]]></name>\n"
+				+ "\t</wpt>\n"
+				+ "\t<trk>\n"
+				+ "\t\t<name><![CDATA[Track]]></name>\n"
+				+ "\t\t<cmt><![CDATA[" + context.getString(R.string.gpx_hdop_approximation_cmt) + "]]></cmt>\n"
+				+ "\t\t<trkseg>\n"
+				+ "\t\t\t<trkpt lat=\"45.5\" lon=\"6.25\">\n"
+				+ "\t\t\t\t<ele>1234.5</ele>\n"
+				+ "\t\t\t\t<time>2023-11-14T22:13:20Z</time>\n"
+				+ "\t\t\t\t<hdop>2.0</hdop>\n"
+				+ "\t\t\t\t<cmt><![CDATA[compass heading: 90.0deg\n"
+				+ "\t\t\t\t\tcompass accuracy: 2]]></cmt>\n"
+				+ "\t\t\t\t<extensions>\n"
+				+ "\t\t\t\t\t<speed>1.5</speed>\n"
+				+ "\t\t\t\t\t<baro>1013.3</baro>\n"
+				+ "\t\t\t\t</extensions>\n"
+				+ "\t\t\t</trkpt>\n"
+				+ "\t\t\t<trkpt lat=\"45.50001\" lon=\"6.25002\">\n"
+				+ "\t\t\t\t<time>2023-11-14T22:13:21Z</time>\n"
+				+ "\t\t\t\t<extensions>\n"
+				+ "\t\t\t\t\t<baro>1000.0</baro>\n"
+				+ "\t\t\t\t</extensions>\n"
+				+ "\t\t\t</trkpt>\n"
+				+ "\t\t\t<trkpt lat=\"-33.9\" lon=\"151.2\">\n"
+				+ "\t\t\t\t<ele>10.0</ele>\n"
+				+ "\t\t\t\t<time>1970-01-01T23:59:59Z</time>\n"
+				+ "\t\t\t\t<hdop>1.25</hdop>\n"
+				+ "\t\t\t\t<extensions>\n"
+				+ "\t\t\t\t\t<speed>0.0</speed>\n"
+				+ "\t\t\t\t</extensions>\n"
+				+ "\t\t\t</trkpt>\n"
+				+ "\t\t</trkseg>\n"
+				+ "\t</trk>\n"
+				+ "</gpx>";
+		assertEquals(expected, out.toString());
+	}
+
+	@Test
+	public void testCompassExtension() throws IOException {
+		StringWriter out = new StringWriter();
+		GpxWriter writer = new GpxWriter(out, context.getResources(),
+				OSMTracker.Preferences.VAL_OUTPUT_ACCURACY_NONE, false,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS_EXTENSION);
+		writer.writeTrackPoints("Track", createTrackPoints());
+		writer.close();
+
+		assertTrue(out.toString().contains("\t\t\t\t<extensions>\n"
+				+ "\t\t\t\t\t<speed>1.5</speed>\n"
+				+ "\t\t\t\t\t<compass>90.0</compass>\n"
+				+ "\t\t\t\t\t<compass_accuracy>2.0</compass_accuracy>\n"
+				+ "\t\t\t\t\t<baro>1013.3</baro>\n"
+				+ "\t\t\t\t</extensions>\n"));
+	}
+
+	private static MatrixCursor createWayPoints() {
+		MatrixCursor c = new MatrixCursor(COLUMNS);
+		c.addRow(new Object[] {45.5, 6.25, 1234.5, 1700000000000L, 12.0, 180.5, 3, null, 1013.25, "Summit", "photo 1.jpg", 7});
+		c.addRow(new Object[] {45.51, 6.26, null, 1700000060123L, null, null, null, null, null, "Note", null, null});
+		return c;
+	}
+
+	private static MatrixCursor createTrackPoints() {
+		MatrixCursor c = new MatrixCursor(COLUMNS);
+		c.addRow(new Object[] {45.5, 6.25, 1234.5, 1700000000000L, 8.0, 90.0, 2, 1.5, 1013.25, null, null, null});
+		c.addRow(new Object[] {45.50001, 6.25002, null, 1700000001999L, null, null, null, null, 999.96, null, null, null});
+		c.addRow(new Object[] {-33.9, 151.2, 10.0, 86399000L, 5.0, null, null, 0.0, null, null, null, null});
+		return c;
+	}
+}
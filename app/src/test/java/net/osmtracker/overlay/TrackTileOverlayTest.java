@@ -0,0 +1,139 @@
+package net.osmtracker.overlay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackTileOverlayTest {
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	@Test
+	public void testAppendChangesOnlyTouchedTiles() {
+		TrackTileOverlay overlay = new TrackTileOverlay(context, 1, new Paint(), Runnable::run);
+		overlay.append(line(6, 6.5), 100);
+
+		assertEquals(Long.valueOf(100), version(overlay, 10, 45, 6.25));
+		assertEquals(Long.valueOf(100), version(overlay, 18, 45, 6.25));
+		assertNull(version(overlay, 10, 0, 0));
+
+		// A new point at the end of the track only changes the tiles around it
+		TrackBuffer point = new TrackBuffer();
+		point.add(45, 6.50001, 0, Float.NaN);
+		overlay.append(point, 101);
+		assertEquals(Long.valueOf(101), version(overlay, 18, 45, 6.50001));
+		assertEquals(Long.valueOf(100), version(overlay, 18, 45, 6.25));
+		assertEquals(Long.valueOf(101), version(overlay, 0, 45, 6.25));
+	}
+
+	@Test
+	public void testLongSegmentTouchesAllItsTiles() {
+		TrackTileOverlay overlay = new TrackTileOverlay(context, 2, new Paint(), Runnable::run);
+		TrackBuffer points = new TrackBuffer();
+		points.add(45, 6, 0, Float.NaN);
+		points.add(46, 8, 0, Float.NaN);
+		overlay.append(points, 1);
+
+		// Every tile along the segment, not only the ones of its ends
+		for (double longitude = 6; longitude <= 8; longitude += 0.01) {
+			double latitude = 45 + (longitude - 6) / 2;
+			assertNotNull("Longitude " + longitude, version(overlay, 12, latitude, longitude));
+		}
+		assertNull(version(overlay, 12, 46, 6));
+	}
+
+	@Test
+	public void testTilesAreCachedOnDisk() {
+		CountingOverlay overlay = new CountingOverlay(3);
+		overlay.append(line(6, 6.5), 42);
+		int tiles = 1 << 10;
+		int x = (int) (TrackTileOverlay.toX(6.25) * tiles);
+		int y = (int) (TrackTileOverlay.toY(45) * tiles);
+		overlay.getTile(10, x, y, 42);
+		assertEquals(1, overlay.drawn);
+		assertTrue(new File(new File(context.getCacheDir(), TrackTileOverlay.CACHE_DIRECTORY),
+				"3_10_" + x + "_" + y + "_42.png").exists());
+
+		// Opening the same track again reads it from disk
+		CountingOverlay other = new CountingOverlay(3);
+		other.append(line(6, 6.5), 42);
+		assertNotNull(other.getTile(10, x, y, 42));
+		assertEquals(0, other.drawn);
+
+		// Other versions are drawn
+		other.getTile(10, x, y, 43);
+		assertEquals(1, other.drawn);
+	}
+
+	@Test
+	public void testDiskCacheIsTrimmed() throws IOException {
+		File directory = new File(context.getCacheDir(), TrackTileOverlay.CACHE_DIRECTORY);
+		directory.mkdirs();
+		int tiles = TrackTileOverlay.MAX_DISK_TILES + 10;
+		for (int i = 0; i < tiles; i++) {
+			File file = new File(directory, "4_0_0_0_" + i + ".png");
+			file.createNewFile();
+			file.setLastModified(1000000L + i * 1000L);
+		}
+
+		new TrackTileOverlay(context, 4, new Paint(), Runnable::run);
+		assertEquals(TrackTileOverlay.MAX_DISK_TILES, directory.listFiles().length);
+		assertTrue(new File(directory, "4_0_0_0_" + (tiles - 1) + ".png").exists());
+		assertFalse(new File(directory, "4_0_0_0_0.png").exists());
+	}
+
+	private static Long version(TrackTileOverlay overlay, int zoom, double latitude, double longitude) {
+		int tiles = 1 << zoom;
+		return overlay.getVersion(zoom, (int) (TrackTileOverlay.toX(longitude) * tiles),
+				(int) (TrackTileOverlay.toY(latitude) * tiles));
+	}
+
+	/**
+	 * @return Points going east along the 45th parallel, every 10m or so
+	 */
+	private static TrackBuffer line(double fromLongitude, double toLongitude) {
+		TrackBuffer points = new TrackBuffer();
+		for (double longitude = fromLongitude; longitude <= toLongitude; longitude += 0.0001) {
+			points.add(45, longitude, 0, Float.NaN);
+		}
+		return points;
+	}
+
+	/**
+	 * Counts the tiles drawn, rather than read from disk
+	 */
+	private class CountingOverlay extends TrackTileOverlay {
+		int drawn = 0;
+
+		CountingOverlay(long trackId) {
+			super(context, trackId, new Paint(), Runnable::run);
+		}
+
+		@Override
+		Bitmap drawTile(int zoom, int x, int y) {
+			drawn++;
+			return super.drawTile(zoom, x, y);
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.osmtracker.db.model.TrackMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class AdaptiveSamplerTest {
+
+	private static final double LATITUDE = 45.5;
+	private static final double LONGITUDE = 6.5;
+	private static final double METERS_PER_DEGREE = Math.toRadians(TrackMetrics.EARTH_RADIUS);
+
+	@Test
+	public void testFinerBandIsAdoptedAtOnce() {
+		AdaptiveSampler sampler = new AdaptiveSampler();
+		assertEquals(AdaptiveSampler.Band.SLOW, sampler.getBand());
+		assertTrue(sampler.onFix(0, LATITUDE, LONGITUDE, 12, 90));
+		// Too soon for the band
+		assertFalse(sampler.onFix(1000, LATITUDE, longitude(12), 12, 90));
+		assertTrue(sampler.onFix(5000, LATITUDE, longitude(60), 12, 90));
+		assertEquals(AdaptiveSampler.Band.FAST, sampler.getBand());
+		// Turning north
+		assertTrue(sampler.onFix(7000, LATITUDE + 10 / METERS_PER_DEGREE, longitude(80), 12, 30));
+		assertEquals(AdaptiveSampler.Band.TURNING, sampler.getBand());
+		assertEquals(2, sampler.getBandChanges());
+	}
+
+	@Test
+	public void testCoarserBandIsAdoptedWhenStable() {
+		AdaptiveSampler sampler = new AdaptiveSampler();
+		sampler.onFix(0, LATITUDE, LONGITUDE, 12, 90);
+		sampler.onFix(5000, LATITUDE, longitude(60), 12, 90);
+		assertEquals(AdaptiveSampler.Band.FAST, sampler.getBand());
+		double east = 60;
+		for (int i = 1; i < AdaptiveSampler.COARSER_FIXES; i++) {
+			east += 12;
+			assertTrue(sampler.onFix(5000 + i * 3000, LATITUDE, longitude(east), 2, 90));
+			assertEquals(AdaptiveSampler.Band.FAST, sampler.getBand());
+		}
+		sampler.onFix(5000 + AdaptiveSampler.COARSER_FIXES * 3000, LATITUDE, longitude(east + 12), 2, 90);
+		assertEquals(AdaptiveSampler.Band.SLOW, sampler.getBand());
+	}
+
+	@Test
+	public void testMotionEntersAndLeavesStationaryBand() {
+		AdaptiveSampler sampler = new AdaptiveSampler();
+		sampler.onFix(0, LATITUDE, LONGITUDE, 1.4f, 90);
+		// Standing still after a walk
+		assertTrue(sampler.onMotion(false));
+		assertEquals(AdaptiveSampler.Band.STATIONARY, sampler.getBand());
+		assertFalse(sampler.onFix(10000, LATITUDE, longitude(3), 0.1f, 90));
+		assertTrue(sampler.onMotion(true));
+		assertEquals(AdaptiveSampler.Band.SLOW, sampler.getBand());
+
+		// No stationary band while driving smoothly
+		sampler = new AdaptiveSampler();
+		sampler.onFix(0, LATITUDE, LONGITUDE, 30, 90);
+		assertFalse(sampler.onMotion(false));
+	}
+
+	/**
+	 * Replays a 1 Hz recording through the sampler: walking with turns, a stop,
+	 * then driving with turns and a stop. Compares the points kept with the 1 Hz
+	 * baseline: number of points, and distance of the baseline points to the
+	 * track drawn with the points kept.
+	 */
+	@Test
+	public void testReplayKeepsFewPointsCloseToTheBaseline() {
+		List<Fix> fixes = new Replay(new Random(42))
+				.accelerate(3, 1.4).straight(60).turn(3, 90).straight(60).turn(3, -90).straight(60)
+				.accelerate(3, 0).stop(300)
+				.accelerate(10, 13).straight(120).accelerate(5, 8).turn(5, 90).accelerate(5, 13).straight(120)
+				.accelerate(5, 8).turn(5, -90).accelerate(5, 13).straight(120).accelerate(10, 0).stop(60)
+				.fixes;
+
+		AdaptiveSampler sampler = new AdaptiveSampler();
+		boolean moving = true;
+		List<Integer> kept = new ArrayList<>();
+		int keptStopped = 0;
+		for (int i = 0; i < fixes.size(); i++) {
+			Fix fix = fixes.get(i);
+			if (fix.moving != moving) {
+				moving = fix.moving;
+				sampler.onMotion(moving);
+			}
+			if (sampler.onFix(fix.time, fix.latitude, fix.longitude, fix.speed, fix.bearing)) {
+				kept.add(i);
+				if (!fix.moving) {
+					keptStopped++;
+				}
+			}
+		}
+
+		double totalError = 0;
+		double maxError = 0;
+		int segment = 0;
+		for (int i = 0; i < fixes.size(); i++) {
+			while (segment < kept.size() - 1 && kept.get(segment + 1) <= i) {
+				segment++;
+			}
+			Fix a = fixes.get(kept.get(segment));
+			Fix b = segment < kept.size() - 1 ? fixes.get(kept.get(segment + 1)) : a;
+			double error = distanceToSegment(fixes.get(i), a, b);
+			totalError += error;
+			maxError = Math.max(maxError, error);
+		}
+		double meanError = totalError / fixes.size();
+
+		assertEquals(fixes.size(), sampler.getFixCount());
+		assertEquals(kept.size(), sampler.getKeptCount());
+		assertTrue(kept.size() < fixes.size() / 2);
+		assertTrue(keptStopped <= 2);
+		assertTrue(sampler.getBandChanges() < fixes.size() / 20);
+		assertTrue(meanError < 2.5);
+		assertTrue(maxError < 15);
+	}
+
+	private static double longitude(double east) {
+		return LONGITUDE + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+	}
+
+	/**
+	 * @return Distance of a fix to the segment between two others, in m, on a plane
+	 */
+	private static double distanceToSegment(Fix p, Fix a, Fix b) {
+		double scale = Math.cos(Math.toRadians(LATITUDE)) * METERS_PER_DEGREE;
+		double px = (p.longitude - a.longitude) * scale, py = (p.latitude - a.latitude) * METERS_PER_DEGREE;
+		double bx = (b.longitude - a.longitude) * scale, by = (b.latitude - a.latitude) * METERS_PER_DEGREE;
+		double length = bx * bx + by * by;
+		double t = length == 0 ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / length));
+		return Math.hypot(px - t * bx, py - t * by);
+	}
+
+	private static class Fix {
+		long time;
+		double latitude, longitude;
+		float speed, bearing;
+		boolean moving;
+	}
+
+	/**
+	 * Builds a 1 Hz recording, with the noise of a GPS: 1 m on the position,
+	 * 0.1 m/s on the speed and 2° on the bearing.
+	 */
+	private static class Replay {
+		final List<Fix> fixes = new ArrayList<>();
+		final Random random;
+		double north = 0, east = 0, speed = 0, heading = 90;
+
+		Replay(Random random) {
+			this.random = random;
+		}
+
+		Replay accelerate(int seconds, double toSpeed) {
+			double from = speed;
+			for (int i = 1; i <= seconds; i++) {
+				speed = from + (toSpeed - from) * i / seconds;
+				step(0, true);
+			}
+			return this;
+		}
+
+		Replay straight(int seconds) {
+			for (int i = 0; i < seconds; i++) {
+				step(0, true);
+			}
+			return this;
+		}
+
+		Replay turn(int seconds, double degrees) {
+			for (int i = 0; i < seconds; i++) {
+				step(degrees / seconds, true);
+			}
+			return this;
+		}
+
+		Replay stop(int seconds) {
+			speed = 0;
+			for (int i = 0; i < seconds; i++) {
+				step(0, false);
+			}
+			return this;
+		}
+
+		private void step(double turn, boolean moving) {
+			heading += turn;
+			north += speed * Math.cos(Math.toRadians(heading));
+			east += speed * Math.sin(Math.toRadians(heading));
+			Fix fix = new Fix();
+			fix.time = fixes.size() * 1000L;
+			fix.latitude = LATITUDE + (north + random.nextGaussian()) / METERS_PER_DEGREE;
+			fix.longitude = longitude(east + random.nextGaussian());
+			fix.speed = (float) Math.abs(speed + random.nextGaussian() * 0.1);
+			fix.bearing = (float) (((heading + random.nextGaussian() * 2) % 360 + 360) % 360);
+			fix.moving = moving;
+			fixes.add(fix);
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.RecordingConfig;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.service.gps.filter.Fix;
+import net.osmtracker.service.gps.filter.OpeningWindowFilter;
+import net.osmtracker.service.gps.filter.StationaryFilter;
+import net.osmtracker.service.gps.filter.TrackFilter;
+import net.osmtracker.service.gps.filter.TrackFilterChain;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class LocationFixTest {
+
+	private static final long TRACK_ID = 12;
+
+	/**
+	 * Time the fixes are received at, on the OS clock, far from the GPS clock
+	 */
+	private static final long RECEIVED_TIME = 1700000000000L;
+
+	/**
+	 * Records a stop then a walk through the stationary and simplification
+	 * filters, ignoring the GPS clock: the fixes held by the filters keep the
+	 * time they were received at, whenever they're released.
+	 */
+	@Test
+	public void testHeldFixesKeepTheTimeTheyWereReceivedAt() {
+		DataHelper dataHelper = new DataHelper(ApplicationProvider.getApplicationContext());
+		final TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, new Handler(Looper.getMainLooper()));
+		final RecordingConfig config = new RecordingConfig(true, OSMTracker.Preferences.VAL_OUTPUT_ACCURACY,
+				OSMTracker.Preferences.VAL_OUTPUT_GPX_HDOP_APPROXIMATION, OSMTracker.Preferences.VAL_OUTPUT_COMPASS);
+		TrackFilter.Output output = new TrackFilter.Output() {
+			@Override
+			public void onFix(Fix fix) {
+				LocationFix locationFix = (LocationFix) fix;
+				queue.add(TRACK_ID, locationFix.getLocation(), locationFix.azimuth, locationFix.compassAccuracy,
+						locationFix.pressure, config, locationFix.receivedTime);
+			}
+		};
+		TrackFilterChain chain = new TrackFilterChain(Arrays.asList(new StationaryFilter(), new OpeningWindowFilter()));
+
+		Set<Long> receivedTimes = new HashSet<Long>();
+		final int fixes = 60;
+		for (int i = 0; i < fixes; i++) {
+			// Stopped for 20 s, then walking straight on
+			boolean moving = i >= 20;
+			Location location = new Location("gps");
+			location.setLatitude(45 + (moving ? (i - 20) * 0.00002 : (i % 2) * 0.000001));
+			location.setLongitude(6);
+			location.setSpeed(moving ? 2 : 0);
+			location.setTime(1000L * i);
+			long receivedTime = RECEIVED_TIME + 1000L * i + 7;
+			receivedTimes.add(receivedTime);
+			chain.onFix(new LocationFix(location, receivedTime, -1, 0, 0), output);
+		}
+		chain.flush(output);
+		queue.flush();
+
+		Cursor c = ApplicationProvider.getApplicationContext().getContentResolver().query(
+				TrackContentProvider.trackPointsUri(TRACK_ID), new String[] {Schema.COL_TIMESTAMP}, null, null,
+				Schema.COL_ID + " asc");
+		try {
+			// Some fixes were held, then released together
+			assertTrue(c.getCount() > 2);
+			assertTrue(c.getCount() < fixes);
+			long previous = Long.MIN_VALUE;
+			while (c.moveToNext()) {
+				long timestamp = c.getLong(0);
+				assertTrue(receivedTimes.contains(timestamp));
+				assertTrue(timestamp > previous);
+				previous = timestamp;
+			}
+			assertEquals(RECEIVED_TIME + 1000L * (fixes - 1) + 7, previous);
+		} finally {
+			c.close();
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class LoggingSchedulerTest {
+
+	private static final long SECOND = 1000000000L;
+	private static final long DAY = 24 * 3600 * SECOND;
+	private static final long INTERVAL = 5 * SECOND;
+
+	@Test
+	public void testEveryFixWithoutInterval() {
+		LoggingScheduler scheduler = new LoggingScheduler(0);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(scheduler.accept(i * SECOND / 10));
+		}
+	}
+
+	@Test
+	public void testEarlyFixAtTheIntervalIsLogged() {
+		LoggingScheduler scheduler = new LoggingScheduler(5000);
+		assertTrue(scheduler.accept(100 * SECOND));
+		// A few ms early
+		assertTrue(scheduler.accept(105 * SECOND - 3000000));
+		// Too early
+		assertFalse(scheduler.accept(107 * SECOND));
+		// Late, the next slot is still at 115 s
+		assertTrue(scheduler.accept(111 * SECOND));
+		assertFalse(scheduler.accept(112 * SECOND));
+		assertTrue(scheduler.accept(115 * SECOND));
+		// Same fix again
+		assertFalse(scheduler.accept(115 * SECOND));
+	}
+
+	/**
+	 * 24 hours of fixes delivered at the logging interval, as requested, with a
+	 * jitter of ±0.5 s, 1% of the fixes lost and a 10 min outage: every fix is
+	 * logged, each in its own slot.
+	 */
+	@Test
+	public void testReplayDayAtLoggingInterval() {
+		List<Long> fixes = provider(new Random(1), INTERVAL, SECOND / 2);
+		Replay replay = new Replay(fixes);
+
+		assertEquals(0, replay.dropped);
+		assertEquals(fixes.size(), replay.logged.size());
+		// One wakeup per point logged
+		assertEquals(1.0, (double) replay.wakeups / replay.logged.size(), 0);
+		assertTrue(replay.maxOffset <= SECOND);
+		// Missing points: the fixes lost, and the outage
+		assertTrue(replay.logged.size() > 0.97 * DAY / INTERVAL);
+		assertTrue(replay.maxGap < 11 * 60 * SECOND);
+	}
+
+	/**
+	 * 24 hours of fixes delivered every second, the provider ignoring the interval
+	 * requested: the fixes logged stay on the grid of the interval, without drift.
+	 */
+	@Test
+	public void testReplayDayAtProviderRate() {
+		List<Long> fixes = provider(new Random(2), SECOND, SECOND / 10);
+		Replay replay = new Replay(fixes);
+
+		long expected = DAY / INTERVAL;
+		assertTrue(Math.abs(replay.logged.size() - expected) < 0.01 * expected);
+		// On the grid, unless the fix nearest to a slot was lost
+		assertTrue(replay.meanOffset < SECOND / 5);
+		int onGrid = 0;
+		int regular = 0;
+		for (int i = 0; i < replay.logged.size(); i++) {
+			if (Math.abs(replay.offset(replay.logged.get(i))) <= 3 * SECOND / 10) {
+				onGrid++;
+			}
+			if (i > 0 && Math.abs(replay.logged.get(i) - replay.logged.get(i - 1) - INTERVAL) <= SECOND / 2) {
+				regular++;
+			}
+		}
+		assertTrue(onGrid > 0.97 * replay.logged.size());
+		assertTrue(regular > 0.97 * replay.logged.size());
+		// No drift: the last point logged is still on the grid
+		long last = replay.logged.get(replay.logged.size() - 1);
+		assertTrue(Math.abs(replay.offset(last)) <= 3 * SECOND / 2);
+		// The other fixes woke the device up for nothing
+		assertEquals(fixes.size() - replay.logged.size(), replay.dropped);
+	}
+
+	/**
+	 * @return Times of the fixes of a provider delivering at an interval for 24 hours,
+	 * with a jitter, 1% of the fixes lost and a 10 min outage at noon, in ns
+	 */
+	private static List<Long> provider(Random random, long interval, long jitter) {
+		List<Long> out = new ArrayList<>();
+		long start = 1000 * SECOND;
+		for (long t = 0; t < DAY; t += interval) {
+			if (random.nextInt(100) == 0 || (t >= DAY / 2 && t < DAY / 2 + 600 * SECOND)) {
+				continue;
+			}
+			out.add(start + t + (long) ((random.nextDouble() * 2 - 1) * jitter));
+		}
+		return out;
+	}
+
+	/**
+	 * Replays fixes through the scheduler
+	 */
+	private static class Replay {
+		final List<Long> logged = new ArrayList<>();
+		final long wakeups;
+		final long dropped;
+		final long gridStart;
+		double meanOffset;
+		long maxOffset;
+		long maxGap;
+
+		Replay(List<Long> fixes) {
+			LoggingScheduler scheduler = new LoggingScheduler(INTERVAL / 1000000);
+			for (long fix : fixes) {
+				if (scheduler.accept(fix)) {
+					logged.add(fix);
+				}
+			}
+			wakeups = fixes.size();
+			dropped = scheduler.getDroppedCount();
+			assertEquals(logged.size(), scheduler.getAcceptedCount());
+			gridStart = logged.get(0);
+
+			long sum = 0;
+			for (int i = 0; i < logged.size(); i++) {
+				long offset = Math.abs(offset(logged.get(i)));
+				sum += offset;
+				maxOffset = Math.max(maxOffset, offset);
+				if (i > 0) {
+					maxGap = Math.max(maxGap, logged.get(i) - logged.get(i - 1));
+				}
+			}
+			meanOffset = (double) sum / logged.size();
+		}
+
+		/**
+		 * @return Offset of a time to the nearest slot of the grid
+		 */
+		long offset(long time) {
+			long offset = Math.floorMod(time - gridStart, INTERVAL);
+			return offset > INTERVAL / 2 ? offset - INTERVAL : offset;
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.preference.PreferenceManager;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.DataHelper;
+import net.osmtracker.db.RecordingConfig;
+import net.osmtracker.db.TrackContentProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackPointWriteQueueTest {
+
+	private static final int POINTS = 1000;
+
+	private DataHelper dataHelper;
+	private ContentResolver cr;
+	private Handler handler;
+
+	@Before
+	public void setUp() {
+		dataHelper = new DataHelper(ApplicationProvider.getApplicationContext());
+		cr = ApplicationProvider.getApplicationContext().getContentResolver();
+		handler = new Handler(Looper.getMainLooper());
+	}
+
+	@Test
+	public void testFlushesEveryMaxPoints() {
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, handler, 50, 60000);
+		for (int i = 0; i < POINTS; i++) {
+			queue.add(1, createLocation(i), -1, 0, 0);
+		}
+
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(POINTS / 50, queue.getFlushCount());
+		assertEquals(POINTS, countTrackPoints(1));
+	}
+
+	@Test
+	public void testFlushesAfterMaxDelay() {
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, handler, 50, 5000);
+		for (int i = 0; i < 3; i++) {
+			queue.add(2, createLocation(i), -1, 0, 0);
+		}
+		assertEquals(0, countTrackPoints(2));
+
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(5000));
+
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(3, countTrackPoints(2));
+	}
+
+	@Test
+	public void testFlushOnDemandAndOnTrackChange() {
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, handler, 50, 60000);
+		queue.add(3, createLocation(0), -1, 0, 0);
+		queue.add(3, createLocation(1), -1, 0, 0);
+		// Switching track must persist points of the previous one
+		queue.add(4, createLocation(2), -1, 0, 0);
+		assertEquals(2, countTrackPoints(3));
+		assertEquals(0, countTrackPoints(4));
+
+		queue.flush();
+		assertEquals(1, countTrackPoints(4));
+		assertEquals(2, queue.getFlushCount());
+	}
+
+	@Test
+	public void testKeepsThePreferencesOfTheTrack() {
+		RecordingConfig config = new RecordingConfig(false, null, false, null);
+		// Changed in the middle of the track
+		PreferenceManager.getDefaultSharedPreferences(ApplicationProvider.getApplicationContext()).edit()
+				.putBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, true).commit();
+		shadowOf(Looper.getMainLooper()).idle();
+
+		TrackPointWriteQueue queue = new TrackPointWriteQueue(dataHelper, handler, 50, 60000);
+		queue.add(7, createLocation(3), -1, 0, 0, config);
+		queue.flush();
+
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(7),
+				new String[] {TrackContentProvider.Schema.COL_TIMESTAMP}, null, null, null);
+		c.moveToFirst();
+		assertEquals(3000L, c.getLong(0));
+		c.close();
+	}
+
+	private int countTrackPoints(long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackPointsUri(trackId), null, null, null, null);
+		int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	private static Location createLocation(int i) {
+		Location loc = new Location("gps");
+		loc.setLatitude(45 + i * 0.0001);
+		loc.setLongitude(6 + i * 0.0001);
+		loc.setTime(1000L * i);
+		return loc;
+	}
+}
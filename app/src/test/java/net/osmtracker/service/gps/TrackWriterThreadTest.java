@@ -0,0 +1,116 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TrackWriterThreadTest {
+
+	@Test
+	public void testQueueIsBounded() throws InterruptedException {
+		TrackWriterThread writer = new TrackWriterThread(5);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(5);
+		// Stalls the writer
+		assertTrue(writer.offer(() -> {
+			started.countDown();
+			await(release);
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue(writer.offer(done::countDown));
+		}
+		assertFalse(writer.offer(done::countDown));
+		TrackWriterThread.Stats stats = writer.getStats();
+		assertEquals(5, stats.queueDepth);
+		assertEquals(5, stats.maxQueueDepth);
+		assertEquals(1, stats.rejectedCount);
+
+		// The latency of the tasks queued while stalled
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1500));
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		final CountDownLatch quit = new CountDownLatch(1);
+		writer.quit(quit::countDown);
+		assertTrue(quit.await(5, TimeUnit.SECONDS));
+		stats = writer.getStats();
+		assertEquals(0, stats.queueDepth);
+		assertEquals(7, stats.taskCount);
+		assertEquals(0, stats.overCapacityCount);
+		assertTrue(stats.maxLatency >= 1500);
+	}
+
+	@Test
+	public void testPostedTasksAreNeverDropped() throws InterruptedException {
+		TrackWriterThread writer = new TrackWriterThread(2);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(4);
+		writer.post(() -> {
+			started.countDown();
+			await(release);
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// Full with fixes
+		assertTrue(writer.offer(done::countDown));
+		assertTrue(writer.offer(done::countDown));
+		assertFalse(writer.offer(done::countDown));
+		// The actions of the user still go through
+		writer.post(done::countDown);
+		writer.post(done::countDown);
+		TrackWriterThread.Stats stats = writer.getStats();
+		assertEquals(4, stats.queueDepth);
+		assertEquals(1, stats.rejectedCount);
+		assertEquals(2, stats.overCapacityCount);
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		writer.quit(() -> { });
+	}
+
+	@Test
+	public void testLateCallbacksAreRejected() {
+		TrackWriterThread writer = new TrackWriterThread(5, 2000);
+		long produced = SystemClock.elapsedRealtimeNanos();
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1500));
+		assertTrue(writer.admit(produced));
+
+		// The writer was stalled
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1000));
+		assertFalse(writer.admit(produced));
+
+		TrackWriterThread.Stats stats = writer.getStats();
+		assertEquals(1, stats.taskCount);
+		assertEquals(1, stats.rejectedCount);
+		assertEquals(1500, stats.maxLatency);
+		writer.quit(() -> { });
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
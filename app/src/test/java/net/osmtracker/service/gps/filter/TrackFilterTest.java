@@ -0,0 +1,246 @@
+package net.osmtracker.service.gps.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.osmtracker.db.model.TrackMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays synthetic streams of fixes through the filters
+ */
+public class TrackFilterTest {
+
+	private static final double LATITUDE = 45.5;
+	private static final double LONGITUDE = 6.5;
+	private static final double METERS_PER_DEGREE = Math.toRadians(TrackMetrics.EARTH_RADIUS);
+
+	@Test
+	public void testAccuracyFilter() {
+		AccuracyFilter filter = new AccuracyFilter(30);
+		List<Fix> in = Arrays.asList(fix(0, 0, 0, 5, 1), fix(1000, 0, 1, 80, 1), fix(2000, 0, 2, Float.NaN, 1),
+				fix(3000, 0, 3, 30, 1));
+		List<Fix> out = replay(filter, in);
+		assertEquals(Arrays.asList(in.get(0), in.get(2), in.get(3)), out);
+		assertEquals(1, filter.getDroppedCount());
+	}
+
+	@Test
+	public void testKalmanFilterSmoothsJitter() {
+		Stream stationary = new Stream(new Random(1), 5).stop(600);
+		List<Fix> out = replay(new KalmanFilter(), stationary.fixes);
+		double before = meanError(stationary.fixes, stationary);
+		double after = meanError(out, stationary);
+		assertTrue(after < 0.7 * before);
+
+		// At speed, the lag doesn't make the track worse
+		Stream driving = new Stream(new Random(2), 5).move(13, 600);
+		out = replay(new KalmanFilter(), driving.fixes);
+		before = meanError(driving.fixes, driving);
+		after = meanError(out, driving);
+		assertTrue(after < 1.1 * before);
+		assertEquals(driving.fixes.size(), out.size());
+	}
+
+	@Test
+	public void testStationaryFilterCollapsesStops() {
+		Stream stream = new Stream(new Random(3), 1).move(1.4, 60).stop(120).move(1.4, 60);
+		List<Fix> out = replay(new StationaryFilter(), stream.fixes);
+		assertEquals(121, out.size());
+		// The stop, at its centroid and with the time of its last fix
+		Fix stop = out.get(60);
+		assertEquals(stream.fixes.get(179).getTime(), stop.getTime());
+		assertTrue(stream.error(stop) < 1);
+		assertSame(stream.fixes.get(180), out.get(61));
+
+		// Flushing outputs the cluster of a track stopped while stationary
+		StationaryFilter filter = new StationaryFilter();
+		out = new ArrayList<>();
+		stream = new Stream(new Random(4), 1).move(1.4, 10).stop(30);
+		for (Fix fix : stream.fixes) {
+			filter.onFix(fix, collect(out));
+		}
+		assertEquals(10, out.size());
+		filter.flush(collect(out));
+		assertEquals(11, out.size());
+	}
+
+	@Test
+	public void testOpeningWindowErrorIsBounded() {
+		Stream stream = new Stream(new Random(5), 1).move(1.4, 60).turn(1.4, 90, 10).move(1.4, 60)
+				.turn(13, -90, 5).move(13, 300).turn(13, 45, 5).move(13, 60);
+		OpeningWindowFilter filter = new OpeningWindowFilter();
+		List<Fix> out = replay(filter, stream.fixes);
+		double maxError = maxDistanceToTrack(stream.fixes, out);
+		assertTrue(maxError <= filter.getTolerance() + 0.01);
+		assertSame(stream.fixes.get(0), out.get(0));
+		assertSame(stream.fixes.get(stream.fixes.size() - 1), out.get(out.size() - 1));
+		assertTrue(out.size() < stream.fixes.size() / 3);
+
+		// A window never lasts longer than the maximum delay
+		for (int i = 1; i < out.size(); i++) {
+			assertTrue(out.get(i).getTime() - out.get(i - 1).getTime() <= filter.getMaxDelay() + 1000);
+		}
+	}
+
+	/**
+	 * Replays a noisy stream through the whole chain: a walk, a stop, and a
+	 * drive with multipath spikes.
+	 */
+	@Test
+	public void testChainKeepsFewPointsCloseToTheTrack() {
+		Stream stream = new Stream(new Random(42), 2).move(1.4, 300).turn(1.4, 90, 10).move(1.4, 120).stop(600)
+				.move(13, 300).turn(13, -90, 5).move(13, 300).stop(60);
+		// Spikes: far and inaccurate
+		List<Fix> fixes = new ArrayList<>(stream.fixes);
+		for (int i = 50; i < fixes.size(); i += 200) {
+			Fix fix = fixes.get(i);
+			fixes.set(i, fix.moveTo(fix.getLatitude() + 200 / METERS_PER_DEGREE, fix.getLongitude(), 150));
+		}
+
+		List<TrackFilter> filters = new ArrayList<>();
+		filters.add(new AccuracyFilter());
+		filters.add(new KalmanFilter());
+		filters.add(new StationaryFilter());
+		filters.add(new OpeningWindowFilter());
+		List<Fix> out = replay(new TrackFilterChain(filters), fixes);
+
+		assertTrue(out.size() < fixes.size() / 5);
+		assertTrue(maxError(out, stream) < 20);
+		assertEquals(fixes.get(fixes.size() - 1).getTime(), out.get(out.size() - 1).getTime());
+	}
+
+	private static List<Fix> replay(TrackFilter filter, List<Fix> fixes) {
+		List<Fix> out = new ArrayList<>();
+		TrackFilter.Output output = collect(out);
+		for (Fix fix : fixes) {
+			filter.onFix(fix, output);
+		}
+		filter.flush(output);
+		return out;
+	}
+
+	private static TrackFilter.Output collect(final List<Fix> out) {
+		return new TrackFilter.Output() {
+			@Override
+			public void onFix(Fix fix) {
+				out.add(fix);
+			}
+		};
+	}
+
+	private static double meanError(List<Fix> fixes, Stream stream) {
+		double sum = 0;
+		for (Fix fix : fixes) {
+			sum += stream.error(fix);
+		}
+		return sum / fixes.size();
+	}
+
+	private static double maxError(List<Fix> fixes, Stream stream) {
+		double max = 0;
+		for (Fix fix : fixes) {
+			max = Math.max(max, stream.error(fix));
+		}
+		return max;
+	}
+
+	/**
+	 * @return Maximum distance of the fixes to the track drawn with a subset of them
+	 */
+	private static double maxDistanceToTrack(List<Fix> fixes, List<Fix> track) {
+		Map<Fix, Integer> indexes = new IdentityHashMap<>();
+		for (int i = 0; i < fixes.size(); i++) {
+			indexes.put(fixes.get(i), i);
+		}
+		double max = 0;
+		for (int j = 1; j < track.size(); j++) {
+			Fix start = track.get(j - 1);
+			Fix end = track.get(j);
+			for (int i = indexes.get(start); i <= indexes.get(end); i++) {
+				max = Math.max(max, OpeningWindowFilter.distanceToSegment(fixes.get(i), start, end));
+			}
+		}
+		return max;
+	}
+
+	private static Fix fix(long time, double north, double east, float accuracy, float speed) {
+		return new Fix(time, latitude(north), longitude(east), accuracy, speed);
+	}
+
+	private static double latitude(double north) {
+		return LATITUDE + north / METERS_PER_DEGREE;
+	}
+
+	private static double longitude(double east) {
+		return LONGITUDE + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+	}
+
+	/**
+	 * Synthetic stream of fixes at 1 Hz, with a gaussian noise on the position,
+	 * keeping the true positions to measure the error of the filters.
+	 */
+	private static class Stream {
+		final List<Fix> fixes = new ArrayList<>();
+		final Map<Long, double[]> truth = new HashMap<>();
+		final Random random;
+		final float accuracy;
+		double north = 0, east = 0, heading = 90;
+
+		/**
+		 * @param accuracy Standard deviation of the noise on each axis, and accuracy of the fixes, in m
+		 */
+		Stream(Random random, float accuracy) {
+			this.random = random;
+			this.accuracy = accuracy;
+		}
+
+		Stream move(double speed, int seconds) {
+			for (int i = 0; i < seconds; i++) {
+				step(speed, 0);
+			}
+			return this;
+		}
+
+		Stream turn(double speed, double degrees, int seconds) {
+			for (int i = 0; i < seconds; i++) {
+				step(speed, degrees / seconds);
+			}
+			return this;
+		}
+
+		Stream stop(int seconds) {
+			return move(0, seconds);
+		}
+
+		private void step(double speed, double turn) {
+			heading += turn;
+			north += speed * Math.cos(Math.toRadians(heading));
+			east += speed * Math.sin(Math.toRadians(heading));
+			long time = fixes.size() * 1000L;
+			truth.put(time, new double[] {latitude(north), longitude(east)});
+			fixes.add(new Fix(time, latitude(north + random.nextGaussian() * accuracy),
+					longitude(east + random.nextGaussian() * accuracy), accuracy,
+					(float) Math.abs(speed + random.nextGaussian() * 0.1)));
+		}
+
+		/**
+		 * @return Distance of a fix to the true position at its time, in m
+		 */
+		double error(Fix fix) {
+			double[] position = truth.get(fix.getTime());
+			return TrackMetrics.distance(position[0], position[1], fix.getLatitude(), fix.getLongitude());
+		}
+	}
+
+}
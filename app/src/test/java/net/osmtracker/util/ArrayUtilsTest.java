@@ -33,4 +33,11 @@ public class ArrayUtilsTest {
 		double max = ArrayUtils.findMax(arrayDesc, 2);
 		assertTrue(max == 3);
 	}
+
+	@Test
+	public void findMinMaxRange() {
+		double[] values = {0, 5, 3, 4, -1};
+		assertTrue(ArrayUtils.findMin(values, 1, 4) == 3);
+		assertTrue(ArrayUtils.findMax(values, 2, 5) == 4);
+	}
 }
\ No newline at end of file
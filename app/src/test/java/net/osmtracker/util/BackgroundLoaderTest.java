@@ -0,0 +1,98 @@
+package net.osmtracker.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class BackgroundLoaderTest {
+
+	/**
+	 * Tasks submitted to the background thread, run on demand
+	 */
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	private final List<BackgroundLoader.Session> sessions = new ArrayList<>();
+
+	private final List<Integer> delivered = new ArrayList<>();
+
+	private final BackgroundLoader loader = new BackgroundLoader(session -> {
+		sessions.add(session);
+		final int run = sessions.size();
+		session.deliver(() -> delivered.add(run));
+	}, tasks::add);
+
+	@Test
+	public void testRequestsAreCoalesced() {
+		for (int i = 0; i < 100; i++) {
+			loader.request();
+		}
+		assertEquals(1, tasks.size());
+		runTasks();
+		assertEquals(1, sessions.size());
+
+		shadowOf(Looper.getMainLooper()).idle();
+		assertEquals(1, delivered.size());
+	}
+
+	@Test
+	public void testRequestWhileRunningRunsAgain() {
+		final BackgroundLoader[] loader = new BackgroundLoader[1];
+		loader[0] = new BackgroundLoader(session -> {
+			sessions.add(session);
+			if (sessions.size() == 1) {
+				// Data changed while loading
+				loader[0].request();
+			}
+		}, tasks::add);
+		loader[0].request();
+		runTasks();
+		assertEquals(2, sessions.size());
+	}
+
+	@Test
+	public void testCancelDropsWaitingJobAndResults() {
+		loader.request();
+		loader.cancel();
+		runTasks();
+		assertTrue(sessions.isEmpty());
+
+		// Requested again once cancelled
+		loader.request();
+		runTasks();
+		assertEquals(1, sessions.size());
+		assertFalse(sessions.get(0).isCancelled());
+
+		// Results not delivered yet are dropped
+		loader.cancel();
+		assertTrue(sessions.get(0).isCancelled());
+		shadowOf(Looper.getMainLooper()).idle();
+		assertTrue(delivered.isEmpty());
+
+		// Generations identify the runs between cancellations
+		loader.request();
+		runTasks();
+		assertTrue(sessions.get(1).getGeneration() != sessions.get(0).getGeneration());
+		shadowOf(Looper.getMainLooper()).idle();
+		assertEquals(1, delivered.size());
+	}
+
+	private void runTasks() {
+		while (!tasks.isEmpty()) {
+			tasks.remove(0).run();
+		}
+	}
+
+}
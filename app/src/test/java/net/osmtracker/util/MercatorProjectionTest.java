@@ -68,6 +68,24 @@ public class MercatorProjectionTest {
         assertEquals(expectedScale, projection.getScale(), 0.0001);
     }
 
+    @Test
+    public void testProjectAll() {
+        MercatorProjection projection = new MercatorProjection(minLat, minLon, maxLat, maxLon, 720, 1280);
+        double[] lons = {minLon, lon};
+        double[] lats = {minLat, lat};
+        float[] xy = new float[4];
+        projection.projectAll(lons, lats, 1, 2, xy);
+        assertEquals(expectedX, Math.round(xy[2 + MercatorProjection.X]));
+        assertEquals(expectedY, Math.round(xy[2 + MercatorProjection.Y]));
+
+        double[] mercatorY = new double[2];
+        MercatorProjection.toMercatorY(lats, 0, 2, mercatorY);
+        float[] cached = new float[4];
+        projection.projectAllMercator(lons, mercatorY, 0, 2, cached);
+        assertEquals(xy[2 + MercatorProjection.X], cached[2 + MercatorProjection.X], 0);
+        assertEquals(xy[2 + MercatorProjection.Y], cached[2 + MercatorProjection.Y], 0);
+    }
+
     @Test
     public void testFormatDegreesAsDMS() {
         String formattedDms = MercatorProjection.formatDegreesAsDMS(degre, isLat);
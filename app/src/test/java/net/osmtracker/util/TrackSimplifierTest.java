@@ -0,0 +1,89 @@
+package net.osmtracker.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.osmtracker.db.model.TrackBuffer;
+
+import org.junit.Test;
+
+public class TrackSimplifierTest {
+
+	/**
+	 * One pixel at zoom 0 for 256px tiles
+	 */
+	private static final double TOLERANCE = 360.0 / 256;
+
+	@Test
+	public void testStraightLineKeepsChunkEnds() {
+		int points = TrackSimplifier.CHUNK_SIZE * 2 + 1;
+		TrackBuffer line = new TrackBuffer();
+		for (int i = 0; i < points; i++) {
+			line.add(45, 6 + i * 0.0001, i, Float.NaN);
+		}
+		TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+		assertTrue(simplifier.append(line));
+
+		assertArrayEquals(new int[] {0, TrackSimplifier.CHUNK_SIZE, TrackSimplifier.CHUNK_SIZE * 2},
+				simplifier.getLevel(18));
+	}
+
+	@Test
+	public void testLevelsGrowWithZoom() {
+		TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+		simplifier.append(zigzag(0, TrackSimplifier.CHUNK_SIZE * 10));
+
+		int previous = 0;
+		for (int zoom = 0; zoom <= 22; zoom += 2) {
+			int[] level = simplifier.getLevel(zoom);
+			assertTrue(level.length >= previous);
+			assertEquals(0, level[0]);
+			assertEquals(simplifier.size() - 1, level[level.length - 1]);
+			for (int i = 1; i < level.length; i++) {
+				assertTrue(level[i] > level[i - 1]);
+			}
+			previous = level.length;
+		}
+		// At high zoom levels, every point of the zigzag is visible
+		assertEquals(simplifier.size(), simplifier.getLevel(22).length);
+	}
+
+	@Test
+	public void testIncompleteChunkIsNotSimplified() {
+		TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+		assertFalse(simplifier.append(zigzag(0, 100)));
+		assertEquals(100, simplifier.getLevel(0).length);
+	}
+
+	@Test
+	public void testIncrementalAppendMatchesWholeTrack() {
+		int points = TrackSimplifier.CHUNK_SIZE * 5 + 123;
+		TrackBuffer track = zigzag(0, points);
+		TrackSimplifier whole = new TrackSimplifier(TOLERANCE);
+		whole.append(track);
+
+		TrackSimplifier incremental = new TrackSimplifier(TOLERANCE);
+		for (int i = 0; i < points; i += 97) {
+			incremental.append(track.slice(i, Math.min(points, i + 97)));
+			// Levels are cached, and must be updated
+			incremental.getLevel(12);
+		}
+
+		assertArrayEquals(whole.getLevel(12), incremental.getLevel(12));
+		assertArrayEquals(whole.getLevel(16), incremental.getLevel(16));
+	}
+
+	/**
+	 * @return Track going east, with a 10m zigzag every point
+	 */
+	private static TrackBuffer zigzag(int from, int to) {
+		TrackBuffer out = new TrackBuffer();
+		for (int i = from; i < to; i++) {
+			out.add(45 + (i % 2) * 0.0001, 6 + i * 0.0001, i, Float.NaN);
+		}
+		return out;
+	}
+
+}
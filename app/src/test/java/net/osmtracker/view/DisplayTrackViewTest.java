@@ -0,0 +1,92 @@
+package net.osmtracker.view;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Looper;
+import android.view.View;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.osmtracker.db.DatabaseHelper;
+import net.osmtracker.db.NotificationCoalescer;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DisplayTrackViewTest {
+
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+
+	private final Context context = ApplicationProvider.getApplicationContext();
+
+	/**
+	 * Draws new points inside the projection, outside of it, then a new way point
+	 */
+	@Test
+	public void testDrawsNewPoints() {
+		long trackId = createTrack(100);
+		DisplayTrackView view = layout(new DisplayTrackView(context, trackId));
+		Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+		view.draw(canvas);
+
+		context.getContentResolver().insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, 50));
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NotificationCoalescer.DEFAULT_WINDOW_MS));
+		view.draw(canvas);
+		context.getContentResolver().insert(TrackContentProvider.trackPointsUri(trackId), point(trackId, 500));
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NotificationCoalescer.DEFAULT_WINDOW_MS));
+		view.draw(canvas);
+
+		ContentValues wayPoint = point(trackId, 10);
+		wayPoint.put(Schema.COL_NAME, "wp");
+		wayPoint.put(Schema.COL_NBSATELLITES, 4);
+		context.getContentResolver().insert(TrackContentProvider.waypointsUri(trackId), wayPoint);
+		shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NotificationCoalescer.DEFAULT_WINDOW_MS));
+		view.draw(canvas);
+	}
+
+	private DisplayTrackView layout(DisplayTrackView view) {
+		view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+				View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+		view.layout(0, 0, WIDTH, HEIGHT);
+		return view;
+	}
+
+	/**
+	 * @return Id of a new track with a number of synthetic track points
+	 */
+	private long createTrack(int points) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_START_DATE, 0L);
+		long trackId = ContentUris.parseId(context.getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+		new DatabaseHelper(context).getWritableDatabase().execSQL(
+				"with recursive seq(i) as (select 0 union all select i + 1 from seq where i < " + (points - 1) + ")"
+				+ " insert into " + Schema.TBL_TRACKPOINT + " ("
+				+ Schema.COL_TRACK_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + ", " + Schema.COL_TIMESTAMP + ")"
+				+ " select " + trackId + ", 45 + i * 0.00001 + (i % 100) * 0.00001, 6 + i * 0.00001, i * 1000 from seq");
+		return trackId;
+	}
+
+	private static ContentValues point(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45 + i * 0.00001);
+		values.put(Schema.COL_LONGITUDE, 6 + i * 0.00001);
+		values.put(Schema.COL_TIMESTAMP, 1000L * i);
+		return values;
+	}
+
+}